@@ -142,6 +142,18 @@ public interface Authorizer {
      */
     Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message);
 
+    /**
+     * <p>Returns whether the results of this authorizer depend only on the operation,
+     * the channel and the session, and not on the message, so that they can be cached
+     * by the implementation and reused for subsequent authorization requests.</p>
+     * <p>Results are cached only if the server has been configured to do so.</p>
+     *
+     * @return whether the results of this authorizer can be cached
+     */
+    default boolean isCacheable() {
+        return false;
+    }
+
     /**
      * <p>The result of an authentication request.</p>
      */
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.common.AsyncFoldLeft;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>Measures the overhead of {@link AsyncFoldLeft}, used to invoke
+ * extensions and listeners, over arrays and collections of elements
+ * whose operations complete synchronously.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncFoldLeftBenchmark {
+    @Param({"1", "4", "16"})
+    private int elements;
+
+    private Integer[] array;
+    private List<Integer> list;
+
+    @Setup
+    public void setup() {
+        array = new Integer[elements];
+        list = new ArrayList<>();
+        for (int i = 0; i < elements; ++i) {
+            array[i] = i;
+            list.add(i);
+        }
+    }
+
+    @Benchmark
+    public void array(Blackhole blackhole) {
+        AsyncFoldLeft.run(array, 0, (result, element, loop) -> loop.proceed(result + element), Promise.from(blackhole::consume, blackhole::consume));
+    }
+
+    @Benchmark
+    public void collection(Blackhole blackhole) {
+        AsyncFoldLeft.run(list, 0, (result, element, loop) -> loop.proceed(result + element), Promise.from(blackhole::consume, blackhole::consume));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.server.ext.BatchArrayQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures {@link BatchArrayQueue} with the access pattern of the
+ * acknowledgment extension: messages are offered, exported when the
+ * session queue is flushed, and cleared when the batch is acknowledged.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchArrayQueueBenchmark {
+    @Param({"1", "16", "256"})
+    private int messages;
+
+    private final Object lock = new Object();
+    private final Queue<String> target = new ArrayDeque<>();
+    private BatchArrayQueue<String> queue;
+
+    @Setup
+    public void setup() {
+        queue = new BatchArrayQueue<>(32, lock);
+    }
+
+    @Benchmark
+    public int offerExportClear() {
+        for (int i = 0; i < messages; ++i) {
+            queue.offer("message");
+        }
+        long batch = queue.getBatch();
+        queue.exportMessagesToBatch(target, batch);
+        queue.nextBatch();
+        queue.clearToBatch(batch);
+        int size = target.size();
+        target.clear();
+        return size;
+    }
+}
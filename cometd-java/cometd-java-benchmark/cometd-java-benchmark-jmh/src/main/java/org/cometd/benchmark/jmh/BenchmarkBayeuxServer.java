@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>A {@link BayeuxServerImpl} that creates remote sessions without
+ * a transport, using the methods available to subclasses.</p>
+ */
+public class BenchmarkBayeuxServer extends BayeuxServerImpl {
+    public ServerSessionImpl newConnectedSession() {
+        ServerSessionImpl session = new ConnectedSession(this);
+        addServerSession(session, newMessage());
+        return session;
+    }
+
+    private static class ConnectedSession extends ServerSessionImpl {
+        private ConnectedSession(BayeuxServerImpl bayeux) {
+            super(bayeux);
+            handshake(null);
+            connected();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.JSONContextServer;
+import org.cometd.server.JacksonJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.cometd.server.ServerMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares the Jetty and Jackson implementations of
+ * {@link JSONContextServer} when parsing and generating
+ * a batch of messages similar to those of the load tests.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONContextBenchmark {
+    @Param({"jetty", "jackson"})
+    private String type;
+    @Param({"1", "10"})
+    private int messages;
+
+    private JSONContextServer jsonContext;
+    private List<ServerMessage.Mutable> batch;
+    private String json;
+
+    @Setup
+    public void setup() {
+        jsonContext = "jackson".equals(type) ? new JacksonJSONContextServer() : new JettyJSONContextServer();
+        batch = new ArrayList<>();
+        for (int i = 0; i < messages; ++i) {
+            ServerMessageImpl message = new ServerMessageImpl();
+            message.setId(String.valueOf(i));
+            message.setChannel("/chat/room/" + i);
+            message.setClientId("1a2b3c4d5e6f7g8h9i0j");
+            Map<String, Object> data = new HashMap<>();
+            data.put("user", "user" + i);
+            data.put("timestamp", System.nanoTime());
+            data.put("text", "The quick brown fox jumps over the lazy dog");
+            message.setData(data);
+            batch.add(message);
+        }
+        json = jsonContext.generate(batch);
+    }
+
+    @Benchmark
+    public ServerMessage.Mutable[] parse() throws ParseException {
+        return jsonContext.parse(json);
+    }
+
+    @Benchmark
+    public String generate() {
+        return jsonContext.generate(batch);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the fan-out of a message published to a channel
+ * to a variable number of subscribers.</p>
+ * <p>The subscriber queues are drained after every iteration, since
+ * a per-invocation fixture would dominate the measured time; the cost
+ * of appending to a session queue does not depend on its size.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    private int subscribers;
+
+    private final List<ServerSessionImpl> sessions = new ArrayList<>();
+    private BenchmarkBayeuxServer bayeux;
+    private ServerChannel channel;
+
+    @Setup
+    public void setup() throws Exception {
+        bayeux = new BenchmarkBayeuxServer();
+        bayeux.start();
+        channel = bayeux.createChannelIfAbsent("/benchmark").getReference();
+        for (int i = 0; i < subscribers; ++i) {
+            ServerSessionImpl session = bayeux.newConnectedSession();
+            channel.subscribe(session);
+            sessions.add(session);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        bayeux.stop();
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        for (ServerSessionImpl session : sessions) {
+            session.takeQueue(Collections.emptyList());
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        channel.publish(null, "data", Promise.noop());
+    }
+}
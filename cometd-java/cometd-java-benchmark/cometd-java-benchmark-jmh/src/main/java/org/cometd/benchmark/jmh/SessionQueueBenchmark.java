@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the delivery of messages to a session queue,
+ * and the draining of the session queue.</p>
+ * <p>The {@code single} benchmark delivers a batch of messages and drains
+ * the queue from the same thread; the {@code contended} group delivers
+ * messages from multiple producer threads while one consumer thread
+ * drains the queue, as it happens when a session is subscribed to
+ * channels that are published concurrently.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionQueueBenchmark {
+    @Param({"1", "16"})
+    private int batch;
+
+    private BenchmarkBayeuxServer bayeux;
+    private ServerSessionImpl session;
+    private ServerMessage.Mutable message;
+
+    @Setup
+    public void setup() throws Exception {
+        bayeux = new BenchmarkBayeuxServer();
+        bayeux.start();
+        session = bayeux.newConnectedSession();
+        message = bayeux.newMessage();
+        message.setChannel("/benchmark");
+        message.setData("data");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public List<ServerMessage> single() {
+        for (int i = 0; i < batch; ++i) {
+            session.deliver(null, message, Promise.noop());
+        }
+        return session.takeQueue(Collections.emptyList());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void enqueue() {
+        session.deliver(null, message, Promise.noop());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public List<ServerMessage> takeQueue() {
+        return session.takeQueue(Collections.emptyList());
+    }
+}
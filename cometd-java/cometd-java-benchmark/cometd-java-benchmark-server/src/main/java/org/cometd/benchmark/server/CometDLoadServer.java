@@ -81,7 +81,7 @@ import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainer
 
 public class CometDLoadServer {
     private final MonitoringQueuedThreadPool jettyThreadPool = new MonitoringQueuedThreadPool(0);
-    private final MonitoringQueuedThreadPool cometdThreadPool = new MonitoringQueuedThreadPool(0);
+    private MonitoringQueuedThreadPool cometdThreadPool;
     private final BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
     private final Server server = new Server(jettyThreadPool);
     private final MessageLatencyExtension messageLatencyExtension = new MessageLatencyExtension();
@@ -90,6 +90,7 @@ public class CometDLoadServer {
     private boolean tls = false;
     private int selectors = Runtime.getRuntime().availableProcessors();
     private int maxThreads = 256;
+    private String executorType = "platform";
     private String transports = "jsrws,asynchttp";
     private boolean statistics = true;
     private boolean latencies = true;
@@ -115,6 +116,8 @@ public class CometDLoadServer {
                 server.selectors = Integer.parseInt(arg.substring("--selectors=".length()));
             } else if (arg.startsWith("--maxThreads=")) {
                 server.maxThreads = Integer.parseInt(arg.substring("--maxThreads=".length()));
+            } else if (arg.startsWith("--executorType=")) {
+                server.executorType = arg.substring("--executorType=".length());
             } else if (arg.startsWith("--transports=")) {
                 server.transports = arg.substring("--transports=".length());
             } else if (arg.equals("--statistics")) {
@@ -171,9 +174,21 @@ public class CometDLoadServer {
             maxThreads = Integer.parseInt(value);
         }
         jettyThreadPool.setMaxThreads(maxThreads);
-        cometdThreadPool.setMaxThreads(maxThreads);
-        // The BayeuxServer executor uses PEC mode only.
-        cometdThreadPool.setReservedThreads(0);
+
+        String executorType = this.executorType;
+        if (interactive) {
+            System.err.printf("cometd executor type (platform,virtual) [%s]: ", executorType);
+            String value = console.readLine().trim();
+            if (value.length() == 0) {
+                value = executorType;
+            }
+            executorType = value;
+        }
+        if (!"virtual".equals(executorType)) {
+            cometdThreadPool = new MonitoringQueuedThreadPool(maxThreads);
+            // The BayeuxServer executor uses PEC mode only.
+            cometdThreadPool.setReservedThreads(0);
+        }
 
         String availableTransports = "jsrws,jettyws,http,asynchttp";
         String transports = this.transports;
@@ -341,7 +356,11 @@ public class CometDLoadServer {
         bayeuxServer.addExtension(new AcknowledgedMessagesExtension());
         bayeuxServer.addExtension(messageLatencyExtension);
 
-        bayeuxServer.setExecutor(cometdThreadPool);
+        if (cometdThreadPool == null) {
+            bayeuxServer.setOption(BayeuxServerImpl.EXECUTOR_TYPE_OPTION, executorType);
+        } else {
+            bayeuxServer.setExecutor(cometdThreadPool);
+        }
 
         server.start();
 
@@ -369,7 +388,9 @@ public class CometDLoadServer {
                     System.err.println(start);
 
                     server.jettyThreadPool.reset();
-                    server.cometdThreadPool.reset();
+                    if (server.cometdThreadPool != null) {
+                        server.cometdThreadPool.reset();
+                    }
 
                     if (server.statisticsHandler != null) {
                         server.statisticsHandler.statsReset();
@@ -414,7 +435,9 @@ public class CometDLoadServer {
 
                     System.err.println("========================================");
                     Config.printThreadPool("Jetty Thread Pool", server.jettyThreadPool);
-                    Config.printThreadPool("CometD Thread Pool", server.cometdThreadPool);
+                    if (server.cometdThreadPool != null) {
+                        Config.printThreadPool("CometD Thread Pool", server.cometdThreadPool);
+                    }
 
                     System.err.println();
                 }
@@ -21,12 +21,16 @@ import java.util.Map;
 import org.cometd.bayeux.BinaryData;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
 import org.cometd.common.Z85;
 
 /**
  * <p>A client extension that encodes {@code byte[]} or {@link ByteBuffer} into a {@link BinaryData}
  * object using the {@link Z85} format for outgoing messages, and decodes {@link BinaryData}
  * objects back into {@code byte[]} or {@link ByteBuffer} for incoming messages.</p>
+ * <p>Binary data is not encoded when the transport in use
+ * {@link ClientTransport#isNativeBinary() carries it natively}.</p>
  */
 public class BinaryExtension implements ClientSession.Extension {
     private final boolean decodeToByteBuffer;
@@ -60,7 +64,7 @@ public class BinaryExtension implements ClientSession.Extension {
     @Override
     public boolean send(ClientSession session, Message.Mutable message) {
         Object data = message.getData();
-        if (data instanceof BinaryData) {
+        if (data instanceof BinaryData && !isNativeBinary(session)) {
             BinaryData binaryData = (BinaryData)data;
             Object binary = binaryData.get(BinaryData.DATA);
             String encoded;
@@ -79,4 +83,12 @@ public class BinaryExtension implements ClientSession.Extension {
         }
         return true;
     }
+
+    private boolean isNativeBinary(ClientSession session) {
+        if (session instanceof BayeuxClient) {
+            ClientTransport transport = ((BayeuxClient)session).getTransport();
+            return transport != null && transport.isNativeBinary();
+        }
+        return false;
+    }
 }
@@ -25,6 +25,8 @@ import java.util.stream.Collectors;
 import org.cometd.bayeux.Message;
 import org.cometd.client.BayeuxClient;
 import org.cometd.common.AbstractTransport;
+import org.cometd.common.HashMapMessage;
+import org.cometd.common.JSONArrays;
 import org.cometd.common.JSONContext;
 import org.cometd.common.JettyJSONContextClient;
 
@@ -38,6 +40,7 @@ public abstract class ClientTransport extends AbstractTransport {
     public static final String SCHEDULER_OPTION = "scheduler";
     public static final String MAX_SEND_BAYEUX_MESSAGE_SIZE_OPTION = "maxSendBayeuxMessageSize";
     public static final String MAX_MESSAGE_SIZE_OPTION = "maxMessageSize";
+    public static final String RAW_JSON_OPTION = "rawJSON";
 
     private String url;
     private ScheduledExecutorService scheduler;
@@ -45,6 +48,7 @@ public abstract class ClientTransport extends AbstractTransport {
     private long maxNetworkDelay;
     private JSONContext.Client jsonContext;
     private int maxSendBayeuxMessageSize;
+    private boolean rawJSON;
 
     @Deprecated
     protected ClientTransport(String name, String url, Map<String, Object> options) {
@@ -98,6 +102,7 @@ public abstract class ClientTransport extends AbstractTransport {
         setOption(JSON_CONTEXT_OPTION, jsonContext);
 
         maxSendBayeuxMessageSize = getOption(MAX_SEND_BAYEUX_MESSAGE_SIZE_OPTION, 1024 * 1024);
+        rawJSON = getOption(RAW_JSON_OPTION, false);
     }
 
     protected JSONContext.Client getJSONContextClient() {
@@ -148,10 +153,39 @@ public abstract class ClientTransport extends AbstractTransport {
 
     public abstract boolean accept(String version);
 
+    /**
+     * <p>Returns whether this transport carries binary data natively,
+     * so that it does not need to be encoded in text.</p>
+     * <p>This implementation returns {@code false}.</p>
+     *
+     * @return whether this transport carries binary data natively
+     * @see org.cometd.client.ext.BinaryExtension
+     */
+    public boolean isNativeBinary() {
+        return false;
+    }
+
     public abstract void send(TransportListener listener, List<Message.Mutable> messages);
 
     protected List<Message.Mutable> parseMessages(String content) throws ParseException {
-        return new ArrayList<>(Arrays.asList(jsonContext.parse(content)));
+        List<Message.Mutable> messages = new ArrayList<>(Arrays.asList(jsonContext.parse(content)));
+        if (rawJSON) {
+            retainRawJSON(content, messages);
+        }
+        return messages;
+    }
+
+    private void retainRawJSON(String content, List<Message.Mutable> messages) {
+        List<String> jsons = JSONArrays.split(content);
+        if (jsons == null || jsons.size() != messages.size()) {
+            return;
+        }
+        for (int i = 0; i < jsons.size(); ++i) {
+            Message.Mutable message = messages.get(i);
+            if (message instanceof HashMapMessage) {
+                ((HashMapMessage)message).setRawJSON(jsons.get(i));
+            }
+        }
     }
 
     protected String generateJSON(List<Message.Mutable> messages) {
@@ -15,6 +15,7 @@
  */
 package org.cometd.client.http;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
@@ -95,6 +96,47 @@ public class JSONContextTest extends ClientServerTest {
         Assertions.assertTrue(serverMessage instanceof ServerMessageImpl);
     }
 
+    @ParameterizedTest(name = "{index}: JSON Context Server: {0} JSON Context Client: {1}")
+    @MethodSource("jsonContexts")
+    public void testAsyncParserMultipleMessages(Class<JSONContextServer> jsonContextServerClass, Class<JSONContext.Client> jsonContextClientClass) throws Exception {
+        JSONContextServer jsonContextServer = jsonContextServerClass.getConstructor().newInstance();
+        JSONContext.AsyncParser serverParser = jsonContextServer.newAsyncParser();
+        Assumptions.assumeTrue(serverParser != null);
+
+        String json = "[" +
+                "{\"channel\": \"/foo\", \"id\": \"1\", \"data\": {\"list\": [1, {\"a\": [2]}], \"text\": \"]}\"}}," +
+                "{\"channel\": \"/bar\", \"id\": \"2\", \"data\": [\"x\", \"y\"]}" +
+                "]";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < bytes.length; ++i) {
+            serverParser.parse(ByteBuffer.wrap(bytes, i, 1));
+        }
+        List<ServerMessage.Mutable> serverMessages = serverParser.complete();
+
+        Assertions.assertEquals(2, serverMessages.size());
+        ServerMessage.Mutable message1 = serverMessages.get(0);
+        Assertions.assertTrue(message1 instanceof ServerMessageImpl);
+        Assertions.assertEquals("/foo", message1.getChannel());
+        Assertions.assertEquals("]}", message1.getDataAsMap().get("text"));
+        ServerMessage.Mutable message2 = serverMessages.get(1);
+        Assertions.assertTrue(message2 instanceof ServerMessageImpl);
+        Assertions.assertEquals("/bar", message2.getChannel());
+        Assertions.assertEquals("2", message2.getId());
+    }
+
+    @ParameterizedTest(name = "{index}: JSON Context Server: {0} JSON Context Client: {1}")
+    @MethodSource("jsonContexts")
+    public void testAsyncParserIncompleteJSON(Class<JSONContextServer> jsonContextServerClass, Class<JSONContext.Client> jsonContextClientClass) throws Exception {
+        JSONContextServer jsonContextServer = jsonContextServerClass.getConstructor().newInstance();
+        JSONContext.AsyncParser serverParser = jsonContextServer.newAsyncParser();
+        Assumptions.assumeTrue(serverParser != null);
+
+        serverParser.parse(StandardCharsets.UTF_8.encode("[{\"channel\": \"/foo\"}, {\"channel\""));
+
+        Assertions.assertThrows(IllegalArgumentException.class, serverParser::complete);
+    }
+
     @Test
     public void testHandshakeMessageNoArray() throws Exception {
         Map<String, String> serverOptions = new HashMap<>();
@@ -17,6 +17,8 @@ package org.cometd.client.websocket.common;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,6 +38,8 @@ import org.cometd.bayeux.Promise;
 import org.cometd.client.transport.HttpClientTransport;
 import org.cometd.client.transport.MessageClientTransport;
 import org.cometd.client.transport.TransportListener;
+import org.cometd.common.BinaryFrames;
+import org.cometd.common.HashMapMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +50,7 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     public static final String CONNECT_TIMEOUT_OPTION = "connectTimeout";
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String STICKY_RECONNECT_OPTION = "stickyReconnect";
+    public static final String NATIVE_BINARY_OPTION = "nativeBinary";
     public static final int MAX_CLOSE_REASON_LENGTH = 30;
     public static final int NORMAL_CLOSE_CODE = 1000;
     protected static final String COOKIE_HEADER = "Cookie";
@@ -57,6 +62,8 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     private long _connectTimeout;
     private long _idleTimeout;
     private boolean _stickyReconnect;
+    private boolean _nativeBinary;
+    private volatile boolean _nativeBinaryNegotiated;
     private Delegate _delegate;
     private TransportListener _listener;
 
@@ -84,6 +91,7 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         _connectTimeout = 30000L;
         _idleTimeout = 60000L;
         _stickyReconnect = getOption(STICKY_RECONNECT_OPTION, true);
+        _nativeBinary = getOption(NATIVE_BINARY_OPTION, false);
         locked(() -> {
             _open = true;
             initScheduler();
@@ -119,6 +127,16 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         return _stickyReconnect;
     }
 
+    /**
+     * @return whether binary data is sent natively in binary frames,
+     * as negotiated with the server during the handshake
+     * @see BinaryFrames
+     */
+    @Override
+    public boolean isNativeBinary() {
+        return _nativeBinaryNegotiated;
+    }
+
     @Override
     public void abort(Throwable failure) {
         Delegate delegate = locked(() -> {
@@ -174,8 +192,40 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         }
 
         try {
+            for (Mutable message : messages) {
+                if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+                    // A new handshake renegotiates native binary frames.
+                    _nativeBinaryNegotiated = false;
+                    // Delegates that do not support native binary frames
+                    // do not negotiate them, and send binary data as text.
+                    if (_nativeBinary && delegate.isNativeBinarySupported()) {
+                        BinaryFrames.negotiate(message);
+                    }
+                }
+            }
+
             delegate.registerMessages(listener, messages);
 
+            if (isNativeBinary() && BinaryFrames.hasBinaryData(messages, 0, messages.size())) {
+                List<ByteBuffer> payloads = new ArrayList<>();
+                List<Mutable> headers = new ArrayList<>(messages.size());
+                for (Mutable message : messages) {
+                    if (BinaryFrames.hasBinaryData(message)) {
+                        Mutable header = new HashMapMessage();
+                        payloads.add(BinaryFrames.detach(message, header));
+                        message = header;
+                    }
+                    headers.add(message);
+                }
+                String header = generateJSON(headers);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Sending messages {} with {} binary chunks", header, payloads.size());
+                }
+                listener.onSending(messages);
+                delegate.send(BinaryFrames.encode(header.getBytes(StandardCharsets.UTF_8), payloads));
+                return;
+            }
+
             String content = generateJSON(messages);
 
             // The onSending() callback must be invoked before the actual send
@@ -212,25 +262,56 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
 
         protected void onData(String data) {
             try {
-                List<Mutable> messages = parseMessages(data);
-                if (isAttached()) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Received messages {}", data);
-                    }
-                    onMessages(messages);
-                } else {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Discarded messages {}", data);
-                    }
-                }
+                onData(data, parseMessages(data));
             } catch (ParseException x) {
                 fail(x, "Exception");
             }
         }
 
+        /**
+         * <p>Processes the content of a binary frame, that carries either
+         * the UTF-8 JSON bytes of the messages, or the messages and their
+         * binary data chunks in the {@link BinaryFrames native binary format}.</p>
+         *
+         * @param data the content of the binary frame
+         */
+        protected void onData(ByteBuffer data) {
+            if (!BinaryFrames.isBinaryFrame(data)) {
+                onData(StandardCharsets.UTF_8.decode(data).toString());
+                return;
+            }
+            try {
+                String header = BinaryFrames.header(data);
+                List<Mutable> messages = parseMessages(header);
+                for (Mutable message : messages) {
+                    BinaryFrames.attach(message, data, true);
+                }
+                onData(header, messages);
+            } catch (ParseException | IllegalArgumentException x) {
+                fail(x, "Exception");
+            }
+        }
+
+        private void onData(String data, List<Mutable> messages) {
+            if (isAttached()) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Received messages {}", data);
+                }
+                onMessages(messages);
+            } else {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Discarded messages {}", data);
+                }
+            }
+        }
+
         protected void onMessages(List<Mutable> messages) {
             for (Mutable message : messages) {
                 if (isReply(message)) {
+                    if (Channel.META_HANDSHAKE.equals(message.getChannel()) && message.isSuccessful()) {
+                        _nativeBinaryNegotiated = _nativeBinary && BinaryFrames.isNegotiated(message);
+                    }
+
                     // Remembering the advice must be done before we notify listeners
                     // otherwise we risk that listeners send a connect message that does
                     // not take into account the timeout to calculate the maxNetworkDelay
@@ -387,6 +468,31 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
 
         protected abstract void send(String content);
 
+        /**
+         * <p>Returns whether this delegate can send and receive
+         * {@link #NATIVE_BINARY_OPTION native binary frames}.</p>
+         * <p>This implementation returns false, so that native binary frames
+         * are not negotiated, and binary data is sent as text.
+         * Subclasses that override {@link #send(ByteBuffer)} must
+         * also override this method to return true.</p>
+         *
+         * @return whether this delegate supports native binary frames
+         */
+        protected boolean isNativeBinarySupported() {
+            return false;
+        }
+
+        /**
+         * <p>Sends the given native binary frame.</p>
+         * <p>This method is invoked only if {@link #isNativeBinarySupported()}
+         * returns true; this implementation fails the connection.</p>
+         *
+         * @param content the native binary frame to send
+         */
+        protected void send(ByteBuffer content) {
+            fail(new IOException("Native binary frames not supported"), "Unsupported");
+        }
+
         protected void fail(Throwable failure, String reason) {
             disconnect(reason);
             failMessages(failure);
@@ -22,6 +22,7 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -29,9 +30,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
 import javax.websocket.ContainerProvider;
@@ -160,6 +163,12 @@ public class WebSocketTransport extends AbstractWebSocketTransport {
         private void onOpen(Session session) {
             locked(() -> _session = session);
             session.addMessageHandler(this);
+            session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+                @Override
+                public void onMessage(ByteBuffer data) {
+                    onData(data);
+                }
+            });
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Opened websocket session {}", session);
             }
@@ -172,6 +181,20 @@ public class WebSocketTransport extends AbstractWebSocketTransport {
 
         @Override
         public void send(String content) {
+            send(session -> session.getAsyncRemote().sendText(content));
+        }
+
+        @Override
+        protected boolean isNativeBinarySupported() {
+            return true;
+        }
+
+        @Override
+        protected void send(ByteBuffer content) {
+            send(session -> session.getAsyncRemote().sendBinary(content));
+        }
+
+        private void send(Function<Session, Future<Void>> sender) {
             Session session = locked(() -> _session);
             try {
                 if (session == null) {
@@ -183,7 +206,7 @@ public class WebSocketTransport extends AbstractWebSocketTransport {
                 // The send() should be failed by the implementation, but
                 // will use Future.get(timeout) to avoid implementation bugs.
                 long timeout = getIdleTimeout() + 1000;
-                session.getAsyncRemote().sendText(content).get(timeout, TimeUnit.MILLISECONDS);
+                sender.apply(session).get(timeout, TimeUnit.MILLISECONDS);
             } catch (TimeoutException x) {
                 fail(x, "Timeout");
             } catch (ExecutionException x) {
@@ -21,14 +21,17 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.cometd.bayeux.Message.Mutable;
 import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.TransportListener;
@@ -175,6 +178,7 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
 
         @Override
         public void onWebSocketBinary(byte[] payload, int offset, int len) {
+            onData(ByteBuffer.wrap(payload, offset, len));
         }
 
         @Override
@@ -184,6 +188,20 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
 
         @Override
         public void send(String content) {
+            send(session -> session.getRemote().sendStringByFuture(content));
+        }
+
+        @Override
+        protected boolean isNativeBinarySupported() {
+            return true;
+        }
+
+        @Override
+        protected void send(ByteBuffer content) {
+            send(session -> session.getRemote().sendBytesByFuture(content));
+        }
+
+        private void send(Function<Session, Future<Void>> sender) {
             Session session = locked(() -> _session);
             try {
                 if (session == null) {
@@ -194,7 +212,7 @@ public class JettyWebSocketTransport extends AbstractWebSocketTransport implemen
                 // The send() should be failed by the implementation, but
                 // will use Future.get(timeout) to avoid implementation bugs.
                 long timeout = getIdleTimeout() + 1000;
-                session.getRemote().sendStringByFuture(content).get(timeout, TimeUnit.MILLISECONDS);
+                sender.apply(session).get(timeout, TimeUnit.MILLISECONDS);
             } catch (TimeoutException x) {
                 fail(x, "Timeout");
             } catch (ExecutionException x) {
@@ -22,6 +22,7 @@ import java.net.ProtocolException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -30,12 +31,14 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 import okhttp3.Headers;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
+import okio.ByteString;
 import org.cometd.bayeux.Message;
 import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.TransportListener;
@@ -163,12 +166,26 @@ public class OkHttpWebSocketTransport extends AbstractWebSocketTransport {
 
         @Override
         protected void send(String payload) {
+            send(payload, webSocket -> webSocket.send(payload));
+        }
+
+        @Override
+        protected boolean isNativeBinarySupported() {
+            return true;
+        }
+
+        @Override
+        protected void send(ByteBuffer payload) {
+            send(payload, webSocket -> webSocket.send(ByteString.of(payload)));
+        }
+
+        private void send(Object payload, Predicate<WebSocket> sender) {
             WebSocket webSocket = locked(() -> this.webSocket);
             try {
                 if (webSocket == null) {
                     throw new IOException("Unconnected!");
                 }
-                boolean enqueued = webSocket.send(payload);
+                boolean enqueued = sender.test(webSocket);
                 if (!enqueued) {
                     throw new IOException("Not enqueued! Current queue size: " + webSocket.queueSize());
                 }
@@ -221,6 +238,11 @@ public class OkHttpWebSocketTransport extends AbstractWebSocketTransport {
                 OkHttpDelegate.this.onData(text);
             }
 
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                OkHttpDelegate.this.onData(bytes.asByteBuffer());
+            }
+
             @Override
             public void onClosing(WebSocket webSocket, int code, String reason) {
                 OkHttpDelegate.this.onClose(code, reason);
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>Utility methods to carry {@link BinaryData} chunks natively in WebSocket
+ * binary frames, rather than encoding them in text with {@link Z85}.</p>
+ * <p>A native binary frame has the following layout:</p>
+ * <pre>
+ * +------+----------------+--------------------+-----------+-----------+-----+
+ * | 0x00 | header length  | header JSON        | payload 1 | payload 2 | ... |
+ * |      | (4 bytes, BE)  | (UTF-8, N bytes)   |           |           |     |
+ * +------+----------------+--------------------+-----------+-----------+-----+
+ * </pre>
+ * <p>The header is the JSON array of the Bayeux messages in the frame.
+ * The messages that carry a binary chunk have the {@link BinaryData#DATA}
+ * field removed from their data, and an {@link #EXT_FIELD} ext field with
+ * the length of their chunk.
+ * The chunks follow the header, in the same order as the messages.</p>
+ * <p>The leading {@code 0x00} byte distinguishes native binary frames from
+ * binary frames that carry UTF-8 JSON, which never start with that byte.</p>
+ * <p>Native binary frames are only sent to peers that negotiated them
+ * with the {@link #EXT_FIELD} ext field of the {@code /meta/handshake}
+ * messages; peers that did not negotiate them receive binary chunks
+ * encoded by the {@code BinaryExtension}s.</p>
+ */
+public class BinaryFrames {
+    /**
+     * <p>The ext field used to negotiate native binary frames in
+     * {@code /meta/handshake} messages, and to correlate the messages
+     * in the header with their binary chunks.</p>
+     */
+    public static final String EXT_FIELD = "nativeBinary";
+    private static final byte MARKER = 0x00;
+
+    private BinaryFrames() {
+    }
+
+    /**
+     * @param message the {@code /meta/handshake} message
+     * @return whether the given message negotiates native binary frames
+     */
+    public static boolean isNegotiated(Message message) {
+        Map<String, Object> ext = message.getExt();
+        return ext != null && Boolean.TRUE.equals(ext.get(EXT_FIELD));
+    }
+
+    /**
+     * @param message the {@code /meta/handshake} message to mark
+     */
+    public static void negotiate(Message.Mutable message) {
+        message.getExt(true).put(EXT_FIELD, true);
+    }
+
+    /**
+     * @param message the message to test
+     * @return whether the given message carries a {@link BinaryData} chunk
+     */
+    public static boolean hasBinaryData(Message message) {
+        // Read the field directly, as frozen messages may wrap their data.
+        return message.get(Message.DATA_FIELD) instanceof BinaryData;
+    }
+
+    /**
+     * @param messages the messages to test
+     * @param beginIndex the index of the first message, inclusive
+     * @param endIndex the index of the last message, exclusive
+     * @return whether any of the given messages carries a {@link BinaryData} chunk
+     */
+    public static boolean hasBinaryData(List<? extends Message> messages, int beginIndex, int endIndex) {
+        for (int i = beginIndex; i < endIndex; ++i) {
+            if (hasBinaryData(messages.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Copies the given message into the given header message,
+     * detaching its binary chunk.</p>
+     * <p>The given message is not modified.</p>
+     *
+     * @param message the message that carries a {@link BinaryData} chunk
+     * @param header the empty message to copy into
+     * @return the binary chunk detached from the message
+     */
+    public static ByteBuffer detach(Message message, Message.Mutable header) {
+        BinaryData binaryData = (BinaryData)message.get(Message.DATA_FIELD);
+        ByteBuffer payload = binaryData.asByteBuffer();
+        header.putAll(message);
+        Map<String, Object> data = new HashMap<>(binaryData);
+        data.remove(BinaryData.DATA);
+        header.setData(data);
+        Map<String, Object> ext = message.getExt();
+        Map<String, Object> newExt = ext == null ? new HashMap<>() : new HashMap<>(ext);
+        newExt.put(EXT_FIELD, payload.remaining());
+        header.put(Message.EXT_FIELD, newExt);
+        return payload;
+    }
+
+    /**
+     * @param header the UTF-8 bytes of the header JSON
+     * @param payloads the binary chunks, in message order
+     * @return a native binary frame
+     */
+    public static ByteBuffer encode(byte[] header, List<ByteBuffer> payloads) {
+        int length = 1 + 4 + header.length;
+        for (ByteBuffer payload : payloads) {
+            length += payload.remaining();
+        }
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.put(MARKER);
+        frame.putInt(header.length);
+        frame.put(header);
+        for (ByteBuffer payload : payloads) {
+            frame.put(payload.slice());
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @param frame the content of a binary frame
+     * @return whether the given content is a native binary frame
+     */
+    public static boolean isBinaryFrame(ByteBuffer frame) {
+        return frame.hasRemaining() && frame.get(frame.position()) == MARKER;
+    }
+
+    /**
+     * <p>Reads the header JSON of the given native binary frame.</p>
+     * <p>The position of the frame is moved to the first binary chunk.</p>
+     *
+     * @param frame the native binary frame
+     * @return the header JSON
+     * @throws IllegalArgumentException if the header length is invalid
+     */
+    public static String header(ByteBuffer frame) {
+        frame.get();
+        int length = frame.getInt();
+        if (length < 0 || length > frame.remaining()) {
+            throw new IllegalArgumentException("Invalid binary frame header length " + length);
+        }
+        ByteBuffer header = frame.slice();
+        header.limit(length);
+        frame.position(frame.position() + length);
+        return StandardCharsets.UTF_8.decode(header).toString();
+    }
+
+    /**
+     * <p>Attaches to the given message parsed from the header its binary chunk,
+     * if any, read from the current position of the given frame.</p>
+     * <p>The binary chunk is copied, so the frame may be reused afterwards.</p>
+     *
+     * @param message the message parsed from the header
+     * @param frame the native binary frame, positioned at the binary chunk
+     * @param byteBuffer whether the chunk is attached as {@code ByteBuffer} or as {@code byte[]}
+     * @throws IllegalArgumentException if the chunk length is invalid
+     */
+    public static void attach(Message.Mutable message, ByteBuffer frame, boolean byteBuffer) {
+        Map<String, Object> ext = message.getExt();
+        if (ext == null) {
+            return;
+        }
+        Object field = ext.remove(EXT_FIELD);
+        if (field == null) {
+            return;
+        }
+        int length = ((Number)field).intValue();
+        if (length < 0 || length > frame.remaining()) {
+            throw new IllegalArgumentException("Invalid binary chunk length " + length);
+        }
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        Map<String, Object> data = message.getDataAsMap();
+        BinaryData binaryData = data == null ? new BinaryData(new HashMap<>()) : new BinaryData(data);
+        binaryData.put(BinaryData.DATA, byteBuffer ? ByteBuffer.wrap(bytes) : bytes);
+        message.setData(binaryData);
+    }
+}
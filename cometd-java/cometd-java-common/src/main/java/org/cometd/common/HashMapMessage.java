@@ -24,6 +24,8 @@ import org.cometd.bayeux.Message;
 public class HashMapMessage extends HashMap<String, Object> implements Message.Mutable, Serializable {
     private static final long serialVersionUID = 4318697940670212190L;
 
+    private transient String _rawJSON;
+
     public HashMapMessage() {
     }
 
@@ -163,4 +165,24 @@ public class HashMapMessage extends HashMap<String, Object> implements Message.M
     public void setSuccessful(boolean successful) {
         put(SUCCESSFUL_FIELD, successful);
     }
+
+    /**
+     * @return the JSON this message was parsed from, or null if it was not retained
+     * @see #setRawJSON(String)
+     */
+    public String getRawJSON() {
+        return _rawJSON;
+    }
+
+    /**
+     * <p>Retains the JSON this message was parsed from, so that it can be
+     * reused when this message is forwarded unmodified.</p>
+     * <p>The raw JSON is not updated when this message is modified,
+     * nor it is copied when this message is copied.</p>
+     *
+     * @param rawJSON the JSON this message was parsed from
+     */
+    public void setRawJSON(String rawJSON) {
+        _rawJSON = rawJSON;
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Utility methods to work on the JSON text of arrays of Bayeux messages
+ * without parsing it.</p>
+ */
+public class JSONArrays {
+    private JSONArrays() {
+    }
+
+    /**
+     * <p>Splits the given JSON array of objects into the JSON text of its elements.</p>
+     * <p>The JSON is only scanned to find where the elements begin and end,
+     * so it must be valid JSON; it is typically split after it has been
+     * successfully parsed.</p>
+     *
+     * @param json the JSON array of objects
+     * @return the JSON text of the array elements, or null if the JSON is not an array of objects
+     */
+    public static List<String> split(String json) {
+        int length = json.length();
+        int index = 0;
+        while (index < length && Character.isWhitespace(json.charAt(index))) {
+            ++index;
+        }
+        if (index == length || json.charAt(index) != '[') {
+            return null;
+        }
+
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        boolean string = false;
+        for (int i = index + 1; i < length; ++i) {
+            char c = json.charAt(i);
+            if (string) {
+                if (c == '\\') {
+                    // Skip the escaped character.
+                    ++i;
+                } else if (c == '"') {
+                    string = false;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    string = true;
+                    break;
+                case '{':
+                case '[':
+                    if (depth == 0) {
+                        if (c != '{') {
+                            return null;
+                        }
+                        start = i;
+                    }
+                    ++depth;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        // The end of the array.
+                        return c == ']' ? result : null;
+                    }
+                    --depth;
+                    if (depth == 0) {
+                        result.add(json.substring(start, i + 1));
+                    }
+                    break;
+                default:
+                    if (depth == 0 && c != ',' && !Character.isWhitespace(c)) {
+                        // Not an object.
+                        return null;
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+}
@@ -20,7 +20,7 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -35,9 +35,11 @@ import org.cometd.bayeux.Message;
 public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M> {
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final JavaType rootArrayType;
+    private final JavaType rootType;
 
     protected JacksonJSONContext() {
         rootArrayType = objectMapper.constructType(rootArrayClass());
+        rootType = objectMapper.constructType(rootArrayClass().getComponentType());
     }
 
     public ObjectMapper getObjectMapper() {
@@ -127,13 +129,20 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
         }
     }
 
+    /**
+     * <p>A non-blocking parser that converts each message as soon as
+     * its JSON has been parsed, rather than buffering the whole JSON.</p>
+     */
     private class AsyncJsonParser implements JSONContext.AsyncParser {
+        private final List<M> messages = new ArrayList<>();
         private final JsonParser jsonParser;
-        private final TokenBuffer tokenBuffer;
+        private TokenBuffer tokenBuffer;
+        private boolean started;
+        private boolean array;
+        private int depth;
 
         public AsyncJsonParser(JsonParser jsonParser) {
             this.jsonParser = jsonParser;
-            this.tokenBuffer = new TokenBuffer(jsonParser);
         }
 
         @Override
@@ -162,7 +171,9 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
                     parseInput();
                 } else if (feeder instanceof ByteArrayFeeder) {
                     if (buffer.hasArray()) {
-                        parse(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+                        int remaining = buffer.remaining();
+                        parse(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+                        buffer.position(buffer.position() + remaining);
                     } else {
                         byte[] bytes = new byte[buffer.remaining()];
                         buffer.get(bytes);
@@ -179,10 +190,36 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
         private void parseInput() throws IOException {
             while (true) {
                 JsonToken jsonToken = jsonParser.nextToken();
-                if (jsonToken == JsonToken.NOT_AVAILABLE) {
+                if (jsonToken == null || jsonToken == JsonToken.NOT_AVAILABLE) {
                     break;
                 }
+                if (!started) {
+                    started = true;
+                    if (jsonToken == JsonToken.START_ARRAY) {
+                        // The root array of messages.
+                        array = true;
+                        continue;
+                    }
+                }
+                if (array && depth == 0 && jsonToken == JsonToken.END_ARRAY) {
+                    array = false;
+                    continue;
+                }
+                if (tokenBuffer == null) {
+                    tokenBuffer = new TokenBuffer(jsonParser);
+                }
                 tokenBuffer.copyCurrentEvent(jsonParser);
+                if (jsonToken.isStructStart()) {
+                    ++depth;
+                } else if (jsonToken.isStructEnd()) {
+                    --depth;
+                }
+                if (depth == 0) {
+                    // A whole message has been parsed, convert it.
+                    M message = objectMapper.readValue(tokenBuffer.asParser(), rootType);
+                    messages.add(message);
+                    tokenBuffer = null;
+                }
             }
         }
 
@@ -192,9 +229,11 @@ public abstract class JacksonJSONContext<M extends Message.Mutable, I extends M>
             try {
                 NonBlockingInputFeeder feeder = jsonParser.getNonBlockingInputFeeder();
                 feeder.endOfInput();
-                jsonParser.nextToken();
-                M[] result = objectMapper.readValue(tokenBuffer.asParser(), objectMapper.constructType(rootArrayClass()));
-                return (R)Arrays.asList(result);
+                parseInput();
+                if (!started || array || depth > 0) {
+                    throw new IllegalArgumentException("Incomplete JSON");
+                }
+                return (R)messages;
             } catch (IOException x) {
                 throw new IllegalArgumentException(x);
             }
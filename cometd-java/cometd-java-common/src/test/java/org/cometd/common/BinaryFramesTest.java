@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Message;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BinaryFramesTest {
+    @Test
+    public void testEncodeDecode() throws Exception {
+        JSONContext.Client jsonContext = new JettyJSONContextClient();
+
+        byte[] bytes = new byte[]{0, 1, 2, -1, -2};
+        HashMapMessage binary = new HashMapMessage();
+        binary.setChannel("/binary");
+        binary.setData(new BinaryData(bytes, true, Collections.singletonMap("name", "\u20AC")));
+        HashMapMessage text = new HashMapMessage();
+        text.setChannel("/text");
+        text.setData("data");
+        List<Message> messages = Arrays.asList(binary, text);
+        Assertions.assertTrue(BinaryFrames.hasBinaryData(messages, 0, 2));
+        Assertions.assertFalse(BinaryFrames.hasBinaryData(messages, 1, 2));
+
+        HashMapMessage header = new HashMapMessage();
+        ByteBuffer payload = BinaryFrames.detach(binary, header);
+        // The original message is not modified.
+        Assertions.assertNull(binary.getExt());
+        Assertions.assertTrue(binary.getData() instanceof BinaryData);
+        String json = "[" + jsonContext.generate(header) + "," + jsonContext.generate(text) + "]";
+        ByteBuffer frame = BinaryFrames.encode(json.getBytes(StandardCharsets.UTF_8), Collections.singletonList(payload));
+
+        Assertions.assertTrue(BinaryFrames.isBinaryFrame(frame));
+        Assertions.assertFalse(BinaryFrames.isBinaryFrame(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))));
+
+        String decodedHeader = BinaryFrames.header(frame);
+        Assertions.assertEquals(json, decodedHeader);
+        Message.Mutable[] decoded = jsonContext.parse(decodedHeader);
+        for (Message.Mutable message : decoded) {
+            BinaryFrames.attach(message, frame, false);
+        }
+        Assertions.assertFalse(frame.hasRemaining());
+
+        BinaryData binaryData = (BinaryData)decoded[0].getData();
+        Assertions.assertArrayEquals(bytes, binaryData.asBytes());
+        Assertions.assertTrue(binaryData.isLast());
+        Assertions.assertEquals("\u20AC", binaryData.getMetaData().get("name"));
+        Assertions.assertFalse(decoded[0].getExt().containsKey(BinaryFrames.EXT_FIELD));
+        Assertions.assertEquals("data", decoded[1].getData());
+    }
+
+    @Test
+    public void testInvalidHeaderLength() {
+        ByteBuffer frame = ByteBuffer.allocate(5);
+        frame.put((byte)0).putInt(10).flip();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryFrames.header(frame));
+    }
+}
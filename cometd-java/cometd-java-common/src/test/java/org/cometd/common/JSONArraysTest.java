@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.cometd.bayeux.Message;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JSONArraysTest {
+    @Test
+    public void testSplit() {
+        Assertions.assertEquals(Collections.emptyList(), JSONArrays.split("[]"));
+        Assertions.assertEquals(Collections.singletonList("{}"), JSONArrays.split(" [ {} ] "));
+
+        String message1 = "{\"channel\":\"/a\",\"data\":{\"list\":[1,{\"x\":[]}]}}";
+        String message2 = "{\"channel\":\"/b\",\"data\":\"\\\"}]\\\\\"}";
+        String message3 = "{\"channel\":\"/c\",\"data\":\"\u20AC{[\"}";
+        List<String> result = JSONArrays.split("[" + message1 + ",\n " + message2 + "," + message3 + "]");
+        Assertions.assertEquals(Arrays.asList(message1, message2, message3), result);
+    }
+
+    @Test
+    public void testSplitNotArrayOfObjects() {
+        Assertions.assertNull(JSONArrays.split(""));
+        Assertions.assertNull(JSONArrays.split("{}"));
+        Assertions.assertNull(JSONArrays.split("[1]"));
+        Assertions.assertNull(JSONArrays.split("[\"a\"]"));
+        Assertions.assertNull(JSONArrays.split("[{},[]]"));
+        Assertions.assertNull(JSONArrays.split("[{}"));
+    }
+
+    @Test
+    public void testSplitParsedMessages() throws Exception {
+        JSONContext.Client jsonContext = new JettyJSONContextClient();
+        String json = "[{\"channel\":\"/a\",\"data\":{\"text\":\"\u20AC\"}},{\"channel\":\"/b\",\"ext\":{\"x\":true}}]";
+        List<String> jsons = JSONArrays.split(json);
+        Assertions.assertNotNull(jsons);
+        for (String element : jsons) {
+            Message.Mutable[] messages = jsonContext.parse("[" + element + "]");
+            Assertions.assertEquals(1, messages.length);
+        }
+    }
+}
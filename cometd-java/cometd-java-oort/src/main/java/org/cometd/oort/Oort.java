@@ -106,10 +106,13 @@ public class Oort extends ContainerLifeCycle {
     private final Logger _logger;
     private final LocalSession _oortSession;
     private final OortMembership _membership;
+    private final OortInterest _interest;
     private ScheduledExecutorService _scheduler;
     private String _secret;
     private boolean _ackExtensionEnabled = true;
     private Extension _ackExtension;
+    private boolean _interestRoutingEnabled;
+    private boolean _rawJSONEnabled;
     private boolean _binaryExtensionEnabled;
     private Extension _serverBinaryExtension;
     private ClientSession.Extension _binaryExtension;
@@ -123,6 +126,8 @@ public class Oort extends ContainerLifeCycle {
         _oortSession = bayeux.newLocalSession("oort");
         _membership = new OortMembership(this);
         addBean(_membership);
+        _interest = new OortInterest(this);
+        addBean(_interest);
         _secret = Long.toHexString(new SecureRandom().nextLong());
     }
 
@@ -270,6 +275,46 @@ public class Oort extends ContainerLifeCycle {
         _ackExtensionEnabled = value;
     }
 
+    @ManagedAttribute("Whether messages are forwarded only to the nodes interested in them")
+    public boolean isInterestRoutingEnabled() {
+        return _interestRoutingEnabled;
+    }
+
+    /**
+     * <p>Enables or disables interest routing.</p>
+     * <p>When enabled, this node advertises to the other nodes the channels
+     * that have local subscribers among those observed by interest, see
+     * {@link #observeChannel(String, boolean)}, so that the other nodes
+     * forward messages published to those channels only to the nodes
+     * that have subscribers for them.</p>
+     * <p>Interest routing must be enabled before this Oort is started.</p>
+     *
+     * @param value whether interest routing is enabled
+     */
+    public void setInterestRoutingEnabled(boolean value) {
+        _interestRoutingEnabled = value;
+    }
+
+    @ManagedAttribute("Whether the JSON of forwarded messages is reused")
+    public boolean isRawJSONEnabled() {
+        return _rawJSONEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the reuse of the JSON of forwarded messages.</p>
+     * <p>When enabled, the {@link OortComet}s retain the JSON of the messages
+     * they receive from other nodes, and the JSON is reused when the messages
+     * are republished to the local subscribers, rather than being generated again.</p>
+     * <p>Modifications to forwarded messages performed by server extensions
+     * or by channel listeners of this node are not reflected in the JSON
+     * sent to the local subscribers.</p>
+     *
+     * @param value whether the JSON of forwarded messages is reused
+     */
+    public void setRawJSONEnabled(boolean value) {
+        _rawJSONEnabled = value;
+    }
+
     @ManagedAttribute("Whether the binary extension is enabled")
     public boolean isBinaryExtensionEnabled() {
         return _binaryExtensionEnabled;
@@ -317,6 +362,10 @@ public class Oort extends ContainerLifeCycle {
             options.put(ClientTransport.JSON_CONTEXT_OPTION, jsonContext);
         }
 
+        if (isRawJSONEnabled()) {
+            options.put(ClientTransport.RAW_JSON_OPTION, true);
+        }
+
         String maxMessageSizeOption = ClientTransport.MAX_MESSAGE_SIZE_OPTION;
         Object option = _bayeux.getOption(maxMessageSizeOption);
         if (option != null) {
@@ -441,11 +490,32 @@ public class Oort extends ContainerLifeCycle {
      * to the channel and will repeat any messages published to
      * the local channel (with loop prevention), so that the
      * messages are distributed to all Oort comet servers.</p>
+     * <p>The channel is not observed by interest, so messages published
+     * to the channel are always forwarded by the other nodes; use
+     * {@link #observeChannel(String, boolean)} to observe the channel by interest.</p>
      *
      * @param channelName the channel to observe
      */
     @ManagedOperation(value = "Observes the given channel", impact = "ACTION")
     public void observeChannel(@Name(value = "channel", description = "The channel to observe") String channelName) {
+        observeChannel(channelName, false);
+    }
+
+    /**
+     * <p>Observes the given channel, registering to receive messages from
+     * the Oort comets connected to this Oort instance.</p>
+     * <p>When {@link #isInterestRoutingEnabled() interest routing} is enabled,
+     * messages published to a channel observed by interest are forwarded by
+     * the other nodes only if this node has local subscribers for that channel;
+     * otherwise they are always forwarded.
+     * Components that listen to messages via {@link ServerChannel.MessageListener}s,
+     * rather than via subscriptions, must not observe channels by interest.</p>
+     *
+     * @param channelName the channel to observe
+     * @param interest whether the channel is observed by interest
+     * @see #observeChannel(String)
+     */
+    public void observeChannel(String channelName, boolean interest) {
         if (_logger.isDebugEnabled()) {
             _logger.debug("Observing channel {}", channelName);
         }
@@ -454,16 +524,28 @@ public class Oort extends ContainerLifeCycle {
             throw new IllegalArgumentException("Channel " + channelName + " cannot be observed because is not a broadcast channel");
         }
 
-        if (_channels.putIfAbsent(channelName, Boolean.TRUE) == null) {
+        Boolean existing = _channels.putIfAbsent(channelName, interest);
+        if (existing == null) {
             Set<String> observedChannels = getObservedChannels();
             _membership.observeChannels(observedChannels);
+            if (interest) {
+                _interest.observedChannelsChanged();
+            }
+        } else if (existing && !interest) {
+            // Observing without interest wins, as some component needs all messages.
+            _channels.put(channelName, false);
+            _interest.observedChannelsChanged();
         }
     }
 
     @ManagedOperation(value = "Deobserves the given channel", impact = "ACTION")
     public void deobserveChannel(@Name(value = "channel", description = "The channel to deobserve") String channelId) {
-        if (_channels.remove(channelId) != null) {
+        Boolean interest = _channels.remove(channelId);
+        if (interest != null) {
             _membership.deobserveChannel(channelId);
+            if (interest) {
+                _interest.observedChannelsChanged();
+            }
         }
     }
 
@@ -604,6 +686,9 @@ public class Oort extends ContainerLifeCycle {
 
     protected void joinComets(Message message) {
         Object data = message.getData();
+        if (data instanceof Map) {
+            return;
+        }
         Object[] array = data instanceof List ? ((List<?>)data).toArray() : (Object[])data;
         for (Object element : array) {
             observeComet((String)element);
@@ -614,6 +699,24 @@ public class Oort extends ContainerLifeCycle {
         return new HashSet<>(_channels.keySet());
     }
 
+    List<ChannelId> getInterestChannels() {
+        List<ChannelId> result = new ArrayList<>();
+        _channels.forEach((channelName, interest) -> {
+            if (interest) {
+                result.add(new ChannelId(channelName));
+            }
+        });
+        return result;
+    }
+
+    OortInterest getOortInterest() {
+        return _interest;
+    }
+
+    List<OortComet> getOortComets() {
+        return _membership.getOortComets();
+    }
+
     List<String> knownOortIds() {
         return _membership.knownOortIds();
     }
@@ -660,7 +763,14 @@ public class Oort extends ContainerLifeCycle {
         @Override
         public boolean onMessage(ServerSession from, ServerChannel channel, Mutable message) {
             if (!from.isLocalSession()) {
-                joinComets(message);
+                Object data = message.getData();
+                if (data instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> interest = (Map<String, Object>)data;
+                    _interest.update(interest);
+                } else {
+                    joinComets(message);
+                }
             }
             return true;
         }
@@ -22,10 +22,14 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSession;
 import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.client.BayeuxClient;
 import org.cometd.client.transport.ClientTransport;
+import org.cometd.common.HashMapMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,7 +66,7 @@ public class OortComet extends BayeuxClient {
                 }
                 // BayeuxServer may sweep channels, so calling bayeux.getChannel(...)
                 // may return null, and therefore we use the client to send the message.
-                _oort.getOortSession().getChannel(message.getChannel()).publish(message);
+                _oort.getOortSession().getChannel(message.getChannel()).publish(republish(message));
             };
 
             ClientSessionChannel.MessageListener existing = _subscriptions.putIfAbsent(channel, listener);
@@ -78,6 +82,24 @@ public class OortComet extends BayeuxClient {
         }
     }
 
+    private Message republish(Message message) {
+        if (message instanceof HashMapMessage) {
+            String rawJSON = ((HashMapMessage)message).getRawJSON();
+            // Binary data has been decoded, so the JSON is stale.
+            if (rawJSON != null && !(message.get(Message.DATA_FIELD) instanceof BinaryData)) {
+                // Copy into a server message so that the raw JSON is
+                // retained and reused when the message is frozen.
+                ServerMessage.Mutable result = _oort.getBayeuxServer().newMessage();
+                result.putAll(message);
+                if (result instanceof HashMapMessage) {
+                    ((HashMapMessage)result).setRawJSON(rawJSON);
+                }
+                return result;
+            }
+        }
+        return message;
+    }
+
     protected void unsubscribe(String channel) {
         ClientSessionChannel.MessageListener listener = _subscriptions.remove(channel);
         if (listener != null) {
@@ -132,6 +154,9 @@ public class OortComet extends BayeuxClient {
             }
             getChannel(Oort.OORT_SERVICE_CHANNEL).publish(data, callback);
         });
+
+        // Advertise the channels we are interested in.
+        _oort.getOortInterest().joined(this);
     }
 
     @Override
@@ -39,7 +39,8 @@ import org.slf4j.LoggerFactory;
  * <li>{@code oort.secret}, the pre-shared secret that Oort servers use to authenticate
  * connections from other Oort comets</li>
  * <li>{@code oort.channels}, a comma separated list of channels that
- * will be passed to {@link Oort#observeChannel(String)}</li>
+ * will be passed to {@link Oort#observeChannel(String, boolean)}, observed
+ * by interest if {@code enableInterestRouting} is true</li>
  * <li>{@code clientDebug}, a boolean that enables debugging of the
  * clients connected to other oort cluster managers</li>
  * </ul>
@@ -54,6 +55,8 @@ public abstract class OortConfigServlet extends HttpServlet {
     public static final String OORT_CHANNELS_PARAM = "oort.channels";
     public static final String OORT_ENABLE_ACK_EXTENSION_PARAM = "enableAckExtension";
     public static final String OORT_ENABLE_BINARY_EXTENSION_PARAM = "enableBinaryExtension";
+    public static final String OORT_ENABLE_INTEREST_ROUTING_PARAM = "enableInterestRouting";
+    public static final String OORT_ENABLE_RAW_JSON_PARAM = "enableRawJSON";
     public static final String OORT_JSON_CONTEXT_PARAM = "jsonContext";
     public static final String OORT_CLIENT_TRANSPORT_FACTORIES_PARAM = "clientTransportFactories";
     private static final Logger LOGGER = LoggerFactory.getLogger(OortConfigServlet.class);
@@ -133,6 +136,12 @@ public abstract class OortConfigServlet extends HttpServlet {
         }
         oort.setBinaryExtensionEnabled(Boolean.parseBoolean(enableBinaryExtension));
 
+        String enableInterestRouting = config.getInitParameter(OORT_ENABLE_INTEREST_ROUTING_PARAM);
+        oort.setInterestRoutingEnabled(Boolean.parseBoolean(enableInterestRouting));
+
+        String enableRawJSON = config.getInitParameter(OORT_ENABLE_RAW_JSON_PARAM);
+        oort.setRawJSONEnabled(Boolean.parseBoolean(enableRawJSON));
+
         String jsonContext = config.getInitParameter(OORT_JSON_CONTEXT_PARAM);
         if (jsonContext != null) {
             Class<?> klass = getClass().getClassLoader().loadClass(jsonContext);
@@ -222,7 +231,7 @@ public abstract class OortConfigServlet extends HttpServlet {
                     for (String channel : patterns) {
                         channel = channel.trim();
                         if (channel.length() > 0) {
-                            oort.observeChannel(channel);
+                            oort.observeChannel(channel, oort.isInterestRoutingEnabled());
                         }
                     }
                 }
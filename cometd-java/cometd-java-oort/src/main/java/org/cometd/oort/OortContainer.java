@@ -55,7 +55,11 @@ public abstract class OortContainer<T> extends OortObject<T> {
             Info<T> info = getInfo(oortURL);
             if (info == null) {
                 updater.enqueue(data);
-                pullInfo(oortURL);
+                // The whole object may be arriving in chunks,
+                // and the update will be applied afterwards.
+                if (!hasChunks(oortURL)) {
+                    pullInfo(oortURL);
+                }
             } else {
                 if (info.isLocal()) {
                     onItem(info, data);
@@ -89,12 +93,14 @@ public abstract class OortContainer<T> extends OortObject<T> {
         while (true) {
             Map<String, Object> data = updater.dequeue();
             if (data == null) {
+                updater.pulling = false;
                 return;
             }
             if (data == STALE_UPDATE) {
                 if (!updater.pulling) {
                     updater.pulling = true;
-                    pullInfo(info.getOortURL());
+                    // Pull only the updates that are missing.
+                    pullInfo(info.getOortURL(), updater.version);
                 }
                 return;
             }
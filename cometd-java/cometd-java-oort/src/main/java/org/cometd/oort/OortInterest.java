@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.Dumpable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Tracks the interest of Oort nodes in the channels they observe.</p>
+ * <p>When {@link Oort#isInterestRoutingEnabled() interest routing} is enabled,
+ * the local node advertises to the other nodes, over {@code /oort/cloud}, the
+ * channels that have local subscribers and that match the channels it
+ * observes by interest: a full snapshot when it joins a node, or when the
+ * observed channels change, followed by incremental diffs when local
+ * subscriptions change.</p>
+ * <p>Each node filters the messages it forwards to a remote node by the
+ * interest advertised by that remote node, so that a message is not forwarded
+ * to nodes that have no local subscribers for it.
+ * Messages are forwarded to all nodes while their interest is unknown,
+ * or for channels that they do not observe by interest.</p>
+ */
+class OortInterest extends AbstractLifeCycle implements Dumpable {
+    static final String INTEREST_FIELD = "interest";
+    private static final String FULL_FIELD = "full";
+    private static final String PATTERNS_FIELD = "patterns";
+    private static final String ADD_FIELD = "add";
+    private static final String REMOVE_FIELD = "remove";
+
+    private final ConcurrentMap<String, RemoteInterest> remotes = new ConcurrentHashMap<>();
+    private final BayeuxServer.SubscriptionListener subscriptionListener = new LocalSubscriptionListener();
+    private final Set<String> dirtyChannels = new HashSet<>();
+    private final Set<OortComet> snapshotComets = new HashSet<>();
+    private final Object lock = this;
+    private final Oort oort;
+    private final Logger logger;
+    private boolean snapshot;
+    private boolean scheduled;
+    private volatile boolean enabled;
+
+    OortInterest(Oort oort) {
+        this.oort = oort;
+        this.logger = LoggerFactory.getLogger(Oort.loggerName(getClass(), oort.getURL(), null));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        enabled = oort.isInterestRoutingEnabled();
+        if (enabled) {
+            oort.getBayeuxServer().addListener(subscriptionListener);
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        enabled = false;
+        oort.getBayeuxServer().removeListener(subscriptionListener);
+        synchronized (lock) {
+            dirtyChannels.clear();
+            snapshotComets.clear();
+            snapshot = false;
+        }
+        remotes.clear();
+    }
+
+    /**
+     * <p>Schedules the advertisement of the local interest to the given comet,
+     * that has just joined.</p>
+     *
+     * @param oortComet the comet that joined
+     */
+    void joined(OortComet oortComet) {
+        if (enabled) {
+            synchronized (lock) {
+                snapshotComets.add(oortComet);
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * <p>Schedules the advertisement of the local interest to all comets,
+     * after the observed channels changed.</p>
+     */
+    void observedChannelsChanged() {
+        if (enabled) {
+            synchronized (lock) {
+                snapshot = true;
+            }
+            schedule();
+        }
+    }
+
+    private void changed(String channelName) {
+        synchronized (lock) {
+            dirtyChannels.add(channelName);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        synchronized (lock) {
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        // The Oort scheduler is single threaded, so the
+        // advertisements are sent in the order they are computed.
+        oort.getScheduler().execute(this::advertise);
+    }
+
+    private void advertise() {
+        Set<String> channels;
+        List<OortComet> comets;
+        boolean all;
+        synchronized (lock) {
+            scheduled = false;
+            channels = new HashSet<>(dirtyChannels);
+            dirtyChannels.clear();
+            comets = new ArrayList<>(snapshotComets);
+            snapshotComets.clear();
+            all = snapshot;
+            snapshot = false;
+        }
+
+        try {
+            List<ChannelId> patterns = oort.getInterestChannels();
+            List<String> names = new ArrayList<>(patterns.size());
+            patterns.forEach(pattern -> names.add(pattern.getId()));
+
+            if (all) {
+                comets = oort.getOortComets();
+            }
+            if (!comets.isEmpty()) {
+                List<String> interest = new ArrayList<>();
+                for (ServerChannel channel : oort.getBayeuxServer().getChannels()) {
+                    if (channel.isBroadcast() && overlaps(patterns, channel.getChannelId()) && hasLocalSubscribers(channel)) {
+                        interest.add(channel.getId());
+                    }
+                }
+                Map<String, Object> data = newData(true, names, interest, null);
+                comets.forEach(comet -> send(comet, data));
+            }
+
+            if (!all && !channels.isEmpty()) {
+                List<String> added = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                for (String channelName : channels) {
+                    if (overlaps(patterns, new ChannelId(channelName))) {
+                        ServerChannel channel = oort.getBayeuxServer().getChannel(channelName);
+                        if (channel != null && hasLocalSubscribers(channel)) {
+                            added.add(channelName);
+                        } else {
+                            removed.add(channelName);
+                        }
+                    }
+                }
+                if (!added.isEmpty() || !removed.isEmpty()) {
+                    Map<String, Object> data = newData(false, names, added, removed);
+                    oort.getOortComets().forEach(comet -> send(comet, data));
+                }
+            }
+        } catch (Throwable x) {
+            logger.info("Exception while advertising interest", x);
+        }
+    }
+
+    private Map<String, Object> newData(boolean full, List<String> patterns, List<String> added, List<String> removed) {
+        Map<String, Object> interest = new HashMap<>(4);
+        interest.put(FULL_FIELD, full);
+        interest.put(PATTERNS_FIELD, patterns);
+        interest.put(ADD_FIELD, added);
+        if (removed != null) {
+            interest.put(REMOVE_FIELD, removed);
+        }
+        Map<String, Object> data = new HashMap<>(2);
+        data.put(Oort.EXT_OORT_ID_FIELD, oort.getId());
+        data.put(INTEREST_FIELD, interest);
+        return data;
+    }
+
+    private void send(OortComet comet, Map<String, Object> data) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Advertising interest {} to {}", data, comet);
+        }
+        comet.getChannel(Oort.OORT_CLOUD_CHANNEL).publish(data);
+    }
+
+    private boolean hasLocalSubscribers(ServerChannel channel) {
+        for (ServerSession subscriber : channel.getSubscribers()) {
+            if (!oort.isOort(subscriber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Updates the interest of a remote node with the given advertisement.</p>
+     *
+     * @param data the advertisement data
+     */
+    @SuppressWarnings("unchecked")
+    void update(Map<String, Object> data) {
+        String oortId = (String)data.get(Oort.EXT_OORT_ID_FIELD);
+        Object interestObject = data.get(INTEREST_FIELD);
+        if (oortId == null || !(interestObject instanceof Map)) {
+            return;
+        }
+        Map<String, Object> interest = (Map<String, Object>)interestObject;
+        List<ChannelId> patterns = new ArrayList<>();
+        toList(interest.get(PATTERNS_FIELD)).forEach(pattern -> patterns.add(new ChannelId(pattern)));
+        List<String> added = toList(interest.get(ADD_FIELD));
+        List<String> removed = toList(interest.get(REMOVE_FIELD));
+
+        RemoteInterest remote;
+        if (Boolean.TRUE.equals(interest.get(FULL_FIELD))) {
+            remote = new RemoteInterest(patterns);
+            remote.add(added);
+            remotes.put(oortId, remote);
+        } else {
+            remote = remotes.get(oortId);
+            if (remote == null) {
+                // The snapshot has not been received yet,
+                // keep forwarding all messages until it arrives.
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Ignoring interest diff before snapshot from {}", oortId);
+                }
+                return;
+            }
+            remote.patterns = patterns;
+            remote.add(added);
+            remote.remove(removed);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Updated interest of {} to {}", oortId, remote);
+        }
+    }
+
+    /**
+     * @param oortId the ID of the remote node that left
+     */
+    void remove(String oortId) {
+        remotes.remove(oortId);
+    }
+
+    /**
+     * @param oortId the ID of the remote node
+     * @return a listener that filters the messages sent to the remote node by its interest
+     */
+    ServerSession.MessageListener newFilter(String oortId) {
+        return new InterestFilter(oortId);
+    }
+
+    private static List<String> toList(Object value) {
+        if (value instanceof List) {
+            List<String> result = new ArrayList<>();
+            for (Object element : (List<?>)value) {
+                result.add((String)element);
+            }
+            return result;
+        }
+        if (value instanceof Object[]) {
+            List<String> result = new ArrayList<>();
+            for (Object element : (Object[])value) {
+                result.add((String)element);
+            }
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
+    private static boolean overlaps(Collection<ChannelId> patterns, ChannelId channelId) {
+        for (ChannelId pattern : patterns) {
+            if (overlaps(pattern, channelId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param a a channel, possibly wild
+     * @param b another channel, possibly wild
+     * @return whether there is a non-wild channel that matches both the given channels
+     */
+    static boolean overlaps(ChannelId a, ChannelId b) {
+        int depth = Math.min(a.depth(), b.depth());
+        for (int i = 0; i < depth; ++i) {
+            String segmentA = a.getSegment(i);
+            String segmentB = b.getSegment(i);
+            if ("**".equals(segmentA) || "**".equals(segmentB)) {
+                return true;
+            }
+            if ("*".equals(segmentA) || "*".equals(segmentB)) {
+                continue;
+            }
+            if (!segmentA.equals(segmentB)) {
+                return false;
+            }
+        }
+        return a.depth() == b.depth();
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException {
+        Dumpable.dumpObjects(out, indent, this, remotes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[enabled=%b,remotes=%d]", getClass().getSimpleName(), hashCode(), enabled, remotes.size());
+    }
+
+    private static class RemoteInterest {
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        private final Set<ChannelId> wildChannels = new CopyOnWriteArraySet<>();
+        private volatile List<ChannelId> patterns;
+
+        private RemoteInterest(List<ChannelId> patterns) {
+            this.patterns = patterns;
+        }
+
+        private void add(List<String> channelNames) {
+            for (String channelName : channelNames) {
+                ChannelId channelId = new ChannelId(channelName);
+                if (channelId.isWild()) {
+                    wildChannels.add(channelId);
+                } else {
+                    channels.add(channelName);
+                }
+            }
+        }
+
+        private void remove(List<String> channelNames) {
+            for (String channelName : channelNames) {
+                ChannelId channelId = new ChannelId(channelName);
+                if (channelId.isWild()) {
+                    wildChannels.remove(channelId);
+                } else {
+                    channels.remove(channelName);
+                }
+            }
+        }
+
+        private boolean accepts(ChannelId channelId) {
+            boolean observed = false;
+            for (ChannelId pattern : patterns) {
+                if (pattern.matches(channelId)) {
+                    observed = true;
+                    break;
+                }
+            }
+            // Not observed by interest, forward it.
+            if (!observed) {
+                return true;
+            }
+            if (channels.contains(channelId.getId())) {
+                return true;
+            }
+            for (ChannelId wildChannel : wildChannels) {
+                if (wildChannel.matches(channelId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x[patterns=%s,channels=%d,wilds=%s]", getClass().getSimpleName(), hashCode(), patterns, channels.size(), wildChannels);
+        }
+    }
+
+    private class LocalSubscriptionListener implements BayeuxServer.SubscriptionListener {
+        @Override
+        public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+            if (channel.isBroadcast() && !oort.isOort(session)) {
+                changed(channel.getId());
+            }
+        }
+
+        @Override
+        public void unsubscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+            if (channel.isBroadcast() && !oort.isOort(session)) {
+                changed(channel.getId());
+            }
+        }
+    }
+
+    private class InterestFilter implements ServerSession.MessageListener {
+        private final String oortId;
+
+        private InterestFilter(String oortId) {
+            this.oortId = oortId;
+        }
+
+        @Override
+        public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+            RemoteInterest remote = remotes.get(oortId);
+            String channelName = message.getChannel();
+            if (remote == null || !ChannelId.isBroadcast(channelName) || channelName.startsWith("/oort/")) {
+                return true;
+            }
+            boolean accepted = remote.accepts(message.getChannelId());
+            if (!accepted && logger.isDebugEnabled()) {
+                logger.debug("No interest for {} from {}, not forwarding to {}", message, oortId, session);
+            }
+            return accepted;
+        }
+    }
+}
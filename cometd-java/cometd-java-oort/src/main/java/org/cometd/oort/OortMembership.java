@@ -241,27 +241,25 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
     }
 
     void observeChannels(Set<String> channels) {
-        List<OortComet> oortComets = new ArrayList<>();
-        synchronized (lock) {
-            for (ClientCometInfo cometInfo : clientComets.values()) {
-                oortComets.add(cometInfo.oortComet);
-            }
-        }
-        for (OortComet oortComet : oortComets) {
+        for (OortComet oortComet : getOortComets()) {
             oortComet.subscribe(channels);
         }
     }
 
     void deobserveChannel(String channelName) {
+        for (OortComet oortComet : getOortComets()) {
+            oortComet.unsubscribe(channelName);
+        }
+    }
+
+    List<OortComet> getOortComets() {
         List<OortComet> oortComets = new ArrayList<>();
         synchronized (lock) {
             for (ClientCometInfo cometInfo : clientComets.values()) {
                 oortComets.add(cometInfo.oortComet);
             }
         }
-        for (OortComet oortComet : oortComets) {
-            oortComet.unsubscribe(channelName);
-        }
+        return oortComets;
     }
 
     boolean containsServerSession(ServerSession session) {
@@ -584,6 +582,8 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
                 session.addListener(new OortCometDisconnectListener());
                 // Prevent loops in sending/receiving messages.
                 session.addListener(new OortCometLoopListener());
+                // Forward messages only if the remote comet is interested.
+                session.addListener(oort.getOortInterest().newFilter(remoteOortId));
 
                 if (clientCometInfo != null) {
                     if (sendJoin) {
@@ -644,6 +644,7 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
                 }
                 String remoteOortId = serverCometInfo.oortId;
                 String remoteOortURL = serverCometInfo.oortURL;
+                oort.getOortInterest().remove(remoteOortId);
 
                 if (!timeout) {
                     OortComet oortComet;
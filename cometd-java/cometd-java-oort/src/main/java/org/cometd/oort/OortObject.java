@@ -20,6 +20,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.EventListener;
 import java.util.HashMap;
@@ -130,6 +131,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
     private static final String ACTION_FIELD_PULL_VALUE = "oort.object.pull";
 
     private final ConcurrentMap<String, ObjectPart> parts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Chunks> chunks = new ConcurrentHashMap<>();
+    private final AtomicLong snapshots = new AtomicLong();
     private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
     private final Logger logger;
     private final Oort oort;
@@ -141,6 +144,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
     private final ServerChannel.SubscriptionListener initialStateListener;
     private final String serviceChannel;
     private final ServerChannel.MessageListener serviceListener;
+    private volatile int updateLogSize = 128;
+    private volatile int chunkSize = 1024;
 
     public OortObject(Oort oort, String name, Factory<T> factory) {
         this.oort = oort;
@@ -195,6 +200,7 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         oort.removeCometListener(this);
         sender.disconnect();
         parts.clear();
+        chunks.clear();
         if (logger.isDebugEnabled()) {
             logger.debug("{} stopped", this);
         }
@@ -252,6 +258,47 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         return broadcastChannel;
     }
 
+    /**
+     * @return the max number of local item updates retained to replay them to nodes that missed them
+     * @see #setUpdateLogSize(int)
+     */
+    public int getUpdateLogSize() {
+        return updateLogSize;
+    }
+
+    /**
+     * <p>Sets the max number of local item updates (for example, {@link OortMap} entry updates)
+     * retained to replay them to nodes that missed them.</p>
+     * <p>A node that detects a gap in the item updates pulls only the updates it missed;
+     * if they are not retained anymore, the whole object is sent instead.</p>
+     *
+     * @param updateLogSize the max number of local item updates retained, or 0 to disable the replay
+     */
+    public void setUpdateLogSize(int updateLogSize) {
+        this.updateLogSize = updateLogSize;
+    }
+
+    /**
+     * @return the max number of entries or elements sent in a single message when the whole object is sent
+     * @see #setChunkSize(int)
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * <p>Sets the max number of entries (for {@link Map}s) or elements (for {@link List}s
+     * and arrays) sent in a single message when the whole object is sent to other nodes,
+     * for example when a node joins.</p>
+     * <p>Larger objects are split into multiple messages that are reassembled by the
+     * receiving node, so that a single, very large, message is never sent.</p>
+     *
+     * @param chunkSize the max number of entries or elements per message, or 0 to never split objects
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     /**
      * <p>Sets the given new object on this oort object, and then broadcast the new object to all nodes in the cluster.</p>
      * <p>Setting an object triggers notification of {@link Listener}s, both on this node and on remote nodes.</p>
@@ -314,6 +361,7 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         if (logger.isDebugEnabled()) {
             logger.debug("Oort {} left", remoteOortURL);
         }
+        chunks.values().removeIf(c -> c.oortURL.equals(remoteOortURL));
         Info<T> info = removeInfo(remoteOortURL);
         if (info != null) {
             if (logger.isDebugEnabled()) {
@@ -489,7 +537,9 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
             if (logger.isDebugEnabled()) {
                 logger.debug("Pushing (to {}): {}", oortURL, message);
             }
-            oortComet.getChannel(serviceChannel).publish(message);
+            for (Map<String, Object> chunk : split(message)) {
+                oortComet.getChannel(serviceChannel).publish(chunk);
+            }
         }
     }
 
@@ -499,13 +549,51 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         pushInfo(oortURL, fields);
     }
 
+    private boolean pushUpdates(String oortURL, long since) {
+        OortComet oortComet = oort.findComet(oortURL);
+        ObjectPart part = parts.get(oort.getURL());
+        if (oortComet == null || part == null) {
+            return false;
+        }
+        List<Map<String, Object>> updates = part.updatesSince(since);
+        if (updates == null) {
+            return false;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Pushing (to {}) {} updates since version={}", oortURL, updates.size(), since);
+        }
+        for (Map<String, Object> update : updates) {
+            oortComet.getChannel(serviceChannel).publish(update);
+        }
+        return true;
+    }
+
     protected void pullInfo(String oortURL) {
+        pullInfo(oortURL, null);
+    }
+
+    /**
+     * <p>Pulls from the given node the updates it performed after the given version.</p>
+     * <p>If the node did not retain those updates, it pushes its whole object.</p>
+     *
+     * @param oortURL the oort URL of the node to pull updates from
+     * @param since   the last version known for the node
+     * @see #setUpdateLogSize(int)
+     */
+    protected void pullInfo(String oortURL, long since) {
+        pullInfo(oortURL, (Long)since);
+    }
+
+    private void pullInfo(String oortURL, Long since) {
         OortComet oortComet = oort.getComet(oortURL);
         if (oortComet != null) {
             Map<String, Object> message = new HashMap<>();
             message.put(Info.OORT_URL_FIELD, getOort().getURL());
             message.put(Info.NAME_FIELD, getName());
             message.put(Info.ACTION_FIELD, ACTION_FIELD_PULL_VALUE);
+            if (since != null) {
+                message.put(Info.SINCE_FIELD, since);
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("Pulling (from {}): {}", oortURL, message);
             }
@@ -513,6 +601,98 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         }
     }
 
+    /**
+     * <p>Splits the object of the given message into messages
+     * that carry at most {@link #getChunkSize()} entries or elements.</p>
+     *
+     * @param message the message carrying the whole object
+     * @return the messages carrying the chunks of the object
+     */
+    private List<Map<String, Object>> split(Map<String, Object> message) {
+        Object object = message.get(Info.OBJECT_FIELD);
+        int chunkSize = getChunkSize();
+        List<Object> pieces = new ArrayList<>();
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)object;
+            if (chunkSize > 0 && map.size() > chunkSize) {
+                Map<Object, Object> piece = new HashMap<>();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (piece.size() == chunkSize) {
+                        pieces.add(piece);
+                        piece = new HashMap<>();
+                    }
+                    piece.put(entry.getKey(), entry.getValue());
+                }
+                pieces.add(piece);
+            }
+        } else if (object instanceof Collection || object instanceof Object[]) {
+            Collection<?> collection = object instanceof Object[] ? Arrays.asList((Object[])object) : (Collection<?>)object;
+            if (chunkSize > 0 && collection.size() > chunkSize) {
+                List<Object> piece = new ArrayList<>();
+                for (Object element : collection) {
+                    if (piece.size() == chunkSize) {
+                        pieces.add(piece);
+                        piece = new ArrayList<>();
+                    }
+                    piece.add(element);
+                }
+                pieces.add(piece);
+            }
+        }
+
+        if (pieces.size() <= 1) {
+            return Collections.singletonList(message);
+        }
+
+        long snapshot = snapshots.incrementAndGet();
+        List<Map<String, Object>> result = new ArrayList<>(pieces.size());
+        for (int i = 0; i < pieces.size(); ++i) {
+            Map<String, Object> chunk = new HashMap<>(message);
+            chunk.put(Info.OBJECT_FIELD, pieces.get(i));
+            chunk.put(Info.SNAPSHOT_FIELD, snapshot);
+            chunk.put(Info.CHUNK_FIELD, i);
+            chunk.put(Info.CHUNKS_FIELD, pieces.size());
+            result.add(chunk);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Split object in {} chunks", result.size());
+        }
+        return result;
+    }
+
+    /**
+     * <p>Reassembles the object from the chunks produced by {@link #split(Map)}.</p>
+     *
+     * @param data        the message data
+     * @return the data carrying the whole object, or null if more chunks are expected
+     */
+    private Map<String, Object> join(Map<String, Object> data) {
+        Object count = data.get(Info.CHUNKS_FIELD);
+        if (count == null) {
+            return data;
+        }
+        String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+        String key = oortURL + "|" + data.get(Info.SNAPSHOT_FIELD);
+        Chunks buffer = chunks.computeIfAbsent(key, k -> new Chunks(oortURL, ((Number)count).intValue()));
+        Map<String, Object> result = buffer.add(data);
+        if (result != null) {
+            chunks.remove(key);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Joined object from {} chunks", count);
+            }
+        }
+        return result;
+    }
+
+    boolean hasChunks(String oortURL) {
+        for (Chunks buffer : chunks.values()) {
+            if (buffer.oortURL.equals(oortURL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected Collection<Info<T>> getInfos() {
         List<Info<T>> result = new ArrayList<>(parts.size());
         for (ObjectPart part : parts.values()) {
@@ -547,6 +727,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         public static final String TYPE_FIELD = "oort.info.type";
         public static final String ACTION_FIELD = "oort.info.action";
         public static final String PEER_FIELD = "oort.info.peer";
+        public static final String SINCE_FIELD = "oort.info.since";
+        public static final String SNAPSHOT_FIELD = "oort.info.snapshot";
+        public static final String CHUNK_FIELD = "oort.info.chunk";
+        public static final String CHUNKS_FIELD = "oort.info.chunks";
 
         // The local Oort URL.
         private final String oortURL;
@@ -692,7 +876,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
                 logger.debug("Received broadcast {}", message);
             }
 
-            Map<String, Object> data = message.getDataAsMap();
+            Map<String, Object> data = join(message.getDataAsMap());
+            if (data == null) {
+                return true;
+            }
             String oortURL = (String)data.get(Info.OORT_URL_FIELD);
 
             ObjectPart part = part(oortURL);
@@ -717,7 +904,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
                 logger.debug("Received service {}", message);
             }
 
-            Map<String, Object> data = message.getDataAsMap();
+            Map<String, Object> data = join(message.getDataAsMap());
+            if (data == null) {
+                return true;
+            }
             String oortURL = (String)data.get(Info.OORT_URL_FIELD);
             // Pulls are messages that read the local object, not
             // the object specified by the data's OORT_URL_FIELD,
@@ -800,6 +990,7 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
      */
     private class ObjectPart implements Dumpable {
         private final Deque<Map<String, Object>> updates = new ArrayDeque<>();
+        private final Deque<Map<String, Object>> log = new ArrayDeque<>();
         private boolean active;
         private long versions;
         private Info<T> info;
@@ -827,11 +1018,50 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
                     if (logger.isDebugEnabled()) {
                         logger.debug("Generated version={} for {}", version, data);
                     }
+                    log(data);
                 }
                 updates.offer(data);
             }
         }
 
+        private void log(Map<String, Object> data) {
+            // Only item updates are retained, as they are small;
+            // an update of the whole object makes the log useless.
+            int maxSize = getUpdateLogSize();
+            if (maxSize > 0 && data.containsKey(Info.TYPE_FIELD)) {
+                // Copy to avoid retaining the callback of Data objects.
+                log.offer(new HashMap<>(data));
+                while (log.size() > maxSize) {
+                    log.poll();
+                }
+            } else {
+                log.clear();
+            }
+        }
+
+        /**
+         * @param since the last version known by the requester
+         * @return the updates after the given version, or null if they are not all retained
+         */
+        private List<Map<String, Object>> updatesSince(long since) {
+            synchronized (this) {
+                if (since >= versions) {
+                    return Collections.emptyList();
+                }
+                Map<String, Object> first = log.peek();
+                if (first == null || ((Number)first.get(Info.VERSION_FIELD)).longValue() > since + 1) {
+                    return null;
+                }
+                List<Map<String, Object>> result = new ArrayList<>();
+                for (Map<String, Object> update : log) {
+                    if (((Number)update.get(Info.VERSION_FIELD)).longValue() > since) {
+                        result.add(update);
+                    }
+                }
+                return result;
+            }
+        }
+
         private void process() {
             synchronized (this) {
                 if (active) {
@@ -855,7 +1085,11 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
                 String oortURL = (String)data.get(Info.OORT_URL_FIELD);
 
                 if (ACTION_FIELD_PULL_VALUE.equals(data.get(Info.ACTION_FIELD))) {
-                    pushInfoReply(oortURL);
+                    // Try to send only the updates that the requester missed.
+                    Object since = data.get(Info.SINCE_FIELD);
+                    if (since == null || !pushUpdates(oortURL, ((Number)since).longValue())) {
+                        pushInfoReply(oortURL);
+                    }
                     continue;
                 }
 
@@ -895,11 +1129,68 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         }
     }
 
+    /**
+     * <p>Collects the chunks of an object split by {@link #split(Map)}.</p>
+     */
+    private static class Chunks {
+        private final String oortURL;
+        private final Object[] objects;
+        private Map<String, Object> data;
+        private int count;
+
+        private Chunks(String oortURL, int chunks) {
+            this.oortURL = oortURL;
+            this.objects = new Object[chunks];
+        }
+
+        private Map<String, Object> add(Map<String, Object> chunk) {
+            synchronized (this) {
+                int index = ((Number)chunk.get(Info.CHUNK_FIELD)).intValue();
+                if (objects[index] == null) {
+                    ++count;
+                }
+                objects[index] = chunk.get(Info.OBJECT_FIELD);
+                if (data == null) {
+                    data = chunk;
+                }
+                if (count < objects.length) {
+                    return null;
+                }
+            }
+
+            Map<String, Object> result = new HashMap<>(data);
+            result.remove(Info.SNAPSHOT_FIELD);
+            result.remove(Info.CHUNK_FIELD);
+            result.remove(Info.CHUNKS_FIELD);
+            if (objects[0] instanceof Map) {
+                Map<Object, Object> map = new HashMap<>();
+                for (Object object : objects) {
+                    map.putAll((Map<?, ?>)object);
+                }
+                result.put(Info.OBJECT_FIELD, map);
+            } else {
+                List<Object> list = new ArrayList<>();
+                for (Object object : objects) {
+                    if (object instanceof Object[]) {
+                        list.addAll(Arrays.asList((Object[])object));
+                    } else {
+                        list.addAll((Collection<?>)object);
+                    }
+                }
+                // Preserve the type produced by the JSON parser.
+                result.put(Info.OBJECT_FIELD, objects[0] instanceof Object[] ? list.toArray() : list);
+            }
+            return result;
+        }
+    }
+
     private class InitialStateListener implements ServerChannel.SubscriptionListener {
         @Override
         public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
             // Deliver the local state to the node that subscribed.
-            session.deliver(getLocalSession(), channel.getId(), getInfo(getOort().getURL()), Promise.noop());
+            for (Map<String, Object> chunk : split(getInfo(getOort().getURL()))) {
+                session.deliver(getLocalSession(), channel.getId(), chunk, Promise.noop());
+            }
         }
     }
 }
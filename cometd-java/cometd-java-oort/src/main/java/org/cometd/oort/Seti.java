@@ -17,6 +17,7 @@ package org.cometd.oort;
 
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -24,12 +25,13 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import org.cometd.bayeux.ChannelId;
@@ -81,7 +83,10 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     private static final String SETI_ALL_CHANNEL = "/seti/all";
     private static final List<String> PROTECTED_CHANNELS = Arrays.asList("/seti/**", "/seti/*");
 
-    private final Map<String, Set<Location>> _uid2Location = new HashMap<>();
+    // The values are immutable sets, replaced atomically when they change.
+    private final ConcurrentMap<String, Set<Location>> _uid2Location = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> _oortURL2UserIds = new ConcurrentHashMap<>();
+    private final Object _presenceLock = new Object();
     private final List<PresenceListener> _presenceListeners = new CopyOnWriteArrayList<>();
     private final Oort.CometListener _cometListener = new CometListener();
     private final ServerChannel.SubscriptionListener _initialStateListener = new InitialStateListener();
@@ -226,17 +231,66 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             return false;
         }
 
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.computeIfAbsent(userId, k -> new HashSet<>());
-            boolean result = locations.add(location);
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("Associations: {}", _uid2Location.size());
+        boolean result = addLocation(userId, location);
+        if (result && location instanceof SetiLocation) {
+            String oortURL = ((SetiLocation)location)._oortURL;
+            if (oortURL != null) {
+                _oortURL2UserIds.compute(oortURL, (key, userIds) -> {
+                    if (userIds == null) {
+                        userIds = ConcurrentHashMap.newKeySet();
+                    }
+                    userIds.add(userId);
+                    return userIds;
+                });
             }
-            // Logging below can generate hugely long lines.
-            if (_logger.isTraceEnabled()) {
-                _logger.trace("Associations: {}", _uid2Location);
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Associations: {}", _uid2Location.size());
+        }
+        // Logging below can generate hugely long lines.
+        if (_logger.isTraceEnabled()) {
+            _logger.trace("Associations: {}", _uid2Location);
+        }
+        return result;
+    }
+
+    private boolean addLocation(String userId, Location location) {
+        while (true) {
+            Set<Location> locations = _uid2Location.get(userId);
+            if (locations == null) {
+                if (_uid2Location.putIfAbsent(userId, Collections.singleton(location)) == null) {
+                    return true;
+                }
+            } else {
+                if (locations.contains(location)) {
+                    return false;
+                }
+                Set<Location> newLocations = new HashSet<>(locations);
+                newLocations.add(location);
+                if (_uid2Location.replace(userId, locations, Collections.unmodifiableSet(newLocations))) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private boolean removeLocation(String userId, Location location) {
+        while (true) {
+            Set<Location> locations = _uid2Location.get(userId);
+            if (locations == null || !locations.contains(location)) {
+                return false;
+            }
+            if (locations.size() == 1) {
+                if (_uid2Location.remove(userId, locations)) {
+                    return true;
+                }
+            } else {
+                Set<Location> newLocations = new HashSet<>(locations);
+                newLocations.remove(location);
+                if (_uid2Location.replace(userId, locations, Collections.unmodifiableSet(newLocations))) {
+                    return true;
+                }
             }
-            return result;
         }
     }
 
@@ -270,18 +324,16 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "Whether the given userId is associated locally", impact = "INFO")
     public boolean isAssociated(@Name(value = "userId", description = "The userId to test for local association") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null) {
-                return false;
-            }
-            for (Location location : locations) {
-                if (location instanceof LocalLocation) {
-                    return true;
-                }
-            }
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null) {
             return false;
         }
+        for (Location location : locations) {
+            if (location instanceof LocalLocation) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -292,19 +344,17 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "The number of local associations for the given userId", impact = "INFO")
     public int getAssociationCount(@Name(value = "userId", description = "The userId to test for local association count") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null) {
-                return 0;
-            }
-            int result = 0;
-            for (Location location : locations) {
-                if (location instanceof LocalLocation) {
-                    ++result;
-                }
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null) {
+            return 0;
+        }
+        int result = 0;
+        for (Location location : locations) {
+            if (location instanceof LocalLocation) {
+                ++result;
             }
-            return result;
         }
+        return result;
     }
 
     /**
@@ -316,10 +366,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "Whether the given userId is present in the cloud", impact = "INFO")
     public boolean isPresent(@Name(value = "userId", description = "The userId to test for presence in the cloud") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations != null;
-        }
+        return _uid2Location.containsKey(userId);
     }
 
     /**
@@ -330,10 +377,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "The number of local and remote associations for the given userId", impact = "INFO")
     public int getPresenceCount(@Name(value = "userId", description = "The userId to test for presence count") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations == null ? 0 : locations.size();
-        }
+        Set<Location> locations = _uid2Location.get(userId);
+        return locations == null ? 0 : locations.size();
     }
 
     /**
@@ -391,13 +436,11 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     public Set<ServerSession> disassociate(String userId) {
         Set<LocalLocation> localLocations = new HashSet<>();
-        synchronized (_uid2Location) {
-            Set<Location> userLocations = _uid2Location.get(userId);
-            if (userLocations != null) {
-                for (Location location : userLocations) {
-                    if (location instanceof LocalLocation) {
-                        localLocations.add((LocalLocation)location);
-                    }
+        Set<Location> userLocations = _uid2Location.get(userId);
+        if (userLocations != null) {
+            for (Location location : userLocations) {
+                if (location instanceof LocalLocation) {
+                    localLocations.add((LocalLocation)location);
                 }
             }
         }
@@ -415,32 +458,31 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     }
 
     protected boolean disassociate(String userId, Location location) {
-        synchronized (_uid2Location) {
-            boolean result = false;
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations != null) {
-                result = locations.remove(location);
-                if (locations.isEmpty()) {
-                    _uid2Location.remove(userId);
-                }
-            }
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("Associations: {}", _uid2Location.size());
-            }
-            // Logging below can generate hugely long lines.
-            if (_logger.isTraceEnabled()) {
-                _logger.trace("Associations: {}", _uid2Location);
+        boolean result = removeLocation(userId, location);
+        if (result && location instanceof SetiLocation) {
+            String oortURL = ((SetiLocation)location)._oortURL;
+            if (oortURL != null) {
+                _oortURL2UserIds.computeIfPresent(oortURL, (key, userIds) -> {
+                    userIds.remove(userId);
+                    return userIds.isEmpty() ? null : userIds;
+                });
             }
-            return result;
         }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Associations: {}", _uid2Location.size());
+        }
+        // Logging below can generate hugely long lines.
+        if (_logger.isTraceEnabled()) {
+            _logger.trace("Associations: {}", _uid2Location);
+        }
+        return result;
     }
 
     protected void removeAssociationsAndPresences() {
         Set<String> userIds = new HashSet<>();
-        synchronized (_uid2Location) {
-            getAssociatedUserIds(userIds);
-            _uid2Location.clear();
-        }
+        getAssociatedUserIds(userIds);
+        _uid2Location.clear();
+        _oortURL2UserIds.clear();
         if (_logger.isDebugEnabled()) {
             _logger.debug("Broadcasting association removal for users {}", userIds);
         }
@@ -460,29 +502,18 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     }
 
     private Set<String> removeRemotePresences(String oortURL) {
-        Set<String> userIds = new HashSet<>();
-        synchronized (_uid2Location) {
-            Iterator<Map.Entry<String, Set<Location>>> entries = _uid2Location.entrySet().iterator();
-            while (entries.hasNext()) {
-                Map.Entry<String, Set<Location>> entry = entries.next();
-                Set<Location> userLocations = entry.getValue();
-                Iterator<Location> iterator = userLocations.iterator();
-                while (iterator.hasNext()) {
-                    Location location = iterator.next();
-                    if (location instanceof SetiLocation) {
-                        if (oortURL.equals(((SetiLocation)location)._oortURL)) {
-                            iterator.remove();
-                            userIds.add(entry.getKey());
-                            break;
-                        }
-                    }
-                }
-                if (userLocations.isEmpty()) {
-                    entries.remove();
-                }
+        // Only visit the users of the given comet, without blocking other operations.
+        Set<String> userIds = _oortURL2UserIds.remove(oortURL);
+        if (userIds == null) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>();
+        for (String userId : userIds) {
+            if (removeLocation(userId, new SetiLocation(userId, oortURL))) {
+                result.add(userId);
             }
         }
-        return userIds;
+        return result;
     }
 
     /**
@@ -490,9 +521,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedAttribute(value = "The set of userIds known to this Seti", readonly = true)
     public Set<String> getUserIds() {
-        synchronized (_uid2Location) {
-            return new HashSet<>(_uid2Location.keySet());
-        }
+        return new HashSet<>(_uid2Location.keySet());
     }
 
     /**
@@ -505,13 +534,11 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     }
 
     private void getAssociatedUserIds(Set<String> result) {
-        synchronized (_uid2Location) {
-            for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
-                for (Location location : entry.getValue()) {
-                    if (location instanceof LocalLocation) {
-                        result.add(entry.getKey());
-                        break;
-                    }
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
+            for (Location location : entry.getValue()) {
+                if (location instanceof LocalLocation) {
+                    result.add(entry.getKey());
+                    break;
                 }
             }
         }
@@ -531,29 +558,46 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
     /**
      * <p>Sends a message to multiple userIds in the Oort cloud.</p>
+     * <p>The userIds that are connected to the same remote comet are sent
+     * to that comet with a single message, and the remote comet delivers
+     * the message to its local sessions.</p>
      *
      * @param toUserIds the userIds to send the message to
      * @param toChannel the channel to send the message to
      * @param data      the content of the message
      */
     public void sendMessage(Collection<String> toUserIds, String toChannel, Object data) {
+        List<Map.Entry<String, Location>> locals = new ArrayList<>();
+        // Group the userIds by the Seti channel of their remote comet.
+        Map<String, Set<String>> remotes = new HashMap<>();
         for (String toUserId : toUserIds) {
-            Set<Location> copy = new HashSet<>();
-            synchronized (_uid2Location) {
-                Set<Location> locations = _uid2Location.get(toUserId);
-                if (locations == null) {
-                    copy.add(new SetiLocation(toUserId, null));
-                } else {
-                    copy.addAll(locations);
+            Set<Location> locations = _uid2Location.get(toUserId);
+            if (locations == null) {
+                remotes.computeIfAbsent(SETI_ALL_CHANNEL, k -> new HashSet<>()).add(toUserId);
+            } else {
+                for (Location location : locations) {
+                    if (location instanceof SetiLocation) {
+                        remotes.computeIfAbsent(((SetiLocation)location)._setiChannel, k -> new HashSet<>()).add(toUserId);
+                    } else {
+                        locals.add(new AbstractMap.SimpleImmutableEntry<>(toUserId, location));
+                    }
                 }
             }
+        }
 
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("Sending message to locations {}", copy);
-            }
-            for (Location location : copy) {
-                location.send(toUserId, toChannel, data);
-            }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Sending message to locations {} and remote users {}", locals, remotes);
+        }
+        for (Map.Entry<String, Location> entry : locals) {
+            entry.getValue().send(entry.getKey(), toChannel, data);
+        }
+        for (Map.Entry<String, Set<String>> entry : remotes.entrySet()) {
+            Set<String> userIds = entry.getValue();
+            // Send one message per remote comet.
+            SetiMessage message = userIds.size() == 1 ?
+                    new SetiMessage(userIds.iterator().next(), toChannel, data) :
+                    new SetiMessage(userIds, toChannel, data);
+            _session.getChannel(entry.getKey()).publish(message);
         }
     }
 
@@ -646,7 +690,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
         Set<String> added = new HashSet<>();
         Set<String> removed = new HashSet<>();
-        synchronized (_uid2Location) {
+        // Serialize the updates of remote presences, but not the lookups.
+        synchronized (_presenceLock) {
             if (replace) {
                 removed.addAll(removeRemotePresences(oortURL));
             }
@@ -728,25 +773,54 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      * @param message the seti message received
      */
     protected void receiveMessage(Map<String, Object> message) {
+        if (message.containsKey(SetiMessage.USER_IDS_FIELD)) {
+            receiveMessages(message);
+            return;
+        }
+
         String userId = (String)message.get(SetiMessage.USER_ID_FIELD);
         String channel = (String)message.get(SetiMessage.CHANNEL_FIELD);
         Object data = message.get(SetiMessage.DATA_FIELD);
 
         Set<Location> copy = new HashSet<>();
-        synchronized (_uid2Location) {
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations != null) {
+            // Consider cometA, cometB and cometC and a user that is associated
+            // in both cometA and cometB. When cometC sends a message to the user,
+            // it knows that the user is in both cometA and cometB (thanks to presence
+            // messages) and will send a message to both cometA and cometB.
+            // But cometA also knows from presence messages that the user is also in
+            // cometB and should not forward the message arriving from cometC to cometB
+            // since cometC will take care of sending to cometB.
+            // Hence, we forward the message only locally
+            for (Location location : locations) {
+                if (location instanceof LocalLocation) {
+                    copy.add(location);
+                }
+            }
+        }
+
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Received message {} for locations {}", message, copy);
+        }
+        for (Location location : copy) {
+            location.receive(userId, channel, data);
+        }
+    }
+
+    private void receiveMessages(Map<String, Object> message) {
+        Set<String> userIds = convertUsers(message.get(SetiMessage.USER_IDS_FIELD));
+        String channel = (String)message.get(SetiMessage.CHANNEL_FIELD);
+        Object data = message.get(SetiMessage.DATA_FIELD);
+
+        List<Map.Entry<String, Location>> copy = new ArrayList<>();
+        for (String userId : userIds) {
             Set<Location> locations = _uid2Location.get(userId);
             if (locations != null) {
-                // Consider cometA, cometB and cometC and a user that is associated
-                // in both cometA and cometB. When cometC sends a message to the user,
-                // it knows that the user is in both cometA and cometB (thanks to presence
-                // messages) and will send a message to both cometA and cometB.
-                // But cometA also knows from presence messages that the user is also in
-                // cometB and should not forward the message arriving from cometC to cometB
-                // since cometC will take care of sending to cometB.
-                // Hence, we forward the message only locally
+                // Forward the message only locally, see receiveMessage().
                 for (Location location : locations) {
                     if (location instanceof LocalLocation) {
-                        copy.add(location);
+                        copy.add(new AbstractMap.SimpleImmutableEntry<>(userId, location));
                     }
                 }
             }
@@ -755,14 +829,17 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         if (_logger.isDebugEnabled()) {
             _logger.debug("Received message {} for locations {}", message, copy);
         }
-        for (Location location : copy) {
-            location.receive(userId, channel, data);
+        for (Map.Entry<String, Location> entry : copy) {
+            entry.getValue().receive(entry.getKey(), channel, data);
         }
     }
 
-    @SuppressWarnings("unchecked")
     private Set<String> convertPresenceUsers(Map<String, Object> presence) {
-        Object value = presence.get(SetiPresence.USER_IDS_FIELD);
+        return convertUsers(presence.get(SetiPresence.USER_IDS_FIELD));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> convertUsers(Object value) {
         if (value instanceof Set) {
             return (Set<String>)value;
         }
@@ -784,18 +861,12 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         boolean detailed = ((BayeuxServerImpl)getOort().getBayeuxServer()).isDetailedDump();
         if (detailed) {
             List<Map.Entry<String, ? extends Set<Location>>> locations;
-            synchronized (_uid2Location) {
-                locations = new TreeMap<>(_uid2Location).entrySet().stream()
-                        .map(entry -> new AbstractMap.SimpleEntry<>(entry.getKey(), new HashSet<>(entry.getValue())))
-                        .collect(Collectors.toList());
-            }
+            locations = new TreeMap<>(_uid2Location).entrySet().stream()
+                    .map(entry -> new AbstractMap.SimpleEntry<>(entry.getKey(), new HashSet<>(entry.getValue())))
+                    .collect(Collectors.toList());
             Dumpable.dumpObjects(out, indent, this, new DumpableCollection("locations", locations));
         } else {
-            int size;
-            synchronized (_uid2Location) {
-                size = _uid2Location.size();
-            }
-            Dumpable.dumpObjects(out, indent, this, "locations size=" + size);
+            Dumpable.dumpObjects(out, indent, this, "locations size=" + _uid2Location.size());
         }
     }
 
@@ -923,6 +994,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
     private class SetiMessage extends HashMap<String, Object> {
         private static final String USER_ID_FIELD = "userId";
+        private static final String USER_IDS_FIELD = "userIds";
         private static final String CHANNEL_FIELD = "channel";
         private static final String SETI_ID_FIELD = "setiId";
         private static final String DATA_FIELD = "data";
@@ -934,6 +1006,14 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             put(SETI_ID_FIELD, _setiId);
             put(DATA_FIELD, data);
         }
+
+        private SetiMessage(Collection<String> toUsers, String toChannel, Object data) {
+            super(4);
+            put(USER_IDS_FIELD, toUsers);
+            put(CHANNEL_FIELD, toChannel);
+            put(SETI_ID_FIELD, _setiId);
+            put(DATA_FIELD, data);
+        }
     }
 
     private class SetiPresence extends HashMap<String, Object> {
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.eclipse.jetty.server.Server;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class OortInterestRoutingTest extends OortTest {
+    @Test
+    public void testOverlaps() {
+        Assertions.assertTrue(OortInterest.overlaps(new ChannelId("/a/b"), new ChannelId("/a/b")));
+        Assertions.assertTrue(OortInterest.overlaps(new ChannelId("/a/*"), new ChannelId("/a/b")));
+        Assertions.assertTrue(OortInterest.overlaps(new ChannelId("/a/*"), new ChannelId("/a/**")));
+        Assertions.assertTrue(OortInterest.overlaps(new ChannelId("/a/**"), new ChannelId("/a/b/c")));
+        Assertions.assertTrue(OortInterest.overlaps(new ChannelId("/a/b/c"), new ChannelId("/a/**")));
+        Assertions.assertFalse(OortInterest.overlaps(new ChannelId("/a/*"), new ChannelId("/a/b/c")));
+        Assertions.assertFalse(OortInterest.overlaps(new ChannelId("/a/*"), new ChannelId("/b/c")));
+        Assertions.assertFalse(OortInterest.overlaps(new ChannelId("/a/b"), new ChannelId("/a")));
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMessagesForwardedOnlyToInterestedNodes(String serverTransport) throws Exception {
+        Server server1 = startServer(serverTransport, 0);
+        Oort oort1 = startInterestOort(server1);
+        Server server2 = startServer(serverTransport, 0);
+        Oort oort2 = startInterestOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assertions.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Count the messages forwarded to Oort1.
+        String rootChannelName = "/oort_test";
+        AtomicInteger forwarded = new AtomicInteger();
+        oort1.getBayeuxServer().addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (oort1.isOort(from) && message.getChannel().startsWith(rootChannelName)) {
+                    forwarded.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assertions.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assertions.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        oort1.observeChannel(rootChannelName + "/*", true);
+
+        // Wait a while to be sure to be subscribed and the interest advertised.
+        Thread.sleep(1000);
+
+        // No subscribers on Oort1, the message must not be forwarded.
+        String channelName = rootChannelName + "/foo";
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Thread.sleep(1000);
+        Assertions.assertEquals(0, forwarded.get());
+
+        // Subscribe client1.
+        LatchListener subscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener(1);
+        client1.getChannel(channelName).subscribe(messageLatch1);
+        Assertions.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        // Wait for the interest to be advertised.
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Assertions.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+        // Other channels must not be forwarded.
+        client2.getChannel(rootChannelName + "/bar").publish(new HashMap<>());
+        Thread.sleep(1000);
+        Assertions.assertEquals(1, forwarded.get());
+
+        // Unsubscribe client1.
+        LatchListener unsubscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_UNSUBSCRIBE).addListener(unsubscribeLatch1);
+        client1.getChannel(channelName).unsubscribe(messageLatch1);
+        Assertions.assertTrue(unsubscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        // Wait for the interest to be advertised.
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Thread.sleep(1000);
+        Assertions.assertEquals(1, forwarded.get());
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testChannelObservedWithoutInterestIsAlwaysForwarded(String serverTransport) throws Exception {
+        Server server1 = startServer(serverTransport, 0);
+        Oort oort1 = startInterestOort(server1);
+        Server server2 = startServer(serverTransport, 0);
+        Oort oort2 = startInterestOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assertions.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Listen to the channel without subscribing.
+        String channelName = "/oort_test";
+        CountDownLatch messageLatch = new CountDownLatch(1);
+        oort1.getBayeuxServer().createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                messageLatch.countDown();
+                return true;
+            }
+        });
+        oort1.observeChannel(channelName);
+
+        // Wait a while to be sure to be subscribed and the interest advertised.
+        Thread.sleep(1000);
+
+        BayeuxClient client2 = startClient(oort2, null);
+        Assertions.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Assertions.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    private Oort startInterestOort(Server server) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        bayeuxServer.setOption(Server.class.getName(), server);
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setInterestRoutingEnabled(true);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
+}
@@ -17,14 +17,19 @@ package org.cometd.oort;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.cometd.bayeux.BinaryData;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.BayeuxClient;
+import org.cometd.server.ServerMessageImpl;
 import org.cometd.server.ext.BinaryExtension;
 import org.eclipse.jetty.server.Server;
 import org.junit.jupiter.api.Assertions;
@@ -202,6 +207,69 @@ public class OortObserveChannelTest extends OortTest {
         Assertions.assertFalse(messageLatch1.await(1, TimeUnit.SECONDS));
     }
 
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testObserveChannelWithRawJSON(String serverTransport) throws Exception {
+        Server server1 = startServer(serverTransport, 0);
+        Oort oort1 = startOort(server1);
+        oort1.setRawJSONEnabled(true);
+        Server server2 = startServer(serverTransport, 0);
+        Oort oort2 = startOort(server2);
+        oort2.setRawJSONEnabled(true);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assertions.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Capture the forwarded message, before it is frozen.
+        String channelName = "/oort_test";
+        AtomicReference<ServerMessageImpl> forwarded = new AtomicReference<>();
+        oort1.getBayeuxServer().addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+                if (channelName.equals(message.getChannel()) && message.getData() != null) {
+                    forwarded.set((ServerMessageImpl)message);
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assertions.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assertions.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Oort1 observes the channel, so any publish to Oort2 is forwarded to Oort1.
+        oort1.observeChannel(channelName);
+
+        // Wait a while to be sure to be subscribed.
+        Thread.sleep(1000);
+
+        String text = "\u20AC";
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        CountDownLatch messageLatch = new CountDownLatch(1);
+        client1.getChannel(channelName).subscribe((channel, message) -> {
+            if (text.equals(message.getDataAsMap().get("text"))) {
+                messageLatch.countDown();
+            }
+        }, message -> subscribeLatch.countDown());
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        client2.getChannel(channelName).publish(new HashMap<>(Collections.singletonMap("text", text)));
+        Assertions.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        // The JSON of the forwarded message must have been reused.
+        ServerMessageImpl message = forwarded.get();
+        Assertions.assertNotNull(message.getRawJSON());
+        Assertions.assertSame(message.getRawJSON(), message.getJSON());
+    }
+
     @ParameterizedTest
     @MethodSource("transports")
     public void testBinaryMessageOnObservedChannel(String serverTransport) throws Exception {
@@ -23,7 +23,12 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.BayeuxClient;
 import org.cometd.server.AbstractServerTransport;
 import org.eclipse.jetty.server.Server;
@@ -437,6 +442,149 @@ public class OortStringMapTest extends AbstractOortObjectTest {
         Assertions.assertEquals(map1, map2);
     }
 
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testLostEntryIsReplayed(String serverTransport) throws Exception {
+        prepare(serverTransport);
+
+        String name = "replay_entry";
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        AtomicInteger objects = new AtomicInteger();
+        OortStringMap<String> oortMap2 = new OortStringMap<String>(oort2, name, factory) {
+            private int peerMessages;
+
+            @Override
+            protected void onObject(Map<String, Object> data) {
+                String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+                if (!getOort().getURL().equals(oortURL)) {
+                    if ("oort.map.entry".equals(data.get(Info.TYPE_FIELD))) {
+                        ++peerMessages;
+                        // Simulate that the second and third entry updates get lost.
+                        if (peerMessages == 2 || peerMessages == 3) {
+                            return;
+                        }
+                    } else {
+                        objects.incrementAndGet();
+                    }
+                }
+                super.onObject(data);
+            }
+        };
+        startOortObjects(oortMap1, oortMap2);
+        int initialObjects = objects.get();
+
+        String key1 = "key1";
+        OortObject.Result.Deferred<String> result1 = new OortObject.Result.Deferred<>();
+        oortMap1.putAndShare(key1, "value1", result1);
+        result1.get(5, TimeUnit.SECONDS);
+        String key2 = "key2";
+        oortMap1.putAndShare(key2, "value2", null);
+        oortMap1.removeAndShare(key1, null);
+
+        // Wait for the updates to be lost.
+        Thread.sleep(1000);
+
+        // Verify that the objects are out-of-sync.
+        Assertions.assertNull(oortMap1.get(key1));
+        Assertions.assertNotNull(oortMap2.find(key1));
+        Assertions.assertNull(oortMap2.find(key2));
+
+        // Update again, the lost updates should be replayed.
+        String key3 = "key3";
+        CountDownLatch latch = new CountDownLatch(1);
+        oortMap2.addEntryListener(new OortMap.EntryListener<String, String>() {
+            @Override
+            public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry) {
+                if (entry.getKey().equals(key3)) {
+                    latch.countDown();
+                }
+            }
+        });
+        oortMap1.putAndShare(key3, "value3", null);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Make sure that the maps are in sync.
+        ConcurrentMap<String, String> map1 = oortMap1.merge(OortObjectMergers.concurrentMapUnion());
+        ConcurrentMap<String, String> map2 = oortMap2.merge(OortObjectMergers.concurrentMapUnion());
+        Assertions.assertEquals(map1, map2);
+        // Make sure that the whole object has not been sent.
+        Assertions.assertEquals(initialObjects, objects.get());
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testNodeSyncWithChunks(String serverTransport) throws Exception {
+        prepare(serverTransport);
+
+        String name = "chunked_sync";
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        oortMap1.setChunkSize(16);
+        OortStringMap<String> oortMap2 = new OortStringMap<>(oort2, name, factory);
+        startOortObjects(oortMap1, oortMap2);
+
+        // Disconnect one node.
+        CountDownLatch leftLatch = new CountDownLatch(2);
+        CometLeftListener leftListener = new CometLeftListener(leftLatch);
+        oort1.addCometListener(leftListener);
+        oort2.addCometListener(leftListener);
+        OortComet comet12 = oort1.findComet(oort2.getURL());
+        OortComet comet21 = oort2.findComet(oort1.getURL());
+        comet21.disconnect();
+        Assertions.assertTrue(leftLatch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(comet12.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+        Assertions.assertTrue(comet21.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+
+        int size = 1000;
+        for (int i = 0; i < size; ++i) {
+            oortMap1.putAndShare(String.valueOf(i), "value_" + i, null);
+        }
+
+        // Count the chunks received by node2.
+        AtomicInteger chunks = new AtomicInteger();
+        ServerChannel.MessageListener chunkListener = new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerChannel channel, ServerMessage.Mutable message) {
+                if (message.getDataAsMap().containsKey(OortObject.Info.CHUNKS_FIELD)) {
+                    chunks.incrementAndGet();
+                }
+                return true;
+            }
+        };
+        BayeuxServer bayeuxServer2 = oort2.getBayeuxServer();
+        bayeuxServer2.getChannel(oortMap2.getChannelName()).addListener(chunkListener);
+        bayeuxServer2.getChannel("/service" + oortMap2.getChannelName()).addListener(chunkListener);
+
+        CountDownLatch syncLatch = new CountDownLatch(1);
+        oortMap2.addListener(new OortObject.Listener<ConcurrentMap<String, String>>() {
+            @Override
+            public void onUpdated(OortObject.Info<ConcurrentMap<String, String>> oldInfo, OortObject.Info<ConcurrentMap<String, String>> newInfo) {
+                if (newInfo.getOortURL().equals(oort1.getURL())) {
+                    if (newInfo.getObject().size() == size) {
+                        syncLatch.countDown();
+                    }
+                }
+            }
+        });
+
+        // Reconnect the node.
+        CountDownLatch joinedLatch = new CountDownLatch(2);
+        CometJoinedListener joinedListener = new CometJoinedListener(joinedLatch);
+        oort1.addCometListener(joinedListener);
+        oort2.addCometListener(joinedListener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(joinedLatch.await(5, TimeUnit.SECONDS));
+
+        // Wait for the maps to sync.
+        Assertions.assertTrue(syncLatch.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertTrue(chunks.get() >= size / oortMap1.getChunkSize());
+        Assertions.assertEquals(oortMap1.getInfo(oort1.getURL()).getObject(), oortMap2.getInfo(oort1.getURL()).getObject());
+    }
+
     @ParameterizedTest
     @MethodSource("transports")
     public void testNodeSyncWithLargeMap(String serverTransport) throws Exception {
@@ -137,6 +137,67 @@ public class SetiTest extends OortTest {
         Assertions.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
     }
 
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testSendMessageToMultipleUsers(String serverTransport) throws Exception {
+        Server server1 = startServer(serverTransport, 0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(serverTransport, 0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assertions.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Seti seti1 = startSeti(oort1);
+        Seti seti2 = startSeti(oort2);
+
+        // Count the Seti messages that arrive to Oort2.
+        AtomicInteger setiMessages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Object data = message.getData();
+                if (oort2.isOort(from) && data instanceof Map && ((Map<?, ?>)data).containsKey("channel")) {
+                    setiMessages.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        String channel = "/service/multi";
+        int count = 10;
+        List<String> userIds = new ArrayList<>();
+        CountDownLatch messageLatch = new CountDownLatch(count + 1);
+        for (int i = 0; i < count + 1; ++i) {
+            String userId = "user" + i;
+            userIds.add(userId);
+            // The first user is local to Oort1, the others are on Oort2.
+            Oort oort = i == 0 ? oort1 : oort2;
+            Seti seti = i == 0 ? seti1 : seti2;
+            LocalSession session = oort.getBayeuxServer().newLocalSession(userId);
+            session.getChannel(channel).addListener((ClientSessionChannel.MessageListener)(c, m) -> messageLatch.countDown());
+            session.handshake();
+            seti.associate(userId, session.getServerSession());
+        }
+
+        long begin = System.nanoTime();
+        while (!userIds.stream().allMatch(seti1::isPresent)) {
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin) < 5);
+            Thread.sleep(10);
+        }
+
+        seti1.sendMessage(userIds, channel, "hello");
+
+        Assertions.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        // The remote users must have been sent a single message.
+        Assertions.assertEquals(1, setiMessages.get());
+    }
+
     @ParameterizedTest
     @MethodSource("transports")
     public void testDisassociate(String serverTransport) throws Exception {
@@ -800,6 +861,101 @@ public class SetiTest extends OortTest {
         Assertions.assertEquals(1, seti1.getPresenceCount(userId2));
     }
 
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testCometLeftRemovesOnlyItsPresences(String serverTransport) throws Exception {
+        Server server1 = startServer(serverTransport, 0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(serverTransport, 0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assertions.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assertions.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Seti seti1 = startSeti(oort1);
+        Seti seti2 = startSeti(oort2);
+        // Wait for cloud/seti notifications to happen
+        Thread.sleep(1000);
+
+        String channel = "/service/local";
+        AtomicInteger localMessages = new AtomicInteger();
+        String localUserId = "local";
+        LocalSession localSession = oort1.getBayeuxServer().newLocalSession(localUserId);
+        localSession.getChannel(channel).addListener((ClientSessionChannel.MessageListener)(c, m) -> localMessages.incrementAndGet());
+        localSession.handshake();
+        seti1.associate(localUserId, localSession.getServerSession());
+
+        // A user associated on both nodes.
+        String sharedUserId = "shared";
+        LocalSession sharedSession1 = oort1.getBayeuxServer().newLocalSession(sharedUserId);
+        sharedSession1.handshake();
+        seti1.associate(sharedUserId, sharedSession1.getServerSession());
+        LocalSession sharedSession2 = oort2.getBayeuxServer().newLocalSession(sharedUserId);
+        sharedSession2.handshake();
+        seti2.associate(sharedUserId, sharedSession2.getServerSession());
+
+        // Wait for the initial presences to be processed.
+        long begin = System.nanoTime();
+        while (seti1.getPresenceCount(sharedUserId) != 2) {
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin) < 5);
+            Thread.sleep(10);
+        }
+
+        int count = 100;
+        List<String> remoteUserIds = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            String userId = "remote" + i;
+            remoteUserIds.add(userId);
+            LocalSession session = oort2.getBayeuxServer().newLocalSession(userId);
+            session.handshake();
+            seti2.associate(userId, session.getServerSession());
+        }
+
+        begin = System.nanoTime();
+        while (!remoteUserIds.stream().allMatch(seti1::isPresent)) {
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin) < 5);
+            Thread.sleep(10);
+        }
+
+        CountDownLatch presenceRemovedLatch = new CountDownLatch(count + 1);
+        seti1.addPresenceListener(new UserAbsentListener(presenceRemovedLatch));
+
+        // Route messages to the local user while the remote presences are removed.
+        AtomicBoolean sending = new AtomicBoolean(true);
+        AtomicInteger sent = new AtomicInteger();
+        Thread sender = new Thread(() -> {
+            while (sending.get()) {
+                seti1.sendMessage(localUserId, channel, "hello");
+                sent.incrementAndGet();
+            }
+        });
+        sender.start();
+
+        // Simulate network crash
+        oortComet12.disconnect();
+        oortComet12.waitFor(5000, BayeuxClient.State.DISCONNECTED);
+        // The other OortComet is automatically disconnected
+        oortComet21.waitFor(5000, BayeuxClient.State.DISCONNECTED);
+
+        Assertions.assertTrue(presenceRemovedLatch.await(5, TimeUnit.SECONDS));
+        sending.set(false);
+        sender.join();
+
+        Assertions.assertEquals(sent.get(), localMessages.get());
+        for (String userId : remoteUserIds) {
+            Assertions.assertFalse(seti1.isPresent(userId));
+        }
+        Assertions.assertTrue(seti1.isAssociated(localUserId));
+        Assertions.assertTrue(seti1.isAssociated(sharedUserId));
+        Assertions.assertEquals(1, seti1.getPresenceCount(sharedUserId));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList(localUserId, sharedUserId)), seti1.getUserIds());
+    }
+
     @ParameterizedTest
     @MethodSource("transports")
     public void testMultipleServerCrashes(String serverTransport) throws Exception {
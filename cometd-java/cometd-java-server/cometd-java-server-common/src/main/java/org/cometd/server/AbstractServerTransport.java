@@ -17,12 +17,16 @@ package org.cometd.server;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerTransport;
 import org.cometd.common.AbstractTransport;
+import org.cometd.common.JSONContext;
 import org.eclipse.jetty.util.component.Dumpable;
 
 /**
@@ -180,6 +184,29 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
         return _jsonContext.parse(json);
     }
 
+    /**
+     * <p>Parses the given UTF-8 JSON bytes into messages.</p>
+     * <p>If the JSON context supports {@link JSONContext#newAsyncParser() non-blocking parsing},
+     * the bytes are parsed directly, without converting them to a string first.</p>
+     *
+     * @param json the UTF-8 JSON bytes to parse
+     * @return the parsed messages
+     * @throws ParseException if the JSON is malformed
+     */
+    public ServerMessage.Mutable[] parseMessages(ByteBuffer json) throws ParseException {
+        JSONContext.AsyncParser parser = _jsonContext.newAsyncParser();
+        if (parser == null) {
+            return parseMessages(StandardCharsets.UTF_8.decode(json).toString());
+        }
+        try {
+            parser.parse(json);
+            List<ServerMessage.Mutable> messages = parser.complete();
+            return messages == null ? null : messages.toArray(new ServerMessage.Mutable[0]);
+        } catch (IllegalArgumentException | IllegalStateException x) {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
     private String read(BufferedReader reader) throws IOException {
         int maxMessageSize = getMaxMessageSize();
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.Authorizer;
+
+/**
+ * <p>Caches authorization results per session, operation and channel,
+ * so that {@link Authorizer}s are not run for every message.</p>
+ * <p>Cached results expire after a time-to-live, and are invalidated
+ * when authorizers are added or removed, or when channels with
+ * authorizers are removed.</p>
+ */
+class AuthorizationCache {
+    private static final int MAX_ENTRIES_PER_SESSION = 256;
+
+    private final AtomicLong epoch = new AtomicLong();
+    private final long ttl;
+
+    /**
+     * @param ttl the time-to-live of cached results, in milliseconds
+     */
+    AuthorizationCache(long ttl) {
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * @return the current epoch, to be captured before evaluating the authorizers
+     */
+    long epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * <p>Invalidates all cached results.</p>
+     */
+    void invalidate() {
+        epoch.incrementAndGet();
+    }
+
+    Authorizer.Result get(ServerSessionImpl session, Authorizer.Operation operation, ChannelId channelId) {
+        Entry[] entries = session.getAuthorizations().get(channelId.getId());
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = entries[operation.ordinal()];
+        if (entry == null) {
+            return null;
+        }
+        if (entry.epoch != epoch.get() || System.nanoTime() - entry.expiration >= 0) {
+            return null;
+        }
+        return entry.result;
+    }
+
+    void put(ServerSessionImpl session, Authorizer.Operation operation, ChannelId channelId, long epoch, Authorizer.Result result) {
+        ConcurrentMap<String, Entry[]> authorizations = session.getAuthorizations();
+        Entry[] entries = authorizations.get(channelId.getId());
+        if (entries == null) {
+            // Bound the memory used by sessions that use many channels.
+            if (authorizations.size() >= MAX_ENTRIES_PER_SESSION) {
+                authorizations.clear();
+            }
+            entries = new Entry[Authorizer.Operation.values().length];
+            Entry[] existing = authorizations.putIfAbsent(channelId.getId(), entries);
+            if (existing != null) {
+                entries = existing;
+            }
+        }
+        entries[operation.ordinal()] = new Entry(result, epoch, System.nanoTime() + ttl);
+    }
+
+    static class Entry {
+        private final Authorizer.Result result;
+        private final long epoch;
+        private final long expiration;
+
+        private Entry(Authorizer.Result result, long epoch, long expiration) {
+            this.result = result;
+            this.epoch = epoch;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -20,8 +20,9 @@ import java.lang.reflect.Constructor;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +62,7 @@ import org.cometd.server.http.AbstractHttpTransport;
 import org.cometd.server.http.AsyncJSONTransport;
 import org.cometd.server.http.JSONPTransport;
 import org.cometd.server.http.JSONTransport;
+import org.cometd.server.metrics.DefaultServerMetrics;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -83,6 +85,12 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     public static final String BROADCAST_TO_PUBLISHER_OPTION = "broadcastToPublisher";
     public static final String SCHEDULER_THREADS = "schedulerThreads";
     public static final String EXECUTOR_MAX_THREADS = "executorMaxThreads";
+    public static final String EXECUTOR_TYPE_OPTION = "executorType";
+    public static final String METRICS_OPTION = "metrics";
+    public static final String AUTHORIZATION_CACHE_TTL_OPTION = "authorizationCacheTTL";
+    public static final String QUEUE_SPILL_THRESHOLD_OPTION = "queueSpillThreshold";
+    public static final String QUEUE_SPILL_SEGMENT_SIZE_OPTION = "queueSpillSegmentSize";
+    public static final String QUEUE_SPILL_MAX_POOLED_SEGMENTS_OPTION = "queueSpillMaxPooledSegments";
 
     private final String _name = getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this));
     private final Logger _logger = LoggerFactory.getLogger(getClass().getPackage().getName() + "." + _name);
@@ -91,16 +99,26 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<String, ServerSessionImpl> _sessions = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ServerChannelImpl> _channels = new ConcurrentHashMap<>();
+    private final SubscriptionTrie _subscriptionTrie = new SubscriptionTrie();
+    private final PublishStamps _publishStamps = new PublishStamps();
+    private final Set<ServerChannelImpl> _sweepChannels = ConcurrentHashMap.newKeySet();
     private final Map<String, ServerTransport> _transports = new LinkedHashMap<>(); // Order is important
     private final List<String> _allowedTransports = new ArrayList<>();
     private final Map<String, Object> _options = new TreeMap<>();
     private MarkedReference<Scheduler> _scheduler;
     private MarkedReference<Executor> _executor;
+    private MarkedReference<ServerMetrics> _metrics;
+    private volatile SessionSweeper _sessionSweeper;
     private SecurityPolicy _policy = new DefaultSecurityPolicy();
     private JSONContextServer _jsonContext;
+    private AuthorizationCache _authorizationCache;
+    private SpillingServerSessionQueue.SegmentPool _spillPool;
+    private int _spillThreshold;
+    private boolean _virtualThreads;
     private boolean _validation;
     private boolean _broadcastToPublisher;
     private boolean _detailedDump;
+    private volatile boolean _conflating;
 
     public String getName() {
         return _name;
@@ -116,14 +134,32 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             _executor = new MarkedReference<>(newExecutor(), true);
         }
         addBean(_executor.getReference());
+        _virtualThreads = getExecutor() instanceof VirtualThreadsExecutor;
 
         if (_scheduler == null) {
             _scheduler = new MarkedReference<>(newScheduler(), true);
         }
         addBean(_scheduler.getReference());
 
+        if (_metrics == null && getOption(METRICS_OPTION, false)) {
+            _metrics = new MarkedReference<>(new DefaultServerMetrics(), true);
+        }
+        if (_metrics != null) {
+            addBean(_metrics.getReference());
+        }
+
         _validation = getOption(VALIDATE_MESSAGE_FIELDS_OPTION, true);
         _broadcastToPublisher = getOption(BROADCAST_TO_PUBLISHER_OPTION, true);
+        long authorizationCacheTTL = getOption(AUTHORIZATION_CACHE_TTL_OPTION, 0L);
+        _authorizationCache = authorizationCacheTTL > 0 ? new AuthorizationCache(authorizationCacheTTL) : null;
+        _spillThreshold = (int)getOption(QUEUE_SPILL_THRESHOLD_OPTION, 0);
+        if (_spillThreshold > 0) {
+            int segmentSize = (int)getOption(QUEUE_SPILL_SEGMENT_SIZE_OPTION, 64 * 1024);
+            int maxPooled = (int)getOption(QUEUE_SPILL_MAX_POOLED_SEGMENTS_OPTION, 1024);
+            _spillPool = new SpillingServerSessionQueue.SegmentPool(segmentSize, maxPooled);
+        } else {
+            _spillPool = null;
+        }
 
         super.doStart();
 
@@ -133,6 +169,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             sweepPeriodOption = defaultSweepPeriod;
         }
         long sweepPeriod = sweepPeriodOption;
+        _sessionSweeper = new SessionSweeper(sweepPeriod, 512);
         schedule(new Runnable() {
             @Override
             public void run() {
@@ -156,6 +193,13 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         _extensions.clear();
         _sessions.clear();
         _channels.clear();
+        _subscriptionTrie.clear();
+        _sweepChannels.clear();
+        SessionSweeper sessionSweeper = _sessionSweeper;
+        _sessionSweeper = null;
+        if (sessionSweeper != null) {
+            sessionSweeper.clear();
+        }
         _transports.clear();
         _allowedTransports.clear();
         _options.clear();
@@ -167,6 +211,12 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         if (_executor.isMarked()) {
             _executor = null;
         }
+        if (_metrics != null) {
+            removeBean(_metrics.getReference());
+            if (_metrics.isMarked()) {
+                _metrics = null;
+            }
+        }
     }
 
     protected void initializeMetaChannels() {
@@ -304,8 +354,37 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return _executor == null ? null : _executor.getReference();
     }
 
+    /**
+     * <p>Sets the {@link ServerMetrics} notified of the events relevant
+     * to measure the performance of this server.</p>
+     * <p>When no metrics are set, and the {@link #METRICS_OPTION} is
+     * {@code true}, a {@link DefaultServerMetrics} is used.</p>
+     *
+     * @param metrics the server metrics
+     */
+    public void setMetrics(ServerMetrics metrics) {
+        if (isRunning()) {
+            throw new IllegalStateException("Cannot set metrics on a running BayeuxServer instance");
+        }
+        _metrics = new MarkedReference<>(Objects.requireNonNull(metrics), false);
+    }
+
+    /**
+     * @return the server metrics, or null if metrics are disabled
+     */
+    public ServerMetrics getMetrics() {
+        return _metrics == null ? null : _metrics.getReference();
+    }
+
     private Executor newExecutor() {
         String name = _name + "-Executor";
+        if ("virtual".equals(getOption(EXECUTOR_TYPE_OPTION))) {
+            Executor executor = VirtualThreadsExecutor.newInstance(name);
+            if (executor != null) {
+                return executor;
+            }
+            _logger.warn("Virtual threads not supported by this JDK, using platform threads");
+        }
         int maxThreads = (int)getOption(EXECUTOR_MAX_THREADS, 128);
         QueuedThreadPool executor = new QueuedThreadPool(maxThreads, 0);
         executor.setName(name);
@@ -313,6 +392,37 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return executor;
     }
 
+    /**
+     * @return whether the executor of this server runs jobs in virtual threads
+     * @see #EXECUTOR_TYPE_OPTION
+     */
+    public boolean isVirtualThreads() {
+        return _virtualThreads;
+    }
+
+    /**
+     * <p>Runs the given call, that may block, in a virtual thread when the
+     * executor runs jobs in virtual threads, so that the thread that
+     * received the message is not blocked; otherwise, runs it in the
+     * caller thread.</p>
+     *
+     * @param blocking whether the call may block
+     * @param call     the call to run
+     */
+    private void callBlocking(boolean blocking, Runnable call) {
+        if (blocking && isVirtualThreads()) {
+            try {
+                execute(call);
+                return;
+            } catch (RejectedExecutionException x) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Could not execute in a virtual thread " + call, x);
+                }
+            }
+        }
+        call.run();
+    }
+
     public void execute(Runnable job) {
         Executor executor = getExecutor();
         if (executor == null) {
@@ -441,16 +551,34 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
 
         if (channel == null) {
-            ServerChannelImpl candidate = new ServerChannelImpl(this, channelId);
+            // Non-wild channels without initializers, typically per-user
+            // or per-request channels, are added already initialized,
+            // so that other threads never wait for their initialization.
+            // ChannelListeners are Initializers too, so there is no
+            // ChannelListener to notify before these channels are used.
+            boolean initialize = initializers.length > 0 || channelId.isWild() || hasChannelInitializers();
+            ServerChannelImpl candidate = new ServerChannelImpl(this, channelId, !initialize);
             channel = _channels.putIfAbsent(channelName, candidate);
             if (channel == null) {
                 // My candidate channel was added to the map, so I'd better initialize it
 
                 channel = candidate;
+                if (channel.isBroadcast()) {
+                    _subscriptionTrie.add(channel);
+                }
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Added channel {}", channel);
                 }
 
+                if (!initialize && hasChannelInitializers()) {
+                    // An Initializer or a ChannelListener has been added concurrently,
+                    // after the check above: it is not skipped, and from now on other
+                    // threads wait for it to run, although the threads that got the
+                    // channel in the meantime may already use it, as if the listener
+                    // had been added after the channel.
+                    channel.uninitialized();
+                }
+
                 try {
                     for (Initializer initializer : initializers) {
                         notifyConfigureChannel(initializer, channel);
@@ -478,13 +606,27 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             // Double check if the sweeper removed this channel between the check at the top and here.
             // This is not 100% fool proof (e.g. this thread is preempted long enough for the sweeper
             // to remove the channel, but the alternative is to have a global lock)
-            _channels.putIfAbsent(channelName, channel);
+            if (_channels.putIfAbsent(channelName, channel) == null) {
+                if (channel.isBroadcast()) {
+                    _subscriptionTrie.add(channel);
+                }
+                scheduleSweep(channel);
+            }
         }
         // Another thread may add this channel concurrently, so wait until it is initialized
         channel.waitForInitialized();
         return new MarkedReference<>(channel, initialized);
     }
 
+    private boolean hasChannelInitializers() {
+        for (BayeuxServer.BayeuxServerListener listener : _listeners) {
+            if (listener instanceof ServerChannel.Initializer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void notifyConfigureChannel(Initializer listener, ServerChannel channel) {
         try {
             listener.configureChannel(channel);
@@ -568,6 +710,11 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
         boolean connected = removed.removed(message, timeout);
 
+        ServerMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.onSessionRemoved(removed);
+        }
+
         return new MarkedReference<>(removed, connected);
     }
 
@@ -583,6 +730,63 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return new ServerSessionImpl(this);
     }
 
+    /**
+     * <p>Creates a session with the given id in the handshaken state, and adds it,
+     * to resume a session of a previous server instance, for example from
+     * persisted state.</p>
+     *
+     * @param clientId the id of the session to resume
+     * @return the resumed session, or null if a session with the given id already exists
+     * @see #resumeServerSession(String, Collection)
+     */
+    public ServerSessionImpl resumeServerSession(String clientId) {
+        return resumeServerSession(clientId, Collections.emptyList());
+    }
+
+    /**
+     * <p>Creates a session with the given id in the handshaken state, and adds it,
+     * to resume a session of a previous server instance, for example from
+     * persisted state.</p>
+     * <p>When the remote client sends a {@code /meta/connect} with the given id,
+     * it finds the session as if it had handshaken with this server instance.
+     * If the remote client does not reconnect, the session expires.</p>
+     * <p>The session is not authorized when it is resumed: {@link SessionListener}s
+     * are notified with a null message, and the session has none of the attributes
+     * that were set when it handshook with the previous server instance.
+     * The first {@code /meta/connect} of the session is passed to
+     * {@link SecurityPolicy#canHandshake(BayeuxServer, ServerSession, ServerMessage, Promise)},
+     * so that the policy can re-authenticate the remote client, for example from the
+     * cookies of the {@link ServerMessage#getBayeuxContext() BayeuxContext}, and restore
+     * the session attributes; if the policy denies it, the session is removed and the
+     * remote client is advised to handshake again.
+     * Only then the session is subscribed to the given channels, each subscription
+     * being authorized as if the remote client had sent a {@code /meta/subscribe};
+     * messages published to those channels before the session reconnects are not
+     * delivered to it.</p>
+     *
+     * @param clientId the id of the session to resume
+     * @param channels the channels to subscribe the session to, once it is re-authorized
+     * @return the resumed session, or null if a session with the given id already exists
+     */
+    public ServerSessionImpl resumeServerSession(String clientId, Collection<String> channels) {
+        if (_sessions.containsKey(clientId)) {
+            return null;
+        }
+        ServerSessionImpl session = new ServerSessionImpl(this, clientId);
+        session.handshake(null);
+        session.resumed(new ArrayList<>(channels));
+        addServerSession(session, null);
+        for (String allowedTransportName : getAllowedTransports()) {
+            ServerTransport transport = getTransport(allowedTransportName);
+            if (transport instanceof AbstractServerTransport) {
+                AbstractServerTransport serverTransport = (AbstractServerTransport)transport;
+                session.scheduleExpiration(serverTransport.getInterval(), serverTransport.getMaxInterval(), 0);
+                break;
+            }
+        }
+        return session;
+    }
+
     @Override
     public LocalSession newLocalSession(String idHint) {
         return new LocalSessionImpl(this, idHint);
@@ -630,7 +834,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return getServerChannel(channelId);
     }
 
-    private ServerChannelImpl getServerChannel(String channelId) {
+    ServerChannelImpl getServerChannel(String channelId) {
         ServerChannelImpl channel = _channels.get(channelId);
         if (channel != null) {
             channel.waitForInitialized();
@@ -758,51 +962,107 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void isPublishAuthorized(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
-        if (_policy != null) {
-            _policy.canPublish(this, session, channel, message, Promise.from(can -> {
+        SecurityPolicy policy = _policy;
+        if (policy != null) {
+            callBlocking(Synchronous.isBlockingPublish(policy), () -> policy.canPublish(this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
                     isOperationAuthorized(Authorizer.Operation.PUBLISH, session, message, channel.getChannelId(), promise);
                 } else {
-                    _logger.info("{} denied publish on channel {} by {}", session, channel.getId(), _policy);
+                    _logger.info("{} denied publish on channel {} by {}", session, channel.getId(), policy);
                     promise.succeed(Authorizer.Result.deny("denied_by_security_policy"));
                 }
-            }, promise::fail));
+            }, promise::fail)));
         } else {
             isOperationAuthorized(Authorizer.Operation.PUBLISH, session, message, channel.getChannelId(), promise);
         }
     }
 
     private void isSubscribeAuthorized(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
-        if (_policy != null) {
-            _policy.canSubscribe(this, session, channel, message, Promise.from(can -> {
+        SecurityPolicy policy = _policy;
+        if (policy != null) {
+            callBlocking(Synchronous.isBlockingSubscribe(policy), () -> policy.canSubscribe(this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
                     isOperationAuthorized(Authorizer.Operation.SUBSCRIBE, session, message, channel.getChannelId(), promise);
                 } else {
-                    _logger.info("{} denied Subscribe@{} by {}", session, channel, _policy);
+                    _logger.info("{} denied Subscribe@{} by {}", session, channel, policy);
                     promise.succeed(Authorizer.Result.deny("denied_by_security_policy"));
                 }
-            }, promise::fail));
+            }, promise::fail)));
         } else {
             isOperationAuthorized(Authorizer.Operation.SUBSCRIBE, session, message, channel.getChannelId(), promise);
         }
     }
 
     private void isCreationAuthorized(ServerSession session, ServerMessage message, String channel, Promise<Authorizer.Result> promise) {
-        if (_policy != null) {
-            _policy.canCreate(BayeuxServerImpl.this, session, channel, message, Promise.from(can -> {
+        SecurityPolicy policy = _policy;
+        if (policy != null) {
+            callBlocking(Synchronous.isBlockingCreate(policy), () -> policy.canCreate(BayeuxServerImpl.this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
                     isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel), promise);
                 } else {
-                    _logger.info("{} denied creation of channel {} by {}", session, channel, _policy);
+                    _logger.info("{} denied creation of channel {} by {}", session, channel, policy);
                     promise.succeed(Authorizer.Result.deny("denied_by_security_policy"));
                 }
-            }, promise::fail));
+            }, promise::fail)));
         } else {
             isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel), promise);
         }
     }
 
     private void isOperationAuthorized(Authorizer.Operation operation, ServerSession session, ServerMessage message, ChannelId channelId, Promise<Authorizer.Result> promise) {
+        AuthorizationCache cache = _authorizationCache;
+        if (cache != null && session instanceof ServerSessionImpl) {
+            ServerSessionImpl serverSession = (ServerSessionImpl)session;
+            Authorizer.Result cached = cache.get(serverSession, operation, channelId);
+            if (cached != null) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Cached authorization {} for {} on channel {}", cached, operation, channelId);
+                }
+                promise.succeed(cached);
+                return;
+            }
+            // Capture the epoch before running the authorizers,
+            // so that concurrent invalidations are not missed.
+            long epoch = cache.epoch();
+            isOperationAuthorized2(operation, session, message, channelId, Promise.from(result -> {
+                if (isCacheable(channelId)) {
+                    cache.put(serverSession, operation, channelId, epoch, result);
+                }
+                promise.succeed(result);
+            }, promise::fail));
+        } else {
+            isOperationAuthorized2(operation, session, message, channelId, promise);
+        }
+    }
+
+    private boolean isCacheable(ChannelId channelId) {
+        for (String channelName : channelId.getWilds()) {
+            if (!isCacheable(_channels.get(channelName))) {
+                return false;
+            }
+        }
+        return isCacheable(_channels.get(channelId.getId()));
+    }
+
+    private boolean isCacheable(ServerChannelImpl channel) {
+        if (channel != null) {
+            for (Authorizer authorizer : channel.authorizers()) {
+                if (!authorizer.isCacheable()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    void invalidateAuthorizations() {
+        AuthorizationCache cache = _authorizationCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    private void isOperationAuthorized2(Authorizer.Operation operation, ServerSession session, ServerMessage message, ChannelId channelId, Promise<Authorizer.Result> promise) {
         isChannelOperationAuthorized(operation, session, message, channelId, Promise.from(result -> {
             if (result == null) {
                 result = Authorizer.Result.grant();
@@ -856,7 +1116,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             promise.succeed(null);
         } else {
             AsyncFoldLeft.run(authorizers, Authorizer.Result.ignore(), (result, authorizer, loop) ->
-                    authorizer.authorize(operation, channelId, session, message, Promise.from(authorization -> {
+                    callBlocking(Synchronous.isBlocking(authorizer), () -> authorizer.authorize(operation, channelId, session, message, Promise.from(authorization -> {
                         if (_logger.isDebugEnabled()) {
                             _logger.debug("Authorizer {} on channel {} {} {} for channel {}", authorizer, channel, authorization, operation, channelId);
                         }
@@ -867,7 +1127,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                         } else {
                             loop.proceed(result);
                         }
-                    }, promise::fail)), promise);
+                    }, promise::fail))), promise);
         }
     }
 
@@ -935,49 +1195,116 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void notifySubscribers(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
-        Set<String> wildSubscribers = new HashSet<>();
-        AsyncFoldLeft.run(channel.getChannelId().getWilds(), true, (result, wildName, wildLoop) -> {
-                    ServerChannelImpl wildChannel = _channels.get(wildName);
-                    if (wildChannel == null) {
-                        wildLoop.proceed(result);
-                    } else {
-                        Set<ServerSession> subscribers = wildChannel.subscribers();
-                        if (_logger.isDebugEnabled()) {
-                            _logger.debug("Notifying {} subscribers on {}", subscribers.size(), wildChannel);
+        // The trie returns the wild channels followed by the channel itself.
+        List<ServerChannelImpl> channels = _subscriptionTrie.match(channel);
+        // Only the channels that have subscribers when the publish starts are notified.
+        // Subscribers are de-duplicated only if more than one of those channels has
+        // subscribers, by stamping the sessions that this publish delivered to.
+        ServerChannelImpl notified = null;
+        int notifiedCount = 0;
+        for (ServerChannelImpl target : channels) {
+            if (target.hasSubscribers()) {
+                notified = target;
+                ++notifiedCount;
+            }
+        }
+        if (notified != null && message instanceof ServerMessageImpl) {
+            ServerMessageImpl published = (ServerMessageImpl)message;
+            // Frozen messages cannot be modified by extensions, so
+            // their conflation key can be computed once per publish.
+            if (published.isFrozen()) {
+                published.setConflationKey(channel.conflationKey(published));
+            }
+        }
+        boolean deduplicate = notifiedCount > 1;
+        long stamp = deduplicate ? _publishStamps.acquire() : 0;
+        // Sessions stamped by a concurrent publish are recorded
+        // in a set, that is allocated only in that rare case.
+        Set<ServerSession> contended = deduplicate && stamp == 0 ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+        // Sessions with only synchronous extensions and listeners are delivered
+        // to in a plain loop, until the first asynchronous session; from there
+        // on, sessions are delivered to asynchronously, in subscription order.
+        List<ServerSessionImpl> asyncSubscribers = null;
+        int fanOut = 0;
+        try {
+            for (ServerChannelImpl target : channels) {
+                if (!deduplicate && target != notified) {
+                    continue;
+                }
+                Set<ServerSession> subscribers = target.subscribers();
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Notifying {} subscribers on {}", subscribers.size(), target);
+                }
+                for (ServerSession subscriber : subscribers) {
+                    ServerSessionImpl serverSession = (ServerSessionImpl)subscriber;
+                    if (deduplicate) {
+                        if (contended != null && contended.contains(serverSession)) {
+                            // Already notified via a previous channel.
+                            continue;
                         }
-                        AsyncFoldLeft.run(subscribers, true, (r, subscriber, loop) -> {
-                            if (wildSubscribers.add(subscriber.getId())) {
-                                if (subscriber == session && !channel.isBroadcastToPublisher()) {
-                                    loop.proceed(true);
-                                } else {
-                                    ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(b -> loop.proceed(true), loop::fail));
-                                }
-                            } else {
-                                loop.proceed(r);
+                        int claim = stamp == 0 ? PublishStamps.CONTENDED : _publishStamps.claim(serverSession, stamp);
+                        if (claim == PublishStamps.DELIVERED) {
+                            // Already notified via a previous channel.
+                            continue;
+                        }
+                        if (claim == PublishStamps.CONTENDED) {
+                            if (contended == null) {
+                                contended = Collections.newSetFromMap(new IdentityHashMap<>());
                             }
-                        }, Promise.from(y -> wildLoop.proceed(true), wildLoop::fail));
+                            contended.add(serverSession);
+                        }
                     }
-                }, Promise.from(b -> {
-                    Set<ServerSession> subscribers = channel.subscribers();
-                    if (_logger.isDebugEnabled()) {
-                        _logger.debug("Notifying {} subscribers on {}", subscribers.size(), channel);
+                    if (subscriber == session && !channel.isBroadcastToPublisher()) {
+                        continue;
                     }
-                    AsyncFoldLeft.run(subscribers, true, (result, subscriber, loop) -> {
-                        if (!wildSubscribers.contains(subscriber.getId())) {
-                            if (subscriber == session && !channel.isBroadcastToPublisher()) {
-                                loop.proceed(true);
-                            } else {
-                                ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(y -> loop.proceed(true), loop::fail));
-                            }
-                        } else {
-                            loop.proceed(true);
+                    ++fanOut;
+                    if (asyncSubscribers == null && serverSession.isSynchronous()) {
+                        serverSession.deliver1(session, message);
+                    } else {
+                        if (asyncSubscribers == null) {
+                            asyncSubscribers = new ArrayList<>();
                         }
-                    }, promise);
-                }, promise::fail)
-        );
+                        asyncSubscribers.add(serverSession);
+                    }
+                }
+            }
+        } finally {
+            if (stamp != 0) {
+                _publishStamps.release(stamp);
+            }
+        }
+        ServerMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.onPublish(channel, fanOut);
+        }
+        if (asyncSubscribers == null) {
+            promise.succeed(true);
+        } else {
+            AsyncFoldLeft.run(asyncSubscribers, true, (result, subscriber, loop) -> {
+                if (subscriber.isSynchronous()) {
+                    subscriber.deliver1(session, message);
+                    loop.proceed(true);
+                } else {
+                    subscriber.deliver1(session, message, Promise.from(y -> loop.proceed(true), loop::fail));
+                }
+            }, promise);
+        }
     }
 
     private void notifyListeners(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
+        List<String> wilds = channel.getChannelId().getWilds();
+        if (isSynchronous(wilds, channel)) {
+            boolean proceed = true;
+            for (int i = 0, size = wilds.size(); proceed && i < size; ++i) {
+                proceed = notifyListeners(session, _channels.get(wilds.get(i)), channel, message);
+            }
+            if (proceed) {
+                proceed = notifyListeners(session, _channels.get(channel.getId()), channel, message);
+            }
+            promise.succeed(proceed);
+            return;
+        }
+
         List<String> channels = new ArrayList<>(channel.getChannelId().getWilds());
         channels.add(channel.getId());
         AsyncFoldLeft.run(channels, true, (channelResult, channelName, channelLoop) -> {
@@ -1003,6 +1330,33 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }, promise);
     }
 
+    private boolean isSynchronous(List<String> wilds, ServerChannelImpl channel) {
+        for (String wild : wilds) {
+            ServerChannelImpl target = _channels.get(wild);
+            if (target != null && !target.isSynchronous()) {
+                return false;
+            }
+        }
+        return channel.isSynchronous();
+    }
+
+    private boolean notifyListeners(ServerSessionImpl session, ServerChannelImpl target, ServerChannelImpl channel, Mutable message) {
+        if (target == null) {
+            return true;
+        }
+        if (target.isLazy()) {
+            message.setLazy(true);
+        }
+        for (ConfigurableServerChannel.ServerChannelListener listener : target.listeners()) {
+            if (listener instanceof MessageListener) {
+                if (!notifyOnMessage((MessageListener)listener, session, channel, message)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     protected Promise<Boolean> resolveLoop(AsyncFoldLeft.Loop<Boolean> loop) {
         return Promise.from(result -> {
             if (result) {
@@ -1042,8 +1396,18 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             if (message.isFrozen()) {
                 return;
             }
-            String json = _jsonContext.generate(message);
-            message.freeze(json);
+            // Heartbeat replies are generated from a template.
+            if (!MetaConnectReplyTemplate.freeze(message)) {
+                // Reuse the JSON the message was parsed from, if retained.
+                String json = message.getRawJSON();
+                if (json == null) {
+                    json = _jsonContext.generate(message);
+                }
+                message.freeze(json);
+            }
+            if (getMetrics() != null) {
+                message.setFrozenNanoTime(System.nanoTime());
+            }
         }
     }
 
@@ -1059,6 +1423,15 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    private boolean notifyOnMessage(MessageListener listener, ServerSession from, ServerChannel to, Mutable mutable) {
+        try {
+            return listener.onMessage(from, to, mutable);
+        } catch (Throwable x) {
+            _logger.info("Exception thrown by listener " + listener, x);
+            return true;
+        }
+    }
+
     private void extendIncoming(ServerSessionImpl session, ServerMessage.Mutable message, Promise<Boolean> promise) {
         AsyncFoldLeft.run(_extensions, true, (result, extension, loop) -> {
             if (result) {
@@ -1121,9 +1494,20 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     protected boolean removeServerChannel(ServerChannelImpl channel) {
         if (_channels.remove(channel.getId(), channel)) {
+            if (!channel.authorizers().isEmpty()) {
+                invalidateAuthorizations();
+            }
+            if (channel.isBroadcast()) {
+                _subscriptionTrie.remove(channel);
+            }
+            _sweepChannels.remove(channel);
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Removed channel {}", channel);
             }
+            ServerMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.onChannelRemoved(channel);
+            }
             for (BayeuxServerListener listener : _listeners) {
                 if (listener instanceof BayeuxServer.ChannelListener) {
                     notifyChannelRemoved((ChannelListener)listener, channel);
@@ -1222,6 +1606,36 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return _broadcastToPublisher;
     }
 
+    /**
+     * @return whether any channel has ever enabled the conflation of its messages
+     * @see ServerChannelImpl#CONFLATE_ATTRIBUTE
+     */
+    boolean isConflating() {
+        return _conflating;
+    }
+
+    void conflating() {
+        // Never reset, so that sessions queueing messages
+        // can skip the lookup of the channel in the common case.
+        _conflating = true;
+    }
+
+    /**
+     * <p>Creates the queue of messages of a session.</p>
+     * <p>When the {@link #QUEUE_SPILL_THRESHOLD_OPTION} is positive, the queue spills
+     * the messages exceeding the threshold to off-heap memory.</p>
+     *
+     * @return a new session queue
+     * @see ServerSessionImpl#newQueue()
+     */
+    ServerSessionQueue newServerSessionQueue() {
+        SpillingServerSessionQueue.SegmentPool pool = _spillPool;
+        if (pool != null) {
+            return new SpillingServerSessionQueue(_spillThreshold, pool, getJSONContext());
+        }
+        return new ConcurrentServerSessionQueue();
+    }
+
     protected void unknownSession(Mutable reply) {
         error(reply, "402::session_unknown");
         if (Channel.META_HANDSHAKE.equals(reply.getChannel()) || Channel.META_CONNECT.equals(reply.getChannel())) {
@@ -1276,16 +1690,58 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     private CompletableFuture<Void> asyncSweep() {
         Executor executor = getExecutor();
-        CompletableFuture<Void> sweepChannels = CompletableFuture.runAsync(this::sweepChannels, executor);
+        CompletableFuture<Void> sweepChannels = CompletableFuture.runAsync(this::sweepScheduledChannels, executor);
         CompletableFuture<Void> sweepTransports = CompletableFuture.runAsync(this::sweepTransports, executor);
-        CompletableFuture<Void> sweepSessions = CompletableFuture.runAsync(this::sweepSessions, executor);
+        CompletableFuture<Void> sweepSessions = CompletableFuture.runAsync(this::sweepScheduledSessions, executor);
         return CompletableFuture.allOf(sweepChannels, sweepTransports, sweepSessions);
     }
 
+    /**
+     * <p>Schedules the given channel to be swept, because it may have become sweepable,
+     * for example because its last subscriber unsubscribed.</p>
+     *
+     * @param channel the channel to sweep
+     */
+    void scheduleSweep(ServerChannelImpl channel) {
+        _sweepChannels.add(channel);
+    }
+
+    /**
+     * <p>Schedules the given session to be swept after the given deadline.</p>
+     *
+     * @param session the session to sweep
+     * @param deadline the {@link System#nanoTime()} after which the session may be swept
+     */
+    void scheduleSweep(ServerSessionImpl session, long deadline) {
+        SessionSweeper sessionSweeper = _sessionSweeper;
+        if (sessionSweeper != null) {
+            sessionSweeper.schedule(session, deadline);
+        }
+    }
+
     private void sweepChannels() {
         _channels.values().forEach(ServerChannelImpl::sweep);
     }
 
+    private void sweepScheduledChannels() {
+        // Copy the channels, so that a channel rescheduled
+        // while sweeping is not swept twice in the same pass.
+        List<ServerChannelImpl> channels = new ArrayList<>(_sweepChannels);
+        for (ServerChannelImpl channel : channels) {
+            // Remove before sweeping, so that concurrent
+            // events can schedule the channel again.
+            _sweepChannels.remove(channel);
+            if (_channels.get(channel.getId()) != channel) {
+                continue;
+            }
+            channel.sweep();
+            if (channel.isSweepable() && _channels.get(channel.getId()) == channel) {
+                // Not yet removed, needs more sweeps.
+                _sweepChannels.add(channel);
+            }
+        }
+    }
+
     private void sweepTransports() {
         for (ServerTransport transport : _transports.values()) {
             if (transport instanceof AbstractServerTransport) {
@@ -1301,6 +1757,14 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    private void sweepScheduledSessions() {
+        SessionSweeper sessionSweeper = _sessionSweeper;
+        if (sessionSweeper != null) {
+            long now = System.nanoTime();
+            sessionSweeper.sweep(now, entry -> entry.session.sweep(entry.deadline, now));
+        }
+    }
+
     @ManagedAttribute("Reports additional details in the dump() operation")
     public boolean isDetailedDump() {
         return _detailedDump;
@@ -1357,8 +1821,9 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             session.setUserAgent(context.getHeader("User-Agent"));
         }
 
-        if (_policy != null) {
-            _policy.canHandshake(this, session, message, Promise.from(can -> {
+        SecurityPolicy policy = _policy;
+        if (policy != null) {
+            callBlocking(Synchronous.isBlockingHandshake(policy), () -> policy.canHandshake(this, session, message, Promise.from(can -> {
                 if (can) {
                     handleMetaHandshake1(session, message, promise);
                 } else {
@@ -1371,7 +1836,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                     }
                     promise.succeed(false);
                 }
-            }, promise::fail));
+            }, promise::fail)));
         } else {
             handleMetaHandshake1(session, message, promise);
         }
@@ -1401,6 +1866,75 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void handleMetaConnect(ServerSessionImpl session, Mutable message, Promise<Boolean> promise) {
+        List<String> resumedChannels = session.takeResumedChannels();
+        if (resumedChannels != null) {
+            handleResumedMetaConnect(session, message, resumedChannels, promise);
+        } else {
+            handleMetaConnect1(session, message, promise);
+        }
+    }
+
+    private void handleResumedMetaConnect(ServerSessionImpl session, Mutable message, List<String> channels, Promise<Boolean> promise) {
+        SecurityPolicy policy = _policy;
+        if (policy != null) {
+            callBlocking(Synchronous.isBlockingHandshake(policy), () -> policy.canHandshake(this, session, message, Promise.from(can -> {
+                if (can) {
+                    resubscribe(session, message, channels, promise);
+                } else {
+                    _logger.info("{} denied resume by {}", session, policy);
+                    removeServerSession(session, message, false);
+                    ServerMessage.Mutable reply = message.getAssociated();
+                    error(reply, "403::handshake_denied");
+                    // The user's SecurityPolicy may have customized the response's advice
+                    Map<String, Object> advice = reply.getAdvice(true);
+                    if (!advice.containsKey(Message.RECONNECT_FIELD)) {
+                        advice.put(Message.RECONNECT_FIELD, Message.RECONNECT_HANDSHAKE_VALUE);
+                        advice.put(Message.INTERVAL_FIELD, 0L);
+                    }
+                    promise.succeed(false);
+                }
+            }, promise::fail)));
+        } else {
+            resubscribe(session, message, channels, promise);
+        }
+    }
+
+    private void resubscribe(ServerSessionImpl session, Mutable message, List<String> channels, Promise<Boolean> promise) {
+        // Denied subscriptions are skipped, as the remote client
+        // does not expect a /meta/subscribe reply for them.
+        AsyncFoldLeft.run(channels, true, (result, subscription, loop) -> {
+            ServerChannelImpl channel = getServerChannel(subscription);
+            if (channel == null) {
+                isCreationAuthorized(session, message, subscription, Promise.from(creationResult -> {
+                    if (creationResult instanceof Authorizer.Result.Denied) {
+                        if (_logger.isDebugEnabled()) {
+                            _logger.debug("{} denied resubscription to {}", session, subscription);
+                        }
+                        loop.proceed(true);
+                    } else {
+                        resubscribe1(session, message, (ServerChannelImpl)createChannelIfAbsent(subscription).getReference(), loop);
+                    }
+                }, loop::fail));
+            } else {
+                resubscribe1(session, message, channel, loop);
+            }
+        }, Promise.from(result -> handleMetaConnect1(session, message, promise), promise::fail));
+    }
+
+    private void resubscribe1(ServerSessionImpl session, Mutable message, ServerChannelImpl channel, AsyncFoldLeft.Loop<Boolean> loop) {
+        isSubscribeAuthorized(channel, session, message, Promise.from(subscribeResult -> {
+            if (subscribeResult instanceof Authorizer.Result.Denied) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("{} denied resubscription to {}", session, channel);
+                }
+            } else {
+                channel.subscribe(session);
+            }
+            loop.proceed(true);
+        }, loop::fail));
+    }
+
+    private void handleMetaConnect1(ServerSessionImpl session, Mutable message, Promise<Boolean> promise) {
         ServerMessage.Mutable reply = message.getAssociated();
         if (session.connected()) {
             reply.setSuccessful(true);
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>A lock-free, multi-producer single-consumer {@link ServerSessionQueue}.</p>
+ * <p>Producers append nodes by swapping the tail node, and then linking the
+ * previous tail node to the new node, so they never contend on a lock.</p>
+ * <p>A node whose link is still pending is not visible to the consumer until
+ * the producer completes the link, which happens before the producer signals
+ * the session that there are messages to deliver.</p>
+ * <p>Messages removed from the middle of the queue, for example by
+ * {@link Iterator#remove()}, are cleared in their node and skipped.</p>
+ * <p>Conflated messages are {@link #offer(ServerMessage, Object) offered}
+ * with a conflation key: the node of the pending message with the same key
+ * is tracked, and a newer message replaces the pending one in that node,
+ * so that the size of the queue does not grow.</p>
+ * <p>{@link #drain()} only takes the messages offered before it started,
+ * so that it returns at most one message per conflation key.</p>
+ */
+public class ConcurrentServerSessionQueue extends AbstractQueue<ServerMessage> implements ServerSessionQueue {
+    private static final AtomicReferenceFieldUpdater<Node, ServerMessage> MESSAGE = AtomicReferenceFieldUpdater.newUpdater(Node.class, ServerMessage.class, "_message");
+
+    private final AtomicReference<Node> _tail;
+    private final AtomicInteger _size = new AtomicInteger();
+    private final ConcurrentMap<Object, Node> _conflated = new ConcurrentHashMap<>();
+    private Node _head;
+
+    public ConcurrentServerSessionQueue() {
+        Node stub = new Node(null, null);
+        _head = stub;
+        _tail = new AtomicReference<>(stub);
+    }
+
+    @Override
+    public boolean offer(ServerMessage message) {
+        link(new Node(Objects.requireNonNull(message), null));
+        return true;
+    }
+
+    @Override
+    public boolean offer(ServerMessage message, Object conflationKey) {
+        if (conflationKey == null) {
+            return offer(message);
+        }
+        Objects.requireNonNull(message);
+        while (true) {
+            Node node = _conflated.get(conflationKey);
+            if (node == null) {
+                node = new Node(message, conflationKey);
+                if (_conflated.putIfAbsent(conflationKey, node) == null) {
+                    link(node);
+                    return true;
+                }
+            } else {
+                ServerMessage pending = node._message;
+                if (pending == null) {
+                    // Already taken by the consumer.
+                    _conflated.remove(conflationKey, node);
+                } else if (MESSAGE.compareAndSet(node, pending, message)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void link(Node node) {
+        // Increment first, so that the size is never
+        // less than the number of reachable messages.
+        _size.incrementAndGet();
+        Node previous = _tail.getAndSet(node);
+        previous._next = node;
+    }
+
+    private ServerMessage take(Node node) {
+        ServerMessage message = MESSAGE.getAndSet(node, null);
+        if (message != null) {
+            _size.decrementAndGet();
+            if (node._key != null) {
+                _conflated.remove(node._key, node);
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public ServerMessage poll() {
+        while (true) {
+            Node next = _head._next;
+            if (next == null) {
+                return null;
+            }
+            _head = next;
+            ServerMessage message = take(next);
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    @Override
+    public ServerMessage peek() {
+        Node node = _head._next;
+        while (node != null) {
+            ServerMessage message = node._message;
+            if (message != null) {
+                return message;
+            }
+            node = node._next;
+        }
+        return null;
+    }
+
+    @Override
+    public List<ServerMessage> drain() {
+        Node node = _head._next;
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        // Only the messages offered before the drain started are drained,
+        // otherwise a message offered with the conflation key of a message
+        // just drained would be drained too, after its predecessor.
+        Node tail = _tail.get();
+        List<ServerMessage> result = new ArrayList<>(Math.max(1, _size.get()));
+        Node last = _head;
+        while (node != null) {
+            ServerMessage message = take(node);
+            if (message != null) {
+                result.add(message);
+            }
+            last = node;
+            if (node == tail) {
+                break;
+            }
+            node = node._next;
+        }
+        // The last node becomes the new stub.
+        _head = last;
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return _size.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public Iterator<ServerMessage> iterator() {
+        return new Iterator<ServerMessage>() {
+            private Node _current;
+            private Node _next = advance(_head);
+
+            private Node advance(Node node) {
+                Node next = node._next;
+                while (next != null && next._message == null) {
+                    next = next._next;
+                }
+                return next;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return _next != null;
+            }
+
+            @Override
+            public ServerMessage next() {
+                Node node = _next;
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                ServerMessage message = node._message;
+                _current = node;
+                _next = advance(node);
+                return message;
+            }
+
+            @Override
+            public void remove() {
+                Node node = _current;
+                if (node == null) {
+                    throw new IllegalStateException();
+                }
+                _current = null;
+                take(node);
+            }
+        };
+    }
+
+    private static class Node {
+        private final Object _key;
+        // Not private, to be accessible by the field updater.
+        volatile ServerMessage _message;
+        private volatile Node _next;
+
+        private Node(ServerMessage message, Object key) {
+            _message = message;
+            _key = key;
+        }
+    }
+}
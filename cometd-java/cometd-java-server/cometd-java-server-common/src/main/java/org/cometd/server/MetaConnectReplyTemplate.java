@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.charset.StandardCharsets;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>Generates the JSON of successful {@code /meta/connect} replies from
+ * pre-encoded fragments, splicing in only the {@code id} and {@code clientId}
+ * fields, rather than going through the generic JSON generation.</p>
+ * <p>Only replies with the fields {@code channel}, {@code successful} and,
+ * optionally, {@code id} and {@code clientId} are generated from the template;
+ * replies with other fields (for example, {@code advice} or {@code ext}),
+ * or with values that need JSON escaping, are not supported.</p>
+ */
+final class MetaConnectReplyTemplate {
+    private static final byte[] PREFIX = ("{\"" + Message.CHANNEL_FIELD + "\":\"" + Channel.META_CONNECT + "\",\"" + Message.SUCCESSFUL_FIELD + "\":true").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ID = (",\"" + Message.ID_FIELD + "\":\"").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLIENT_ID = (",\"" + Message.CLIENT_ID_FIELD + "\":\"").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "}".getBytes(StandardCharsets.US_ASCII);
+
+    private MetaConnectReplyTemplate() {
+    }
+
+    /**
+     * @param reply the reply to freeze
+     * @return whether the reply has been frozen with the JSON generated from the template
+     */
+    static boolean freeze(ServerMessageImpl reply) {
+        if (!Channel.META_CONNECT.equals(reply.getChannel())) {
+            return false;
+        }
+        if (!Boolean.TRUE.equals(reply.get(Message.SUCCESSFUL_FIELD))) {
+            return false;
+        }
+        int fields = 2;
+        Object id = reply.get(Message.ID_FIELD);
+        if (id != null) {
+            if (!isVerbatim(id)) {
+                return false;
+            }
+            ++fields;
+        }
+        Object clientId = reply.get(Message.CLIENT_ID_FIELD);
+        if (clientId != null) {
+            if (!isVerbatim(clientId)) {
+                return false;
+            }
+            ++fields;
+        }
+        if (reply.size() != fields) {
+            return false;
+        }
+
+        int length = PREFIX.length + SUFFIX.length;
+        if (id != null) {
+            length += ID.length + ((String)id).length() + 1;
+        }
+        if (clientId != null) {
+            length += CLIENT_ID.length + ((String)clientId).length() + 1;
+        }
+        byte[] bytes = new byte[length];
+        int offset = append(bytes, 0, PREFIX);
+        if (id != null) {
+            offset = append(bytes, offset, ID);
+            offset = append(bytes, offset, (String)id);
+            bytes[offset++] = '"';
+        }
+        if (clientId != null) {
+            offset = append(bytes, offset, CLIENT_ID);
+            offset = append(bytes, offset, (String)clientId);
+            bytes[offset++] = '"';
+        }
+        append(bytes, offset, SUFFIX);
+
+        // The bytes are ASCII, so the string conversion is a plain copy.
+        reply.freeze(new String(bytes, StandardCharsets.ISO_8859_1), bytes);
+        return true;
+    }
+
+    private static boolean isVerbatim(Object value) {
+        if (!(value instanceof String)) {
+            return false;
+        }
+        // Only printable ASCII characters that do not need JSON escaping.
+        String string = (String)value;
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c < 0x20 || c > 0x7E || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int append(byte[] bytes, int offset, byte[] fragment) {
+        System.arraycopy(fragment, 0, bytes, offset, fragment.length);
+        return offset + fragment.length;
+    }
+
+    private static int append(byte[] bytes, int offset, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            bytes[offset++] = (byte)value.charAt(i);
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Stamps that de-duplicate the subscribers of a publish that matches
+ * more than one channel with subscribers, without allocating a set of
+ * the sessions already delivered to.</p>
+ * <p>A publish {@link #acquire() acquires} a stamp, and {@link #claim(ServerSessionImpl, long) claims}
+ * each subscriber by stamping it: a subscriber already stamped by the same publish
+ * has already been delivered to.</p>
+ * <p>Stamps of publishes in progress are recorded in a fixed table, so that
+ * a subscriber stamped by a publish in progress is never stamped again by
+ * another publish, that instead reports the subscriber as
+ * {@link #CONTENDED contended} and must de-duplicate it by other means.</p>
+ */
+class PublishStamps {
+    /**
+     * The subscriber has been stamped, and must be delivered to.
+     */
+    static final int CLAIMED = 0;
+    /**
+     * The subscriber has already been stamped by the same publish.
+     */
+    static final int DELIVERED = 1;
+    /**
+     * The subscriber is stamped by another publish in progress.
+     */
+    static final int CONTENDED = 2;
+    private static final int SLOTS = 64;
+
+    private final AtomicLong _sequence = new AtomicLong();
+    private final AtomicLongArray _active = new AtomicLongArray(SLOTS);
+
+    /**
+     * @return a stamp to release when the publish is complete,
+     * or 0 if too many publishes are in progress
+     */
+    long acquire() {
+        for (int i = 0; i < SLOTS; ++i) {
+            long stamp = _sequence.incrementAndGet();
+            if (_active.compareAndSet(slot(stamp), 0, stamp)) {
+                return stamp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param stamp the stamp to release
+     */
+    void release(long stamp) {
+        _active.compareAndSet(slot(stamp), stamp, 0);
+    }
+
+    /**
+     * @param session the subscriber to stamp
+     * @param stamp   the stamp of the publish
+     * @return one of {@link #CLAIMED}, {@link #DELIVERED} or {@link #CONTENDED}
+     */
+    int claim(ServerSessionImpl session, long stamp) {
+        while (true) {
+            long current = session.getPublishStamp();
+            if (current == stamp) {
+                return DELIVERED;
+            }
+            if (current != 0 && _active.get(slot(current)) == current) {
+                return CONTENDED;
+            }
+            if (session.compareAndSetPublishStamp(current, stamp)) {
+                return CLAIMED;
+            }
+        }
+    }
+
+    private static int slot(long stamp) {
+        return (int)(stamp & (SLOTS - 1));
+    }
+}
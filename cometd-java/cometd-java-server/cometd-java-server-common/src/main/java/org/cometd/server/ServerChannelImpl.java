@@ -17,15 +17,18 @@ package org.cometd.server;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.Session;
@@ -41,25 +44,58 @@ import org.eclipse.jetty.util.component.DumpableCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * <p>The server-side implementation of a channel.</p>
+ * <p>Applications may create a channel per user or per request, so channels
+ * are kept compact until they need more: the subscribers are stored inline
+ * while there is at most one, and the attributes, the listeners, the authorizers
+ * and the initialization latch are only allocated when they are needed.</p>
+ */
 public class ServerChannelImpl implements ServerChannel, Dumpable {
+    /**
+     * <p>The name of the channel attribute that enables the conflation of the
+     * messages published to the channel that are waiting to be delivered.</p>
+     * <p>When the attribute value is {@code Boolean.TRUE} or {@code "true"}, a
+     * message replaces any message of the same channel still queued in the
+     * session; otherwise the attribute value is the name of a field of the
+     * message data, and only messages with equal values for that field are
+     * conflated.</p>
+     */
+    public static final String CONFLATE_ATTRIBUTE = "org.cometd.server.conflate";
     private static final Logger _logger = LoggerFactory.getLogger(ServerChannel.class);
+    private static final AtomicReferenceFieldUpdater<ServerChannelImpl, Object> SUBSCRIBERS = AtomicReferenceFieldUpdater.newUpdater(ServerChannelImpl.class, Object.class, "_subscribers");
+    private static final AtomicIntegerFieldUpdater<ServerChannelImpl> SWEEPER_PASSES = AtomicIntegerFieldUpdater.newUpdater(ServerChannelImpl.class, "_sweeperPasses");
     private final BayeuxServerImpl _bayeux;
     private final ChannelId _id;
-    private final AttributesMap _attributes = new AttributesMap();
-    private final Set<ServerSession> _subscribers = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final List<ServerChannelListener> _listeners = new CopyOnWriteArrayList<>();
-    private final List<Authorizer> _authorizers = new CopyOnWriteArrayList<>();
-    private final CountDownLatch _initialized = new CountDownLatch(1);
-    private final AtomicInteger _sweeperPasses = new AtomicInteger();
+    private volatile AttributesMap _attributes;
+    // Either null, a single ServerSession, or a Set<ServerSession>.
+    private volatile Object _subscribers;
+    private volatile List<ServerChannelListener> _listeners = Collections.emptyList();
+    private volatile List<Authorizer> _authorizers = Collections.emptyList();
+    private volatile CountDownLatch _initialized;
+    private volatile int _sweeperPasses;
     private boolean _lazy;
     private long _lazyTimeout = -1;
     private boolean _persistent;
     private boolean _broadcastToPublisher = true;
+    private volatile boolean _synchronous = true;
+    private volatile Object _conflation;
 
     protected ServerChannelImpl(BayeuxServerImpl bayeux, ChannelId id) {
+        this(bayeux, id, false);
+    }
+
+    /**
+     * @param bayeux      the BayeuxServer this channel belongs to
+     * @param id          the channel id
+     * @param initialized whether the channel needs no initialization,
+     *                    so that it never {@link #waitForInitialized() waits}
+     */
+    ServerChannelImpl(BayeuxServerImpl bayeux, ChannelId id, boolean initialized) {
         _bayeux = bayeux;
         _id = id;
-        setPersistent(!isBroadcast());
+        _persistent = !isBroadcast();
+        _initialized = initialized ? null : new CountDownLatch(1);
     }
 
     /**
@@ -70,8 +106,12 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
      * @see BayeuxServerImpl#createChannelIfAbsent(String, Initializer...)
      */
     void waitForInitialized() {
+        CountDownLatch initialized = _initialized;
+        if (initialized == null) {
+            return;
+        }
         try {
-            if (!_initialized.await(5, TimeUnit.SECONDS)) {
+            if (!initialized.await(5, TimeUnit.SECONDS)) {
                 throw new IllegalStateException("Not Initialized: " + this);
             }
         } catch (InterruptedException x) {
@@ -85,11 +125,27 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
      */
     void initialized() {
         resetSweeperPasses();
-        _initialized.countDown();
+        CountDownLatch initialized = _initialized;
+        if (initialized != null) {
+            initialized.countDown();
+            // The latch is not needed anymore.
+            _initialized = null;
+        }
+        _bayeux.scheduleSweep(this);
+    }
+
+    /**
+     * Makes a channel that was added already initialized wait for its
+     * initialization, because an {@link Initializer} was added concurrently.
+     *
+     * @see BayeuxServerImpl#createChannelIfAbsent(String, Initializer...)
+     */
+    void uninitialized() {
+        _initialized = new CountDownLatch(1);
     }
 
     void resetSweeperPasses() {
-        _sweeperPasses.set(0);
+        _sweeperPasses = 0;
     }
 
     @Override
@@ -110,7 +166,7 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         resetSweeperPasses();
 
         if (session.subscribe(this)) {
-            if (_subscribers.add(session)) {
+            if (addSubscriber(session)) {
                 for (ServerChannelListener listener : _listeners) {
                     if (listener instanceof SubscriptionListener) {
                         notifySubscribed((SubscriptionListener)listener, session, this, message);
@@ -162,8 +218,11 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
             return false;
         }
 
-        if (_subscribers.remove(session)) {
+        if (removeSubscriber(session)) {
             session.unsubscribedFrom(this);
+            if (subscriberCount() == 0) {
+                _bayeux.scheduleSweep(this);
+            }
             for (ServerChannelListener listener : _listeners) {
                 if (listener instanceof SubscriptionListener) {
                     notifyUnsubscribed((SubscriptionListener)listener, session, this, message);
@@ -195,13 +254,100 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         }
     }
 
+    private boolean addSubscriber(ServerSession session) {
+        while (true) {
+            Object subscribers = _subscribers;
+            if (subscribers == null) {
+                if (SUBSCRIBERS.compareAndSet(this, null, session)) {
+                    return true;
+                }
+            } else if (subscribers instanceof Set) {
+                // Once inflated, the set is never replaced.
+                return asSet(subscribers).add(session);
+            } else if (subscribers == session) {
+                return false;
+            } else {
+                Set<ServerSession> set = Collections.newSetFromMap(new ConcurrentHashMap<>());
+                set.add((ServerSession)subscribers);
+                set.add(session);
+                if (SUBSCRIBERS.compareAndSet(this, subscribers, set)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private boolean removeSubscriber(ServerSession session) {
+        while (true) {
+            Object subscribers = _subscribers;
+            if (subscribers instanceof Set) {
+                return asSet(subscribers).remove(session);
+            } else if (subscribers == session) {
+                if (SUBSCRIBERS.compareAndSet(this, session, null)) {
+                    return true;
+                }
+            } else {
+                return false;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<ServerSession> asSet(Object subscribers) {
+        return (Set<ServerSession>)subscribers;
+    }
+
+    /**
+     * @param session the session to test
+     * @return whether the given session is subscribed to this channel
+     */
+    boolean isSubscribed(ServerSession session) {
+        Object subscribers = _subscribers;
+        if (subscribers instanceof Set) {
+            return asSet(subscribers).contains(session);
+        }
+        return subscribers == session;
+    }
+
+    /**
+     * @return whether this channel has subscribers
+     */
+    boolean hasSubscribers() {
+        return subscriberCount() > 0;
+    }
+
+    private int subscriberCount() {
+        Object subscribers = _subscribers;
+        if (subscribers == null) {
+            return 0;
+        }
+        if (subscribers instanceof Set) {
+            return asSet(subscribers).size();
+        }
+        return 1;
+    }
+
     @Override
     public Set<ServerSession> getSubscribers() {
         return Collections.unmodifiableSet(subscribers());
     }
 
+    /**
+     * <p>Returns the subscribers of this channel.</p>
+     * <p>While the channel has at most one subscriber, the returned set
+     * is a snapshot; otherwise it is a concurrent view of the subscribers.</p>
+     *
+     * @return the subscribers of this channel
+     */
     public Set<ServerSession> subscribers() {
-        return _subscribers;
+        Object subscribers = _subscribers;
+        if (subscribers == null) {
+            return Collections.emptySet();
+        }
+        if (subscribers instanceof Set) {
+            return asSet(subscribers);
+        }
+        return Collections.singleton((ServerSession)subscribers);
     }
 
     @Override
@@ -252,12 +398,21 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     public void setPersistent(boolean persistent) {
         resetSweeperPasses();
         _persistent = persistent;
+        if (!persistent) {
+            _bayeux.scheduleSweep(this);
+        }
     }
 
     @Override
     public void addListener(ServerChannelListener listener) {
         resetSweeperPasses();
-        _listeners.add(listener);
+        synchronized (this) {
+            if (!(_listeners instanceof CopyOnWriteArrayList)) {
+                _listeners = new CopyOnWriteArrayList<>();
+            }
+            _listeners.add(listener);
+        }
+        updateSynchronous();
     }
 
     @Override
@@ -273,6 +428,8 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     @Override
     public void removeListener(ServerChannelListener listener) {
         _listeners.remove(listener);
+        updateSynchronous();
+        _bayeux.scheduleSweep(this);
     }
 
     @Override
@@ -284,6 +441,23 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         return _listeners;
     }
 
+    /**
+     * @return whether the message listeners of this channel are all synchronous
+     */
+    boolean isSynchronous() {
+        return _synchronous;
+    }
+
+    private void updateSynchronous() {
+        synchronized (this) {
+            boolean synchronous = true;
+            for (ServerChannelListener listener : _listeners) {
+                synchronous &= Synchronous.isSynchronous(listener);
+            }
+            _synchronous = synchronous;
+        }
+    }
+
     @Override
     public ChannelId getChannelId() {
         return _id;
@@ -332,79 +506,153 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     protected void sweep() {
         waitForInitialized();
 
-        for (ServerSession session : _subscribers) {
+        for (ServerSession session : subscribers()) {
             if (!session.isHandshook()) {
                 unsubscribe(session);
             }
         }
 
-        if (isMeta() || isPersistent()) {
+        if (!isSweepable()) {
             return;
         }
 
-        if (!_subscribers.isEmpty()) {
+        if (SWEEPER_PASSES.incrementAndGet(this) < 3) {
             return;
         }
 
+        remove();
+    }
+
+    /**
+     * @return whether this channel may be removed by the sweeper,
+     * because it has no subscribers, authorizers or non-weak listeners
+     */
+    boolean isSweepable() {
+        if (isMeta() || isPersistent()) {
+            return false;
+        }
+
+        if (subscriberCount() > 0) {
+            return false;
+        }
+
         if (!_authorizers.isEmpty()) {
-            return;
+            return false;
         }
 
         for (ServerChannelListener listener : _listeners) {
             if (!(listener instanceof ServerChannelListener.Weak)) {
-                return;
+                return false;
             }
         }
 
-        if (_sweeperPasses.incrementAndGet() < 3) {
-            return;
-        }
-
-        remove();
+        return true;
     }
 
     @Override
     public void remove() {
         if (_bayeux.removeServerChannel(this)) {
-            for (ServerSession subscriber : _subscribers) {
+            for (ServerSession subscriber : subscribers()) {
+                removeSubscriber(subscriber);
                 ((ServerSessionImpl)subscriber).unsubscribedFrom(this);
             }
-            _subscribers.clear();
         }
 
         _listeners.clear();
+        updateSynchronous();
     }
 
     @Override
     public void setAttribute(String name, Object value) {
-        _attributes.setAttribute(name, value);
+        AttributesMap attributes = _attributes;
+        if (attributes == null) {
+            synchronized (this) {
+                attributes = _attributes;
+                if (attributes == null) {
+                    attributes = new AttributesMap();
+                    _attributes = attributes;
+                }
+            }
+        }
+        attributes.setAttribute(name, value);
+        if (CONFLATE_ATTRIBUTE.equals(name)) {
+            updateConflation(value);
+        }
     }
 
     @Override
     public Object getAttribute(String name) {
-        return _attributes.getAttribute(name);
+        AttributesMap attributes = _attributes;
+        return attributes == null ? null : attributes.getAttribute(name);
     }
 
     @Override
     public Set<String> getAttributeNames() {
-        return _attributes.getAttributeNameSet();
+        AttributesMap attributes = _attributes;
+        return attributes == null ? Collections.emptySet() : attributes.getAttributeNameSet();
     }
 
     @Override
     public Object removeAttribute(String name) {
-        Object old = getAttribute(name);
-        _attributes.removeAttribute(name);
+        AttributesMap attributes = _attributes;
+        if (attributes == null) {
+            return null;
+        }
+        Object old = attributes.getAttribute(name);
+        attributes.removeAttribute(name);
+        if (CONFLATE_ATTRIBUTE.equals(name)) {
+            updateConflation(null);
+        }
         return old;
     }
 
+    private void updateConflation(Object value) {
+        if (value == null || Boolean.FALSE.equals(value) || "false".equals(value)) {
+            _conflation = null;
+        } else {
+            if (Boolean.TRUE.equals(value) || "true".equals(value)) {
+                _conflation = Boolean.TRUE;
+            } else {
+                _conflation = String.valueOf(value);
+            }
+            _bayeux.conflating();
+        }
+    }
+
+    /**
+     * @param message the message published to this channel
+     * @return the key used to conflate the given message, or null if the message must not be conflated
+     * @see #CONFLATE_ATTRIBUTE
+     */
+    Object conflationKey(ServerMessage message) {
+        Object conflation = _conflation;
+        if (conflation == null) {
+            return null;
+        }
+        if (conflation == Boolean.TRUE) {
+            return getId();
+        }
+        Object data = message.getData();
+        Object value = data instanceof Map ? ((Map<?, ?>)data).get(conflation) : null;
+        return value == null ? null : Arrays.asList(getId(), value);
+    }
+
     @Override
     public void addAuthorizer(Authorizer authorizer) {
-        _authorizers.add(authorizer);
+        synchronized (this) {
+            if (!(_authorizers instanceof CopyOnWriteArrayList)) {
+                _authorizers = new CopyOnWriteArrayList<>();
+            }
+            _authorizers.add(authorizer);
+        }
+        _bayeux.invalidateAuthorizations();
     }
 
     @Override
     public void removeAuthorizer(Authorizer authorizer) {
         _authorizers.remove(authorizer);
+        _bayeux.invalidateAuthorizations();
+        _bayeux.scheduleSweep(this);
     }
 
     @Override
@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerTransport;
@@ -36,6 +37,10 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
     private transient byte[] _jsonBytes;
     private transient BayeuxContext _context;
     private transient ServerTransport _transport;
+    private transient long _frozenNanoTime;
+    private transient volatile Derived _derived;
+    private transient boolean _conflationKeyed;
+    private transient Object _conflationKey;
 
     @Override
     public ServerMessage.Mutable getAssociated() {
@@ -91,6 +96,75 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         _jsonBytes = json.getBytes(StandardCharsets.UTF_8);
     }
 
+    void freeze(String json, byte[] jsonBytes) {
+        _json = json;
+        _jsonBytes = jsonBytes;
+    }
+
+    /**
+     * <p>Returns a message derived from this message, computing it with
+     * the given function only the first time this method is called
+     * with the given key.</p>
+     * <p>A message published to a channel is delivered to all the channel
+     * subscribers, so outgoing session extensions that replace the message
+     * with a message derived from it can use this method to compute the
+     * derived message, and to generate its JSON, only once per publish
+     * rather than once per subscriber.</p>
+     * <p>Only one derived message is retained; calling this method with a
+     * different key computes a new derived message that replaces the
+     * previous one.</p>
+     *
+     * @param key      the key that identifies the derivation
+     * @param function the function that computes the derived message
+     * @return the message derived from this message
+     */
+    public ServerMessage.Mutable derive(Object key, Function<? super ServerMessageImpl, ? extends ServerMessage.Mutable> function) {
+        Derived derived = _derived;
+        if (derived != null && derived.key.equals(key)) {
+            return derived.message;
+        }
+        synchronized (this) {
+            derived = _derived;
+            if (derived != null && derived.key.equals(key)) {
+                return derived.message;
+            }
+            ServerMessage.Mutable result = function.apply(this);
+            _derived = new Derived(key, result);
+            return result;
+        }
+    }
+
+    /**
+     * <p>Records the conflation key of this message, computed once
+     * when the message is published, so that it is not computed
+     * again when the message is queued to each subscriber.</p>
+     *
+     * @param conflationKey the conflation key, or null if this message must not be conflated
+     */
+    void setConflationKey(Object conflationKey) {
+        _conflationKey = conflationKey;
+        _conflationKeyed = true;
+    }
+
+    /**
+     * @return whether the conflation key of this message has been recorded
+     */
+    boolean hasConflationKey() {
+        return _conflationKeyed;
+    }
+
+    Object getConflationKey() {
+        return _conflationKey;
+    }
+
+    long getFrozenNanoTime() {
+        return _frozenNanoTime;
+    }
+
+    void setFrozenNanoTime(long frozenNanoTime) {
+        _frozenNanoTime = frozenNanoTime;
+    }
+
     protected boolean isFrozen() {
         return _json != null;
     }
@@ -157,6 +231,16 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         return advice;
     }
 
+    private static class Derived {
+        private final Object key;
+        private final ServerMessage.Mutable message;
+
+        private Derived(Object key, ServerMessage.Mutable message) {
+            this.key = key;
+            this.message = message;
+        }
+    }
+
     private static class ImmutableEntrySet extends AbstractSet<Map.Entry<String, Object>> {
         private final Set<Map.Entry<String, Object>> delegate;
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+
+/**
+ * <p>Receives notifications of the events that are relevant
+ * to measure the performance of a {@link BayeuxServerImpl}.</p>
+ * <p>Methods are invoked in the hot paths of message processing,
+ * concurrently by multiple threads, so implementations must be
+ * thread-safe, must not block and should be as cheap as possible.</p>
+ *
+ * @see BayeuxServerImpl#setMetrics(ServerMetrics)
+ * @see org.cometd.server.metrics.DefaultServerMetrics
+ */
+public interface ServerMetrics {
+    /**
+     * <p>Callback method invoked when a message has been published to a broadcast channel.</p>
+     *
+     * @param channel     the channel the message has been published to
+     * @param subscribers the number of subscribers the message has been delivered to
+     */
+    public default void onPublish(ServerChannel channel, int subscribers) {
+    }
+
+    /**
+     * <p>Callback method invoked when a message has been added to a session queue.</p>
+     *
+     * @param session   the session
+     * @param queueSize the size of the session queue after the message has been added
+     */
+    public default void onQueued(ServerSession session, int queueSize) {
+    }
+
+    /**
+     * <p>Callback method invoked when a message has been rejected
+     * by a {@link ServerSession.QueueMaxedListener}.</p>
+     *
+     * @param session the session whose queue is full
+     * @param message the message that has been rejected
+     */
+    public default void onQueueMaxed(ServerSession session, ServerMessage message) {
+    }
+
+    /**
+     * <p>Callback method invoked when messages have been taken from
+     * a session queue, to be written to the client.</p>
+     *
+     * @param session   the session
+     * @param transport the name of the transport that writes the messages
+     * @param messages  the number of messages taken from the session queue
+     */
+    public default void onFlush(ServerSession session, String transport, int messages) {
+    }
+
+    /**
+     * <p>Callback method invoked for each message that has been taken from
+     * a session queue, with the time the message waited to be written.</p>
+     *
+     * @param session the session
+     * @param nanos   the time, in nanoseconds, from when the message has been
+     *                enqueued to when it has been taken to be written
+     */
+    public default void onQueueLatency(ServerSession session, long nanos) {
+    }
+
+    /**
+     * <p>Callback method invoked when a session has been removed.</p>
+     *
+     * @param session the session removed
+     */
+    public default void onSessionRemoved(ServerSession session) {
+    }
+
+    /**
+     * <p>Callback method invoked when a channel has been removed.</p>
+     *
+     * @param channel the channel removed
+     */
+    public default void onChannelRemoved(ServerChannel channel) {
+    }
+}
@@ -16,8 +16,7 @@
 package org.cometd.server;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -25,9 +24,13 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Message;
@@ -50,17 +53,26 @@ import org.slf4j.LoggerFactory;
 
 public class ServerSessionImpl implements ServerSession, Dumpable {
     private static final AtomicLong _idCount = new AtomicLong();
+    private static final AtomicLongFieldUpdater<ServerSessionImpl> PUBLISH_STAMP = AtomicLongFieldUpdater.newUpdater(ServerSessionImpl.class, "_publishStamp");
 
     private static final Logger _logger = LoggerFactory.getLogger(ServerSession.class);
     private final BayeuxServerImpl _bayeux;
     private final String _id;
     private final List<ServerSessionListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
-    private final Queue<ServerMessage> _queue = new ArrayDeque<>();
+    private final ServerSessionQueue _queue;
     private final LocalSessionImpl _localSession;
     private final AttributesMap _attributes = new AttributesMap();
     private final Set<ServerChannelImpl> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ConcurrentMap<String, AuthorizationCache.Entry[]> _authorizations = new ConcurrentHashMap<>();
     private final LazyTask _lazyTask = new LazyTask();
+    // Not a monitor, to avoid pinning the carriers of virtual threads.
+    private final ReentrantLock _lock = new ReentrantLock();
+    private volatile Extension[] _outgoingExtensions = new Extension[0];
+    private final boolean _synchronousDelivery = Synchronous.isSynchronousDelivery(getClass());
+    private volatile boolean _synchronous = true;
+    private volatile boolean _queueListeners;
+    private volatile boolean _queueMaxedListeners;
     private AbstractServerTransport.Scheduler _scheduler = new Scheduler.None(0);
     private ServerTransport _transport;
     private ServerTransport _advisedTransport;
@@ -75,23 +87,48 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     private long _maxProcessing = -1;
     private long _maxLazy = -1;
     private boolean _metaConnectDelivery;
-    private int _batch;
+    private volatile int _batch;
     private String _userAgent;
     private long _messageTime;
     private long _expireTime;
-    private boolean _nonLazyMessages;
+    private long _sweepDeadline;
+    private volatile boolean _nonLazyMessages;
+    // Not private, to be accessible by the field updater.
+    volatile long _publishStamp;
     private boolean _broadcastToPublisher;
     private boolean _allowMessageDeliveryDuringHandshake;
     private String _browserId;
+    private List<String> _resumedChannels;
 
     public ServerSessionImpl(BayeuxServerImpl bayeux) {
         this(bayeux, null, null);
     }
 
     public ServerSessionImpl(BayeuxServerImpl bayeux, LocalSessionImpl localSession, String idHint) {
+        this(newId(bayeux, idHint), bayeux, localSession);
+    }
+
+    /**
+     * <p>Creates a session with the given id, typically to resume
+     * a session of a previous server instance.</p>
+     *
+     * @param bayeux the BayeuxServer instance
+     * @param id     the session id
+     * @see BayeuxServerImpl#resumeServerSession(String)
+     */
+    public ServerSessionImpl(BayeuxServerImpl bayeux, String id) {
+        this(id, bayeux, null);
+    }
+
+    private ServerSessionImpl(String id, BayeuxServerImpl bayeux, LocalSessionImpl localSession) {
         _bayeux = bayeux;
         _localSession = localSession;
+        _id = id;
+        _queue = newQueue();
+        _broadcastToPublisher = _bayeux.isBroadcastToPublisher();
+    }
 
+    private static String newId(BayeuxServerImpl bayeux, String idHint) {
         StringBuilder id = new StringBuilder(30);
         int len = 20;
         if (idHint != null) {
@@ -102,14 +139,12 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         int index = id.length();
 
         while (id.length() < len) {
-            id.append(Long.toString(_bayeux.randomLong(), 36));
+            id.append(Long.toString(bayeux.randomLong(), 36));
         }
 
         id.insert(index, Long.toString(_idCount.incrementAndGet(), 36));
 
-        _id = id.toString();
-
-        _broadcastToPublisher = _bayeux.isBroadcastToPublisher();
+        return id.toString();
     }
 
     public BayeuxServerImpl getBayeuxServer() {
@@ -154,7 +189,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
         boolean remove = false;
         Scheduler scheduler = null;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             if (_expireTime == 0) {
                 if (_maxProcessing > 0 && now > _messageTime + _maxProcessing) {
                     _logger.info("Sweeping during processing {}", this);
@@ -171,6 +207,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             if (remove) {
                 scheduler = _scheduler;
             }
+        } finally {
+            _lock.unlock();
         }
         if (remove) {
             scheduler.destroy();
@@ -178,19 +216,79 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    /**
+     * <p>Invoked by the {@link SessionSweeper} when the given deadline has passed.</p>
+     *
+     * @param deadline the deadline this session was scheduled with
+     * @param now the current {@link System#nanoTime()}
+     */
+    void sweep(long deadline, long now) {
+        _lock.lock();
+        try {
+            // Skip stale deadlines, as a more recent one has been scheduled.
+            if (_sweepDeadline != deadline || isTerminated()) {
+                return;
+            }
+            _sweepDeadline = 0;
+        } finally {
+            _lock.unlock();
+        }
+        sweep(now);
+        _lock.lock();
+        try {
+            if (!isTerminated()) {
+                // Not expired yet, for example because a message delayed
+                // the expiration: reschedule with the current deadline.
+                scheduleSweep(sweepDeadline());
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private long sweepDeadline() {
+        // Mirrors the conditions checked by sweep(long).
+        if (_expireTime != 0) {
+            return _expireTime;
+        }
+        if (_maxProcessing > 0) {
+            return _messageTime + _maxProcessing;
+        }
+        return 0;
+    }
+
+    private void scheduleSweep(long deadline) {
+        assert _lock.isHeldByCurrentThread();
+        if (deadline == 0 || isLocalSession()) {
+            return;
+        }
+        // Only schedule earlier deadlines, later deadlines
+        // are rescheduled when the earlier deadline passes.
+        if (_sweepDeadline == 0 || deadline - _sweepDeadline < 0) {
+            _sweepDeadline = deadline;
+            _bayeux.scheduleSweep(this, deadline);
+        }
+    }
+
     @Override
     public Set<ServerChannel> getSubscriptions() {
         return Collections.unmodifiableSet(subscriptions);
     }
 
+    ConcurrentMap<String, AuthorizationCache.Entry[]> getAuthorizations() {
+        return _authorizations;
+    }
+
     @Override
     public void addExtension(Extension extension) {
         _extensions.add(extension);
+        updateSynchronous();
     }
 
     @Override
     public void removeExtension(Extension extension) {
         _extensions.remove(extension);
+        updateSynchronous();
     }
 
     @Override
@@ -262,48 +360,112 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    /**
+     * <p>Synchronous version of {@link #deliver1(ServerSession, ServerMessage.Mutable, Promise)},
+     * to be called only when this session {@link #isSynchronous() is synchronous}.</p>
+     * <p>This method is not overridable: sessions whose class overrides
+     * {@link #deliver1(ServerSession, ServerMessage.Mutable, Promise)} are never
+     * synchronous, so that method remains the only delivery entry point.</p>
+     *
+     * @param sender  the session that sent the message
+     * @param mutable the message to deliver
+     * @return whether the message has been delivered
+     */
+    final boolean deliver1(ServerSession sender, ServerMessage.Mutable mutable) {
+        if (sender == this && !isBroadcastToPublisher() && ChannelId.isBroadcast(mutable.getChannel())) {
+            return false;
+        }
+        ServerMessage.Mutable message = extendOutgoing(sender, mutable);
+        if (message == null) {
+            return false;
+        }
+        _bayeux.freeze(message);
+        for (ServerSessionListener listener : _listeners) {
+            if (listener instanceof MessageListener) {
+                if (!notifyOnMessage((MessageListener)listener, sender, message)) {
+                    return false;
+                }
+            }
+        }
+        return deliver2(sender, message);
+    }
+
     private void deliver2(ServerSession sender, ServerMessage.Mutable message, Promise<Boolean> promise) {
+        promise.succeed(deliver2(sender, message));
+    }
+
+    private boolean deliver2(ServerSession sender, ServerMessage.Mutable message) {
         Boolean wakeup = enqueueMessage(sender, message);
         if (wakeup == null) {
-            promise.succeed(false);
-        } else {
-            if (wakeup) {
-                if (message.isLazy()) {
-                    flushLazy(message);
-                } else {
-                    flush();
-                }
+            return false;
+        }
+        if (wakeup) {
+            if (message.isLazy()) {
+                flushLazy(message);
+            } else {
+                flush();
             }
-            promise.succeed(true);
         }
+        return true;
     }
 
     private Boolean enqueueMessage(ServerSession sender, ServerMessage.Mutable message) {
-        synchronized (getLock()) {
-            for (ServerSessionListener listener : _listeners) {
-                if (listener instanceof QueueMaxedListener) {
-                    int maxQueueSize = _maxQueue;
-                    if (maxQueueSize > 0 && _queue.size() >= maxQueueSize) {
-                        if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
-                            return null;
-                        }
+        if (_queueListeners || (_queueMaxedListeners && _maxQueue > 0)) {
+            // The max queue size must be enforced atomically with the offer,
+            // otherwise concurrent producers may exceed it; QueueMaxedListeners
+            // may remove messages from the queue, so they must be invoked by
+            // the single queue consumer.
+            // QueueListeners may track the queued messages (for example,
+            // to acknowledge them), so they must be notified atomically
+            // with the offer, otherwise the consumer may take the message
+            // from the queue before the QueueListeners know about it.
+            _lock.lock();
+            try {
+                if (!checkMaxQueue(sender, message)) {
+                    return null;
+                }
+                addMessage(message);
+                for (ServerSessionListener listener : _listeners) {
+                    if (listener instanceof QueueListener) {
+                        notifyQueued((QueueListener)listener, sender, message);
                     }
                 }
+            } finally {
+                _lock.unlock();
             }
+        } else {
+            // The common case does not contend on the session lock.
             addMessage(message);
+        }
+        ServerMetrics metrics = _bayeux.getMetrics();
+        if (metrics != null) {
+            metrics.onQueued(this, _queue.size());
+        }
+        return _batch == 0;
+    }
+
+    private boolean checkMaxQueue(ServerSession sender, ServerMessage message) {
+        int maxQueueSize = _maxQueue;
+        if (maxQueueSize > 0) {
             for (ServerSessionListener listener : _listeners) {
-                if (listener instanceof QueueListener) {
-                    notifyQueued((QueueListener)listener, sender, message);
+                if (listener instanceof QueueMaxedListener) {
+                    if (_queue.size() >= maxQueueSize) {
+                        if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
+                            ServerMetrics metrics = _bayeux.getMetrics();
+                            if (metrics != null) {
+                                metrics.onQueueMaxed(this, message);
+                            }
+                            return false;
+                        }
+                    }
                 }
             }
-            return _batch == 0;
         }
+        return true;
     }
 
     protected void extendOutgoing(ServerSession sender, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
-        List<Extension> extensions = new ArrayList<>(_extensions);
-        Collections.reverse(extensions);
-        AsyncFoldLeft.run(extensions, message, (result, extension, loop) -> {
+        AsyncFoldLeft.run(_outgoingExtensions, message, (result, extension, loop) -> {
             try {
                 extension.outgoing(sender, this, result, Promise.from(m -> {
                     if (m != null) {
@@ -322,6 +484,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }, promise);
     }
 
+    private ServerMessage.Mutable extendOutgoing(ServerSession sender, ServerMessage.Mutable message) {
+        for (Extension extension : _outgoingExtensions) {
+            try {
+                if (message.isMeta()) {
+                    if (!extension.sendMeta(sender, this, message)) {
+                        return null;
+                    }
+                } else {
+                    ServerMessage result = extension.send(sender, this, message);
+                    if (result instanceof ServerMessage.Mutable) {
+                        message = (ServerMessage.Mutable)result;
+                    } else if (result == null) {
+                        return null;
+                    } else {
+                        _logger.info("Exception reported by extension " + extension, new IllegalArgumentException());
+                    }
+                }
+            } catch (Throwable x) {
+                _logger.info("Exception thrown by extension " + extension, x);
+            }
+        }
+        return message;
+    }
+
     private boolean notifyQueueMaxed(QueueMaxedListener listener, ServerSession session, Queue<ServerMessage> queue, ServerSession sender, ServerMessage message) {
         try {
             return listener.queueMaxed(session, queue, sender, message);
@@ -343,6 +529,15 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    private boolean notifyOnMessage(MessageListener listener, ServerSession sender, ServerMessage message) {
+        try {
+            return listener.onMessage(this, sender, message);
+        } catch (Throwable x) {
+            _logger.info("Exception thrown by listener " + listener, x);
+            return true;
+        }
+    }
+
     private void notifyQueued(QueueListener listener, ServerSession session, ServerMessage message) {
         try {
             listener.queued(session, message);
@@ -362,22 +557,58 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             _maxLazy = transport.getMaxLazyTimeout();
         }
 
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             if (_state == State.NEW) {
                 _state = State.HANDSHAKEN;
                 return true;
             }
             return false;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Marks this session as resumed, so that it is re-authorized, and
+     * subscribed to the given channels, when it first connects.</p>
+     *
+     * @param channels the channels to subscribe after re-authorization
+     */
+    void resumed(List<String> channels) {
+        _lock.lock();
+        try {
+            _resumedChannels = channels;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the channels to subscribe if this session has been resumed
+     * and not yet re-authorized, or null
+     */
+    List<String> takeResumedChannels() {
+        _lock.lock();
+        try {
+            List<String> result = _resumedChannels;
+            _resumedChannels = null;
+            return result;
+        } finally {
+            _lock.unlock();
         }
     }
 
     protected boolean connected() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             if (_state == State.HANDSHAKEN || _state == State.CONNECTED) {
                 _state = State.CONNECTED;
                 return true;
             }
             return false;
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -399,18 +630,24 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     @Override
     public void startBatch() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             ++_batch;
+        } finally {
+            _lock.unlock();
         }
     }
 
     @Override
     public boolean endBatch() {
         boolean result = false;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             if (--_batch == 0 && _nonLazyMessages) {
                 result = true;
             }
+        } finally {
+            _lock.unlock();
         }
         if (result) {
             flush();
@@ -431,6 +668,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     @Override
     public void addListener(ServerSessionListener listener) {
         _listeners.add(listener);
+        updateSynchronous();
     }
 
     @Override
@@ -438,30 +676,84 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         return _id;
     }
 
+    /**
+     * <p>Returns the monitor of this session, kept for compatibility:
+     * the state of this session is guarded by {@link #getStateLock()}.</p>
+     *
+     * @return the monitor of this session
+     */
     public Object getLock() {
         return this;
     }
 
+    /**
+     * <p>Returns the lock that guards the state of this session, such as
+     * its message queue, so that extensions can update their own state
+     * atomically with the state of this session.</p>
+     *
+     * @return the lock that guards the state of this session
+     */
+    public Lock getStateLock() {
+        return _lock;
+    }
+
+    /**
+     * <p>Creates the queue of messages waiting to be delivered to this session.</p>
+     * <p>This method is invoked from the constructor, and may be overridden
+     * to provide a different {@link ServerSessionQueue} implementation.</p>
+     *
+     * @return the queue of messages of this session
+     */
+    protected ServerSessionQueue newQueue() {
+        return _bayeux.newServerSessionQueue();
+    }
+
     public Queue<ServerMessage> getQueue() {
         return _queue;
     }
 
     public boolean hasNonLazyMessages() {
-        synchronized (getLock()) {
-            return _nonLazyMessages;
-        }
+        return _nonLazyMessages;
     }
 
     protected void addMessage(ServerMessage message) {
-        synchronized (getLock()) {
-            _queue.add(message);
-            _nonLazyMessages |= !message.isLazy();
+        _queue.offer(message, getConflationKey(message));
+        // Set the flag after the message has been added,
+        // see takeQueue() for the consumer counterpart.
+        if (!message.isLazy()) {
+            _nonLazyMessages = true;
         }
     }
 
+    /**
+     * @param message a message queued to this session
+     * @return the key used to conflate the given message, or null if the message must not be conflated
+     * @see ServerChannelImpl#CONFLATE_ATTRIBUTE
+     */
+    public Object getConflationKey(ServerMessage message) {
+        if (message instanceof ServerMessageImpl) {
+            // Published messages record the key when they are published.
+            ServerMessageImpl impl = (ServerMessageImpl)message;
+            if (impl.hasConflationKey()) {
+                return impl.getConflationKey();
+            }
+        }
+        if (!_bayeux.isConflating()) {
+            return null;
+        }
+        String channelName = message.getChannel();
+        ServerChannelImpl channel = channelName == null ? null : _bayeux.getServerChannel(channelName);
+        return channel == null ? null : channel.conflationKey(message);
+    }
+
     public List<ServerMessage> takeQueue(List<ServerMessage.Mutable> replies) {
-        List<ServerMessage> copy = Collections.emptyList();
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
+            // Reset the flag before draining the queue, so that
+            // a message added concurrently after the drain sets it
+            // again and the session is not suspended with messages.
+            _nonLazyMessages = false;
+
             // Always call listeners, even if the queue is
             // empty since they may add messages to the queue.
             for (ServerSessionListener listener : _listeners) {
@@ -470,16 +762,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 }
             }
 
-            int size = _queue.size();
-            if (size > 0) {
-                copy = new ArrayList<>(size);
-                copy.addAll(_queue);
-                _queue.clear();
+            List<ServerMessage> messages = _queue.drain();
+            ServerMetrics metrics = _bayeux.getMetrics();
+            if (metrics != null && !messages.isEmpty()) {
+                notifyMetrics(metrics, messages);
             }
+            return messages;
+        } finally {
+            _lock.unlock();
+        }
+    }
 
-            _nonLazyMessages = false;
+    private void notifyMetrics(ServerMetrics metrics, List<ServerMessage> messages) {
+        ServerTransport transport = getServerTransport();
+        String transportName = transport != null ? transport.getName() : isLocalSession() ? "local" : "unknown";
+        metrics.onFlush(this, transportName, messages.size());
+        long now = System.nanoTime();
+        for (ServerMessage message : messages) {
+            if (message instanceof ServerMessageImpl) {
+                long frozen = ((ServerMessageImpl)message).getFrozenNanoTime();
+                if (frozen != 0) {
+                    metrics.onQueueLatency(this, now - frozen);
+                }
+            }
         }
-        return copy;
     }
 
     private void notifyDeQueue(DeQueueListener listener, ServerSession serverSession, Queue<ServerMessage> queue, List<ServerMessage.Mutable> replies) {
@@ -509,26 +815,76 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     @Override
     public void removeListener(ServerSessionListener listener) {
         _listeners.remove(listener);
+        updateSynchronous();
     }
 
     public List<ServerSessionListener> getListeners() {
         return Collections.unmodifiableList(_listeners);
     }
 
+    /**
+     * @return whether the extensions and the message listeners of this session are all synchronous,
+     * and its class does not override {@link #deliver1(ServerSession, ServerMessage.Mutable, Promise)},
+     * so that messages can be delivered via {@link #deliver1(ServerSession, ServerMessage.Mutable)}
+     */
+    boolean isSynchronous() {
+        return _synchronousDelivery && _synchronous;
+    }
+
+    /**
+     * @return the stamp of the last publish that delivered to this session
+     * @see PublishStamps
+     */
+    long getPublishStamp() {
+        return _publishStamp;
+    }
+
+    boolean compareAndSetPublishStamp(long expected, long stamp) {
+        return PUBLISH_STAMP.compareAndSet(this, expected, stamp);
+    }
+
+    private void updateSynchronous() {
+        synchronized (_extensions) {
+            // Outgoing extensions are invoked in reverse order.
+            Extension[] extensions = _extensions.toArray(new Extension[0]);
+            Collections.reverse(Arrays.asList(extensions));
+            _outgoingExtensions = extensions;
+
+            boolean synchronous = true;
+            for (Extension extension : extensions) {
+                synchronous &= Synchronous.isSynchronousOutgoing(extension);
+            }
+            boolean queueListeners = false;
+            boolean queueMaxedListeners = false;
+            for (ServerSessionListener listener : _listeners) {
+                synchronous &= Synchronous.isSynchronous(listener);
+                queueListeners |= listener instanceof QueueListener;
+                queueMaxedListeners |= listener instanceof QueueMaxedListener;
+            }
+            _synchronous = synchronous;
+            _queueListeners = queueListeners;
+            _queueMaxedListeners = queueMaxedListeners;
+        }
+    }
+
     public void setScheduler(AbstractServerTransport.Scheduler newScheduler) {
         if (newScheduler == null) {
             Scheduler oldScheduler;
-            synchronized (getLock()) {
+            _lock.lock();
+            try {
                 oldScheduler = _scheduler;
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("{} disabling scheduler {}", this, oldScheduler);
                 }
+            } finally {
+                _lock.unlock();
             }
             oldScheduler.cancel();
         } else {
             Scheduler oldScheduler;
             boolean schedule = false;
-            synchronized (getLock()) {
+            _lock.lock();
+            try {
                 oldScheduler = _scheduler;
                 // Only set the scheduler if it has a greater or equal cycle.
                 if (newScheduler.getMetaConnectCycle() >= oldScheduler.getMetaConnectCycle()) {
@@ -551,6 +907,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                         _logger.debug("{} ignoring stale scheduler {}", this, newScheduler);
                     }
                 }
+            } finally {
+                _lock.unlock();
             }
             oldScheduler.cancel();
             if (schedule) {
@@ -560,16 +918,22 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public boolean shouldSchedule() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return hasNonLazyMessages() && _batch == 0;
+        } finally {
+            _lock.unlock();
         }
     }
 
     public void flush() {
         Scheduler scheduler;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             _lazyTask.cancel();
             scheduler = _scheduler;
+        } finally {
+            _lock.unlock();
         }
         if (_localSession == null) {
             // It's a remote session, schedule delivery and return.
@@ -585,7 +949,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     private void flushLazy(ServerMessage message) {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             ServerChannel channel = _bayeux.getChannel(message.getChannel());
             long lazyTimeout = -1;
             if (channel != null) {
@@ -600,26 +965,35 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             } else {
                 _lazyTask.schedule(lazyTimeout);
             }
+        } finally {
+            _lock.unlock();
         }
     }
 
     public void destroyScheduler() {
         Scheduler oldScheduler;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             oldScheduler = _scheduler;
             _scheduler = new Scheduler.None(Long.MAX_VALUE);
+        } finally {
+            _lock.unlock();
         }
         oldScheduler.destroy();
     }
 
     public void cancelExpiration(boolean metaConnect) {
         long now = System.nanoTime();
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             _messageTime = now;
             if (metaConnect) {
                 // A /meta/connect was received and possibly
                 // suspended by the server, don't sweep it.
                 _expireTime = 0;
+                if (_maxProcessing > 0) {
+                    scheduleSweep(now + _maxProcessing);
+                }
             } else if (_expireTime != 0) {
                 // A /meta/connect was returned to
                 // the client, and another message was
@@ -627,6 +1001,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 long maxInterval = calculateMaxInterval(getServerTransport().getMaxInterval());
                 _expireTime = Math.max(_expireTime, now + TimeUnit.MILLISECONDS.toNanos(maxInterval));
             }
+        } finally {
+            _lock.unlock();
         }
         if (_logger.isDebugEnabled()) {
             _logger.debug("{} expiration for {}", metaConnect ? "Cancelled" : "Delayed", this);
@@ -638,7 +1014,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         long maxInterval = calculateMaxInterval(defaultMaxInterval);
         long now = System.nanoTime();
         boolean scheduled = false;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             // When metaConnectCycle == 0, the /meta/connect was not suspended.
             // Otherwise it was suspended, and some other event such as the
             // /meta/connect timeout expiration may schedule session expiration
@@ -647,7 +1024,10 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             if (metaConnectCycle == 0 || metaConnectCycle == getMetaConnectCycle()) {
                 scheduled = true;
                 _expireTime = now + TimeUnit.MILLISECONDS.toNanos(interval + maxInterval);
+                scheduleSweep(_expireTime);
             }
+        } finally {
+            _lock.unlock();
         }
         if (_logger.isDebugEnabled()) {
             _logger.debug("{} expiration for {}", scheduled ? "Scheduled" : "Skipped", this);
@@ -655,8 +1035,11 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     long getMetaConnectCycle() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return _scheduler.getMetaConnectCycle();
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -698,27 +1081,39 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     @Override
     public boolean isHandshook() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return _state == State.HANDSHAKEN || _state == State.CONNECTED;
+        } finally {
+            _lock.unlock();
         }
     }
 
     @Override
     public boolean isConnected() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return _state == State.CONNECTED;
+        } finally {
+            _lock.unlock();
         }
     }
 
     public boolean isDisconnected() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return _state == State.DISCONNECTED;
+        } finally {
+            _lock.unlock();
         }
     }
 
     public boolean isTerminated() {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             return _state == State.DISCONNECTED || _state == State.EXPIRED;
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -842,9 +1237,12 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
      */
     protected boolean removed(ServerMessage message, boolean timeout) {
         boolean result;
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             result = isHandshook();
             _state = timeout ? State.EXPIRED : State.DISCONNECTED;
+        } finally {
+            _lock.unlock();
         }
         if (result) {
             for (ServerChannelImpl channel : subscriptions) {
@@ -895,13 +1293,16 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     protected boolean subscribe(ServerChannelImpl channel) {
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             if (isTerminated()) {
                 return false;
             } else {
                 subscriptions.add(channel);
                 return true;
             }
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -979,11 +1380,14 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         long expire;
         State state;
         long now = System.nanoTime();
-        synchronized (getLock()) {
+        _lock.lock();
+        try {
             cycle = getMetaConnectCycle();
             last = now - _messageTime;
             expire = _expireTime == 0 ? 0 : _expireTime - now;
             state = _state;
+        } finally {
+            _lock.unlock();
         }
         return String.format("%s@%x[%s,%s,cycle=%d,last=%d,expire=%d]",
                 getClass().getSimpleName(),
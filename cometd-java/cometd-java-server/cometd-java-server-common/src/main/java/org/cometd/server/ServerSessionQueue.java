@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.List;
+import java.util.Queue;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>The queue of messages waiting to be delivered to a {@link ServerSessionImpl}.</p>
+ * <p>Implementations must allow {@link #offer(Object)} to be invoked concurrently
+ * by multiple threads without holding the {@link ServerSessionImpl#getStateLock() session lock}.</p>
+ * <p>All other methods, including those invoked by
+ * {@link org.cometd.bayeux.server.ServerSession.QueueMaxedListener QueueMaxedListener}s and
+ * {@link org.cometd.bayeux.server.ServerSession.DeQueueListener DeQueueListener}s,
+ * are invoked by a single consumer at a time, holding the session lock.</p>
+ * <p>{@link #size()} must be a constant time operation.</p>
+ *
+ * @see ServerSessionImpl#newQueue()
+ */
+public interface ServerSessionQueue extends Queue<ServerMessage> {
+    /**
+     * <p>Inserts the given message into this queue, replacing the message
+     * with the same conflation key that is still waiting to be delivered, if any.</p>
+     * <p>The replacing message takes the position of the message it replaces.</p>
+     * <p>This implementation does not conflate messages, and just
+     * {@link #offer(Object) offers} the message.</p>
+     *
+     * @param message the message to insert
+     * @param conflationKey the conflation key, or null if the message must not be conflated
+     * @return true if the message was inserted or replaced a pending message
+     * @see ServerChannelImpl#CONFLATE_ATTRIBUTE
+     */
+    default boolean offer(ServerMessage message, Object conflationKey) {
+        return offer(message);
+    }
+
+    /**
+     * <p>Removes all the messages from this queue in a single batch.</p>
+     *
+     * @return the messages removed from this queue, in queue order
+     */
+    List<ServerMessage> drain();
+}
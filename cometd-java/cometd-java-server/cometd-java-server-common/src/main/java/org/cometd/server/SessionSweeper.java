@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * <p>A hashed timing wheel of {@link ServerSessionImpl}s, ordered by the time
+ * they may expire, so that the sweeper only visits the sessions that are due.</p>
+ * <p>Each slot of the wheel spans one sweep period, and contains the sessions
+ * whose deadline falls in that slot or in the same slot of later rotations.</p>
+ * <p>Sessions are scheduled when their expiration is
+ * {@link ServerSessionImpl#scheduleExpiration(long, long, long) scheduled},
+ * and rescheduled when they are visited and found not yet expired, for example
+ * because a message extended their expiration.
+ * Entries whose deadline is not the most recent one for their session are stale,
+ * and are discarded when visited.</p>
+ */
+class SessionSweeper {
+    private final long _origin = System.nanoTime();
+    private final Slot[] _slots;
+    private final long _tickNanos;
+    private volatile long _lastTick;
+
+    SessionSweeper(long tickMillis, int slots) {
+        _tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        _slots = new Slot[slots];
+        for (int i = 0; i < slots; ++i) {
+            _slots[i] = new Slot();
+        }
+        _lastTick = tick(_origin);
+    }
+
+    private long tick(long nanoTime) {
+        return (nanoTime - _origin) / _tickNanos;
+    }
+
+    private Slot slot(long tick) {
+        return _slots[(int)(tick % _slots.length)];
+    }
+
+    /**
+     * <p>Schedules the given session to be visited after the given deadline.</p>
+     *
+     * @param session the session to schedule
+     * @param deadline the {@link System#nanoTime()} after which the session may be expired
+     */
+    void schedule(ServerSessionImpl session, long deadline) {
+        // Visit the session in the tick after the deadline.
+        long tick = tick(deadline) + 1;
+        while (true) {
+            long lastTick = _lastTick;
+            if (tick <= lastTick) {
+                tick = lastTick + 1;
+            }
+            Slot slot = slot(tick);
+            slot._lock.lock();
+            try {
+                // The sweeper updates _lastTick holding the slot lock,
+                // so if the tick is not yet swept it will see this entry.
+                if (tick > _lastTick) {
+                    slot._entries.add(new Entry(session, deadline, tick));
+                    return;
+                }
+            } finally {
+                slot._lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * <p>Visits the sessions that are due at the given time.</p>
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @param action the action to perform on each due session
+     */
+    void sweep(long now, Consumer<Entry> action) {
+        long tick = tick(now);
+        long lastTick = _lastTick;
+        if (tick <= lastTick) {
+            return;
+        }
+        // After a full rotation, all the slots have been visited.
+        long firstTick = Math.max(lastTick + 1, tick - _slots.length + 1);
+        List<Entry> due = new ArrayList<>();
+        for (long t = firstTick; t <= tick; ++t) {
+            Slot slot = slot(t);
+            slot._lock.lock();
+            try {
+                // Compact the entries that belong to later rotations.
+                List<Entry> entries = slot._entries;
+                int size = entries.size();
+                int kept = 0;
+                for (int i = 0; i < size; ++i) {
+                    Entry entry = entries.get(i);
+                    if (entry._tick <= tick) {
+                        due.add(entry);
+                    } else {
+                        entries.set(kept++, entry);
+                    }
+                }
+                entries.subList(kept, size).clear();
+                _lastTick = t;
+            } finally {
+                slot._lock.unlock();
+            }
+        }
+        due.forEach(action);
+    }
+
+    int size() {
+        int result = 0;
+        for (Slot slot : _slots) {
+            slot._lock.lock();
+            try {
+                result += slot._entries.size();
+            } finally {
+                slot._lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        for (Slot slot : _slots) {
+            slot._lock.lock();
+            try {
+                slot._entries.clear();
+            } finally {
+                slot._lock.unlock();
+            }
+        }
+    }
+
+    private static class Slot {
+        // Not a monitor, to avoid pinning the carriers of virtual threads.
+        private final Lock _lock = new ReentrantLock();
+        private final List<Entry> _entries = new ArrayList<>();
+    }
+
+    static class Entry {
+        final ServerSessionImpl session;
+        final long deadline;
+        private final long _tick;
+
+        private Entry(ServerSessionImpl session, long deadline, long tick) {
+            this.session = session;
+            this.deadline = deadline;
+            this._tick = tick;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>A tiered {@link ServerSessionQueue} that keeps the first messages on heap,
+ * and spills the JSON bytes of further frozen messages to pooled off-heap segments,
+ * so that slow clients do not pin large amounts of heap memory.</p>
+ * <p>Messages are kept on heap, in a {@link ConcurrentServerSessionQueue}, until the
+ * number of queued messages reaches the spill threshold; from then on, and until all
+ * the spilled messages have been consumed, messages are spilled to preserve the queue
+ * order. Messages are conflated only while they are kept on heap.</p>
+ * <p>Spilled messages are restored when they are consumed: if the original message
+ * is still in memory (for example because it is referenced by the queues of other
+ * sessions) it is reused, otherwise it is parsed from the spilled bytes, and frozen
+ * with those bytes so that transports write them without generating the JSON again.
+ * Messages that are not frozen, or that are larger than a segment, are spilled by
+ * reference, keeping their queue position.</p>
+ *
+ * @see BayeuxServerImpl#QUEUE_SPILL_THRESHOLD_OPTION
+ */
+public class SpillingServerSessionQueue extends AbstractQueue<ServerMessage> implements ServerSessionQueue {
+    private final ConcurrentServerSessionQueue _heap = new ConcurrentServerSessionQueue();
+    private final AtomicInteger _spilled = new AtomicInteger();
+    // Not a monitor, to avoid pinning the carriers of virtual threads.
+    private final Lock _lock = new ReentrantLock();
+    private final Deque<Entry> _entries = new ArrayDeque<>();
+    private final int _threshold;
+    private final SegmentPool _pool;
+    private final JSONContextServer _jsonContext;
+    private Segment _segment;
+
+    /**
+     * @param threshold   the number of messages kept on heap before spilling
+     * @param pool        the pool of off-heap segments
+     * @param jsonContext the JSON context to restore spilled messages
+     */
+    public SpillingServerSessionQueue(int threshold, SegmentPool pool, JSONContextServer jsonContext) {
+        _threshold = threshold;
+        _pool = pool;
+        _jsonContext = jsonContext;
+    }
+
+    @Override
+    public boolean offer(ServerMessage message) {
+        return offer(message, null);
+    }
+
+    @Override
+    public boolean offer(ServerMessage message, Object conflationKey) {
+        Objects.requireNonNull(message);
+        if (_spilled.get() > 0 || _heap.size() >= _threshold) {
+            spill(message);
+            return true;
+        }
+        return _heap.offer(message, conflationKey);
+    }
+
+    private void spill(ServerMessage message) {
+        byte[] json = message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONBytes() : null;
+        _lock.lock();
+        try {
+            Entry entry;
+            if (json == null || json.length > _pool.getSegmentSize()) {
+                entry = new Entry(message);
+            } else {
+                Segment segment = _segment;
+                if (segment == null || segment.buffer.remaining() < json.length) {
+                    segment = new Segment(_pool.acquire());
+                    _segment = segment;
+                }
+                entry = new Entry((ServerMessageImpl)message, segment, segment.buffer.position(), json.length);
+                segment.buffer.put(json);
+                ++segment.entries;
+            }
+            _entries.offer(entry);
+            // Increment after the entry is visible to the consumer.
+            _spilled.incrementAndGet();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private ServerMessage restore(Entry entry) {
+        if (entry.message != null) {
+            return entry.message;
+        }
+        ServerMessage message = entry.restored;
+        if (message != null) {
+            return message;
+        }
+        message = entry.reference.get();
+        if (message != null) {
+            return message;
+        }
+        byte[] bytes = new byte[entry.length];
+        ByteBuffer buffer = entry.segment.buffer.duplicate();
+        buffer.position(entry.offset);
+        buffer.get(bytes);
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        try {
+            ServerMessage.Mutable result = _jsonContext.parse(json)[0];
+            if (result instanceof ServerMessageImpl) {
+                ServerMessageImpl restored = (ServerMessageImpl)result;
+                restored.freeze(json, bytes);
+                restored.setFrozenNanoTime(entry.frozenNanoTime);
+            }
+            return result;
+        } catch (ParseException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private void release(Entry entry) {
+        Segment segment = entry.segment;
+        if (segment != null && --segment.entries == 0) {
+            if (segment == _segment) {
+                _segment = null;
+            }
+            _pool.release(segment.buffer);
+        }
+    }
+
+    @Override
+    public ServerMessage poll() {
+        ServerMessage message = _heap.poll();
+        if (message != null || _spilled.get() == 0) {
+            return message;
+        }
+        Entry entry;
+        _lock.lock();
+        try {
+            entry = _entries.poll();
+        } finally {
+            _lock.unlock();
+        }
+        if (entry == null) {
+            return null;
+        }
+        // The segment is released only after the message has been restored.
+        message = restore(entry);
+        _lock.lock();
+        try {
+            _spilled.decrementAndGet();
+            release(entry);
+        } finally {
+            _lock.unlock();
+        }
+        return message;
+    }
+
+    @Override
+    public ServerMessage peek() {
+        ServerMessage message = _heap.peek();
+        if (message != null || _spilled.get() == 0) {
+            return message;
+        }
+        Entry entry;
+        _lock.lock();
+        try {
+            entry = _entries.peek();
+        } finally {
+            _lock.unlock();
+        }
+        if (entry == null) {
+            return null;
+        }
+        ServerMessage restored = restore(entry);
+        if (entry.message == null) {
+            entry.restored = restored;
+        }
+        return restored;
+    }
+
+    @Override
+    public List<ServerMessage> drain() {
+        List<ServerMessage> result = _heap.drain();
+        if (_spilled.get() == 0) {
+            return result;
+        }
+        List<Entry> entries;
+        _lock.lock();
+        try {
+            entries = new ArrayList<>(_entries);
+            _entries.clear();
+        } finally {
+            _lock.unlock();
+        }
+        if (entries.isEmpty()) {
+            return result;
+        }
+        List<ServerMessage> messages = new ArrayList<>(result.size() + entries.size());
+        messages.addAll(result);
+        for (Entry entry : entries) {
+            messages.add(restore(entry));
+        }
+        _lock.lock();
+        try {
+            for (Entry entry : entries) {
+                _spilled.decrementAndGet();
+                release(entry);
+            }
+        } finally {
+            _lock.unlock();
+        }
+        return messages;
+    }
+
+    /**
+     * <p>Clears this queue, releasing the spilled messages without restoring them.</p>
+     */
+    @Override
+    public void clear() {
+        _heap.drain();
+        _lock.lock();
+        try {
+            Entry entry;
+            while ((entry = _entries.poll()) != null) {
+                _spilled.decrementAndGet();
+                release(entry);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return _heap.size() + _spilled.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _heap.isEmpty() && _spilled.get() == 0;
+    }
+
+    /**
+     * @return the number of messages spilled
+     */
+    public int getSpilledSize() {
+        return _spilled.get();
+    }
+
+    @Override
+    public Iterator<ServerMessage> iterator() {
+        return new Iterator<ServerMessage>() {
+            private final Iterator<ServerMessage> _heapIterator = _heap.iterator();
+            private Iterator<Entry> _spillIterator;
+            private Entry _current;
+
+            @Override
+            public boolean hasNext() {
+                if (_spillIterator == null) {
+                    if (_heapIterator.hasNext()) {
+                        return true;
+                    }
+                    List<Entry> entries;
+                    _lock.lock();
+                    try {
+                        entries = _entries.isEmpty() ? Collections.emptyList() : new ArrayList<>(_entries);
+                    } finally {
+                        _lock.unlock();
+                    }
+                    _spillIterator = entries.iterator();
+                }
+                return _spillIterator.hasNext();
+            }
+
+            @Override
+            public ServerMessage next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (_spillIterator == null) {
+                    return _heapIterator.next();
+                }
+                _current = _spillIterator.next();
+                return restore(_current);
+            }
+
+            @Override
+            public void remove() {
+                if (_spillIterator == null) {
+                    _heapIterator.remove();
+                    return;
+                }
+                Entry entry = _current;
+                if (entry == null) {
+                    throw new IllegalStateException();
+                }
+                _current = null;
+                _lock.lock();
+                try {
+                    if (_entries.remove(entry)) {
+                        _spilled.decrementAndGet();
+                        release(entry);
+                    }
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        };
+    }
+
+    private static class Segment {
+        private final ByteBuffer buffer;
+        private int entries;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Entry {
+        private final WeakReference<ServerMessage> reference;
+        private final ServerMessage message;
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long frozenNanoTime;
+        // The message restored by peek(), so that it is not restored again by poll().
+        private volatile ServerMessage restored;
+
+        private Entry(ServerMessage message) {
+            this.reference = null;
+            this.message = message;
+            this.segment = null;
+            this.offset = 0;
+            this.length = 0;
+            this.frozenNanoTime = 0;
+        }
+
+        private Entry(ServerMessageImpl message, Segment segment, int offset, int length) {
+            this.reference = new WeakReference<>(message);
+            this.message = null;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.frozenNanoTime = message.getFrozenNanoTime();
+        }
+    }
+
+    /**
+     * <p>A pool of off-heap segments, shared by the queues of all sessions.</p>
+     */
+    public static class SegmentPool {
+        private final Queue<ByteBuffer> _segments = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger _pooled = new AtomicInteger();
+        private final int _segmentSize;
+        private final int _maxPooled;
+
+        /**
+         * @param segmentSize the size in bytes of segments
+         * @param maxPooled   the max number of segments retained by this pool
+         */
+        public SegmentPool(int segmentSize, int maxPooled) {
+            _segmentSize = segmentSize;
+            _maxPooled = maxPooled;
+        }
+
+        public int getSegmentSize() {
+            return _segmentSize;
+        }
+
+        /**
+         * @return the number of segments retained by this pool
+         */
+        public int getPooled() {
+            return _pooled.get();
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer segment = _segments.poll();
+            if (segment == null) {
+                return ByteBuffer.allocateDirect(_segmentSize);
+            }
+            _pooled.decrementAndGet();
+            segment.clear();
+            return segment;
+        }
+
+        void release(ByteBuffer segment) {
+            if (_pooled.incrementAndGet() <= _maxPooled) {
+                _segments.offer(segment);
+            } else {
+                _pooled.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A trie of wild broadcast channels indexed by channel segment.</p>
+ * <p>Each node of the trie corresponds to a channel prefix, and holds
+ * references to the shallow wild channel ({@code /prefix/*}) and the
+ * deep wild channel ({@code /prefix/**}) for that prefix.</p>
+ * <p>A non-wild channel is resolved into all the channels that match it
+ * with a single walk of the trie, rather than looking up each of its
+ * {@link ChannelId#getWilds() wild names}.</p>
+ * <p>Reads are lock-free, while modifications are serialized.</p>
+ */
+class SubscriptionTrie {
+    private final Node _root = new Node();
+
+    /**
+     * @param channel the channel to add to this trie, ignored if not wild
+     */
+    void add(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        if (!channelId.isWild()) {
+            return;
+        }
+        synchronized (this) {
+            Node node = _root;
+            int prefix = channelId.depth() - 1;
+            for (int i = 0; i < prefix; ++i) {
+                node = node._children.computeIfAbsent(channelId.getSegment(i), k -> new Node());
+            }
+            if (channelId.isDeepWild()) {
+                node._deepWild = channel;
+            } else {
+                node._wild = channel;
+            }
+        }
+    }
+
+    /**
+     * @param channel the channel to remove from this trie, ignored if not wild
+     */
+    void remove(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        if (!channelId.isWild()) {
+            return;
+        }
+        synchronized (this) {
+            int prefix = channelId.depth() - 1;
+            Node[] path = new Node[prefix + 1];
+            Node node = _root;
+            path[0] = node;
+            for (int i = 0; i < prefix; ++i) {
+                node = node._children.get(channelId.getSegment(i));
+                if (node == null) {
+                    return;
+                }
+                path[i + 1] = node;
+            }
+            if (channelId.isDeepWild()) {
+                if (node._deepWild == channel) {
+                    node._deepWild = null;
+                }
+            } else {
+                if (node._wild == channel) {
+                    node._wild = null;
+                }
+            }
+            // Prune the nodes that became empty.
+            for (int i = prefix; i > 0; --i) {
+                Node child = path[i];
+                if (!child.isEmpty()) {
+                    break;
+                }
+                path[i - 1]._children.remove(channelId.getSegment(i - 1), child);
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the channels that match the given non-wild channel.</p>
+     * <p>The channels are returned in order from the most specific
+     * wild channel to the least specific wild channel, followed by
+     * the given channel itself.</p>
+     *
+     * @param channel the non-wild channel
+     * @return the list of channels matching the given channel
+     */
+    List<ServerChannelImpl> match(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        List<ServerChannelImpl> result = new ArrayList<>(channelId.depth() + 2);
+        match(_root, channelId, 0, result);
+        result.add(channel);
+        return result;
+    }
+
+    private static void match(Node node, ChannelId channelId, int index, List<ServerChannelImpl> result) {
+        if (index == channelId.depth() - 1) {
+            ServerChannelImpl wild = node._wild;
+            if (wild != null) {
+                result.add(wild);
+            }
+        } else {
+            Node child = node._children.get(channelId.getSegment(index));
+            if (child != null) {
+                // Descend first, so that deeper wild channels are added first.
+                match(child, channelId, index + 1, result);
+            }
+        }
+        ServerChannelImpl deepWild = node._deepWild;
+        if (deepWild != null) {
+            result.add(deepWild);
+        }
+    }
+
+    void clear() {
+        synchronized (this) {
+            _root._children.clear();
+            _root._wild = null;
+            _root._deepWild = null;
+        }
+    }
+
+    private static class Node {
+        private final ConcurrentMap<String, Node> _children = new ConcurrentHashMap<>();
+        private volatile ServerChannelImpl _wild;
+        private volatile ServerChannelImpl _deepWild;
+
+        private boolean isEmpty() {
+            return _wild == null && _deepWild == null && _children.isEmpty();
+        }
+    }
+}
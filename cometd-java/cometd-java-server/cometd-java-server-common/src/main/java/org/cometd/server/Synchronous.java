@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.Authorizer;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.SecurityPolicy;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.authorizer.GrantAuthorizer;
+
+/**
+ * <p>Detects whether listeners and extensions are synchronous.</p>
+ * <p>A listener or extension is synchronous when it does not override
+ * the {@link Promise}-based method of its interface, so that the default
+ * implementation of that method just delegates to the blocking method.</p>
+ * <p>In that case the server can invoke the blocking method directly,
+ * avoiding the allocation of {@link Promise}s and lambdas.</p>
+ * <p>Likewise, {@link SecurityPolicy}s and {@link Authorizer}s that implement
+ * the blocking methods may block, so the server may run the invocations
+ * of those methods, and only of those methods, in virtual threads.</p>
+ */
+final class Synchronous {
+    private static final ClassValue<Boolean> CHANNEL_MESSAGE_LISTENERS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return isDefault(type, ServerChannel.MessageListener.class, "onMessage",
+                    ServerSession.class, ServerChannel.class, ServerMessage.Mutable.class, Promise.class);
+        }
+    };
+    private static final ClassValue<Boolean> SESSION_MESSAGE_LISTENERS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return isDefault(type, ServerSession.MessageListener.class, "onMessage",
+                    ServerSession.class, ServerSession.class, ServerMessage.class, Promise.class);
+        }
+    };
+    private static final ClassValue<Boolean> SESSION_EXTENSIONS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return isDefault(type, ServerSession.Extension.class, "outgoing",
+                    ServerSession.class, ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+        }
+    };
+
+    private static final ClassValue<Boolean> SESSION_DELIVERIES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return !isOverridden(type, ServerSessionImpl.class, "deliver1",
+                    ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+        }
+    };
+
+    private static final ClassValue<Boolean> HANDSHAKE_POLICIES = securityPolicies("canHandshake",
+            BayeuxServer.class, ServerSession.class, ServerMessage.class);
+    private static final ClassValue<Boolean> CREATE_POLICIES = securityPolicies("canCreate",
+            BayeuxServer.class, ServerSession.class, String.class, ServerMessage.class);
+    private static final ClassValue<Boolean> SUBSCRIBE_POLICIES = securityPolicies("canSubscribe",
+            BayeuxServer.class, ServerSession.class, ServerChannel.class, ServerMessage.class);
+    private static final ClassValue<Boolean> PUBLISH_POLICIES = securityPolicies("canPublish",
+            BayeuxServer.class, ServerSession.class, ServerChannel.class, ServerMessage.class);
+    private static final ClassValue<Boolean> AUTHORIZERS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            // CometD's own authorizers do not block.
+            return type != GrantAuthorizer.class && isDefault(type, Authorizer.class, "authorize",
+                    Authorizer.Operation.class, ChannelId.class, ServerSession.class, ServerMessage.class, Promise.class);
+        }
+    };
+
+    private Synchronous() {
+    }
+
+    static boolean isSynchronous(ServerChannel.ServerChannelListener listener) {
+        return !(listener instanceof ServerChannel.MessageListener) || CHANNEL_MESSAGE_LISTENERS.get(listener.getClass());
+    }
+
+    static boolean isSynchronous(ServerSession.ServerSessionListener listener) {
+        return !(listener instanceof ServerSession.MessageListener) || SESSION_MESSAGE_LISTENERS.get(listener.getClass());
+    }
+
+    static boolean isSynchronousOutgoing(ServerSession.Extension extension) {
+        return SESSION_EXTENSIONS.get(extension.getClass());
+    }
+
+    static boolean isSynchronousDelivery(Class<? extends ServerSessionImpl> type) {
+        return SESSION_DELIVERIES.get(type);
+    }
+
+    /**
+     * @param policy the security policy to test
+     * @return whether {@link SecurityPolicy#canHandshake(BayeuxServer, ServerSession, ServerMessage)} may block
+     */
+    static boolean isBlockingHandshake(SecurityPolicy policy) {
+        return HANDSHAKE_POLICIES.get(policy.getClass());
+    }
+
+    /**
+     * @param policy the security policy to test
+     * @return whether {@link SecurityPolicy#canCreate(BayeuxServer, ServerSession, String, ServerMessage)} may block
+     */
+    static boolean isBlockingCreate(SecurityPolicy policy) {
+        return CREATE_POLICIES.get(policy.getClass());
+    }
+
+    /**
+     * @param policy the security policy to test
+     * @return whether {@link SecurityPolicy#canSubscribe(BayeuxServer, ServerSession, ServerChannel, ServerMessage)} may block
+     */
+    static boolean isBlockingSubscribe(SecurityPolicy policy) {
+        return SUBSCRIBE_POLICIES.get(policy.getClass());
+    }
+
+    /**
+     * @param policy the security policy to test
+     * @return whether {@link SecurityPolicy#canPublish(BayeuxServer, ServerSession, ServerChannel, ServerMessage)} may block
+     */
+    static boolean isBlockingPublish(SecurityPolicy policy) {
+        return PUBLISH_POLICIES.get(policy.getClass());
+    }
+
+    /**
+     * @param authorizer the authorizer to test
+     * @return whether the authorizer may block, because it implements the blocking method
+     */
+    static boolean isBlocking(Authorizer authorizer) {
+        return AUTHORIZERS.get(authorizer.getClass());
+    }
+
+    private static ClassValue<Boolean> securityPolicies(String name, Class<?>... parameterTypes) {
+        Class<?>[] promiseParameterTypes = Arrays.copyOf(parameterTypes, parameterTypes.length + 1);
+        promiseParameterTypes[parameterTypes.length] = Promise.class;
+        return new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                // The blocking method is invoked only if the Promise-based
+                // method is not overridden, and may block only if it is
+                // implemented by the application, since the default
+                // implementations and CometD's own security policy do not block.
+                if (!isDefault(type, SecurityPolicy.class, name, promiseParameterTypes)) {
+                    return false;
+                }
+                try {
+                    Class<?> declaring = type.getMethod(name, parameterTypes).getDeclaringClass();
+                    return declaring != SecurityPolicy.class && declaring != DefaultSecurityPolicy.class;
+                } catch (Throwable x) {
+                    return true;
+                }
+            }
+        };
+    }
+
+    private static boolean isDefault(Class<?> type, Class<?> declaring, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type.getMethod(name, parameterTypes);
+            return method.getDeclaringClass() == declaring;
+        } catch (Throwable x) {
+            return false;
+        }
+    }
+
+    private static boolean isOverridden(Class<?> type, Class<?> declaring, String name, Class<?>... parameterTypes) {
+        // Protected methods are not returned by Class.getMethod().
+        for (Class<?> klass = type; klass != null && klass != declaring; klass = klass.getSuperclass()) {
+            try {
+                klass.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException x) {
+                // Try the superclass.
+            }
+        }
+        return false;
+    }
+}
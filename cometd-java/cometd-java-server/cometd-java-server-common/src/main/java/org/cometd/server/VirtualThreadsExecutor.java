@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+
+/**
+ * <p>An executor that runs each job in a new virtual thread.</p>
+ * <p>Virtual threads are available from JDK 21, and are looked up via
+ * reflection so that this class can be compiled and loaded by older JDKs.</p>
+ * <p>Virtual threads are convenient when jobs block, for example
+ * {@link org.cometd.bayeux.server.SecurityPolicy}s or
+ * {@link org.cometd.bayeux.server.Authorizer}s that perform blocking
+ * calls, because blocked virtual threads do not exhaust a thread pool.</p>
+ */
+class VirtualThreadsExecutor extends AbstractLifeCycle implements Executor {
+    private final ThreadFactory _threadFactory;
+    private ExecutorService _executor;
+
+    private VirtualThreadsExecutor(ThreadFactory threadFactory) {
+        _threadFactory = threadFactory;
+    }
+
+    /**
+     * @param name the prefix of the names of the virtual threads
+     * @return a new executor that uses virtual threads,
+     * or null if virtual threads are not supported by the JDK
+     */
+    static VirtualThreadsExecutor newInstance(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+            return new VirtualThreadsExecutor(threadFactory);
+        } catch (Throwable x) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        _executor = (ExecutorService)method.invoke(null, _threadFactory);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        ExecutorService executor = _executor;
+        _executor = null;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            throw new RejectedExecutionException("Cannot execute job, executor not started");
+        }
+        executor.execute(job);
+    }
+}
@@ -76,6 +76,11 @@ public class GrantAuthorizer implements Authorizer {
         return Result.ignore();
     }
 
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + _operations;
@@ -15,15 +15,18 @@
  */
 package org.cometd.server.ext;
 
+import java.text.ParseException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.BayeuxServer.Extension;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +41,8 @@ import org.slf4j.LoggerFactory;
 public class AcknowledgedMessagesExtension implements Extension {
     private final Logger _logger = LoggerFactory.getLogger(getClass().getName());
     private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+    private volatile AcknowledgedMessagesLog _log;
+    private volatile AcknowledgedMessagesStore _store;
 
     public void addListener(Listener listener) {
         _listeners.add(listener);
@@ -47,6 +52,96 @@ public class AcknowledgedMessagesExtension implements Extension {
         _listeners.remove(listener);
     }
 
+    /**
+     * @return whether unacknowledged messages are stored in a log shared by all sessions
+     * @see #setSharedLog(boolean)
+     */
+    public boolean isSharedLog() {
+        return _log != null;
+    }
+
+    /**
+     * <p>Sets whether unacknowledged messages are stored in a log shared by all sessions.</p>
+     * <p>By default, each session stores its own copy of the unacknowledged messages,
+     * so that a message broadcast to N sessions is stored N times.
+     * With a shared log, messages are stored once in per-channel logs, and each session
+     * only stores the ranges of the log that it has not acknowledged yet.</p>
+     * <p>This setting applies to sessions that handshake after it has been changed.</p>
+     *
+     * @param sharedLog whether to store unacknowledged messages in a shared log
+     */
+    public void setSharedLog(boolean sharedLog) {
+        _log = sharedLog ? new AcknowledgedMessagesLog() : null;
+    }
+
+    /**
+     * @return the store that records unacknowledged messages, or null
+     * @see #setStore(AcknowledgedMessagesStore)
+     */
+    public AcknowledgedMessagesStore getStore() {
+        return _store;
+    }
+
+    /**
+     * <p>Sets the store that records the unacknowledged messages, the batches
+     * and the subscriptions of sessions, so that they can be
+     * {@link #resumeSessions(BayeuxServerImpl) resumed} after a server restart.</p>
+     * <p>This setting applies to sessions that handshake after it has been changed.</p>
+     *
+     * @param store the store, or null to not record sessions
+     */
+    public void setStore(AcknowledgedMessagesStore store) {
+        _store = store;
+    }
+
+    /**
+     * <p>Resumes the sessions recovered by the {@link #getStore() store} when it was started.</p>
+     * <p>Each recovered session is re-created with its original id, and its unacknowledged
+     * messages are restored, so that they are delivered to the remote client when it sends
+     * its next {@code /meta/connect}, without the need to handshake again.
+     * Recovered sessions whose remote client does not reconnect expire normally.</p>
+     * <p>Resumed sessions are re-authorized, and re-subscribed to their original
+     * channels, when they first connect, as explained in
+     * {@link BayeuxServerImpl#resumeServerSession(String, java.util.Collection)}.</p>
+     *
+     * @param bayeux the BayeuxServer where sessions are resumed
+     * @return the number of sessions resumed
+     */
+    public int resumeSessions(BayeuxServerImpl bayeux) {
+        AcknowledgedMessagesStore store = _store;
+        if (store == null) {
+            return 0;
+        }
+        int result = 0;
+        for (AcknowledgedMessagesStore.Session recovered : store.takeRecovered().values()) {
+            ServerSessionImpl session = bayeux.resumeServerSession(recovered.getId(), recovered.getChannels());
+            if (session == null) {
+                continue;
+            }
+            AcknowledgedMessagesSessionExtension extension = newSessionExtension(session);
+            extension.addListeners(_listeners);
+            try {
+                Lock lock = session.getStateLock();
+                lock.lock();
+                try {
+                    session.addExtension(extension);
+                    extension.resume(recovered);
+                } finally {
+                    lock.unlock();
+                }
+            } catch (ParseException x) {
+                _logger.info("Could not resume " + session, x);
+                session.disconnect();
+                continue;
+            }
+            ++result;
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Resumed {} with {} messages", session, recovered.getMessages().size());
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean rcvMeta(ServerSession remote, Mutable message) {
         if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
@@ -63,9 +158,13 @@ public class AcknowledgedMessagesExtension implements Extension {
 
                 // Make sure that adding the extension and importing the queue is atomic.
                 ServerSessionImpl session = (ServerSessionImpl)remote;
-                synchronized (session.getLock()) {
+                Lock lock = session.getStateLock();
+                lock.lock();
+                try {
                     session.addExtension(extension);
                     extension.importMessages(session);
+                } finally {
+                    lock.unlock();
                 }
             }
         }
@@ -73,7 +172,12 @@ public class AcknowledgedMessagesExtension implements Extension {
     }
 
     protected AcknowledgedMessagesSessionExtension newSessionExtension(ServerSession session) {
-        return new AcknowledgedMessagesSessionExtension(session);
+        return new AcknowledgedMessagesSessionExtension(session, _log, _store);
+    }
+
+    // Used only in tests.
+    AcknowledgedMessagesLog getSharedLog() {
+        return _log;
     }
 
     /**
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>A log of the unacknowledged messages, shared by all the sessions
+ * that acknowledge messages.</p>
+ * <p>Messages are appended to per-channel ring buffers, and are assigned
+ * a global sequence number.
+ * A message that is queued to many sessions (typically, a broadcast
+ * message) is stored only once, and each session only stores
+ * {@link Cursor cursors} to the ranges of sequence numbers of the
+ * messages queued to it.</p>
+ * <p>The ring buffer of a channel retains the messages starting from
+ * the oldest message that has not been acknowledged by all the sessions
+ * it has been queued to.</p>
+ */
+class AcknowledgedMessagesLog {
+    private final ConcurrentMap<String, ChannelLog> logs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return the number of messages stored in this log
+     */
+    int size() {
+        int result = 0;
+        for (ChannelLog log : logs.values()) {
+            synchronized (log) {
+                result += log.size;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>The append-only ring buffer of the messages of a channel.</p>
+     * <p>Sequence numbers in the ring buffer are increasing, but not
+     * consecutive, since they are shared by all channels.</p>
+     */
+    private class ChannelLog {
+        private final Map<ServerMessage, Long> sequences = new IdentityHashMap<>();
+        private final TreeMap<Long, Integer> retained = new TreeMap<>();
+        private final String channel;
+        private long[] seqs = new long[16];
+        private ServerMessage[] messages = new ServerMessage[16];
+        private int head;
+        private int size;
+        private boolean closed;
+
+        private ChannelLog(String channel) {
+            this.channel = channel;
+        }
+
+        private long append(ServerMessage message) {
+            Long existing = sequences.get(message);
+            if (existing != null) {
+                return existing;
+            }
+            if (size == seqs.length) {
+                grow();
+            }
+            long seq = sequence.incrementAndGet();
+            int tail = (head + size) % seqs.length;
+            seqs[tail] = seq;
+            messages[tail] = message;
+            ++size;
+            sequences.put(message, seq);
+            return seq;
+        }
+
+        private void grow() {
+            int capacity = seqs.length * 2;
+            long[] newSeqs = new long[capacity];
+            ServerMessage[] newMessages = new ServerMessage[capacity];
+            for (int i = 0; i < size; ++i) {
+                int index = (head + i) % seqs.length;
+                newSeqs[i] = seqs[index];
+                newMessages[i] = messages[index];
+            }
+            seqs = newSeqs;
+            messages = newMessages;
+            head = 0;
+        }
+
+        /**
+         * @param seq the sequence number to search
+         * @return the logical index of the given sequence number, or -1 if not present
+         */
+        private int indexOf(long seq) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = seqs[(head + middle) % seqs.length];
+                if (value < seq) {
+                    low = middle + 1;
+                } else if (value > seq) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private ServerMessage messageAt(int index) {
+            return messages[(head + index) % messages.length];
+        }
+
+        private boolean follows(long previous, long seq) {
+            int index = indexOf(previous);
+            return index >= 0 && index + 1 < size && seqs[(head + index + 1) % seqs.length] == seq;
+        }
+
+        private void retain(long seq) {
+            retained.merge(seq, 1, Integer::sum);
+        }
+
+        private void release(long seq) {
+            retained.computeIfPresent(seq, (k, v) -> v == 1 ? null : v - 1);
+            trim();
+        }
+
+        private void trim() {
+            long floor = retained.isEmpty() ? Long.MAX_VALUE : retained.firstKey();
+            while (size > 0 && seqs[head] < floor) {
+                sequences.remove(messages[head]);
+                messages[head] = null;
+                head = (head + 1) % seqs.length;
+                --size;
+            }
+            if (size == 0 && retained.isEmpty()) {
+                closed = true;
+                logs.remove(channel, this);
+            }
+        }
+    }
+
+    /**
+     * <p>The per-session view of the log.</p>
+     * <p>A cursor stores, in the order they have been queued, the ranges
+     * of contiguous messages of a channel log queued to the session,
+     * along with the batch they belong to.
+     * A session that receives all the messages of a channel stores a
+     * single range per batch, independently of the number of messages.</p>
+     * <p>Cursors are not thread-safe, and must be accessed with the
+     * session lock held.</p>
+     */
+    class Cursor {
+        private final Queue<Range> ranges = new ArrayDeque<>();
+        private final Map<ServerMessage, Long> superseded = new IdentityHashMap<>();
+        private Range last;
+        private long batch = 1;
+        private int size;
+
+        void offer(ServerMessage message) {
+            while (true) {
+                ChannelLog log = logs.computeIfAbsent(message.getChannel(), ChannelLog::new);
+                synchronized (log) {
+                    if (log.closed) {
+                        continue;
+                    }
+                    long seq = log.append(message);
+                    Range range = last;
+                    if (range != null && range.log == log && range.batch == batch && log.follows(range.last, seq)) {
+                        range.last = seq;
+                        ++range.count;
+                    } else {
+                        log.retain(seq);
+                        range = new Range(log, seq, batch);
+                        ranges.offer(range);
+                        last = range;
+                    }
+                    ++size;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * <p>Replaces the given message of the current batch with the given replacement.</p>
+         * <p>Ranges cannot be split, so the replaced message stays in the log,
+         * but it is skipped when the messages are exported.</p>
+         *
+         * @param message     the message to replace
+         * @param replacement the replacement message
+         */
+        void replace(ServerMessage message, ServerMessage replacement) {
+            superseded.put(message, batch);
+            --size;
+            offer(replacement);
+        }
+
+        void addAll(Collection<ServerMessage> messages) {
+            for (ServerMessage message : messages) {
+                offer(message);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getBatch() {
+            return batch;
+        }
+
+        void nextBatch() {
+            ++batch;
+        }
+
+        void clearToBatch(long batch) {
+            while (true) {
+                Range range = ranges.peek();
+                if (range == null || range.batch > batch) {
+                    break;
+                }
+                ranges.poll();
+                if (range == last) {
+                    last = null;
+                }
+                size -= range.count;
+                synchronized (range.log) {
+                    range.log.release(range.first);
+                }
+            }
+            // Replaced messages have already been subtracted from the size.
+            for (Iterator<Long> iterator = superseded.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next() <= batch) {
+                    iterator.remove();
+                    ++size;
+                }
+            }
+        }
+
+        void exportMessagesToBatch(Queue<ServerMessage> target, long batch) {
+            for (Range range : ranges) {
+                if (range.batch > batch) {
+                    break;
+                }
+                synchronized (range.log) {
+                    int index = range.log.indexOf(range.first);
+                    for (int i = 0; i < range.count; ++i) {
+                        ServerMessage message = range.log.messageAt(index + i);
+                        if (superseded.isEmpty() || !superseded.containsKey(message)) {
+                            target.offer(message);
+                        }
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            clearToBatch(Long.MAX_VALUE);
+        }
+    }
+
+    private static class Range {
+        private final ChannelLog log;
+        private final long first;
+        private final long batch;
+        private long last;
+        private int count;
+
+        private Range(ChannelLog log, long first, long batch) {
+            this.log = log;
+            this.first = first;
+            this.batch = batch;
+            this.last = first;
+            this.count = 1;
+        }
+    }
+}
@@ -15,19 +15,24 @@
  */
 package org.cometd.server.ext;
 
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerSession.Extension;
+import org.cometd.server.ServerMessageImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,18 +40,34 @@ import org.slf4j.LoggerFactory;
 /**
  * Tracks the batch id of messages sent to a client.
  */
-public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener {
+public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener, ServerSession.RemovedListener {
     private static final Logger _logger = LoggerFactory.getLogger(AcknowledgedMessagesSessionExtension.class);
 
     private final List<AcknowledgedMessagesExtension.Listener> _listeners = new CopyOnWriteArrayList<>();
     private final Map<String, Long> _batches = new HashMap<>();
+    private final Map<Object, ServerMessage> _conflated = new HashMap<>();
     private final ServerSessionImpl _session;
+    private final Lock _lock;
     private final BatchArrayQueue<ServerMessage> _queue;
+    private final AcknowledgedMessagesLog.Cursor _cursor;
+    private final AcknowledgedMessagesStore _store;
     private long _lastBatch;
 
     public AcknowledgedMessagesSessionExtension(ServerSession session) {
+        this(session, null, null);
+    }
+
+    AcknowledgedMessagesSessionExtension(ServerSession session, AcknowledgedMessagesLog log, AcknowledgedMessagesStore store) {
         _session = (ServerSessionImpl)session;
-        _queue = new BatchArrayQueue<>(16, _session.getLock());
+        _lock = _session.getStateLock();
+        _store = store;
+        if (log == null) {
+            _queue = new BatchArrayQueue<>(16, _session.getLock());
+            _cursor = null;
+        } else {
+            _queue = null;
+            _cursor = log.newCursor();
+        }
         _session.setMetaConnectDeliveryOnly(true);
         _session.addListener(this);
     }
@@ -84,8 +105,9 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
     }
 
     private void updateAdvice(Mutable message) {
-        synchronized (_session.getLock()) {
-            if (!_session.hasNonLazyMessages() && _session.getQueue().size() != _queue.size()) {
+        _lock.lock();
+        try {
+            if (!_session.hasNonLazyMessages() && _session.getQueue().size() != unacknowledged()) {
                 Map<String, Object> advice = message.getAdvice(true);
                 if (advice.get(Message.TIMEOUT_FIELD) == null) {
                     advice.put(Message.TIMEOUT_FIELD, 0L);
@@ -94,17 +116,29 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
                     }
                 }
             }
+        } finally {
+            _lock.unlock();
         }
     }
 
     protected void processBatch(long batch) {
-        synchronized (_session.getLock()) {
+        _lock.lock();
+        try {
             if (_logger.isDebugEnabled()) {
-                _logger.debug("Processing batch: last={}, client={}, server={} for {}", _lastBatch, batch, _queue.getBatch(), _session);
+                _logger.debug("Processing batch: last={}, client={}, server={} for {}", _lastBatch, batch, currentBatch(), _session);
             }
             _lastBatch = batch;
-            _queue.clearToBatch(batch);
+            if (_cursor == null) {
+                _queue.clearToBatch(batch);
+            } else {
+                _cursor.clearToBatch(batch);
+            }
+            if (_store != null) {
+                _store.acknowledge(_session.getId(), batch);
+            }
             notifyBatchReceive(_session,  batch);
+        } finally {
+            _lock.unlock();
         }
     }
 
@@ -119,11 +153,45 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
     public void queued(ServerSession sender, ServerMessage message) {
         // This method is called after all the extensions and the other
         // listeners, so only here are sure that the message is not vetoed.
-        synchronized (_session.getLock()) {
-            _queue.offer(message);
+        _lock.lock();
+        try {
+            // The session queue only conflates the messages not yet sent,
+            // so this extension must do the same for the current batch,
+            // otherwise the conflated messages would be sent anyway.
+            Object conflationKey = _session.getConflationKey(message);
+            ServerMessage pending = conflationKey == null ? null : _conflated.put(conflationKey, message);
+            if (_cursor == null) {
+                if (pending == null || !_queue.replace(pending, message)) {
+                    _queue.offer(message);
+                }
+            } else {
+                if (pending == null) {
+                    _cursor.offer(message);
+                } else {
+                    _cursor.replace(pending, message);
+                }
+            }
+            if (_store != null) {
+                record(message);
+            }
             if (_logger.isDebugEnabled()) {
-                _logger.debug("Stored at batch {} {} for {}", _queue.getBatch(), message, _session);
+                _logger.debug("Stored at batch {} {} for {}", currentBatch(), message, _session);
             }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void record(ServerMessage message) {
+        byte[] json = null;
+        if (message instanceof ServerMessageImpl) {
+            json = ((ServerMessageImpl)message).getJSONBytes();
+        }
+        if (json == null && message instanceof Mutable) {
+            json = _session.getBayeuxServer().getJSONContext().generate((Mutable)message).getBytes(StandardCharsets.UTF_8);
+        }
+        if (json != null) {
+            _store.message(_session.getId(), currentBatch(), json);
         }
     }
 
@@ -150,19 +218,68 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Sending batch {} for {}", batch, _session);
             }
+        } else if (_store != null && message.isSuccessful()) {
+            if (channel.equals(Channel.META_SUBSCRIBE)) {
+                for (String subscription : subscriptions(message)) {
+                    _store.subscribe(_session.getId(), subscription);
+                }
+            } else if (channel.equals(Channel.META_UNSUBSCRIBE)) {
+                for (String subscription : subscriptions(message)) {
+                    _store.unsubscribe(_session.getId(), subscription);
+                }
+            }
         }
         return true;
     }
 
+    @SuppressWarnings("unchecked")
+    private static Collection<String> subscriptions(Mutable message) {
+        Object subscription = message.get(Message.SUBSCRIPTION_FIELD);
+        if (subscription instanceof String) {
+            return Collections.singletonList((String)subscription);
+        }
+        if (subscription instanceof Collection) {
+            return (Collection<String>)subscription;
+        }
+        if (subscription instanceof Object[]) {
+            List<String> result = new ArrayList<>();
+            for (Object item : (Object[])subscription) {
+                result.add(String.valueOf(item));
+            }
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
     private long closeBatch(Mutable message) {
-        synchronized (_session.getLock()) {
-            long batch = _queue.getBatch();
+        _lock.lock();
+        try {
+            long batch = currentBatch();
             _batches.put(message.getId(), batch);
-            _queue.nextBatch();
+            // Messages of closed batches are sent, and are not conflated anymore.
+            _conflated.clear();
+            if (_cursor == null) {
+                _queue.nextBatch();
+            } else {
+                _cursor.nextBatch();
+            }
+            if (_store != null) {
+                _store.batch(_session.getId(), currentBatch());
+            }
             return batch;
+        } finally {
+            _lock.unlock();
         }
     }
 
+    private long currentBatch() {
+        return _cursor == null ? _queue.getBatch() : _cursor.getBatch();
+    }
+
+    private int unacknowledged() {
+        return _cursor == null ? _queue.size() : _cursor.size();
+    }
+
     @Override
     public void deQueue(ServerSession session, Queue<ServerMessage> queue, List<Mutable> replies) {
         Mutable reply = null;
@@ -175,13 +292,20 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
         }
         if (reply != null) {
             long batch = _batches.remove(reply.getId());
-            synchronized (_session.getLock()) {
+            _lock.lock();
+            try {
                 if (_logger.isDebugEnabled()) {
-                    _logger.debug("Dequeuing {}/{} messages until batch {} for {} on {}", queue.size(), _queue.size(), batch, reply, _session);
+                    _logger.debug("Dequeuing {}/{} messages until batch {} for {} on {}", queue.size(), unacknowledged(), batch, reply, _session);
                 }
                 queue.clear();
-                _queue.exportMessagesToBatch(queue, batch);
+                if (_cursor == null) {
+                    _queue.exportMessagesToBatch(queue, batch);
+                } else {
+                    _cursor.exportMessagesToBatch(queue, batch);
+                }
                 notifyBatchSend(_session, queue, batch);
+            } finally {
+                _lock.unlock();
             }
         }
     }
@@ -191,8 +315,66 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
     }
 
     protected void importMessages(ServerSessionImpl session) {
-        synchronized (_session.getLock()) {
-            _queue.addAll(session.getQueue());
+        _lock.lock();
+        try {
+            if (_cursor == null) {
+                _queue.addAll(session.getQueue());
+            } else {
+                _cursor.addAll(session.getQueue());
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Restores the unacknowledged messages of a session recovered from
+     * the store, at their original batches, without recording them again.</p>
+     *
+     * @param recovered the session recovered from the store
+     * @throws ParseException if a recovered message cannot be parsed
+     */
+    void resume(AcknowledgedMessagesStore.Session recovered) throws ParseException {
+        _lock.lock();
+        try {
+            for (AcknowledgedMessagesStore.Message message : recovered.getMessages()) {
+                advanceToBatch(message.getBatch());
+                ServerMessage.Mutable[] parsed = _session.getBayeuxServer().getJSONContext().parse(new String(message.getJSON(), StandardCharsets.UTF_8));
+                if (_cursor == null) {
+                    _queue.offer(parsed[0]);
+                } else {
+                    _cursor.offer(parsed[0]);
+                }
+            }
+            advanceToBatch(recovered.getBatch());
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void advanceToBatch(long batch) {
+        while (currentBatch() < batch) {
+            if (_cursor == null) {
+                _queue.nextBatch();
+            } else {
+                _cursor.nextBatch();
+            }
+        }
+    }
+
+    @Override
+    public void removed(ServerSession session, ServerMessage message, boolean timeout) {
+        if (_store != null) {
+            _store.remove(_session.getId());
+        }
+        if (_cursor != null) {
+            // Release the messages retained in the shared log.
+            _lock.lock();
+            try {
+                _cursor.clear();
+            } finally {
+                _lock.unlock();
+            }
         }
     }
 
@@ -0,0 +1,903 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A durable store for the {@link AcknowledgedMessagesExtension}, that records
+ * the unacknowledged messages of sessions, along with their batches and their
+ * subscriptions, so that the sessions can be resumed after a server restart.</p>
+ * <p>Records are appended to memory-mapped segment files in the configured
+ * directory; a segment file is deleted when all the messages it contains
+ * have been acknowledged, or their sessions removed.
+ * Every segment starts with a snapshot of the sessions and their subscriptions,
+ * so that the older segments are only needed for their unacknowledged messages.</p>
+ * <p>The state of each session is guarded by its own lock, while appending
+ * a record only holds the store lock for the time needed to copy it into the
+ * current segment; the next segment file is created in advance, so that
+ * rolling to it does not create and map a file while holding the store lock,
+ * and the snapshot is written one session at a time after the roll, without
+ * holding the store lock.
+ * The JSON of a message recorded for many sessions (typically, a broadcast
+ * message, whose frozen JSON bytes are shared by all its recipients) is
+ * written only once per segment, and referenced by the records of each
+ * session.</p>
+ * <p>Records are written to the memory-mapped files without forcing them
+ * to the storage device, so they survive the restart of the server process,
+ * but not necessarily a crash of the operating system.
+ * The length of a record is written last, so that a record torn by a crash
+ * of the server process is recovered as the end of the log.
+ * Records are ignored when the store is not started.</p>
+ *
+ * @see AcknowledgedMessagesExtension#setStore(AcknowledgedMessagesStore)
+ */
+public class AcknowledgedMessagesStore extends AbstractLifeCycle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AcknowledgedMessagesStore.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte MESSAGE = 1;
+    private static final byte ACKNOWLEDGE = 2;
+    private static final byte BATCH = 3;
+    private static final byte SUBSCRIBE = 4;
+    private static final byte UNSUBSCRIBE = 5;
+    private static final byte REMOVE = 6;
+    private static final byte SNAPSHOT = 7;
+    private static final byte SESSION = 8;
+    private static final byte REFERENCE = 9;
+    private static final byte SNAPSHOT_END = 10;
+    // The length and the type of records.
+    private static final int HEADER = 4 + 1;
+    private static final int SHARED_SLOTS = 64;
+
+    private final ConcurrentMap<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Not a monitor, to avoid pinning the carriers of virtual threads.
+    private final Lock lock = new ReentrantLock();
+    // The messages whose JSON has been written in the current segment,
+    // indexed by the identity hash code of their JSON bytes.
+    private final byte[][] sharedJSONs = new byte[SHARED_SLOTS][];
+    private final Segment[] sharedSegments = new Segment[SHARED_SLOTS];
+    private final int[] sharedIds = new int[SHARED_SLOTS];
+    private final Path directory;
+    private final int segmentSize;
+    private Map<String, Session> recovered = new LinkedHashMap<>();
+    private volatile Segment current;
+    private Segment spare;
+    private boolean preparing;
+    private long nextId;
+    private volatile int snapshotLength;
+
+    /**
+     * @param directory the directory where segment files are stored
+     */
+    public AcknowledgedMessagesStore(Path directory) {
+        this(directory, 16 * 1024 * 1024);
+    }
+
+    /**
+     * @param directory   the directory where segment files are stored
+     * @param segmentSize the size in bytes of segment files
+     */
+    public AcknowledgedMessagesStore(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Files.createDirectories(directory);
+        Segment segment;
+        lock.lock();
+        try {
+            recover();
+            nextId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            segment = roll(0);
+        } finally {
+            lock.unlock();
+        }
+        compact();
+        rolled(segment);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        lock.lock();
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (spare != null) {
+                spare.delete();
+                spare = null;
+            }
+            segments.clear();
+            sessions.clear();
+            clearShared();
+            recovered = new LinkedHashMap<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * <p>Returns the sessions recovered when this store was started,
+     * so that they can be resumed, and forgets them.</p>
+     *
+     * @return the recovered sessions
+     */
+    Map<String, Session> takeRecovered() {
+        lock.lock();
+        try {
+            Map<String, Session> result = recovered;
+            recovered = new LinkedHashMap<>();
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>Records a message queued to a session.</p>
+     * <p>Recipients of the same message should pass the same JSON bytes
+     * instance, so that the JSON is written only once.</p>
+     *
+     * @param sessionId the session id
+     * @param batch     the batch of the message
+     * @param json      the JSON bytes of the message
+     */
+    void message(String sessionId, long batch, byte[] json) {
+        if (current == null) {
+            return;
+        }
+        SessionState state = state(sessionId);
+        byte[] id = state.id;
+        int slot = (System.identityHashCode(json) & 0x7FFFFFFF) % SHARED_SLOTS;
+        int reference = HEADER + 2 + id.length + 8 + 4;
+        Segment rolled = null;
+        state.lock.lock();
+        try {
+            Segment segment;
+            lock.lock();
+            try {
+                segment = current;
+                if (segment == null) {
+                    return;
+                }
+                boolean shared = sharedJSONs[slot] == json && sharedSegments[slot] == segment;
+                int room = shared ? reference : HEADER + 4 + 4 + json.length + reference;
+                if (segment.buffer.remaining() < room + 4) {
+                    rolled = roll(room + 4);
+                    segment = rolled;
+                    shared = false;
+                }
+                int messageId;
+                if (shared) {
+                    messageId = sharedIds[slot];
+                } else {
+                    messageId = segment.nextMessageId++;
+                    int start = begin(segment, MESSAGE);
+                    ByteBuffer buffer = segment.buffer;
+                    buffer.putInt(messageId);
+                    buffer.putInt(json.length);
+                    buffer.put(json);
+                    commit(segment, start, 4 + 4 + json.length);
+                    sharedJSONs[slot] = json;
+                    sharedSegments[slot] = segment;
+                    sharedIds[slot] = messageId;
+                }
+                int start = begin(segment, REFERENCE);
+                ByteBuffer buffer = segment.buffer;
+                putString(buffer, id);
+                buffer.putLong(batch);
+                buffer.putInt(messageId);
+                commit(segment, start, reference - HEADER);
+                // Pin the segment before it can be compacted.
+                segment.pending.incrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+            state.pending.offer(new Pending(batch, segment));
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+    }
+
+    void acknowledge(String sessionId, long batch) {
+        SessionState state = current == null ? null : sessions.get(sessionId);
+        if (state == null) {
+            return;
+        }
+        List<Segment> released = new ArrayList<>();
+        Segment rolled;
+        state.lock.lock();
+        try {
+            state.acknowledged = Math.max(state.acknowledged, batch);
+            while (true) {
+                Pending pending = state.pending.peek();
+                if (pending == null || pending.batch > batch) {
+                    break;
+                }
+                state.pending.poll();
+                released.add(pending.segment);
+            }
+            rolled = append(ACKNOWLEDGE, 2 + state.id.length + 8, buffer -> {
+                putString(buffer, state.id);
+                buffer.putLong(batch);
+            });
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+        release(released);
+    }
+
+    void batch(String sessionId, long batch) {
+        if (current == null) {
+            return;
+        }
+        SessionState state = state(sessionId);
+        Segment rolled;
+        state.lock.lock();
+        try {
+            state.batch = batch;
+            rolled = append(BATCH, 2 + state.id.length + 8, buffer -> {
+                putString(buffer, state.id);
+                buffer.putLong(batch);
+            });
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+    }
+
+    void subscribe(String sessionId, String channel) {
+        if (current == null) {
+            return;
+        }
+        SessionState state = state(sessionId);
+        byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+        Segment rolled;
+        state.lock.lock();
+        try {
+            state.channels.add(channel);
+            rolled = append(SUBSCRIBE, 2 + state.id.length + 2 + name.length, buffer -> {
+                putString(buffer, state.id);
+                putString(buffer, name);
+            });
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+    }
+
+    void unsubscribe(String sessionId, String channel) {
+        SessionState state = current == null ? null : sessions.get(sessionId);
+        if (state == null) {
+            return;
+        }
+        byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+        Segment rolled;
+        state.lock.lock();
+        try {
+            state.channels.remove(channel);
+            rolled = append(UNSUBSCRIBE, 2 + state.id.length + 2 + name.length, buffer -> {
+                putString(buffer, state.id);
+                putString(buffer, name);
+            });
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+    }
+
+    void remove(String sessionId) {
+        SessionState state = current == null ? null : sessions.remove(sessionId);
+        if (state == null) {
+            return;
+        }
+        List<Segment> released = new ArrayList<>();
+        Segment rolled;
+        state.lock.lock();
+        try {
+            state.removed = true;
+            rolled = append(REMOVE, 2 + state.id.length, buffer -> putString(buffer, state.id));
+            for (Pending pending : state.pending) {
+                released.add(pending.segment);
+            }
+            state.pending.clear();
+        } finally {
+            state.lock.unlock();
+        }
+        rolled(rolled);
+        release(released);
+    }
+
+    private SessionState state(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, SessionState::new);
+    }
+
+    private void release(List<Segment> released) {
+        if (released.isEmpty()) {
+            return;
+        }
+        for (Segment segment : released) {
+            segment.pending.decrementAndGet();
+        }
+        compact();
+    }
+
+    /**
+     * <p>Appends a record to the current segment.</p>
+     * <p>The records of a session must be appended holding its lock, along with
+     * the update of its state, so that the snapshot of the session written after
+     * rolling to a new segment either includes the update, or it is followed by
+     * the record.</p>
+     *
+     * @param type   the record type
+     * @param length the length in bytes of the record content
+     * @param writer the writer of the record content
+     * @return the segment rolled to, whose snapshot must be written, or null
+     * @see #rolled(Segment)
+     */
+    private Segment append(byte type, int length, Writer writer) {
+        Segment rolled = null;
+        lock.lock();
+        try {
+            Segment segment = current;
+            if (segment == null) {
+                return null;
+            }
+            if (segment.buffer.remaining() < HEADER + length + 4) {
+                rolled = roll(HEADER + length + 4);
+                segment = rolled;
+            }
+            int start = begin(segment, type);
+            writer.write(segment.buffer);
+            commit(segment, start, length);
+        } finally {
+            lock.unlock();
+        }
+        return rolled;
+    }
+
+    private static int begin(Segment segment, byte type) {
+        ByteBuffer buffer = segment.buffer;
+        int start = buffer.position();
+        buffer.putInt(0);
+        buffer.put(type);
+        return start;
+    }
+
+    private static void commit(Segment segment, int start, int length) {
+        // The length is written after the content, so that a record
+        // torn by a crash of the process has a zero length.
+        segment.buffer.putInt(start, 1 + length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short)bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <p>Rolls to a new segment, that starts with a snapshot record, and that
+     * has at least the given room for other records; the snapshot of the
+     * sessions must then be {@link #rolled(Segment) written} without holding
+     * the store lock.</p>
+     * <p>Must be called with the store lock held.</p>
+     *
+     * @param room the room in bytes needed after the snapshot
+     * @return the segment rolled to
+     */
+    private Segment roll(int room) {
+        try {
+            if (current != null) {
+                current.close();
+            }
+            // Make sure the snapshot likely fits, leaving room for other records,
+            // and for the record that did not fit in the previous segment.
+            int length = snapshotLength;
+            int size = Math.max(segmentSize, length + Math.max(length + 4, room));
+            Segment segment = spare;
+            spare = null;
+            if (segment != null && segment.buffer.capacity() < size) {
+                segment.delete();
+                segment = null;
+            }
+            if (segment == null) {
+                long id = nextId++;
+                segment = new Segment(id, path(id));
+                segment.open(size);
+            }
+            segments.put(segment.id, segment);
+            current = segment;
+            clearShared();
+            commit(segment, begin(segment, SNAPSHOT), 0);
+            return segment;
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * <p>Writes the snapshot of the sessions to the segment just rolled to,
+     * and prepares the next segment.</p>
+     * <p>The snapshot of each session is appended holding its lock, but not
+     * the store lock, so that the records of other sessions are appended
+     * concurrently; the snapshot is complete when its end record is appended.
+     * If another thread rolls to a newer segment in the meantime, the snapshot
+     * is left incomplete, as the newer segment has its own snapshot.</p>
+     *
+     * @param segment the segment rolled to, or null
+     */
+    private void rolled(Segment segment) {
+        if (segment == null) {
+            return;
+        }
+        while (segment != null) {
+            Segment rolled = null;
+            int length = HEADER;
+            int count = 0;
+            for (SessionState state : sessions.values()) {
+                if (current != segment || rolled != null) {
+                    break;
+                }
+                state.lock.lock();
+                try {
+                    if (state.removed) {
+                        continue;
+                    }
+                    ++count;
+                    length += HEADER + 2 + state.id.length + 8 + 8;
+                    rolled = append(SESSION, 2 + state.id.length + 8 + 8, buffer -> {
+                        putString(buffer, state.id);
+                        buffer.putLong(state.batch);
+                        buffer.putLong(state.acknowledged);
+                    });
+                    for (String channel : state.channels) {
+                        byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+                        length += HEADER + 2 + state.id.length + 2 + name.length;
+                        Segment next = append(SUBSCRIBE, 2 + state.id.length + 2 + name.length, buffer -> {
+                            putString(buffer, state.id);
+                            putString(buffer, name);
+                        });
+                        if (next != null) {
+                            rolled = next;
+                        }
+                    }
+                } finally {
+                    state.lock.unlock();
+                }
+            }
+            snapshotLength = Math.max(snapshotLength, length);
+            if (current == segment && rolled == null) {
+                rolled = append(SNAPSHOT_END, 0, buffer -> {});
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Rolled to segment {} with {} sessions", segment.path, count);
+                }
+            }
+            segment = rolled;
+        }
+        prepareSpare();
+    }
+
+    /**
+     * <p>Creates and maps the next segment file without holding
+     * the store lock, so that rolling to it is quick.</p>
+     */
+    private void prepareSpare() {
+        long id;
+        lock.lock();
+        try {
+            if (current == null || spare != null || preparing) {
+                return;
+            }
+            preparing = true;
+            id = nextId++;
+        } finally {
+            lock.unlock();
+        }
+        Segment segment = new Segment(id, path(id));
+        try {
+            segment.open(segmentSize);
+        } catch (IOException x) {
+            LOGGER.info("Could not create segment " + segment.path, x);
+            segment.delete();
+            segment = null;
+        }
+        lock.lock();
+        try {
+            preparing = false;
+            // Segments must be used in id order, but rolling
+            // may have created a segment while this one was prepared.
+            Segment latest = current;
+            if (segment != null && (latest == null || latest.id > id)) {
+                segment.delete();
+                segment = null;
+            }
+            spare = segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path path(long id) {
+        return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void clearShared() {
+        for (int i = 0; i < SHARED_SLOTS; ++i) {
+            sharedJSONs[i] = null;
+            sharedSegments[i] = null;
+        }
+    }
+
+    private void compact() {
+        for (Segment segment : segments.values()) {
+            if (segment != current && segment.pending.get() <= 0 && segments.remove(segment.id, segment)) {
+                try {
+                    Files.deleteIfExists(segment.path);
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Deleted segment {}", segment.path);
+                    }
+                } catch (IOException x) {
+                    LOGGER.info("Could not delete segment " + segment.path, x);
+                }
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(paths::add);
+        }
+
+        Map<String, Session> states = new LinkedHashMap<>();
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(id, new Segment(id, path));
+            Set<String> stale = null;
+            Map<Integer, byte[]> jsons = new HashMap<>();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= 4) {
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    ByteBuffer input = buffer.slice();
+                    input.limit(length);
+                    buffer.position(buffer.position() + length);
+                    byte type = input.get();
+                    try {
+                        switch (type) {
+                            case SNAPSHOT: {
+                                stale = new HashSet<>(states.keySet());
+                                break;
+                            }
+                            case SNAPSHOT_END: {
+                                // The snapshot is complete, sessions not mentioned since it started have been removed.
+                                if (stale != null) {
+                                    states.keySet().removeAll(stale);
+                                    stale = null;
+                                }
+                                break;
+                            }
+                            case SESSION: {
+                                String sessionId = mention(stale, getString(input));
+                                Session session = states.computeIfAbsent(sessionId, Session::new);
+                                session.batch = input.getLong();
+                                session.acknowledge(input.getLong());
+                                session.channels.clear();
+                                break;
+                            }
+                            case MESSAGE: {
+                                int messageId = input.getInt();
+                                byte[] json = new byte[input.getInt()];
+                                input.get(json);
+                                jsons.put(messageId, json);
+                                break;
+                            }
+                            case REFERENCE: {
+                                String sessionId = mention(stale, getString(input));
+                                long batch = input.getLong();
+                                byte[] json = jsons.get(input.getInt());
+                                if (json == null) {
+                                    throw new IOException("Invalid message reference in " + path);
+                                }
+                                Session session = states.computeIfAbsent(sessionId, Session::new);
+                                session.messages.offer(new Message(id, batch, json));
+                                break;
+                            }
+                            case ACKNOWLEDGE: {
+                                Session session = states.get(mention(stale, getString(input)));
+                                if (session != null) {
+                                    session.acknowledge(input.getLong());
+                                }
+                                break;
+                            }
+                            case BATCH: {
+                                String sessionId = mention(stale, getString(input));
+                                states.computeIfAbsent(sessionId, Session::new).batch = input.getLong();
+                                break;
+                            }
+                            case SUBSCRIBE: {
+                                String sessionId = mention(stale, getString(input));
+                                states.computeIfAbsent(sessionId, Session::new).channels.add(getString(input));
+                                break;
+                            }
+                            case UNSUBSCRIBE: {
+                                Session session = states.get(mention(stale, getString(input)));
+                                if (session != null) {
+                                    session.channels.remove(getString(input));
+                                }
+                                break;
+                            }
+                            case REMOVE: {
+                                states.remove(getString(input));
+                                break;
+                            }
+                            default: {
+                                throw new IOException("Invalid record type " + type + " in " + path);
+                            }
+                        }
+                    } catch (BufferUnderflowException | IOException x) {
+                        // Typically a record torn by a crash of the process.
+                        LOGGER.info("Ignoring invalid records from position " + (buffer.position() - length - 4) + " in " + path, x);
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Session session : states.values()) {
+            SessionState state = state(session.id);
+            state.batch = session.batch;
+            state.acknowledged = session.acknowledged;
+            state.channels.addAll(session.channels);
+            for (Message message : session.messages) {
+                Segment segment = segments.get(message.segment);
+                if (segment != null) {
+                    state.pending.offer(new Pending(message.batch, segment));
+                    segment.pending.incrementAndGet();
+                }
+            }
+        }
+        recovered = states;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Recovered {} sessions from {} segments in {}", states.size(), paths.size(), directory);
+        }
+    }
+
+    private static String mention(Set<String> stale, String sessionId) {
+        // A session mentioned while a snapshot is written has not been removed.
+        if (stale != null) {
+            stale.remove(sessionId);
+        }
+        return sessionId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), directory);
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(ByteBuffer buffer);
+    }
+
+    private static class Segment {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final long id;
+        private final Path path;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int nextMessageId;
+
+        private Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        private void open(int size) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private void close() {
+            try {
+                if (buffer != null) {
+                    buffer.force();
+                }
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException x) {
+                LOGGER.info("Could not close segment " + path, x);
+            } finally {
+                buffer = null;
+                channel = null;
+            }
+        }
+
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException x) {
+                LOGGER.info("Could not delete segment " + path, x);
+            }
+        }
+    }
+
+    /**
+     * <p>The state of a session, guarded by its own lock.</p>
+     */
+    private static class SessionState {
+        // Not a monitor, to avoid pinning the carriers of virtual threads.
+        private final Lock lock = new ReentrantLock();
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private final Set<String> channels = new LinkedHashSet<>();
+        private final byte[] id;
+        private long batch = 1;
+        private long acknowledged;
+        private boolean removed;
+
+        private SessionState(String id) {
+            this.id = id.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Pending {
+        private final long batch;
+        private final Segment segment;
+
+        private Pending(long batch, Segment segment) {
+            this.batch = batch;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * <p>A session recovered from the segment files.</p>
+     */
+    static class Session {
+        private final Deque<Message> messages = new ArrayDeque<>();
+        private final Set<String> channels = new LinkedHashSet<>();
+        private final String id;
+        private long batch = 1;
+        private long acknowledged;
+
+        private Session(String id) {
+            this.id = id;
+        }
+
+        private void acknowledge(long batch) {
+            acknowledged = Math.max(acknowledged, batch);
+            while (true) {
+                Message message = messages.peek();
+                if (message == null || message.batch > acknowledged) {
+                    break;
+                }
+                messages.poll();
+            }
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * @return the next batch of the session
+         */
+        long getBatch() {
+            return batch;
+        }
+
+        Set<String> getChannels() {
+            return channels;
+        }
+
+        Deque<Message> getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * <p>An unacknowledged message recovered from the segment files.</p>
+     */
+    static class Message {
+        private final long segment;
+        private final long batch;
+        private final byte[] json;
+
+        private Message(long segment, long batch, byte[] json) {
+            this.segment = segment;
+            this.batch = batch;
+            this.json = json;
+        }
+
+        long getBatch() {
+            return batch;
+        }
+
+        byte[] getJSON() {
+            return json;
+        }
+    }
+}
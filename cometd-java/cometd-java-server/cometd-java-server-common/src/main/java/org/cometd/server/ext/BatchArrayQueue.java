@@ -287,6 +287,34 @@ public class BatchArrayQueue<T> implements Queue<T> {
         }
     }
 
+    /**
+     * <p>Replaces the given element of the current batch with the given replacement.</p>
+     *
+     * @param element     the element to replace
+     * @param replacement the replacement element
+     * @return whether the element has been found in the current batch and replaced
+     */
+    public boolean replace(T element, T replacement) {
+        Objects.requireNonNull(replacement);
+        synchronized (lock) {
+            int cursor = tail;
+            while (cursor != head) {
+                --cursor;
+                if (cursor < 0) {
+                    cursor = elements.length - 1;
+                }
+                if (batches[cursor] != batch) {
+                    break;
+                }
+                if (elements[cursor] == element) {
+                    elements[cursor] = replacement;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     public void clearToBatch(long batch) {
         synchronized (lock) {
             while (true) {
@@ -29,9 +29,21 @@ import org.cometd.common.Z85;
  * object using the {@link Z85} format for outgoing messages, and decodes {@link BinaryData}
  * objects back into {@code byte[]} or {@link ByteBuffer} for incoming messages.</p>
  *
+ * <p>Binary data is not encoded for sessions that negotiated to transport it
+ * natively, for example in WebSocket binary frames.</p>
+ *
  * @see BinarySessionExtension
+ * @see #NATIVE_BINARY_ATTRIBUTE
  */
 public class BinaryExtension implements BayeuxServer.Extension {
+    /**
+     * <p>The {@link ServerSession} attribute set by transports when the
+     * session negotiated to transport binary data natively.</p>
+     *
+     * @see org.cometd.common.BinaryFrames
+     */
+    public static final String NATIVE_BINARY_ATTRIBUTE = "org.cometd.server.ext.nativeBinary";
+
     private final boolean decodeToByteBuffer;
 
     public BinaryExtension() {
@@ -42,6 +54,13 @@ public class BinaryExtension implements BayeuxServer.Extension {
         this.decodeToByteBuffer = decodeToByteBuffer;
     }
 
+    /**
+     * @return whether binary data is decoded to {@link ByteBuffer} rather than to {@code byte[]}
+     */
+    public boolean isDecodeToByteBuffer() {
+        return decodeToByteBuffer;
+    }
+
     @Override
     public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
         Map<String, Object> ext = message.getExt();
@@ -63,7 +82,7 @@ public class BinaryExtension implements BayeuxServer.Extension {
     @Override
     public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
         Object data = message.getData();
-        if (data instanceof BinaryData) {
+        if (data instanceof BinaryData && !isNativeBinary(to)) {
             BinaryData binaryData = (BinaryData)data;
             Object binary = binaryData.get(BinaryData.DATA);
             String encoded;
@@ -82,4 +101,8 @@ public class BinaryExtension implements BayeuxServer.Extension {
         }
         return true;
     }
+
+    static boolean isNativeBinary(ServerSession session) {
+        return session != null && Boolean.TRUE.equals(session.getAttribute(NATIVE_BINARY_ATTRIBUTE));
+    }
 }
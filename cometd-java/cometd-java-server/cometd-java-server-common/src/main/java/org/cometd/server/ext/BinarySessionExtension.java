@@ -19,10 +19,13 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.Z85;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
 
 /**
  * <p>An extension that encodes/decodes binary data for a {@link ServerSession}.</p>
@@ -62,28 +65,54 @@ public class BinarySessionExtension implements ServerSession.Extension {
 
     @Override
     public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
-        Object data = message.getData();
-        if (data instanceof BinaryData) {
-            ServerMessage.Mutable result = bayeuxServer.newMessage();
-            result.putAll(message);
-            BinaryData binaryData = (BinaryData)data;
-            Object binary = binaryData.get(BinaryData.DATA);
-            String encoded;
-            if (binary instanceof byte[]) {
-                encoded = Z85.encoder.encodeBytes(binaryData.asBytes());
-            } else if (binary instanceof ByteBuffer) {
-                encoded = Z85.encoder.encodeByteBuffer(binaryData.asByteBuffer());
-            } else {
-                throw new IllegalArgumentException("Cannot Z85 encode " + binary);
+        // Frozen messages wrap Map data in an unmodifiable Map,
+        // so the BinaryData object must be retrieved directly.
+        Object data = message.get(Message.DATA_FIELD);
+        if (data instanceof BinaryData && !BinaryExtension.isNativeBinary(session)) {
+            if (message instanceof ServerMessageImpl) {
+                ServerMessageImpl original = (ServerMessageImpl)message;
+                // A frozen message is shared by all the sessions it is
+                // delivered to, so encode it and freeze it only once.
+                if (original.getJSON() != null) {
+                    return original.derive(BinarySessionExtension.class, this::encodeAndFreeze);
+                }
             }
-            Map<String, Object> newData = new HashMap<>(binaryData);
-            newData.put(BinaryData.DATA, encoded);
-            result.setData(newData);
-            Map<String, Object> ext = result.getExt(true);
-            ext.put(BinaryData.EXT_NAME, new HashMap<>(0));
-            return result;
+            return encode(message);
         } else {
             return message;
         }
     }
+
+    private ServerMessage.Mutable encodeAndFreeze(ServerMessage message) {
+        ServerMessage.Mutable result = encode(message);
+        if (bayeuxServer instanceof BayeuxServerImpl) {
+            ((BayeuxServerImpl)bayeuxServer).freeze(result);
+        }
+        return result;
+    }
+
+    private ServerMessage.Mutable encode(ServerMessage message) {
+        ServerMessage.Mutable result = bayeuxServer.newMessage();
+        result.putAll(message);
+        result.setLazy(message.isLazy());
+        BinaryData binaryData = (BinaryData)message.get(Message.DATA_FIELD);
+        Object binary = binaryData.get(BinaryData.DATA);
+        String encoded;
+        if (binary instanceof byte[]) {
+            encoded = Z85.encoder.encodeBytes(binaryData.asBytes());
+        } else if (binary instanceof ByteBuffer) {
+            encoded = Z85.encoder.encodeByteBuffer(binaryData.asByteBuffer());
+        } else {
+            throw new IllegalArgumentException("Cannot Z85 encode " + binary);
+        }
+        Map<String, Object> newData = new HashMap<>(binaryData);
+        newData.put(BinaryData.DATA, encoded);
+        result.setData(newData);
+        // Do not modify the ext map of the original message.
+        Map<String, Object> ext = message.getExt();
+        Map<String, Object> newExt = ext == null ? new HashMap<>() : new HashMap<>(ext);
+        newExt.put(BinaryData.EXT_NAME, new HashMap<>(0));
+        result.put(Message.EXT_FIELD, newExt);
+        return result;
+    }
 }
@@ -18,6 +18,7 @@ package org.cometd.server.http;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
@@ -300,10 +301,9 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         private final Context context;
         private final List<ServerMessage> messages;
         private final Promise<Void> promise;
-        private int messageIndex;
-        private int replyIndex;
-        private boolean needsComma;
-        private State state = State.BEGIN;
+        private List<byte[]> chunks;
+        private int step;
+        private boolean written;
 
         protected Writer(Context context, List<ServerMessage> messages, Promise<Void> promise) {
             this.context = context;
@@ -315,67 +315,72 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         public void onWritePossible() throws IOException {
             ServletOutputStream output = context.response.getOutputStream();
 
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Messages/replies {}/{} to write for {}", messages.size(), context.replies.size(), context.session);
+            if (chunks == null) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Messages/replies {}/{} to write for {}", messages.size(), context.replies.size(), context.session);
+                }
+                chunks = gather();
             }
 
-            while (true) {
-                State current = state;
-                switch (current) {
-                    case BEGIN: {
-                        state = State.HANDSHAKE;
-                        if (!writeBegin(output)) {
+            if (!written) {
+                try {
+                    // The JSON bytes of the messages are written as they are,
+                    // without copying them into a single array, while the
+                    // separators are aggregated by the output.
+                    int steps = 2 * chunks.size() + 1;
+                    while (step < steps) {
+                        if (!output.isReady()) {
                             return;
                         }
-                        break;
-                    }
-                    case HANDSHAKE: {
-                        state = State.MESSAGES;
-                        if (!writeHandshakeReply(output)) {
-                            return;
-                        }
-                        break;
-                    }
-                    case MESSAGES: {
-                        if (!writeMessages(output)) {
-                            return;
-                        }
-                        state = State.REPLIES;
-                        break;
-                    }
-                    case REPLIES: {
-                        if (!writeReplies(output)) {
-                            return;
-                        }
-                        state = State.END;
-                        break;
-                    }
-                    case END: {
-                        state = State.COMPLETE;
-                        if (!writeEnd(output)) {
-                            return;
-                        }
-                        break;
-                    }
-                    case COMPLETE: {
-                        promise.succeed(null);
-                        writeComplete(context, messages);
-                        return;
-                    }
-                    default: {
-                        throw new IllegalStateException("Could not write in state " + current);
+                        write(output, step++);
                     }
+                } catch (Throwable x) {
+                    // Start the interval timeout also in case of
+                    // exceptions to ensure the session can be swept.
+                    startExpiration();
+                    throw x;
+                }
+
+                written = true;
+                // Start the interval timeout after writing the messages
+                // since they may take time to be written.
+                startExpiration();
+
+                if (!output.isReady()) {
+                    return;
                 }
             }
+
+            promise.succeed(null);
+            writeComplete(context, messages);
         }
 
-        private boolean writeBegin(ServletOutputStream output) throws IOException {
-            output.write('[');
-            return output.isReady();
+        /**
+         * <p>Writes the given step of the response: even steps are the
+         * brackets and the commas, odd steps are the JSON messages.</p>
+         */
+        private void write(ServletOutputStream output, int step) throws IOException {
+            int index = step / 2;
+            if (step % 2 == 1) {
+                output.write(chunks.get(index));
+            } else if (index == chunks.size()) {
+                if (index == 0) {
+                    output.write('[');
+                }
+                output.write(']');
+            } else {
+                output.write(index == 0 ? '[' : ',');
+            }
         }
 
-        private boolean writeHandshakeReply(ServletOutputStream output) throws IOException {
+        /**
+         * @return the JSON bytes of the handshake reply, the messages and the other replies
+         */
+        private List<byte[]> gather() {
             List<ServerMessage.Mutable> replies = context.replies;
+            List<byte[]> chunks = new ArrayList<>(messages.size() + replies.size());
+
+            int replyIndex = 0;
             if (replies.size() > 0) {
                 ServerMessage.Mutable reply = replies.get(0);
                 if (Channel.META_HANDSHAKE.equals(reply.getChannel())) {
@@ -383,42 +388,22 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                         reply.put("x-messages", messages.size());
                     }
                     getBayeux().freeze(reply);
-                    output.write(toJSONBytes(reply));
-                    needsComma = true;
+                    chunks.add(toJSONBytes(reply));
                     ++replyIndex;
                 }
             }
-            return output.isReady();
-        }
 
-        private boolean writeMessages(ServletOutputStream output) throws IOException {
-            try {
-                int size = messages.size();
-                while (output.isReady()) {
-                    if (messageIndex == size) {
-                        // Start the interval timeout after writing the
-                        // messages since they may take time to be written.
-                        startExpiration();
-                        return true;
-                    } else {
-                        if (needsComma) {
-                            output.write(',');
-                            needsComma = false;
-                        } else {
-                            ServerMessage message = messages.get(messageIndex);
-                            output.write(toJSONBytes(message));
-                            needsComma = messageIndex < size;
-                            ++messageIndex;
-                        }
-                    }
-                }
-                return false;
-            } catch (Throwable x) {
-                // Start the interval timeout also in case of
-                // exceptions to ensure the session can be swept.
-                startExpiration();
-                throw x;
+            for (ServerMessage message : messages) {
+                chunks.add(toJSONBytes(message));
             }
+
+            for (int i = replyIndex; i < replies.size(); ++i) {
+                ServerMessage.Mutable reply = replies.get(i);
+                getBayeux().freeze(reply);
+                chunks.add(toJSONBytes(reply));
+            }
+
+            return chunks;
         }
 
         private void startExpiration() {
@@ -427,33 +412,6 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
             }
         }
 
-        private boolean writeReplies(ServletOutputStream output) throws IOException {
-            List<ServerMessage.Mutable> replies = context.replies;
-            int size = replies.size();
-            while (output.isReady()) {
-                if (replyIndex == size) {
-                    return true;
-                } else {
-                    ServerMessage.Mutable reply = replies.get(replyIndex);
-                    if (needsComma) {
-                        output.write(',');
-                        needsComma = false;
-                    } else {
-                        getBayeux().freeze(reply);
-                        output.write(toJSONBytes(reply));
-                        needsComma = replyIndex < size;
-                        ++replyIndex;
-                    }
-                }
-            }
-            return false;
-        }
-
-        private boolean writeEnd(ServletOutputStream output) throws IOException {
-            output.write(']');
-            return output.isReady();
-        }
-
         @Override
         public void onError(Throwable failure) {
             if (LOGGER.isDebugEnabled()) {
@@ -466,10 +424,6 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         }
     }
 
-    private enum State {
-        BEGIN, HANDSHAKE, MESSAGES, REPLIES, END, COMPLETE
-    }
-
     private class AsyncLongPollScheduler extends LongPollScheduler {
         private AsyncLongPollScheduler(Context context, Promise<Void> promise, ServerMessage.Mutable reply, long timeout) {
             super(context, promise, reply, timeout);
@@ -477,6 +431,17 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
 
         @Override
         protected void dispatch(boolean timeout) {
+            if (getBayeux().isVirtualThreads()) {
+                // The listeners and extensions that run before the write may block,
+                // and would otherwise run in the thread that resumed the /meta/connect,
+                // for example a thread publishing to many sessions.
+                getBayeux().execute(() -> resume(timeout));
+            } else {
+                resume(timeout);
+            }
+        }
+
+        private void resume(boolean timeout) {
             // Directly succeeding the callback to write messages and replies.
             // Since the write is async, we will never block and thus never delay other sessions.
             getContext().session.notifyResumed(getMessage(), timeout);
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.ServerMetrics;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.Dumpable;
+
+/**
+ * <p>A {@link ServerMetrics} implementation that records server-wide,
+ * per-transport, per-channel and per-session metrics in striped counters
+ * and {@link Histogram}s, cheap enough to be always enabled.</p>
+ * <p>Metrics are exported via JMX, and can be pulled by applications
+ * via {@link #snapshot()}.</p>
+ */
+@ManagedObject("CometD server metrics")
+public class DefaultServerMetrics implements ServerMetrics, Dumpable {
+    private final LongAdder _publishes = new LongAdder();
+    private final Histogram _fanOut = new Histogram();
+    private final Histogram _queueDepth = new Histogram();
+    private final Histogram _queueLatency = new Histogram();
+    private final LongAdder _queueMaxed = new LongAdder();
+    private final ConcurrentMap<String, Histogram> _flushes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> _channels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SessionMetrics> _sessions = new ConcurrentHashMap<>();
+    private final Function<String, Histogram> _newHistogram = key -> new Histogram();
+    private final Function<String, SessionMetrics> _newSessionMetrics = key -> new SessionMetrics();
+
+    @Override
+    public void onPublish(ServerChannel channel, int subscribers) {
+        _publishes.increment();
+        _fanOut.record(subscribers);
+        histogram(_channels, channel.getId()).record(subscribers);
+    }
+
+    @Override
+    public void onQueued(ServerSession session, int queueSize) {
+        _queueDepth.record(queueSize);
+        SessionMetrics metrics = session(session);
+        metrics._queued.increment();
+        metrics._maxQueueDepth.accumulate(queueSize);
+    }
+
+    @Override
+    public void onQueueMaxed(ServerSession session, ServerMessage message) {
+        _queueMaxed.increment();
+        session(session)._queueMaxed.increment();
+    }
+
+    @Override
+    public void onFlush(ServerSession session, String transport, int messages) {
+        histogram(_flushes, transport).record(messages);
+    }
+
+    @Override
+    public void onQueueLatency(ServerSession session, long nanos) {
+        _queueLatency.record(nanos);
+    }
+
+    @Override
+    public void onSessionRemoved(ServerSession session) {
+        _sessions.remove(session.getId());
+    }
+
+    @Override
+    public void onChannelRemoved(ServerChannel channel) {
+        _channels.remove(channel.getId());
+    }
+
+    private Histogram histogram(ConcurrentMap<String, Histogram> histograms, String key) {
+        // Avoid computeIfAbsent() in the common case, as it may lock.
+        Histogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, _newHistogram);
+    }
+
+    private SessionMetrics session(ServerSession session) {
+        String id = session.getId();
+        SessionMetrics metrics = _sessions.get(id);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (!session.isHandshook()) {
+            // Do not track sessions that have been removed.
+            return new SessionMetrics();
+        }
+        return _sessions.computeIfAbsent(id, _newSessionMetrics);
+    }
+
+    @ManagedAttribute("The number of messages published to broadcast channels")
+    public long getPublishCount() {
+        return _publishes.sum();
+    }
+
+    @ManagedAttribute("The number of subscribers published messages have been delivered to")
+    public String getFanOut() {
+        return _fanOut.snapshot().toString();
+    }
+
+    @ManagedAttribute("The session queue sizes when messages are enqueued")
+    public String getQueueDepth() {
+        return _queueDepth.snapshot().toString();
+    }
+
+    @ManagedAttribute("The time, in microseconds, messages wait in session queues")
+    public String getQueueLatency() {
+        Histogram.Snapshot snapshot = _queueLatency.snapshot();
+        return String.format("count=%d mean=%.2f p50=%d p99=%d max=%d", snapshot.getCount(),
+                snapshot.getMean() / 1000, micros(snapshot.getPercentile(50)), micros(snapshot.getPercentile(99)), micros(snapshot.getMax()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @ManagedAttribute("The number of messages rejected because session queues were full")
+    public long getQueueMaxedCount() {
+        return _queueMaxed.sum();
+    }
+
+    @ManagedAttribute("The number of messages written at once, per transport")
+    public Map<String, String> getFlushSizes() {
+        Map<String, String> result = new TreeMap<>();
+        _flushes.forEach((key, value) -> result.put(key, value.snapshot().toString()));
+        return result;
+    }
+
+    @ManagedOperation(value = "Resets the metrics", impact = "ACTION")
+    public void reset() {
+        _publishes.reset();
+        _queueMaxed.reset();
+        _fanOut.reset();
+        _queueDepth.reset();
+        _queueLatency.reset();
+        _flushes.clear();
+        _channels.clear();
+        _sessions.clear();
+    }
+
+    /**
+     * <p>Returns a snapshot of the metrics.</p>
+     * <p>The snapshot is not atomic: events that happen concurrently
+     * may or may not be included in the snapshot.</p>
+     *
+     * @return a snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        Map<String, Histogram.Snapshot> flushes = new TreeMap<>();
+        _flushes.forEach((key, value) -> flushes.put(key, value.snapshot()));
+        Map<String, Histogram.Snapshot> channels = new TreeMap<>();
+        _channels.forEach((key, value) -> channels.put(key, value.snapshot()));
+        Map<String, SessionSnapshot> sessions = new TreeMap<>();
+        _sessions.forEach((key, value) -> sessions.put(key, value.snapshot()));
+        return new Snapshot(_publishes.sum(), _queueMaxed.sum(), _fanOut.snapshot(), _queueDepth.snapshot(),
+                _queueLatency.snapshot(), flushes, channels, sessions);
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException {
+        Dumpable.dumpObjects(out, indent, this,
+                "publishes=" + getPublishCount(),
+                "fanOut: " + getFanOut(),
+                "queueDepth: " + getQueueDepth(),
+                "queueLatency(us): " + getQueueLatency(),
+                "queueMaxed=" + getQueueMaxedCount(),
+                "flushSizes: " + getFlushSizes());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x", getClass().getSimpleName(), hashCode());
+    }
+
+    private static class SessionMetrics {
+        private final LongAdder _queued = new LongAdder();
+        private final LongAccumulator _maxQueueDepth = new LongAccumulator(Math::max, 0);
+        private final LongAdder _queueMaxed = new LongAdder();
+
+        private SessionSnapshot snapshot() {
+            return new SessionSnapshot(_queued.sum(), _maxQueueDepth.get(), _queueMaxed.sum());
+        }
+    }
+
+    /**
+     * <p>A snapshot of the metrics of a {@link DefaultServerMetrics}.</p>
+     */
+    public static class Snapshot {
+        private final long _publishCount;
+        private final long _queueMaxedCount;
+        private final Histogram.Snapshot _fanOut;
+        private final Histogram.Snapshot _queueDepth;
+        private final Histogram.Snapshot _queueLatency;
+        private final Map<String, Histogram.Snapshot> _flushSizes;
+        private final Map<String, Histogram.Snapshot> _channels;
+        private final Map<String, SessionSnapshot> _sessions;
+
+        private Snapshot(long publishCount, long queueMaxedCount, Histogram.Snapshot fanOut, Histogram.Snapshot queueDepth, Histogram.Snapshot queueLatency,
+                         Map<String, Histogram.Snapshot> flushSizes, Map<String, Histogram.Snapshot> channels, Map<String, SessionSnapshot> sessions) {
+            _publishCount = publishCount;
+            _queueMaxedCount = queueMaxedCount;
+            _fanOut = fanOut;
+            _queueDepth = queueDepth;
+            _queueLatency = queueLatency;
+            _flushSizes = Collections.unmodifiableMap(flushSizes);
+            _channels = Collections.unmodifiableMap(channels);
+            _sessions = Collections.unmodifiableMap(sessions);
+        }
+
+        /**
+         * @return the number of messages published to broadcast channels
+         */
+        public long getPublishCount() {
+            return _publishCount;
+        }
+
+        /**
+         * @return the number of messages rejected because session queues were full
+         */
+        public long getQueueMaxedCount() {
+            return _queueMaxedCount;
+        }
+
+        /**
+         * @return the histogram of the number of subscribers published messages have been delivered to
+         */
+        public Histogram.Snapshot getFanOut() {
+            return _fanOut;
+        }
+
+        /**
+         * @return the histogram of the session queue sizes when messages are enqueued
+         */
+        public Histogram.Snapshot getQueueDepth() {
+            return _queueDepth;
+        }
+
+        /**
+         * @return the histogram of the time, in nanoseconds, messages wait in session queues
+         */
+        public Histogram.Snapshot getQueueLatency() {
+            return _queueLatency;
+        }
+
+        /**
+         * @return the histograms of the number of messages written at once, by transport name
+         */
+        public Map<String, Histogram.Snapshot> getFlushSizes() {
+            return _flushSizes;
+        }
+
+        /**
+         * @return the histograms of the fan-out of published messages, by channel name
+         */
+        public Map<String, Histogram.Snapshot> getChannels() {
+            return _channels;
+        }
+
+        /**
+         * @return the session metrics, by session id
+         */
+        public Map<String, SessionSnapshot> getSessions() {
+            return _sessions;
+        }
+    }
+
+    /**
+     * <p>A snapshot of the metrics of a session.</p>
+     */
+    public static class SessionSnapshot {
+        private final long _queuedCount;
+        private final long _maxQueueDepth;
+        private final long _queueMaxedCount;
+
+        private SessionSnapshot(long queuedCount, long maxQueueDepth, long queueMaxedCount) {
+            _queuedCount = queuedCount;
+            _maxQueueDepth = maxQueueDepth;
+            _queueMaxedCount = queueMaxedCount;
+        }
+
+        /**
+         * @return the number of messages added to the session queue
+         */
+        public long getQueuedCount() {
+            return _queuedCount;
+        }
+
+        /**
+         * @return the max size of the session queue
+         */
+        public long getMaxQueueDepth() {
+            return _maxQueueDepth;
+        }
+
+        /**
+         * @return the number of messages rejected because the session queue was full
+         */
+        public long getQueueMaxedCount() {
+            return _queueMaxedCount;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A histogram of non-negative values, with buckets
+ * whose bounds are the powers of 2.</p>
+ * <p>Values are recorded in striped counters, so that concurrent
+ * threads recording values do not contend on the same memory.
+ * Buckets are allocated when the first value is recorded into
+ * them, since typically only few buckets are used.</p>
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicReferenceArray<LongAdder> _buckets = new AtomicReferenceArray<>(BUCKETS);
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value the value to record, negative values are recorded as zero
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = BUCKETS - Long.numberOfLeadingZeros(value);
+        LongAdder bucket = _buckets.get(index);
+        if (bucket == null) {
+            _buckets.compareAndSet(index, null, new LongAdder());
+            bucket = _buckets.get(index);
+        }
+        bucket.increment();
+        _sum.add(value);
+        _max.accumulate(value);
+    }
+
+    /**
+     * <p>Resets this histogram.</p>
+     * <p>Values recorded concurrently may or may not be reset.</p>
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            LongAdder bucket = _buckets.get(i);
+            if (bucket != null) {
+                bucket.reset();
+            }
+        }
+        _sum.reset();
+        _max.reset();
+    }
+
+    /**
+     * <p>Returns a snapshot of this histogram.</p>
+     * <p>The snapshot is not atomic: values recorded concurrently
+     * may or may not be included in the snapshot.</p>
+     *
+     * @return a snapshot of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            LongAdder bucket = _buckets.get(i);
+            if (bucket != null) {
+                counts[i] = bucket.sum();
+                count += counts[i];
+            }
+        }
+        return new Snapshot(counts, count, _sum.sum(), _max.get());
+    }
+
+    public static class Snapshot {
+        private final long[] _counts;
+        private final long _count;
+        private final long _sum;
+        private final long _max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            _counts = counts;
+            _count = count;
+            _sum = sum;
+            _max = max;
+        }
+
+        /**
+         * @return the number of values recorded
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        /**
+         * @return the sum of the values recorded
+         */
+        public long getSum() {
+            return _sum;
+        }
+
+        /**
+         * @return the max value recorded
+         */
+        public long getMax() {
+            return _max;
+        }
+
+        /**
+         * @return the mean of the values recorded
+         */
+        public double getMean() {
+            return _count == 0 ? 0 : (double)_sum / _count;
+        }
+
+        /**
+         * <p>Returns an upper bound of the given percentile.</p>
+         * <p>The value returned is the upper bound of the bucket that
+         * contains the percentile, so it is at most twice the actual value.</p>
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound of the given percentile
+         */
+        public long getPercentile(double percentile) {
+            if (_count == 0) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(_count * Math.max(0, Math.min(100, percentile)) / 100);
+            long count = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                count += _counts[i];
+                if (count >= rank && count > 0) {
+                    long upper = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, _max);
+                }
+            }
+            return _max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.2f p50=%d p99=%d max=%d", getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+        }
+    }
+}
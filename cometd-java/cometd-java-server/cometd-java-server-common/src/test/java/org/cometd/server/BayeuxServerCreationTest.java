@@ -19,6 +19,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.cometd.server.http.JSONPTransport;
 import org.cometd.server.http.JSONTransport;
 import org.junit.jupiter.api.Assertions;
@@ -87,4 +90,22 @@ public class BayeuxServerCreationTest {
         Assertions.assertEquals(JSONTransport.NAME, bayeuxServer.getKnownTransportNames().iterator().next());
         Assertions.assertEquals(timeout, bayeuxServer.getTransport(JSONTransport.NAME).getTimeout());
     }
+
+    @Test
+    public void testCreationWithVirtualThreadsExecutor() throws Exception {
+        BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
+        bayeuxServer.setOption(BayeuxServerImpl.EXECUTOR_TYPE_OPTION, "virtual");
+        bayeuxServer.start();
+
+        Executor executor = bayeuxServer.getExecutor();
+        // Virtual threads are only available in recent JDKs.
+        boolean virtual = VirtualThreadsExecutor.newInstance("test") != null;
+        Assertions.assertEquals(virtual, executor instanceof VirtualThreadsExecutor);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        bayeuxServer.execute(latch::countDown);
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        bayeuxServer.stop();
+    }
 }
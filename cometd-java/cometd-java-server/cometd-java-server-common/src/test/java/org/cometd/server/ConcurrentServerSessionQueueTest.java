@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentServerSessionQueueTest {
+    @Test
+    public void testOfferPollDrain() {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+        Assertions.assertTrue(queue.drain().isEmpty());
+
+        ServerMessage m1 = newMessage(1);
+        ServerMessage m2 = newMessage(2);
+        ServerMessage m3 = newMessage(3);
+        queue.offer(m1);
+        queue.offer(m2);
+        queue.offer(m3);
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertSame(m1, queue.peek());
+
+        Assertions.assertSame(m1, queue.poll());
+        Assertions.assertEquals(2, queue.size());
+
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertEquals(2, drained.size());
+        Assertions.assertSame(m2, drained.get(0));
+        Assertions.assertSame(m3, drained.get(1));
+        Assertions.assertEquals(0, queue.size());
+        Assertions.assertTrue(queue.isEmpty());
+
+        // The queue is still usable after a drain.
+        queue.offer(m1);
+        Assertions.assertSame(m1, queue.poll());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        ServerMessage m1 = newMessage(1);
+        ServerMessage m2 = newMessage(2);
+        ServerMessage m3 = newMessage(3);
+        queue.offer(m1);
+        queue.offer(m2);
+        queue.offer(m3);
+
+        Iterator<ServerMessage> iterator = queue.iterator();
+        Assertions.assertSame(m1, iterator.next());
+        Assertions.assertSame(m2, iterator.next());
+        iterator.remove();
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(2, new ArrayList<>(queue).size());
+
+        // Remove the tail, new messages must still be linked.
+        Assertions.assertSame(m3, iterator.next());
+        iterator.remove();
+        queue.offer(m2);
+
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertEquals(2, drained.size());
+        Assertions.assertSame(m1, drained.get(0));
+        Assertions.assertSame(m2, drained.get(1));
+    }
+
+    @Test
+    public void testConflation() {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        ServerMessage m1 = newMessage(1);
+        ServerMessage m2 = newMessage(2);
+        ServerMessage m3 = newMessage(3);
+        ServerMessage m4 = newMessage(4);
+        queue.offer(m1, "a");
+        queue.offer(m2);
+        queue.offer(m3, "a");
+        Assertions.assertEquals(2, queue.size());
+
+        // The conflated message takes the position of the replaced one.
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertEquals(2, drained.size());
+        Assertions.assertSame(m3, drained.get(0));
+        Assertions.assertSame(m2, drained.get(1));
+
+        // After the drain, the key is not pending anymore.
+        queue.offer(m4, "a");
+        queue.offer(m1, "b");
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertSame(m4, queue.poll());
+        queue.offer(m2, "a");
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertSame(m1, queue.poll());
+        Assertions.assertSame(m2, queue.poll());
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testConflationAfterIteratorRemove() {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        ServerMessage m1 = newMessage(1);
+        ServerMessage m2 = newMessage(2);
+        queue.offer(m1, "a");
+        Iterator<ServerMessage> iterator = queue.iterator();
+        Assertions.assertSame(m1, iterator.next());
+        iterator.remove();
+        Assertions.assertEquals(0, queue.size());
+
+        queue.offer(m2, "a");
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertSame(m2, queue.poll());
+    }
+
+    @Test
+    public void testConcurrentConflatingProducers() throws Exception {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        int producers = 4;
+        int keys = 8;
+        int count = 10_000;
+        CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    queue.offer(newMessage(i), i % keys);
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        while (latch.getCount() > 0) {
+            Assertions.assertTrue(queue.drain().size() <= keys);
+        }
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.drain().size() <= keys);
+        Assertions.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        ConcurrentServerSessionQueue queue = new ConcurrentServerSessionQueue();
+        int producers = 4;
+        int count = 10_000;
+        CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            int base = p * count;
+            new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    queue.offer(newMessage(base + i));
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        Set<Object> ids = new HashSet<>();
+        while (latch.getCount() > 0) {
+            for (ServerMessage message : queue.drain()) {
+                Assertions.assertTrue(ids.add(message.getId()));
+            }
+        }
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (ServerMessage message : queue.drain()) {
+            Assertions.assertTrue(ids.add(message.getId()));
+        }
+
+        Assertions.assertEquals(producers * count, ids.size());
+        Assertions.assertEquals(0, queue.size());
+    }
+
+    private static ServerMessage newMessage(int id) {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setId(String.valueOf(id));
+        return message;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.ext.AcknowledgedMessagesSessionExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConflationTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testConflationByChannel() {
+        ServerSessionImpl session = newSession();
+        ServerChannel conflated = _bayeux.createChannelIfAbsent("/conflated", c -> c.setAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE, true)).getReference();
+        ServerChannel plain = _bayeux.createChannelIfAbsent("/plain").getReference();
+        conflated.subscribe(session);
+        plain.subscribe(session);
+
+        conflated.publish(null, "1", Promise.noop());
+        plain.publish(null, "a", Promise.noop());
+        conflated.publish(null, "2", Promise.noop());
+        plain.publish(null, "b", Promise.noop());
+        conflated.publish(null, "3", Promise.noop());
+
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertEquals("3", queue.get(0).getData());
+        Assertions.assertEquals("a", queue.get(1).getData());
+        Assertions.assertEquals("b", queue.get(2).getData());
+
+        // Disable conflation.
+        conflated.removeAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE);
+        conflated.publish(null, "4", Promise.noop());
+        conflated.publish(null, "5", Promise.noop());
+        Assertions.assertEquals(2, session.takeQueue(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testConflatingOnlyAfterChannelEnablesConflation() {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/conflated").getReference();
+        Assertions.assertFalse(_bayeux.isConflating());
+
+        channel.setAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE, false);
+        Assertions.assertFalse(_bayeux.isConflating());
+
+        channel.setAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE, true);
+        Assertions.assertTrue(_bayeux.isConflating());
+
+        // Stays enabled, as other channels may still conflate.
+        channel.removeAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE);
+        Assertions.assertTrue(_bayeux.isConflating());
+    }
+
+    @Test
+    public void testConflationByDataField() {
+        ServerSessionImpl session = newSession();
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/quotes", c -> c.setAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE, "symbol")).getReference();
+        channel.subscribe(session);
+
+        channel.publish(null, quote("A", 1), Promise.noop());
+        channel.publish(null, quote("B", 2), Promise.noop());
+        channel.publish(null, quote("A", 3), Promise.noop());
+        // Messages without the field are not conflated.
+        channel.publish(null, "x", Promise.noop());
+        channel.publish(null, "y", Promise.noop());
+
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(4, queue.size());
+        Assertions.assertEquals(3, queue.get(0).getDataAsMap().get("price"));
+        Assertions.assertEquals(2, queue.get(1).getDataAsMap().get("price"));
+        Assertions.assertEquals("x", queue.get(2).getData());
+        Assertions.assertEquals("y", queue.get(3).getData());
+    }
+
+    @Test
+    public void testConflationWithAcknowledgedMessages() {
+        ServerSessionImpl session = newSession();
+        AcknowledgedMessagesSessionExtension extension = new AcknowledgedMessagesSessionExtension(session);
+        session.addExtension(extension);
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/conflated", c -> c.setAttribute(ServerChannelImpl.CONFLATE_ATTRIBUTE, true)).getReference();
+        channel.subscribe(session);
+
+        channel.publish(null, "1", Promise.noop());
+        channel.publish(null, "2", Promise.noop());
+
+        // The acknowledgment extension replaces the session queue with
+        // the messages of the batch, that must be conflated as well.
+        ServerMessage.Mutable reply = _bayeux.newMessage();
+        reply.setChannel(Channel.META_CONNECT);
+        reply.setId("1");
+        extension.sendMeta(null, session, reply);
+        // Published after the batch has been closed.
+        channel.publish(null, "3", Promise.noop());
+
+        List<ServerMessage> queue = session.takeQueue(Collections.singletonList(reply));
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals("2", queue.get(0).getData());
+    }
+
+    private static Map<String, Object> quote(String symbol, int price) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", symbol);
+        data.put("price", price);
+        return data;
+    }
+
+    private ServerSessionImpl newSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        session.handshake(null);
+        session.connected();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        return session;
+    }
+}
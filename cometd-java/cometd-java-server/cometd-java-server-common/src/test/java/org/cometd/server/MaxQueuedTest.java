@@ -15,8 +15,12 @@
  */
 package org.cometd.server;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.ServerSession;
 import org.eclipse.jetty.client.api.ContentResponse;
@@ -73,4 +77,61 @@ public class MaxQueuedTest extends AbstractBayeuxClientServerTest {
         // Session should be gone.
         Assertions.assertNull(bayeux.getSession(clientId));
     }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMaxQueuedWithConcurrentProducers(String serverTransport) throws Exception {
+        int maxQueue = 8;
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.MAX_QUEUE_OPTION, String.valueOf(maxQueue));
+        options.put(AbstractServerTransport.META_CONNECT_DELIVERY_OPTION, String.valueOf(true));
+        startServer(serverTransport, options);
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+        ServerSessionImpl serverSession = (ServerSessionImpl)bayeux.getSession(clientId);
+        Assertions.assertNotNull(serverSession);
+
+        AtomicInteger maxed = new AtomicInteger();
+        serverSession.addListener((ServerSession.QueueMaxedListener)(session, queue, sender, message) -> {
+            maxed.incrementAndGet();
+            // Make room for the new message, so that
+            // producers keep contending on a full queue.
+            queue.poll();
+            return true;
+        });
+
+        int producers = 8;
+        int messages = 1024;
+        CyclicBarrier barrier = new CyclicBarrier(producers);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < messages; ++i) {
+                        serverSession.deliver(null, "/max_queue", "message_" + i, Promise.noop());
+                    }
+                } catch (Throwable x) {
+                    throw new RuntimeException(x);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assertions.assertEquals(maxQueue, serverSession.getQueue().size());
+        Assertions.assertEquals(producers * messages - maxQueue, maxed.get());
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MetaConnectReplyTemplateTest {
+    private final JSONContextServer jsonContext = new JettyJSONContextServer();
+
+    @Test
+    public void testReplyWithIdAndClientId() throws Exception {
+        ServerMessageImpl reply = newReply();
+        reply.setId("42");
+        reply.setClientId("abc123");
+
+        Assertions.assertTrue(MetaConnectReplyTemplate.freeze(reply));
+        assertJSON(reply);
+    }
+
+    @Test
+    public void testReplyWithoutId() throws Exception {
+        ServerMessageImpl reply = newReply();
+
+        Assertions.assertTrue(MetaConnectReplyTemplate.freeze(reply));
+        assertJSON(reply);
+    }
+
+    @Test
+    public void testReplyWithIdToEscape() {
+        ServerMessageImpl reply = newReply();
+        reply.setId("4\"2");
+
+        Assertions.assertFalse(MetaConnectReplyTemplate.freeze(reply));
+        Assertions.assertFalse(reply.isFrozen());
+    }
+
+    @Test
+    public void testReplyWithAdvice() {
+        ServerMessageImpl reply = newReply();
+        reply.setId("42");
+        Map<String, Object> advice = reply.getAdvice(true);
+        advice.put(Message.RECONNECT_FIELD, Message.RECONNECT_RETRY_VALUE);
+
+        Assertions.assertFalse(MetaConnectReplyTemplate.freeze(reply));
+        Assertions.assertFalse(reply.isFrozen());
+    }
+
+    @Test
+    public void testUnsuccessfulReply() {
+        ServerMessageImpl reply = newReply();
+        reply.setId("42");
+        reply.setSuccessful(false);
+
+        Assertions.assertFalse(MetaConnectReplyTemplate.freeze(reply));
+        Assertions.assertFalse(reply.isFrozen());
+    }
+
+    @Test
+    public void testBayeuxServerFreeze() throws Exception {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        try {
+            ServerMessageImpl reply = newReply();
+            reply.setId("1");
+            bayeux.freeze(reply);
+            assertJSON(reply);
+
+            ServerMessageImpl other = newReply();
+            other.setId("2");
+            other.getExt(true).put("ack", 1L);
+            bayeux.freeze(other);
+            assertJSON(other);
+        } finally {
+            bayeux.stop();
+        }
+    }
+
+    private ServerMessageImpl newReply() {
+        ServerMessageImpl reply = new ServerMessageImpl();
+        reply.setChannel(Channel.META_CONNECT);
+        reply.setSuccessful(true);
+        return reply;
+    }
+
+    private void assertJSON(ServerMessageImpl reply) throws Exception {
+        Assertions.assertTrue(reply.isFrozen());
+        Assertions.assertArrayEquals(reply.getJSON().getBytes(StandardCharsets.UTF_8), reply.getJSONBytes());
+        ServerMessage.Mutable parsed = jsonContext.parse(reply.getJSON())[0];
+        Assertions.assertEquals(new HashMap<>(reply), new HashMap<>(parsed));
+    }
+}
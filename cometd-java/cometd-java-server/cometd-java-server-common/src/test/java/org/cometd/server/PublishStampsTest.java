@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PublishStampsTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testClaim() {
+        PublishStamps stamps = new PublishStamps();
+        ServerSessionImpl session = _bayeux.newServerSession();
+
+        long stamp1 = stamps.acquire();
+        Assertions.assertEquals(PublishStamps.CLAIMED, stamps.claim(session, stamp1));
+        Assertions.assertEquals(PublishStamps.DELIVERED, stamps.claim(session, stamp1));
+
+        // The session is stamped by a publish in progress.
+        long stamp2 = stamps.acquire();
+        Assertions.assertEquals(PublishStamps.CONTENDED, stamps.claim(session, stamp2));
+
+        // Once the first publish completes, the session can be stamped again.
+        stamps.release(stamp1);
+        Assertions.assertEquals(PublishStamps.CLAIMED, stamps.claim(session, stamp2));
+        Assertions.assertEquals(PublishStamps.DELIVERED, stamps.claim(session, stamp2));
+        stamps.release(stamp2);
+    }
+
+    @Test
+    public void testTooManyPublishesInProgress() {
+        PublishStamps stamps = new PublishStamps();
+        List<Long> acquired = new ArrayList<>();
+        while (true) {
+            long stamp = stamps.acquire();
+            if (stamp == 0) {
+                break;
+            }
+            acquired.add(stamp);
+        }
+        Assertions.assertFalse(acquired.isEmpty());
+
+        stamps.release(acquired.get(0));
+        Assertions.assertNotEquals(0, stamps.acquire());
+    }
+}
@@ -15,8 +15,12 @@
  */
 package org.cometd.server;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxServer;
@@ -490,6 +494,174 @@ public class ServerChannelTest {
         Assertions.assertEquals(-1, channel.getLazyTimeout());
     }
 
+    @Test
+    public void testChannelWithoutInitializersIsCompact() throws Exception {
+        // Channel initializers require channels to wait for initialization.
+        _bayeux.removeListener(_bayeuxChannelListener);
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/user/1").getReference();
+        Assertions.assertTrue(channel.getSubscribers().isEmpty());
+        Assertions.assertTrue(channel.getAttributeNames().isEmpty());
+        Assertions.assertNull(channel.removeAttribute("name"));
+
+        // Creating the same channel from another thread does not wait.
+        CountDownLatch latch = new CountDownLatch(1);
+        new Thread(() -> {
+            if (_bayeux.createChannelIfAbsent("/user/1").getReference() == channel) {
+                latch.countDown();
+            }
+        }).start();
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        ServerSessionImpl session1 = newServerSession();
+        ServerSessionImpl session2 = newServerSession();
+        Assertions.assertTrue(channel.subscribe(session1));
+        Assertions.assertTrue(channel.subscribe(session1));
+        Assertions.assertEquals(1, channel.getSubscribers().size());
+        Assertions.assertTrue(channel.isSubscribed(session1));
+        Assertions.assertFalse(channel.isSubscribed(session2));
+
+        // A second subscriber inflates the subscribers.
+        channel.subscribe(session2);
+        Assertions.assertEquals(2, channel.getSubscribers().size());
+        Assertions.assertTrue(channel.isSubscribed(session2));
+
+        channel.unsubscribe(session1);
+        channel.unsubscribe(session2);
+        Assertions.assertTrue(channel.getSubscribers().isEmpty());
+        Assertions.assertTrue(session1.getSubscriptions().isEmpty());
+
+        channel.setAttribute("name", "value");
+        Assertions.assertEquals("value", channel.getAttribute("name"));
+        Assertions.assertEquals("value", channel.removeAttribute("name"));
+
+        sweep();
+        Assertions.assertNull(_bayeux.getChannel("/user/1"));
+    }
+
+    @Test
+    public void testUnsubscribeFromWildDuringPublishDoesNotDuplicate() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerSessionImpl session = newServerSession();
+        fooStar.subscribe(session);
+        fooBar.subscribe(session);
+
+        AtomicInteger messages = new AtomicInteger();
+        session.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession to, ServerSession from, ServerMessage message) {
+                messages.incrementAndGet();
+                // Delivered via /foo/* first, then unsubscribe from it.
+                fooStar.unsubscribe(session);
+                return true;
+            }
+        });
+
+        fooBar.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(1, messages.get());
+    }
+
+    @Test
+    public void testSubscribeToWildDuringPublishDoesNotLoseMessage() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerSessionImpl session0 = newServerSession();
+        ServerSessionImpl session1 = newServerSession();
+        fooStar.subscribe(session0);
+        fooBar.subscribe(session1);
+
+        AtomicInteger messages = new AtomicInteger();
+        session0.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession to, ServerSession from, ServerMessage message) {
+                // Delivered via /foo/* first, then subscribe the other session to it.
+                fooStar.subscribe(session1);
+                return true;
+            }
+        });
+        session1.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession to, ServerSession from, ServerMessage message) {
+                messages.incrementAndGet();
+                return true;
+            }
+        });
+
+        fooBar.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(1, messages.get());
+    }
+
+    @Test
+    public void testNestedPublishToSameSubscriberDoesNotDuplicate() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl fooBaz = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/baz").getReference();
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerSessionImpl session = newServerSession();
+        fooStar.subscribe(session);
+        fooBar.subscribe(session);
+        fooBaz.subscribe(session);
+
+        Map<String, AtomicInteger> messages = new ConcurrentHashMap<>();
+        session.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession to, ServerSession from, ServerMessage message) {
+                String channel = message.getChannel();
+                if (messages.computeIfAbsent(channel, key -> new AtomicInteger()).incrementAndGet() == 1 && fooBar.getId().equals(channel)) {
+                    // The session is still stamped by the publish to /foo/bar.
+                    fooBaz.publish(null, "nested", Promise.noop());
+                }
+                return true;
+            }
+        });
+
+        fooBar.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(1, messages.get(fooBar.getId()).get());
+        Assertions.assertEquals(1, messages.get(fooBaz.getId()).get());
+    }
+
+    @Test
+    public void testInitializerAddedAfterCompactChannel() throws Exception {
+        _bayeux.removeListener(_bayeuxChannelListener);
+        ServerChannel user1 = _bayeux.createChannelIfAbsent("/user/1").getReference();
+        Assertions.assertFalse(user1.isPersistent());
+
+        // A later Initializer configures the channels created afterwards,
+        // before they are notified as added.
+        AtomicInteger configured = new AtomicInteger();
+        _bayeux.addListener(new BayeuxServer.ChannelListener() {
+            @Override
+            public void configureChannel(ConfigurableServerChannel channel) {
+                channel.setPersistent(true);
+            }
+
+            @Override
+            public void channelAdded(ServerChannel channel) {
+                if (channel.isPersistent()) {
+                    configured.incrementAndGet();
+                }
+            }
+        });
+        Assertions.assertTrue(_bayeux.createChannelIfAbsent("/user/2").getReference().isPersistent());
+        Assertions.assertEquals(1, configured.get());
+
+        // A channel added already initialized waits again for its initialization,
+        // when an Initializer is added concurrently with its creation.
+        ServerChannelImpl channel = new ServerChannelImpl(_bayeux, new ChannelId("/user/3"), true);
+        channel.uninitialized();
+        CountDownLatch latch = new CountDownLatch(1);
+        new Thread(() -> {
+            channel.waitForInitialized();
+            latch.countDown();
+        }).start();
+        Assertions.assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        channel.initialized();
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
     private void sweep() {
         // 12 is a big enough number that will make sure channel will be swept
         for (int i = 0; i < 12; ++i) {
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.List;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.metrics.DefaultServerMetrics;
+import org.cometd.server.metrics.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ServerMetricsTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.METRICS_OPTION, true);
+        _bayeux.setOption(AbstractServerTransport.MAX_QUEUE_OPTION, 2);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMetricsDisabledByDefault() throws Exception {
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        Assertions.assertNull(bayeux.getMetrics());
+        bayeux.stop();
+    }
+
+    @Test
+    public void testMetrics() {
+        DefaultServerMetrics metrics = (DefaultServerMetrics)_bayeux.getMetrics();
+        Assertions.assertNotNull(metrics);
+
+        ServerSessionImpl session1 = newSession();
+        ServerSessionImpl session2 = newSession();
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo").getReference();
+        channel.subscribe(session1);
+        channel.subscribe(session2);
+
+        channel.publish(null, "data1", Promise.noop());
+        channel.publish(null, "data2", Promise.noop());
+
+        DefaultServerMetrics.Snapshot snapshot = metrics.snapshot();
+        Assertions.assertEquals(2, snapshot.getPublishCount());
+        Assertions.assertEquals(2, snapshot.getFanOut().getMax());
+        Assertions.assertEquals(2, snapshot.getChannels().get("/foo").getCount());
+        Assertions.assertEquals(4, snapshot.getQueueDepth().getCount());
+        Assertions.assertEquals(2, snapshot.getQueueDepth().getMax());
+        Assertions.assertEquals(2, snapshot.getSessions().get(session1.getId()).getQueuedCount());
+
+        // The queue is full, the next message is rejected.
+        session1.addListener((ServerSession.QueueMaxedListener)(session, queue, sender, message) -> false);
+        channel.publish(null, "data3", Promise.noop());
+        snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.getQueueMaxedCount());
+        Assertions.assertEquals(1, snapshot.getSessions().get(session1.getId()).getQueueMaxedCount());
+
+        List<ServerMessage> messages = session1.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(2, messages.size());
+        snapshot = metrics.snapshot();
+        Histogram.Snapshot flushes = snapshot.getFlushSizes().get("long-polling");
+        Assertions.assertEquals(1, flushes.getCount());
+        Assertions.assertEquals(2, flushes.getMax());
+        Assertions.assertEquals(2, snapshot.getQueueLatency().getCount());
+
+        _bayeux.removeSession(session1);
+        Assertions.assertNull(metrics.snapshot().getSessions().get(session1.getId()));
+    }
+
+    private ServerSessionImpl newSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        ServerMessageImpl message = (ServerMessageImpl)_bayeux.newMessage();
+        message.setServerTransport(_bayeux.getTransport("long-polling"));
+        session.setServerTransport(message.getServerTransport());
+        session.handshake(message);
+        session.connected();
+        _bayeux.addServerSession(session, message);
+        return session;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpillingServerSessionQueueTest {
+    private final JSONContextServer jsonContext = new JettyJSONContextServer();
+
+    @Test
+    public void testMessagesBeyondThresholdAreSpilled() {
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(2, pool, jsonContext);
+
+        for (int i = 0; i < 10; ++i) {
+            queue.offer(newMessage(i));
+        }
+        Assertions.assertEquals(10, queue.size());
+        Assertions.assertEquals(8, queue.getSpilledSize());
+
+        Assertions.assertEquals(0, dataOf(queue.poll()));
+        Assertions.assertEquals(1, dataOf(queue.poll()));
+        // Spilling continues until the spilled messages are consumed, to keep the order.
+        queue.offer(newMessage(10));
+        Assertions.assertEquals(9, queue.getSpilledSize());
+        Assertions.assertEquals(2, dataOf(queue.peek()));
+
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertEquals(9, drained.size());
+        for (int i = 0; i < drained.size(); ++i) {
+            ServerMessageImpl message = (ServerMessageImpl)drained.get(i);
+            Assertions.assertEquals(i + 2, dataOf(message));
+            // Restored messages are frozen, so they are written without generating the JSON.
+            Assertions.assertNotNull(message.getJSONBytes());
+        }
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertEquals(0, queue.getSpilledSize());
+        // All the segments have been returned to the pool.
+        Assertions.assertTrue(pool.getPooled() > 0);
+
+        // Below the threshold, messages are kept on heap again.
+        ServerMessage message = newMessage(11);
+        queue.offer(message);
+        Assertions.assertEquals(0, queue.getSpilledSize());
+        Assertions.assertSame(message, queue.poll());
+    }
+
+    @Test
+    public void testMessagesNotFrozenAreSpilledByReference() {
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(1, pool, jsonContext);
+
+        ServerMessage m1 = newMessage(1);
+        ServerMessageImpl m2 = new ServerMessageImpl();
+        m2.setChannel("/foo");
+        m2.setData(2);
+        ServerMessage m3 = newMessage(3);
+        queue.offer(m1);
+        queue.offer(m2);
+        queue.offer(m3);
+        Assertions.assertEquals(2, queue.getSpilledSize());
+
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertSame(m1, drained.get(0));
+        Assertions.assertSame(m2, drained.get(1));
+        Assertions.assertEquals(3, dataOf(drained.get(2)));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(1, pool, jsonContext);
+        for (int i = 0; i < 4; ++i) {
+            queue.offer(newMessage(i));
+        }
+
+        List<Integer> data = new ArrayList<>();
+        for (Iterator<ServerMessage> iterator = queue.iterator(); iterator.hasNext(); ) {
+            ServerMessage message = iterator.next();
+            data.add(dataOf(message));
+            if (dataOf(message) % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        Assertions.assertEquals(Arrays.asList(0, 1, 2, 3), data);
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(1, dataOf(queue.poll()));
+        Assertions.assertEquals(3, dataOf(queue.poll()));
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testSpilledMessagesAreRestoredFromBytes() {
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(1, pool, jsonContext);
+        for (int i = 0; i < 100; ++i) {
+            queue.offer(newMessage(i));
+        }
+
+        collectGarbage();
+
+        List<ServerMessage> drained = queue.drain();
+        Assertions.assertEquals(100, drained.size());
+        for (int i = 0; i < drained.size(); ++i) {
+            ServerMessageImpl message = (ServerMessageImpl)drained.get(i);
+            Assertions.assertEquals("/foo", message.getChannel());
+            Assertions.assertEquals(i, dataOf(message));
+            Assertions.assertNotNull(message.getJSONBytes());
+        }
+    }
+
+    @Test
+    public void testClearReleasesSpilledMessagesWithoutRestoringThem() {
+        AtomicInteger parses = new AtomicInteger();
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(2, pool, new CountingJSONContextServer(parses));
+        for (int i = 0; i < 100; ++i) {
+            queue.offer(newMessage(i));
+        }
+        collectGarbage();
+
+        queue.clear();
+
+        Assertions.assertEquals(0, parses.get());
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertEquals(0, queue.getSpilledSize());
+        Assertions.assertTrue(pool.getPooled() > 0);
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPeekedMessageIsRestoredOnce() {
+        AtomicInteger parses = new AtomicInteger();
+        SpillingServerSessionQueue.SegmentPool pool = new SpillingServerSessionQueue.SegmentPool(256, 16);
+        SpillingServerSessionQueue queue = new SpillingServerSessionQueue(1, pool, new CountingJSONContextServer(parses));
+        for (int i = 0; i < 100; ++i) {
+            queue.offer(newMessage(i));
+        }
+        collectGarbage();
+
+        Assertions.assertEquals(0, dataOf(queue.poll()));
+        ServerMessage peeked = queue.peek();
+        Assertions.assertEquals(1, dataOf(peeked));
+        int restored = parses.get();
+        Assertions.assertSame(peeked, queue.peek());
+        Assertions.assertSame(peeked, queue.poll());
+        Assertions.assertEquals(restored, parses.get());
+    }
+
+    private static void collectGarbage() {
+        // Collect the original messages, that are only weakly referenced by the queue.
+        WeakReference<Object> canary = new WeakReference<>(new Object());
+        for (int i = 0; i < 10 && canary.get() != null; ++i) {
+            System.gc();
+        }
+    }
+
+    private static int dataOf(ServerMessage message) {
+        return ((Number)message.getData()).intValue();
+    }
+
+    private ServerMessage newMessage(int data) {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/foo");
+        message.setData(data);
+        message.freeze(jsonContext.generate(message));
+        return message;
+    }
+
+    private static class CountingJSONContextServer extends JettyJSONContextServer {
+        private final AtomicInteger parses;
+
+        private CountingJSONContextServer(AtomicInteger parses) {
+            this.parses = parses;
+        }
+
+        @Override
+        public ServerMessage.Mutable[] parse(String json) throws ParseException {
+            parses.incrementAndGet();
+            return super.parse(json);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SubscriptionTrieTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMatch() {
+        SubscriptionTrie trie = new SubscriptionTrie();
+        ServerChannelImpl deepRoot = newChannel("/**");
+        ServerChannelImpl shallowFoo = newChannel("/foo/*");
+        ServerChannelImpl deepFoo = newChannel("/foo/**");
+        ServerChannelImpl shallowFooBar = newChannel("/foo/bar/*");
+        ServerChannelImpl deepBaz = newChannel("/baz/**");
+        Arrays.asList(deepRoot, shallowFoo, deepFoo, shallowFooBar, deepBaz).forEach(trie::add);
+
+        ServerChannelImpl fooBar = newChannel("/foo/bar");
+        Assertions.assertEquals(Arrays.asList(shallowFoo, deepFoo, deepRoot, fooBar), trie.match(fooBar));
+
+        ServerChannelImpl fooBarBaz = newChannel("/foo/bar/baz");
+        Assertions.assertEquals(Arrays.asList(shallowFooBar, deepFoo, deepRoot, fooBarBaz), trie.match(fooBarBaz));
+
+        ServerChannelImpl qux = newChannel("/qux");
+        Assertions.assertEquals(Arrays.asList(deepRoot, qux), trie.match(qux));
+
+        trie.remove(deepFoo);
+        trie.remove(shallowFooBar);
+        Assertions.assertEquals(Arrays.asList(deepRoot, fooBarBaz), trie.match(fooBarBaz));
+
+        trie.clear();
+        Assertions.assertEquals(Collections.singletonList(fooBar), trie.match(fooBar));
+    }
+
+    @Test
+    public void testPublishDeliversOnceToWildAndExactSubscriber() throws Exception {
+        ServerSessionImpl session = newSession();
+        for (String name : Arrays.asList("/foo/bar", "/foo/*", "/foo/**", "/**")) {
+            _bayeux.createChannelIfAbsent(name).getReference().subscribe(session);
+        }
+
+        ServerChannel channel = _bayeux.getChannel("/foo/bar");
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(b -> latch.countDown(), x -> {}));
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testRemovedWildChannelNoLongerReceives() throws Exception {
+        ServerSessionImpl session = newSession();
+        ServerChannel wild = _bayeux.createChannelIfAbsent("/foo/*").getReference();
+        wild.subscribe(session);
+        wild.remove();
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(b -> latch.countDown(), x -> {}));
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    private ServerChannelImpl newChannel(String name) {
+        return new ServerChannelImpl(_bayeux, _bayeux.newChannelId(name));
+    }
+
+    private ServerSessionImpl newSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        session.handshake(null);
+        session.connected();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        return session;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.cometd.server;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.cometd.bayeux.server.LocalSession;
 import org.junit.jupiter.api.Assertions;
@@ -161,4 +163,56 @@ public class SweepTest {
 
         bayeuxServer.stop();
     }
+
+    @Test
+    public void testSessionSweeperVisitsOnlyDueSessions() {
+        BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
+        long tick = 100;
+        SessionSweeper sweeper = new SessionSweeper(tick, 16);
+        long now = System.nanoTime();
+
+        int count = 1000;
+        for (int i = 0; i < count; ++i) {
+            // Deadlines spanning multiple rotations of the wheel.
+            sweeper.schedule(bayeuxServer.newServerSession(), now + TimeUnit.SECONDS.toNanos(60 + i));
+        }
+        ServerSessionImpl due = bayeuxServer.newServerSession();
+        sweeper.schedule(due, now + TimeUnit.MILLISECONDS.toNanos(tick / 2));
+        Assertions.assertEquals(count + 1, sweeper.size());
+
+        List<SessionSweeper.Entry> visited = new ArrayList<>();
+        sweeper.sweep(now + TimeUnit.MILLISECONDS.toNanos(3 * tick), visited::add);
+
+        Assertions.assertEquals(1, visited.size());
+        Assertions.assertSame(due, visited.get(0).session);
+        Assertions.assertEquals(count, sweeper.size());
+    }
+
+    @Test
+    public void testChannelSweptAfterLastUnsubscription() throws Exception {
+        BayeuxServerImpl bayeuxServer = new BayeuxServerImpl();
+        long sweepPeriod = 100;
+        bayeuxServer.setOption(BayeuxServerImpl.SWEEP_PERIOD_OPTION, sweepPeriod);
+        bayeuxServer.start();
+
+        ServerSessionImpl session = bayeuxServer.newServerSession();
+        bayeuxServer.addServerSession(session, bayeuxServer.newMessage());
+        Assertions.assertTrue(session.handshake(null));
+
+        String channelName = "/sweep";
+        ServerChannelImpl channel = (ServerChannelImpl)bayeuxServer.createChannelIfAbsent(channelName).getReference();
+        Assertions.assertTrue(channel.subscribe(session));
+
+        // Subscribed channels are not swept.
+        Thread.sleep(5 * sweepPeriod);
+        Assertions.assertNotNull(bayeuxServer.getChannel(channelName));
+
+        Assertions.assertTrue(channel.unsubscribe(session));
+
+        // Channels are swept after 3 sweep passes.
+        Thread.sleep(6 * sweepPeriod);
+        Assertions.assertNull(bayeuxServer.getChannel(channelName));
+
+        bayeuxServer.stop();
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.Authorizer;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.SecurityPolicy;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.authorizer.GrantAuthorizer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SynchronousDeliveryTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testSynchronousDetection() {
+        ServerSessionImpl session = newSession();
+        Assertions.assertTrue(session.isSynchronous());
+
+        ServerSession.Extension syncExtension = new ServerSession.Extension() {
+            @Override
+            public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                return message;
+            }
+        };
+        session.addExtension(syncExtension);
+        Assertions.assertTrue(session.isSynchronous());
+
+        ServerSession.MessageListener asyncListener = new ServerSession.MessageListener() {
+            @Override
+            public void onMessage(ServerSession session, ServerSession sender, ServerMessage message, Promise<Boolean> promise) {
+                promise.succeed(true);
+            }
+        };
+        session.addListener(asyncListener);
+        Assertions.assertFalse(session.isSynchronous());
+
+        session.removeListener(asyncListener);
+        Assertions.assertTrue(session.isSynchronous());
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo").getReference();
+        Assertions.assertTrue(channel.isSynchronous());
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public void onMessage(ServerSession sender, ServerChannel channel, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                promise.succeed(true);
+            }
+        });
+        Assertions.assertFalse(channel.isSynchronous());
+    }
+
+    @Test
+    public void testPublishToSynchronousAndAsynchronousSessions() throws Exception {
+        ServerSessionImpl syncSession = newSession();
+        syncSession.addExtension(new ServerSession.Extension() {
+            @Override
+            public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                ServerMessage.Mutable mutable = _bayeux.newMessage(message);
+                mutable.put("sync", true);
+                return mutable;
+            }
+        });
+        ServerSessionImpl asyncSession = newSession();
+        asyncSession.addExtension(new ServerSession.Extension() {
+            @Override
+            public void outgoing(ServerSession sender, ServerSession session, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
+                _bayeux.execute(() -> promise.succeed(message));
+            }
+        });
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo").getReference();
+        channel.subscribe(syncSession);
+        channel.subscribe(asyncSession);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(b -> latch.countDown(), x -> {}));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        List<ServerMessage> syncQueue = syncSession.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(1, syncQueue.size());
+        Assertions.assertEquals(Boolean.TRUE, syncQueue.get(0).get("sync"));
+        Assertions.assertEquals(1, asyncSession.takeQueue(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testDeliveryPreservesSubscribersOrder() throws Exception {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo").getReference();
+        channel.subscribe(newSession());
+        channel.subscribe(newSession());
+        Iterator<ServerSession> subscribers = channel.getSubscribers().iterator();
+        ServerSession first = subscribers.next();
+        ServerSession second = subscribers.next();
+
+        List<ServerSession> delivered = new CopyOnWriteArrayList<>();
+        first.addListener(new ServerSession.MessageListener() {
+            @Override
+            public void onMessage(ServerSession session, ServerSession sender, ServerMessage message, Promise<Boolean> promise) {
+                delivered.add(session);
+                _bayeux.execute(() -> promise.succeed(true));
+            }
+        });
+        second.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                delivered.add(session);
+                return true;
+            }
+        });
+        Assertions.assertFalse(((ServerSessionImpl)first).isSynchronous());
+        Assertions.assertTrue(((ServerSessionImpl)second).isSynchronous());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(b -> latch.countDown(), x -> {}));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(Arrays.asList(first, second), delivered);
+    }
+
+    @Test
+    public void testSessionOverridingDeliveryIsNotSynchronous() throws Exception {
+        AtomicInteger deliveries = new AtomicInteger();
+        ServerSessionImpl session = new ServerSessionImpl(_bayeux) {
+            @Override
+            protected void deliver1(ServerSession sender, ServerMessage.Mutable mutable, Promise<Boolean> promise) {
+                deliveries.incrementAndGet();
+                super.deliver1(sender, mutable, promise);
+            }
+        };
+        session.handshake(null);
+        session.connected();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        Assertions.assertFalse(session.isSynchronous());
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/foo").getReference();
+        channel.subscribe(session);
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, "data", Promise.from(b -> latch.countDown(), x -> {}));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(1, deliveries.get());
+        Assertions.assertEquals(1, session.takeQueue(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testBlockingPoliciesAndAuthorizers() {
+        DefaultSecurityPolicy defaultPolicy = new DefaultSecurityPolicy();
+        Assertions.assertFalse(Synchronous.isBlockingHandshake(defaultPolicy));
+        Assertions.assertFalse(Synchronous.isBlockingCreate(defaultPolicy));
+        Assertions.assertFalse(Synchronous.isBlockingSubscribe(defaultPolicy));
+        Assertions.assertFalse(Synchronous.isBlockingPublish(defaultPolicy));
+
+        SecurityPolicy handshakePolicy = new DefaultSecurityPolicy() {
+            @Override
+            public boolean canHandshake(BayeuxServer server, ServerSession session, ServerMessage message) {
+                return true;
+            }
+        };
+        Assertions.assertTrue(Synchronous.isBlockingHandshake(handshakePolicy));
+        Assertions.assertFalse(Synchronous.isBlockingCreate(handshakePolicy));
+        Assertions.assertFalse(Synchronous.isBlockingSubscribe(handshakePolicy));
+        Assertions.assertFalse(Synchronous.isBlockingPublish(handshakePolicy));
+
+        SecurityPolicy publishPolicy = new SecurityPolicy() {
+            @Override
+            public void canHandshake(BayeuxServer server, ServerSession session, ServerMessage message, Promise<Boolean> promise) {
+                promise.succeed(true);
+            }
+
+            @Override
+            public boolean canPublish(BayeuxServer server, ServerSession session, ServerChannel channel, ServerMessage message) {
+                return true;
+            }
+        };
+        Assertions.assertFalse(Synchronous.isBlockingHandshake(publishPolicy));
+        Assertions.assertFalse(Synchronous.isBlockingCreate(publishPolicy));
+        Assertions.assertFalse(Synchronous.isBlockingSubscribe(publishPolicy));
+        Assertions.assertTrue(Synchronous.isBlockingPublish(publishPolicy));
+
+        Assertions.assertFalse(Synchronous.isBlocking(GrantAuthorizer.GRANT_ALL));
+        Assertions.assertTrue(Synchronous.isBlocking((Authorizer)(operation, channel, session, message) -> Authorizer.Result.grant()));
+        Assertions.assertFalse(Synchronous.isBlocking(new Authorizer() {
+            @Override
+            public void authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message, Promise<Result> promise) {
+                promise.succeed(Result.grant());
+            }
+
+            @Override
+            public Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message) {
+                throw new UnsupportedOperationException();
+            }
+        }));
+    }
+
+    private ServerSessionImpl newSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        session.handshake(null);
+        session.connected();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        return session;
+    }
+}
@@ -15,6 +15,9 @@
  */
 package org.cometd.server.authorizer;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.Authorizer;
@@ -24,6 +27,7 @@ import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.JSONContext;
 import org.cometd.common.JettyJSONContextClient;
 import org.cometd.server.AbstractBayeuxClientServerTest;
+import org.cometd.server.BayeuxServerImpl;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.junit.jupiter.api.Assertions;
@@ -275,4 +279,67 @@ public class AuthorizerTest extends AbstractBayeuxClientServerTest {
         message = messages[0];
         Assertions.assertFalse(message.isSuccessful());
     }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testCachedAuthorization(String serverTransport) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(BayeuxServerImpl.AUTHORIZATION_CACHE_TTL_OPTION, String.valueOf(60000));
+        startServer(serverTransport, options);
+
+        AtomicInteger authorizations = new AtomicInteger();
+        String channelName = "/test";
+        bayeux.createChannelIfAbsent(channelName, channel -> channel.addAuthorizer(new Authorizer() {
+            @Override
+            public Result authorize(Operation operation, ChannelId channelId, ServerSession session, ServerMessage message) {
+                authorizations.incrementAndGet();
+                return Result.grant();
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return true;
+            }
+        }));
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+
+        Assertions.assertTrue(publish(clientId, channelName));
+        Assertions.assertTrue(publish(clientId, channelName));
+        // The second publish used the cached authorization.
+        Assertions.assertEquals(1, authorizations.get());
+
+        // Adding an authorizer invalidates the cache.
+        bayeux.getChannel(channelName).addAuthorizer((operation, channelId, session, message) -> Authorizer.Result.deny("test"));
+        Assertions.assertFalse(publish(clientId, channelName));
+        Assertions.assertEquals(2, authorizations.get());
+
+        // The denying authorizer is not cacheable.
+        Assertions.assertFalse(publish(clientId, channelName));
+        Assertions.assertEquals(3, authorizations.get());
+    }
+
+    private boolean publish(String clientId, String channelName) throws Exception {
+        Request publish = newBayeuxRequest("[{" +
+                "\"channel\": \"" + channelName + "\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"data\": {}" +
+                "}]");
+        ContentResponse response = publish.send();
+        Assertions.assertEquals(200, response.getStatus());
+
+        JSONContext.Client jsonContext = new JettyJSONContextClient();
+        Message.Mutable[] messages = jsonContext.parse(response.getContentAsString());
+        Assertions.assertEquals(1, messages.length);
+        return messages[0].isSuccessful();
+    }
 }
@@ -37,9 +37,21 @@ public class AcknowledgeExtensionTest extends AbstractBayeuxClientServerTest {
     @ParameterizedTest
     @MethodSource("transports")
     public void testMetaConnectResendReturnsUnacknowledgedMessages(String serverTransport) throws Exception {
+        testMetaConnectResendReturnsUnacknowledgedMessages(serverTransport, false);
+    }
+
+    @ParameterizedTest
+    @MethodSource("transports")
+    public void testMetaConnectResendReturnsUnacknowledgedMessagesWithSharedLog(String serverTransport) throws Exception {
+        testMetaConnectResendReturnsUnacknowledgedMessages(serverTransport, true);
+    }
+
+    private void testMetaConnectResendReturnsUnacknowledgedMessages(String serverTransport, boolean sharedLog) throws Exception {
         timeout = 5000;
         startServer(serverTransport, null);
-        bayeux.addExtension(new AcknowledgedMessagesExtension());
+        AcknowledgedMessagesExtension ackExtension = new AcknowledgedMessagesExtension();
+        ackExtension.setSharedLog(sharedLog);
+        bayeux.addExtension(ackExtension);
 
         Request handshake = newBayeuxRequest("[{" +
                 "\"channel\": \"/meta/handshake\"," +
@@ -101,9 +113,13 @@ public class AcknowledgeExtensionTest extends AbstractBayeuxClientServerTest {
         connector.start();
 
         // Be sure there is one message in the unacknowledged queue.
-        AcknowledgedMessagesSessionExtension extension = (AcknowledgedMessagesSessionExtension)session.getExtensions().get(0);
-        BatchArrayQueue<ServerMessage> ackQueue = extension.getBatchArrayQueue();
-        Assertions.assertEquals(1, ackQueue.size());
+        if (sharedLog) {
+            Assertions.assertEquals(1, ackExtension.getSharedLog().size());
+        } else {
+            AcknowledgedMessagesSessionExtension extension = (AcknowledgedMessagesSessionExtension)session.getExtensions().get(0);
+            BatchArrayQueue<ServerMessage> ackQueue = extension.getBatchArrayQueue();
+            Assertions.assertEquals(1, ackQueue.size());
+        }
 
         // Send the same /meta/connect *without* advice: { timeout: 0 }.
         connect = newBayeuxRequest("[{" +
@@ -139,6 +155,11 @@ public class AcknowledgeExtensionTest extends AbstractBayeuxClientServerTest {
                 "}]");
         response = disconnect.send();
         Assertions.assertEquals(200, response.getStatus());
+
+        if (sharedLog) {
+            // The removal of the session releases the messages.
+            Assertions.assertEquals(0, ackExtension.getSharedLog().size());
+        }
     }
 
     @ParameterizedTest
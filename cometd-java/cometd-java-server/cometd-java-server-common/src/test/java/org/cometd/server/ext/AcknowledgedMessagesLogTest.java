@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.ServerMessageImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AcknowledgedMessagesLogTest {
+    @Test
+    public void testMessagesAreSharedAmongCursors() {
+        AcknowledgedMessagesLog log = new AcknowledgedMessagesLog();
+        AcknowledgedMessagesLog.Cursor cursor1 = log.newCursor();
+        AcknowledgedMessagesLog.Cursor cursor2 = log.newCursor();
+
+        List<ServerMessage> messages = newMessages("/foo", 100);
+        for (ServerMessage message : messages) {
+            cursor1.offer(message);
+            cursor2.offer(message);
+        }
+
+        Assertions.assertEquals(messages.size(), log.size());
+        Assertions.assertEquals(messages.size(), cursor1.size());
+        Assertions.assertEquals(messages.size(), cursor2.size());
+
+        long batch = cursor1.getBatch();
+        cursor1.nextBatch();
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        cursor1.exportMessagesToBatch(target, batch);
+        Assertions.assertEquals(messages, new ArrayList<>(target));
+
+        // Acknowledged by one cursor only, messages are retained.
+        cursor1.clearToBatch(batch);
+        Assertions.assertEquals(0, cursor1.size());
+        Assertions.assertEquals(messages.size(), log.size());
+
+        target.clear();
+        cursor2.exportMessagesToBatch(target, cursor2.getBatch());
+        Assertions.assertEquals(messages, new ArrayList<>(target));
+
+        // Acknowledged by all cursors, messages are released.
+        cursor2.clearToBatch(cursor2.getBatch());
+        Assertions.assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testInterleavedChannelsKeepOrder() {
+        AcknowledgedMessagesLog log = new AcknowledgedMessagesLog();
+        AcknowledgedMessagesLog.Cursor cursor1 = log.newCursor();
+        AcknowledgedMessagesLog.Cursor cursor2 = log.newCursor();
+
+        List<ServerMessage> foos = newMessages("/foo", 4);
+        List<ServerMessage> bars = newMessages("/bar", 4);
+        List<ServerMessage> expected1 = new ArrayList<>();
+        List<ServerMessage> expected2 = new ArrayList<>();
+        for (int i = 0; i < foos.size(); ++i) {
+            cursor1.offer(foos.get(i));
+            expected1.add(foos.get(i));
+            cursor1.offer(bars.get(i));
+            expected1.add(bars.get(i));
+            // The second cursor does not receive some messages.
+            if (i % 2 == 0) {
+                cursor2.offer(foos.get(i));
+                expected2.add(foos.get(i));
+            }
+        }
+
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        cursor1.exportMessagesToBatch(target, cursor1.getBatch());
+        Assertions.assertEquals(expected1, new ArrayList<>(target));
+
+        target.clear();
+        cursor2.exportMessagesToBatch(target, cursor2.getBatch());
+        Assertions.assertEquals(expected2, new ArrayList<>(target));
+
+        // The /foo log is retained from the oldest unacknowledged message.
+        cursor1.clear();
+        Assertions.assertEquals(foos.size(), log.size());
+        cursor2.clear();
+        Assertions.assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testBatches() {
+        AcknowledgedMessagesLog log = new AcknowledgedMessagesLog();
+        AcknowledgedMessagesLog.Cursor cursor = log.newCursor();
+
+        List<ServerMessage> messages = newMessages("/foo", 4);
+        cursor.offer(messages.get(0));
+        cursor.offer(messages.get(1));
+        long batch = cursor.getBatch();
+        cursor.nextBatch();
+        cursor.offer(messages.get(2));
+        cursor.offer(messages.get(3));
+
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        cursor.exportMessagesToBatch(target, batch);
+        Assertions.assertEquals(messages.subList(0, 2), new ArrayList<>(target));
+
+        cursor.clearToBatch(batch);
+        Assertions.assertEquals(2, cursor.size());
+        Assertions.assertEquals(2, log.size());
+
+        target.clear();
+        cursor.exportMessagesToBatch(target, cursor.getBatch());
+        Assertions.assertEquals(messages.subList(2, 4), new ArrayList<>(target));
+    }
+
+    @Test
+    public void testReplacedMessagesAreNotExported() {
+        AcknowledgedMessagesLog log = new AcknowledgedMessagesLog();
+        AcknowledgedMessagesLog.Cursor cursor = log.newCursor();
+
+        List<ServerMessage> messages = newMessages("/foo", 3);
+        cursor.offer(messages.get(0));
+        cursor.offer(messages.get(1));
+        cursor.replace(messages.get(0), messages.get(2));
+        Assertions.assertEquals(2, cursor.size());
+
+        long batch = cursor.getBatch();
+        cursor.nextBatch();
+        Queue<ServerMessage> target = new ArrayDeque<>();
+        cursor.exportMessagesToBatch(target, batch);
+        Assertions.assertEquals(Arrays.asList(messages.get(1), messages.get(2)), new ArrayList<>(target));
+
+        cursor.clearToBatch(batch);
+        Assertions.assertEquals(0, cursor.size());
+        Assertions.assertEquals(0, log.size());
+    }
+
+    private List<ServerMessage> newMessages(String channel, int count) {
+        List<ServerMessage> result = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            ServerMessageImpl message = new ServerMessageImpl();
+            message.setChannel(channel);
+            message.setData(i);
+            result.add(message);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.DefaultSecurityPolicy;
+import org.cometd.server.ServerSessionImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AcknowledgedMessagesStoreTest {
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void testUnacknowledgedMessagesAreRecovered() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory);
+        store.start();
+        store.subscribe("s1", "/foo");
+        store.message("s1", 1, json(1));
+        store.message("s1", 1, json(2));
+        store.batch("s1", 2);
+        store.message("s1", 2, json(3));
+        store.acknowledge("s1", 1);
+        store.subscribe("s2", "/bar");
+        store.message("s2", 1, json(4));
+        store.remove("s2");
+        store.stop();
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        Assertions.assertEquals(1, recovered.size());
+        AcknowledgedMessagesStore.Session session = recovered.get("s1");
+        Assertions.assertEquals(2, session.getBatch());
+        Assertions.assertTrue(session.getChannels().contains("/foo"));
+        Assertions.assertEquals(1, session.getMessages().size());
+        AcknowledgedMessagesStore.Message message = session.getMessages().peek();
+        Assertions.assertEquals(2, message.getBatch());
+        Assertions.assertArrayEquals(json(3), message.getJSON());
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreDeleted() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory, 1024);
+        store.start();
+        store.subscribe("s1", "/foo");
+        long batch = 1;
+        for (int i = 0; i < 100; ++i) {
+            store.message("s1", batch, json(i));
+            store.batch("s1", ++batch);
+        }
+        Assertions.assertTrue(store.getSegmentCount() > 1);
+
+        store.acknowledge("s1", batch - 1);
+        Assertions.assertEquals(1, store.getSegmentCount());
+        store.stop();
+
+        // The current segment snapshots the session and its subscriptions.
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        AcknowledgedMessagesStore.Session session = recovered.get("s1");
+        Assertions.assertNotNull(session);
+        Assertions.assertEquals(batch, session.getBatch());
+        Assertions.assertTrue(session.getChannels().contains("/foo"));
+        Assertions.assertTrue(session.getMessages().isEmpty());
+    }
+
+    @Test
+    public void testRecordsLargerThanSegmentsAreStored() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory, 1024);
+        store.start();
+        store.subscribe("s1", "/foo");
+        store.message("s1", 1, json(1));
+        byte[] large = json(new String(new char[4096]).replace('\0', '1'));
+        store.message("s1", 1, large);
+        store.message("s1", 1, json(2));
+        store.stop();
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        List<AcknowledgedMessagesStore.Message> messages = new ArrayList<>(recovered.get("s1").getMessages());
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertArrayEquals(json(1), messages.get(0).getJSON());
+        Assertions.assertArrayEquals(large, messages.get(1).getJSON());
+        Assertions.assertArrayEquals(json(2), messages.get(2).getJSON());
+    }
+
+    @Test
+    public void testTornRecordIsEndOfLog() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory);
+        store.start();
+        store.subscribe("s1", "/foo");
+        store.message("s1", 1, json(1));
+        store.stop();
+
+        // Simulate a crash of the process after the length of a record was written, but not its type.
+        Path segment;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segment = paths.sorted().reduce((first, second) -> second).orElseThrow(IllegalStateException::new);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int length;
+            while ((length = buffer.getInt(buffer.position())) > 0) {
+                buffer.position(buffer.position() + 4 + length);
+            }
+            buffer.putInt(16);
+            buffer.put((byte)0);
+            buffer.force();
+        }
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        AcknowledgedMessagesStore.Session session = recovered.get("s1");
+        Assertions.assertTrue(session.getChannels().contains("/foo"));
+        Assertions.assertArrayEquals(json(1), session.getMessages().peek().getJSON());
+    }
+
+    @Test
+    public void testSnapshotsWhileRolling() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory, 1024);
+        store.start();
+        int sessions = 100;
+        for (int i = 0; i < sessions; ++i) {
+            store.subscribe("s" + i, "/foo/" + i);
+        }
+        for (int i = 0; i < sessions; i += 2) {
+            store.remove("s" + i);
+        }
+        // Roll many times, so that the first segments are deleted.
+        for (int i = 0; i < 100; ++i) {
+            store.batch("s1", i + 2);
+        }
+        store.stop();
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        Assertions.assertEquals(sessions / 2, recovered.size());
+        for (int i = 1; i < sessions; i += 2) {
+            Assertions.assertTrue(recovered.get("s" + i).getChannels().contains("/foo/" + i));
+        }
+        Assertions.assertEquals(101, recovered.get("s1").getBatch());
+    }
+
+    @Test
+    public void testSharedMessagesAreWrittenOnce() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory);
+        store.start();
+        byte[] json = json(1);
+        store.message("s1", 1, json);
+        store.message("s2", 3, json);
+        store.stop();
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        AcknowledgedMessagesStore.Message message1 = recovered.get("s1").getMessages().peek();
+        AcknowledgedMessagesStore.Message message2 = recovered.get("s2").getMessages().peek();
+        Assertions.assertEquals(1, message1.getBatch());
+        Assertions.assertEquals(3, message2.getBatch());
+        Assertions.assertArrayEquals(json, message1.getJSON());
+        // Both sessions reference the same message record.
+        Assertions.assertSame(message1.getJSON(), message2.getJSON());
+    }
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory, 4096);
+        store.start();
+        int threads = 4;
+        int count = 500;
+        byte[] shared = json("shared");
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            String sessionId = "s" + t;
+            new Thread(() -> {
+                store.subscribe(sessionId, "/foo");
+                for (int i = 0; i < count; ++i) {
+                    store.message(sessionId, i + 1, i % 2 == 0 ? shared : json(i));
+                    store.batch(sessionId, i + 2);
+                }
+                // Acknowledge the first half of the messages.
+                store.acknowledge(sessionId, count / 2);
+                latch.countDown();
+            }).start();
+        }
+        Assertions.assertTrue(latch.await(15, TimeUnit.SECONDS));
+        store.stop();
+
+        store.start();
+        Map<String, AcknowledgedMessagesStore.Session> recovered = store.takeRecovered();
+        store.stop();
+
+        Assertions.assertEquals(threads, recovered.size());
+        for (AcknowledgedMessagesStore.Session session : recovered.values()) {
+            Assertions.assertEquals(count + 1, session.getBatch());
+            Assertions.assertTrue(session.getChannels().contains("/foo"));
+            List<AcknowledgedMessagesStore.Message> messages = new ArrayList<>(session.getMessages());
+            Assertions.assertEquals(count / 2, messages.size());
+            for (int i = 0; i < messages.size(); ++i) {
+                int index = count / 2 + i;
+                Assertions.assertEquals(index + 1, messages.get(i).getBatch());
+                Assertions.assertArrayEquals(index % 2 == 0 ? shared : json(index), messages.get(i).getJSON());
+            }
+        }
+    }
+
+    @Test
+    public void testSessionsAreResumed() throws Exception {
+        String channelName = "/foo";
+        String sessionId = "session1";
+
+        AcknowledgedMessagesStore store1 = new AcknowledgedMessagesStore(directory);
+        store1.start();
+        BayeuxServerImpl bayeux1 = new BayeuxServerImpl();
+        AcknowledgedMessagesExtension extension1 = new AcknowledgedMessagesExtension();
+        extension1.setStore(store1);
+        bayeux1.start();
+        try {
+            ServerSessionImpl session = bayeux1.resumeServerSession(sessionId);
+            AcknowledgedMessagesSessionExtension sessionExtension = extension1.newSessionExtension(session);
+            session.addExtension(sessionExtension);
+            store1.subscribe(sessionId, channelName);
+            ServerChannel channel = bayeux1.createChannelIfAbsent(channelName).getReference();
+            channel.subscribe(session);
+            channel.publish(null, "data", Promise.noop());
+            Assertions.assertEquals(1, sessionExtension.getBatchArrayQueue().size());
+        } finally {
+            bayeux1.stop();
+            store1.stop();
+        }
+
+        AcknowledgedMessagesStore store2 = new AcknowledgedMessagesStore(directory);
+        store2.start();
+        BayeuxServerImpl bayeux2 = new BayeuxServerImpl();
+        AcknowledgedMessagesExtension extension2 = new AcknowledgedMessagesExtension();
+        extension2.setStore(store2);
+        bayeux2.start();
+        try {
+            Assertions.assertEquals(1, extension2.resumeSessions(bayeux2));
+            ServerSessionImpl session = (ServerSessionImpl)bayeux2.getSession(sessionId);
+            Assertions.assertNotNull(session);
+            Assertions.assertTrue(session.isHandshook());
+            // Subscriptions are restored when the session connects.
+            Assertions.assertNull(bayeux2.getChannel(channelName));
+            Assertions.assertTrue(connect(bayeux2, session).isSuccessful());
+            Assertions.assertTrue(bayeux2.getChannel(channelName).getSubscribers().contains(session));
+
+            AcknowledgedMessagesSessionExtension sessionExtension = null;
+            for (ServerSession.Extension extension : session.getExtensions()) {
+                if (extension instanceof AcknowledgedMessagesSessionExtension) {
+                    sessionExtension = (AcknowledgedMessagesSessionExtension)extension;
+                }
+            }
+            Assertions.assertNotNull(sessionExtension);
+            List<ServerMessage> messages = new ArrayList<>(sessionExtension.getBatchArrayQueue());
+            Assertions.assertEquals(1, messages.size());
+            Assertions.assertEquals("data", messages.get(0).getData());
+        } finally {
+            bayeux2.stop();
+            store2.stop();
+        }
+    }
+
+    @Test
+    public void testResumedSessionsAreReauthorized() throws Exception {
+        AcknowledgedMessagesStore store = new AcknowledgedMessagesStore(directory);
+        store.start();
+        store.subscribe("s1", "/foo");
+        store.subscribe("s1", "/bar");
+        store.subscribe("s2", "/foo");
+        store.stop();
+
+        store.start();
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setSecurityPolicy(new DefaultSecurityPolicy() {
+            @Override
+            public boolean canHandshake(BayeuxServer server, ServerSession session, ServerMessage message) {
+                if ("s2".equals(session.getId())) {
+                    return false;
+                }
+                session.setAttribute("user", "user1");
+                return true;
+            }
+
+            @Override
+            public boolean canSubscribe(BayeuxServer server, ServerSession session, ServerChannel channel, ServerMessage message) {
+                return "user1".equals(session.getAttribute("user")) && !"/bar".equals(channel.getId());
+            }
+        });
+        AcknowledgedMessagesExtension extension = new AcknowledgedMessagesExtension();
+        extension.setStore(store);
+        bayeux.start();
+        try {
+            Assertions.assertEquals(2, extension.resumeSessions(bayeux));
+
+            ServerSessionImpl session1 = (ServerSessionImpl)bayeux.getSession("s1");
+            Assertions.assertNull(session1.getAttribute("user"));
+            Assertions.assertTrue(connect(bayeux, session1).isSuccessful());
+            Assertions.assertEquals("user1", session1.getAttribute("user"));
+            Assertions.assertTrue(bayeux.getChannel("/foo").getSubscribers().contains(session1));
+            ServerChannel bar = bayeux.getChannel("/bar");
+            Assertions.assertTrue(bar == null || !bar.getSubscribers().contains(session1));
+
+            ServerSessionImpl session2 = (ServerSessionImpl)bayeux.getSession("s2");
+            ServerMessage.Mutable reply = connect(bayeux, session2);
+            Assertions.assertFalse(reply.isSuccessful());
+            Assertions.assertEquals(Message.RECONNECT_HANDSHAKE_VALUE, reply.getAdvice().get(Message.RECONNECT_FIELD));
+            Assertions.assertNull(bayeux.getSession("s2"));
+            Assertions.assertFalse(bayeux.getChannel("/foo").getSubscribers().contains(session2));
+        } finally {
+            bayeux.stop();
+            store.stop();
+        }
+    }
+
+    private static ServerMessage.Mutable connect(BayeuxServerImpl bayeux, ServerSessionImpl session) throws Exception {
+        ServerMessage.Mutable message = bayeux.newMessage();
+        message.setChannel(Channel.META_CONNECT);
+        message.setClientId(session.getId());
+        CompletableFuture<ServerMessage.Mutable> reply = new CompletableFuture<>();
+        bayeux.handle(session, message, Promise.complete((r, x) -> {
+            if (x == null) {
+                reply.complete(r);
+            } else {
+                reply.completeExceptionally(x);
+            }
+        }));
+        return reply.get(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] json(Object data) {
+        return ("{\"channel\":\"/foo\",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8);
+    }
+}
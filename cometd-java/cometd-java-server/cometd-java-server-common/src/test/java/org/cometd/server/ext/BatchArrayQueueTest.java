@@ -16,6 +16,8 @@
 package org.cometd.server.ext;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Queue;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -43,6 +45,32 @@ public class BatchArrayQueueTest {
         Assertions.assertTrue(queue.peek().startsWith("B"));
     }
 
+    @Test
+    public void testReplaceOnlyInCurrentBatch() {
+        BatchArrayQueue<String> queue = new BatchArrayQueue<>(2, this);
+
+        String a1 = "A1";
+        queue.offer(a1);
+        long batch = queue.getBatch();
+        queue.nextBatch();
+
+        // Elements of closed batches are not replaced.
+        Assertions.assertFalse(queue.replace(a1, "A2"));
+
+        String b1 = "B1";
+        queue.offer(b1);
+        queue.offer("B2");
+        queue.offer("B3");
+        Assertions.assertTrue(queue.replace(b1, "B4"));
+
+        Queue<String> target = new ArrayDeque<>();
+        queue.exportMessagesToBatch(target, queue.getBatch());
+        Assertions.assertEquals(Arrays.asList("A1", "B4", "B2", "B3"), new ArrayList<>(target));
+
+        queue.clearToBatch(batch);
+        Assertions.assertEquals(3, queue.size());
+    }
+
     @Test
     public void test_Offer_Grow_Poll_Offer() {
         BatchArrayQueue<String> queue = new BatchArrayQueue<>(2, this);
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.Z85;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BinarySessionExtensionTest {
+    private BayeuxServerImpl bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        bayeux.stop();
+    }
+
+    @Test
+    public void testBinaryDataEncodedOncePerPublish() throws Exception {
+        String channelName = "/binary";
+        ServerChannel channel = bayeux.createChannelIfAbsent(channelName).getReference();
+        int sessions = 3;
+        List<ServerMessage> delivered = new ArrayList<>();
+        for (int i = 0; i < sessions; ++i) {
+            LocalSession local = bayeux.newLocalSession("binary" + i);
+            local.handshake();
+            ServerSession session = local.getServerSession();
+            session.addExtension(new BinarySessionExtension(bayeux));
+            session.addListener(new ServerSession.MessageListener() {
+                @Override
+                public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                    synchronized (delivered) {
+                        delivered.add(message);
+                    }
+                    return true;
+                }
+            });
+            channel.subscribe(session);
+        }
+
+        byte[] bytes = new byte[]{0, 1, 2, 3, 4, 5, 6, 7};
+        CountDownLatch latch = new CountDownLatch(1);
+        channel.publish(null, new BinaryData(bytes, true, null), Promise.from(b -> latch.countDown(), x -> {}));
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(sessions, delivered.size());
+        ServerMessage message = delivered.get(0);
+        for (ServerMessage other : delivered) {
+            Assertions.assertSame(message, other);
+        }
+        Map<String, Object> data = message.getDataAsMap();
+        Assertions.assertEquals(Z85.encoder.encodeBytes(bytes), data.get(BinaryData.DATA));
+        Assertions.assertTrue(message.getExt().containsKey(BinaryData.EXT_NAME));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+    @Test
+    public void testEmpty() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+        Assertions.assertEquals(0, snapshot.getCount());
+        Assertions.assertEquals(0, snapshot.getMax());
+        Assertions.assertEquals(0, snapshot.getPercentile(99));
+        Assertions.assertEquals(0D, snapshot.getMean());
+    }
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(101, snapshot.getCount());
+        Assertions.assertEquals(5050, snapshot.getSum());
+        Assertions.assertEquals(100, snapshot.getMax());
+        // Percentiles are upper bounds of power of 2 buckets.
+        long p50 = snapshot.getPercentile(50);
+        Assertions.assertTrue(p50 >= 50 && p50 <= 100, "p50=" + p50);
+        Assertions.assertEquals(100, snapshot.getPercentile(99));
+        Assertions.assertEquals(0, snapshot.getPercentile(0));
+
+        histogram.record(Long.MAX_VALUE);
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.snapshot().getPercentile(100));
+
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.snapshot().getCount());
+    }
+}
@@ -18,6 +18,8 @@ package org.cometd.server.websocket.common;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -32,12 +34,15 @@ import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxContext;
+import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.AsyncFoldLeft;
+import org.cometd.common.BinaryFrames;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.ServerMessageImpl;
 import org.cometd.server.ServerSessionImpl;
+import org.cometd.server.ext.BinaryExtension;
 import org.eclipse.jetty.io.QuietException;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
@@ -60,9 +65,62 @@ public abstract class AbstractWebSocketEndPoint {
 
     protected abstract void send(ServerSession session, String data, Callback callback);
 
+    /**
+     * <p>Sends the given UTF-8 JSON bytes in a binary frame.</p>
+     * <p>This method is invoked instead of {@link #send(ServerSession, String, Callback)}
+     * when {@link AbstractWebSocketTransport#isBinaryFrames() binary frames} are enabled.</p>
+     * <p>This implementation sends the bytes converted to a string.</p>
+     *
+     * @param session the session the bytes are sent to
+     * @param data the UTF-8 JSON bytes to send
+     * @param callback the callback to notify when the send completes
+     */
+    protected void send(ServerSession session, ByteBuffer data, Callback callback) {
+        send(session, StandardCharsets.UTF_8.decode(data).toString(), callback);
+    }
+
     public abstract void close(int code, String reason);
 
     public void onMessage(String data, Promise<Void> p) {
+        onMessage(data, null, null, p);
+    }
+
+    /**
+     * <p>Processes the content of a binary frame, that carries either
+     * the UTF-8 JSON bytes of the messages, or the messages and their
+     * binary data chunks in the {@link BinaryFrames native binary format}.</p>
+     * <p>Native binary frames are rejected, closing the connection, unless
+     * they are {@link AbstractWebSocketTransport#isNativeBinary() enabled}
+     * and they have been negotiated by the session handshake.</p>
+     *
+     * @param data the content of the binary frame
+     * @param p the promise to notify when the messages have been processed
+     */
+    public void onMessage(ByteBuffer data, Promise<Void> p) {
+        if (BinaryFrames.isBinaryFrame(data)) {
+            if (!isNativeBinaryNegotiated()) {
+                close(1003, "Native binary frames not negotiated");
+                _logger.warn("Native binary frame without negotiation on {}", this);
+                p.succeed(null);
+                return;
+            }
+            String header;
+            try {
+                header = BinaryFrames.header(data);
+            } catch (IllegalArgumentException x) {
+                close(1011, x.toString());
+                _logger.warn("Error parsing binary frame on {}", this, x);
+                p.succeed(null);
+                return;
+            }
+            onMessage(header, null, data, p);
+        } else {
+            // Parse the UTF-8 bytes directly, without converting them to a string.
+            onMessage(null, data, null, p);
+        }
+    }
+
+    private void onMessage(String data, ByteBuffer json, ByteBuffer payload, Promise<Void> p) {
         Promise<Void> promise = Promise.from(p::succeed, failure -> {
             if (_logger.isDebugEnabled()) {
                 _logger.debug("", failure);
@@ -72,24 +130,47 @@ public abstract class AbstractWebSocketEndPoint {
         });
 
         try {
-            ServerMessage.Mutable[] messages = _transport.parseMessages(data);
+            ServerMessage.Mutable[] messages = json == null ?
+                    _transport.parseMessages(data) :
+                    _transport.parseMessages(json.slice());
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Parsed {} messages on {}", messages == null ? -1 : messages.length, this);
             }
             if (messages != null) {
+                if (payload != null) {
+                    boolean byteBuffer = isDecodeToByteBuffer();
+                    for (ServerMessage.Mutable message : messages) {
+                        BinaryFrames.attach(message, payload, byteBuffer);
+                    }
+                }
                 processMessages(messages, promise);
             } else {
                 promise.succeed(null);
             }
-        } catch (ParseException x) {
+        } catch (ParseException | IllegalArgumentException x) {
             close(1011, x.toString());
-            _logger.warn("Error parsing JSON: {} on {}", data, this, x);
+            _logger.warn("Error parsing JSON: {} on {}", json == null ? data : StandardCharsets.UTF_8.decode(json), this, x);
             promise.succeed(null);
         } catch (Throwable x) {
             promise.fail(x);
         }
     }
 
+    private boolean isNativeBinaryNegotiated() {
+        ServerSessionImpl session = _session;
+        return _transport.isNativeBinary() && session != null && Boolean.TRUE.equals(session.getAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE));
+    }
+
+    private boolean isDecodeToByteBuffer() {
+        // Binary data is decoded to the same type as the BinaryExtension does.
+        for (BayeuxServer.Extension extension : _transport.getBayeux().getExtensions()) {
+            if (extension instanceof BinaryExtension) {
+                return ((BinaryExtension)extension).isDecodeToByteBuffer();
+            }
+        }
+        return true;
+    }
+
     public void onClose(int code, String reason) {
         if (terminated.compareAndSet(false, true)) {
             // There is no need to call BayeuxServerImpl.removeServerSession(),
@@ -202,12 +283,19 @@ public abstract class AbstractWebSocketEndPoint {
 
     private void processMetaHandshake(Context context, ServerMessage.Mutable message, Promise<Boolean> promise) {
         ServerSessionImpl session = context.session;
+        boolean nativeBinary = _transport.isNativeBinary() && BinaryFrames.isNegotiated(message);
+        if (nativeBinary) {
+            session.setAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE, true);
+        }
         _transport.getBayeux().handle(session, message, Promise.from(reply -> {
             _transport.processReply(session, reply, Promise.from(r -> {
                 if (r != null) {
                     context.replies.add(r);
                     if (r.isSuccessful()) {
                         _session = session;
+                        if (nativeBinary) {
+                            BinaryFrames.negotiate(r);
+                        }
                     }
                 }
                 context.sendQueue = _transport.allowMessageDeliveryDuringHandshake(session) && r != null && r.isSuccessful();
@@ -322,6 +410,16 @@ public abstract class AbstractWebSocketEndPoint {
         return _transport.toJSON(message);
     }
 
+    private byte[] toJSONBytes(ServerMessage message) {
+        if (message instanceof ServerMessageImpl) {
+            byte[] bytes = ((ServerMessageImpl)message).getJSONBytes();
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        return toJSON(message).getBytes(StandardCharsets.UTF_8);
+    }
+
     @Override
     public String toString() {
         return String.format("%s@%x", getClass().getSimpleName(), hashCode());
@@ -493,7 +591,6 @@ public abstract class AbstractWebSocketEndPoint {
                             return Action.IDLE;
                         }
                         _state = State.HANDSHAKE;
-                        _buffer = new StringBuilder(256);
                         break;
                     }
                     case HANDSHAKE: {
@@ -510,12 +607,8 @@ public abstract class AbstractWebSocketEndPoint {
                                     reply.put("x-messages", queue.size());
                                 }
                                 _transport.getBayeux().freeze(reply);
-                                _buffer.setLength(0);
-                                _buffer.append("[");
-                                _buffer.append(toJSON(reply));
-                                _buffer.append("]");
                                 ++_replyIndex;
-                                AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                                send(replies, 0, 1);
                                 return Action.SCHEDULED;
                             }
                         }
@@ -530,21 +623,9 @@ public abstract class AbstractWebSocketEndPoint {
                             if (_logger.isDebugEnabled()) {
                                 _logger.debug("Processing messages, batch size {}: {}", batchSize, messages);
                             }
-                            _buffer.setLength(0);
-                            _buffer.append("[");
-                            boolean comma = false;
-                            int endIndex = Math.min(size, _messageIndex + batchSize);
-                            while (_messageIndex < endIndex) {
-                                ServerMessage message = messages.get(_messageIndex);
-                                if (comma) {
-                                    _buffer.append(",");
-                                }
-                                comma = true;
-                                _buffer.append(toJSON(message));
-                                ++_messageIndex;
-                            }
-                            _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            int beginIndex = _messageIndex;
+                            _messageIndex = Math.min(size, _messageIndex + batchSize);
+                            sendMessages(messages, beginIndex, _messageIndex);
                             return Action.SCHEDULED;
                         }
                         // Start the interval timeout after writing the
@@ -560,21 +641,12 @@ public abstract class AbstractWebSocketEndPoint {
                             if (_logger.isDebugEnabled()) {
                                 _logger.debug("Processing replies {}", replies);
                             }
-                            _buffer.setLength(0);
-                            _buffer.append("[");
-                            boolean comma = false;
-                            while (_replyIndex < size) {
-                                ServerMessage.Mutable reply = replies.get(_replyIndex);
-                                _transport.getBayeux().freeze(reply);
-                                if (comma) {
-                                    _buffer.append(",");
-                                }
-                                comma = true;
-                                _buffer.append(toJSON(reply));
-                                ++_replyIndex;
+                            for (int i = _replyIndex; i < size; ++i) {
+                                _transport.getBayeux().freeze(replies.get(i));
                             }
-                            _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            int beginIndex = _replyIndex;
+                            _replyIndex = size;
+                            send(replies, beginIndex, size);
                             return Action.SCHEDULED;
                         }
                         _state = State.COMPLETE;
@@ -598,6 +670,107 @@ public abstract class AbstractWebSocketEndPoint {
             }
         }
 
+        private void send(List<? extends ServerMessage> messages, int beginIndex, int endIndex) {
+            if (_transport.isBinaryFrames()) {
+                AbstractWebSocketEndPoint.this.send(_session, toFrameBytes(messages, beginIndex, endIndex), this);
+            } else {
+                AbstractWebSocketEndPoint.this.send(_session, toFrameText(messages, beginIndex, endIndex), this);
+            }
+        }
+
+        private void sendMessages(List<ServerMessage> messages, int beginIndex, int endIndex) {
+            if (isNativeBinary() && BinaryFrames.hasBinaryData(messages, beginIndex, endIndex)) {
+                AbstractWebSocketEndPoint.this.send(_session, toNativeBinaryFrame(messages, beginIndex, endIndex), this);
+                return;
+            }
+            // Sessions subscribed to the same channels are likely to have the
+            // same messages in their queues, so their frames can be shared.
+            if (_transport.isBinaryFrames()) {
+                FrameCache<byte[]> cache = _transport.getBinaryFrameCache();
+                if (cache != null) {
+                    byte[] frame = cache.get(messages, beginIndex, endIndex, () -> toFrameBytes(messages, beginIndex, endIndex).array());
+                    // Wrap the shared bytes, so that each send has its own buffer indexes.
+                    AbstractWebSocketEndPoint.this.send(_session, ByteBuffer.wrap(frame), this);
+                    return;
+                }
+            } else {
+                FrameCache<String> cache = _transport.getTextFrameCache();
+                if (cache != null) {
+                    String frame = cache.get(messages, beginIndex, endIndex, () -> toFrameText(messages, beginIndex, endIndex));
+                    AbstractWebSocketEndPoint.this.send(_session, frame, this);
+                    return;
+                }
+            }
+            send(messages, beginIndex, endIndex);
+        }
+
+        private String toFrameText(List<? extends ServerMessage> messages, int beginIndex, int endIndex) {
+            if (_buffer == null) {
+                _buffer = new StringBuilder(256);
+            }
+            _buffer.setLength(0);
+            _buffer.append("[");
+            for (int i = beginIndex; i < endIndex; ++i) {
+                if (i > beginIndex) {
+                    _buffer.append(",");
+                }
+                _buffer.append(toJSON(messages.get(i)));
+            }
+            _buffer.append("]");
+            return _buffer.toString();
+        }
+
+        private ByteBuffer toFrameBytes(List<? extends ServerMessage> messages, int beginIndex, int endIndex) {
+            // Gather the JSON bytes of the frozen messages,
+            // copying them once into the frame payload.
+            byte[][] jsons = new byte[endIndex - beginIndex][];
+            // Account for the brackets and the commas.
+            int length = 1 + jsons.length;
+            for (int i = 0; i < jsons.length; ++i) {
+                byte[] json = toJSONBytes(messages.get(beginIndex + i));
+                jsons[i] = json;
+                length += json.length;
+            }
+            byte[] frame = new byte[length];
+            int offset = 0;
+            frame[offset++] = '[';
+            for (int i = 0; i < jsons.length; ++i) {
+                if (i > 0) {
+                    frame[offset++] = ',';
+                }
+                byte[] json = jsons[i];
+                System.arraycopy(json, 0, frame, offset, json.length);
+                offset += json.length;
+            }
+            frame[offset] = ']';
+            return ByteBuffer.wrap(frame);
+        }
+
+        private boolean isNativeBinary() {
+            ServerSessionImpl session = _entry._context.session;
+            return _transport.isNativeBinary() && session != null && Boolean.TRUE.equals(session.getAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE));
+        }
+
+        private ByteBuffer toNativeBinaryFrame(List<ServerMessage> messages, int beginIndex, int endIndex) {
+            List<ByteBuffer> payloads = new ArrayList<>();
+            StringBuilder header = new StringBuilder(256);
+            header.append("[");
+            for (int i = beginIndex; i < endIndex; ++i) {
+                if (i > beginIndex) {
+                    header.append(",");
+                }
+                ServerMessage message = messages.get(i);
+                if (BinaryFrames.hasBinaryData(message)) {
+                    ServerMessage.Mutable copy = _transport.getBayeux().newMessage();
+                    payloads.add(BinaryFrames.detach(message, copy));
+                    message = copy;
+                }
+                header.append(toJSON(message));
+            }
+            header.append("]");
+            return BinaryFrames.encode(header.toString().getBytes(StandardCharsets.UTF_8), payloads);
+        }
+
         @Override
         protected void onCompleteFailure(Throwable x) {
             List<Entry> entries;
@@ -26,6 +26,9 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
     public static final String PREFIX = "ws";
     public static final String PROTOCOL_OPTION = "protocol";
     public static final String MESSAGES_PER_FRAME_OPTION = "messagesPerFrame";
+    public static final String BINARY_FRAMES_OPTION = "binaryFrames";
+    public static final String NATIVE_BINARY_OPTION = "nativeBinary";
+    public static final String FRAME_CACHE_SIZE_OPTION = "frameCacheSize";
     public static final String BUFFER_SIZE_OPTION = "bufferSize";
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String COMETD_URL_MAPPING_OPTION = "cometdURLMapping";
@@ -34,6 +37,10 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
 
     private String _protocol;
     private int _messagesPerFrame;
+    private boolean _binaryFrames;
+    private boolean _nativeBinary;
+    private FrameCache<String> _textFrameCache;
+    private FrameCache<byte[]> _binaryFrameCache;
     private boolean _requireHandshakePerConnection;
 
     protected AbstractWebSocketTransport(BayeuxServerImpl bayeux) {
@@ -47,6 +54,27 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
         _protocol = getOption(PROTOCOL_OPTION, null);
         _messagesPerFrame = getOption(MESSAGES_PER_FRAME_OPTION, 1);
         _requireHandshakePerConnection = getOption(REQUIRE_HANDSHAKE_PER_CONNECTION_OPTION, false);
+        _binaryFrames = getOption(BINARY_FRAMES_OPTION, false);
+        _nativeBinary = getOption(NATIVE_BINARY_OPTION, false);
+        int frameCacheSize = getOption(FRAME_CACHE_SIZE_OPTION, 128);
+        if (frameCacheSize > 0) {
+            if (_binaryFrames) {
+                _binaryFrameCache = new FrameCache<>(frameCacheSize);
+            } else {
+                _textFrameCache = new FrameCache<>(frameCacheSize);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (_textFrameCache != null) {
+            _textFrameCache.clear();
+        }
+        if (_binaryFrameCache != null) {
+            _binaryFrameCache.clear();
+        }
+        super.destroy();
     }
 
     public String getProtocol() {
@@ -57,6 +85,31 @@ public abstract class AbstractWebSocketTransport extends AbstractServerTransport
         return _messagesPerFrame;
     }
 
+    /**
+     * @return whether messages are sent in binary frames that carry the UTF-8 JSON bytes,
+     * rather than in text frames
+     */
+    public boolean isBinaryFrames() {
+        return _binaryFrames;
+    }
+
+    /**
+     * @return whether binary data chunks are sent natively in binary frames
+     * to the clients that negotiate it, rather than encoded in text
+     * @see org.cometd.common.BinaryFrames
+     */
+    public boolean isNativeBinary() {
+        return _nativeBinary;
+    }
+
+    FrameCache<String> getTextFrameCache() {
+        return _textFrameCache;
+    }
+
+    FrameCache<byte[]> getBinaryFrameCache() {
+        return _binaryFrameCache;
+    }
+
     public boolean isRequireHandshakePerConnection() {
         return _requireHandshakePerConnection;
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket.common;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.ServerMessageImpl;
+
+/**
+ * <p>A cache of encoded WebSocket frames, shared by all the endpoints of a transport.</p>
+ * <p>When many sessions subscribe to the same channels, their queues often contain
+ * the same sequence of frozen message instances, which would be encoded into identical
+ * frames for every session.</p>
+ * <p>Frames are cached by the identity of the sequence of frozen messages they contain,
+ * in a fixed number of slots, so that frames of newer publishes replace older ones.</p>
+ *
+ * @param <T> the type of the encoded frame
+ */
+class FrameCache<T> {
+    private final AtomicReferenceArray<Entry<T>> _entries;
+    private final int _mask;
+
+    FrameCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        _entries = new AtomicReferenceArray<>(capacity);
+        _mask = capacity - 1;
+    }
+
+    /**
+     * <p>Returns the frame containing the given messages, encoding it only if it is not cached.</p>
+     * <p>Only sequences of frozen messages are cached, since the encoding of non-frozen
+     * messages may change.</p>
+     *
+     * @param messages the list of messages
+     * @param beginIndex the index of the first message of the frame, inclusive
+     * @param endIndex the index of the last message of the frame, exclusive
+     * @param encoder the encoder of the frame
+     * @return the encoded frame
+     */
+    T get(List<? extends ServerMessage> messages, int beginIndex, int endIndex, Supplier<T> encoder) {
+        int hash = 1;
+        for (int i = beginIndex; i < endIndex; ++i) {
+            ServerMessage message = messages.get(i);
+            if (!(message instanceof ServerMessageImpl) || ((ServerMessageImpl)message).getJSON() == null) {
+                return encoder.get();
+            }
+            hash = 31 * hash + System.identityHashCode(message);
+        }
+
+        // Spread the hash bits, as the slots are selected by the low bits.
+        int index = (hash ^ (hash >>> 16)) & _mask;
+        Entry<T> entry = _entries.get(index);
+        if (entry != null && entry.matches(messages, beginIndex, endIndex)) {
+            return entry._frame;
+        }
+
+        T frame = encoder.get();
+        ServerMessage[] key = messages.subList(beginIndex, endIndex).toArray(new ServerMessage[0]);
+        _entries.set(index, new Entry<>(key, frame));
+        return frame;
+    }
+
+    void clear() {
+        for (int i = 0; i < _entries.length(); ++i) {
+            _entries.set(i, null);
+        }
+    }
+
+    private static class Entry<T> {
+        private final ServerMessage[] _messages;
+        private final T _frame;
+
+        private Entry(ServerMessage[] messages, T frame) {
+            _messages = messages;
+            _frame = frame;
+        }
+
+        private boolean matches(List<? extends ServerMessage> messages, int beginIndex, int endIndex) {
+            if (_messages.length != endIndex - beginIndex) {
+                return false;
+            }
+            for (int i = 0; i < _messages.length; ++i) {
+                if (_messages[i] != messages.get(beginIndex + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FrameCacheTest {
+    private BayeuxServerImpl bayeux;
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Test
+    public void testSameFrozenMessagesShareFrame() {
+        FrameCache<String> cache = new FrameCache<>(16);
+        AtomicInteger encodes = new AtomicInteger();
+        ServerMessage.Mutable m1 = newFrozenMessage("1");
+        ServerMessage.Mutable m2 = newFrozenMessage("2");
+
+        List<ServerMessage> queue1 = Arrays.asList(m1, m2);
+        List<ServerMessage> queue2 = Arrays.asList(m1, m2);
+        String frame1 = cache.get(queue1, 0, 2, () -> "frame" + encodes.incrementAndGet());
+        String frame2 = cache.get(queue2, 0, 2, () -> "frame" + encodes.incrementAndGet());
+        Assertions.assertSame(frame1, frame2);
+        Assertions.assertEquals(1, encodes.get());
+
+        // A different sequence of messages is a different frame.
+        String frame3 = cache.get(Arrays.asList(m2, m1), 0, 2, () -> "frame" + encodes.incrementAndGet());
+        Assertions.assertNotEquals(frame1, frame3);
+        String frame4 = cache.get(queue1, 0, 1, () -> "frame" + encodes.incrementAndGet());
+        Assertions.assertNotEquals(frame1, frame4);
+    }
+
+    @Test
+    public void testNonFrozenMessagesAreNotCached() {
+        FrameCache<String> cache = new FrameCache<>(16);
+        AtomicInteger encodes = new AtomicInteger();
+        List<ServerMessage> queue = Arrays.asList(newFrozenMessage("1"), bayeux.newMessage());
+
+        cache.get(queue, 0, 2, () -> "frame" + encodes.incrementAndGet());
+        cache.get(queue, 0, 2, () -> "frame" + encodes.incrementAndGet());
+        Assertions.assertEquals(2, encodes.get());
+    }
+
+    private ServerMessage.Mutable newFrozenMessage(String id) {
+        ServerMessage.Mutable message = bayeux.newMessage();
+        message.setId(id);
+        message.setChannel("/foo");
+        message.setData("data");
+        bayeux.freeze(message);
+        return message;
+    }
+}
@@ -15,8 +15,10 @@
  */
 package org.cometd.server.websocket.javax;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
@@ -45,6 +47,15 @@ public class WebSocketEndPoint extends Endpoint implements MessageHandler.Whole<
     public void onOpen(Session wsSession, EndpointConfig config) {
         _wsSession = wsSession;
         wsSession.addMessageHandler(this);
+        wsSession.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+            @Override
+            public void onMessage(ByteBuffer data) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("WebSocket Binary message on {}", WebSocketEndPoint.this);
+                }
+                process(promise -> _delegate.onMessage(data, promise));
+            }
+        });
     }
 
     @Override
@@ -52,10 +63,14 @@ public class WebSocketEndPoint extends Endpoint implements MessageHandler.Whole<
         if (_logger.isDebugEnabled()) {
             _logger.debug("WebSocket Text message on {}", this);
         }
+        process(promise -> _delegate.onMessage(data, promise));
+    }
+
+    private void process(Consumer<Promise<Void>> processor) {
         try {
             try {
                 Promise.Completable<Void> completable = new Promise.Completable<>();
-                _delegate.onMessage(data, completable);
+                processor.accept(completable);
                 // Wait, to apply backpressure to the client.
                 completable.get();
             } catch (ExecutionException x) {
@@ -108,6 +123,22 @@ public class WebSocketEndPoint extends Endpoint implements MessageHandler.Whole<
             });
         }
 
+        @Override
+        protected void send(ServerSession session, ByteBuffer data, Callback callback) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Sending {} bytes on {}", data.remaining(), this);
+            }
+            // Async write.
+            _wsSession.getAsyncRemote().sendBinary(data, result -> {
+                Throwable failure = result.getException();
+                if (failure == null) {
+                    callback.succeeded();
+                } else {
+                    callback.failed(failure);
+                }
+            });
+        }
+
         @Override
         public void close(int code, String reason) {
             try {
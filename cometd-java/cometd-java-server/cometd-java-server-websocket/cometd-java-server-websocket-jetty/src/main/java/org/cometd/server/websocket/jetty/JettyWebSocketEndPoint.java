@@ -15,7 +15,9 @@
  */
 package org.cometd.server.websocket.jetty;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerSession;
@@ -42,14 +44,19 @@ public class JettyWebSocketEndPoint extends AbstractWebSocketEndPoint implements
 
     @Override
     public void onWebSocketBinary(byte[] payload, int offset, int len) {
+        process(promise -> onMessage(ByteBuffer.wrap(payload, offset, len), promise));
     }
 
     @Override
     public void onWebSocketText(String data) {
+        process(promise -> onMessage(data, promise));
+    }
+
+    private void process(Consumer<Promise<Void>> processor) {
         try {
             try {
                 Promise.Completable<Void> completable = new Promise.Completable<>();
-                onMessage(data, completable);
+                processor.accept(completable);
                 // Wait, to apply backpressure to the client.
                 completable.get();
             } catch (ExecutionException x) {
@@ -93,6 +100,26 @@ public class JettyWebSocketEndPoint extends AbstractWebSocketEndPoint implements
         });
     }
 
+    @Override
+    protected void send(ServerSession session, ByteBuffer data, Callback callback) {
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Sending {} bytes on {}", data.remaining(), this);
+        }
+
+        // Async version.
+        _wsSession.getRemote().sendBytes(data, new WriteCallback() {
+            @Override
+            public void writeSuccess() {
+                callback.succeeded();
+            }
+
+            @Override
+            public void writeFailed(Throwable x) {
+                callback.failed(x);
+            }
+        });
+    }
+
     @Override
     public void close(int code, String reason) {
         if (_logger.isDebugEnabled()) {
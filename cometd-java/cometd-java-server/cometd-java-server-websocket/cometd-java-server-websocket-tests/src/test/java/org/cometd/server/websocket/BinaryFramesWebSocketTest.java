@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class BinaryFramesWebSocketTest extends ClientServerWebSocketTest {
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testBinaryFrames(String wsType) throws Exception {
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put(AbstractWebSocketTransport.PREFIX + "." + AbstractWebSocketTransport.BINARY_FRAMES_OPTION, "true");
+        initParams.put(AbstractWebSocketTransport.PREFIX + "." + AbstractWebSocketTransport.MESSAGES_PER_FRAME_OPTION, "2");
+        prepareAndStart(wsType, initParams);
+
+        BayeuxClient client = newBayeuxClient(wsType);
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        String channelName = "/binary";
+        int count = 5;
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        CountDownLatch messageLatch = new CountDownLatch(count);
+        List<Object> data = new CopyOnWriteArrayList<>();
+        ClientSessionChannel channel = client.getChannel(channelName);
+        channel.subscribe((c, m) -> {
+            data.add(m.getData());
+            messageLatch.countDown();
+        }, m -> subscribeLatch.countDown());
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Non-ASCII data verifies that the UTF-8 bytes are sent unmodified.
+        ServerChannel serverChannel = bayeux.getChannel(channelName);
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            String value = "\u20AC" + i;
+            expected.add(value);
+            serverChannel.publish(null, value, Promise.noop());
+        }
+
+        Assertions.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(expected, data);
+
+        disconnectBayeuxClient(client);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.cometd.bayeux.BinaryData;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.websocket.jetty.JettyWebSocketTransport;
+import org.cometd.server.ext.BinaryExtension;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class NativeBinaryWebSocketTest extends ClientServerWebSocketTest {
+    private static final String CHANNEL = "/binary";
+
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testNativeBinary(String wsType) throws Exception {
+        // The server-side message data, before the BinaryExtension processes it.
+        AtomicReference<Object> received = startServer(wsType);
+
+        Map<String, Object> options = new HashMap<>();
+        options.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.NATIVE_BINARY_OPTION, true);
+        ClientTransport transport = newWebSocketTransport(wsType, options);
+        BayeuxClient client = new BayeuxClient(cometdURL, transport);
+        client.addExtension(new org.cometd.client.ext.BinaryExtension());
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Assertions.assertTrue(transport.isNativeBinary());
+        ServerSession session = bayeux.getSession(client.getId());
+        Assertions.assertEquals(Boolean.TRUE, session.getAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE));
+
+        publishAndReceive(client);
+
+        // The binary data arrived in a native binary frame, not encoded in text.
+        Assertions.assertTrue(received.get() instanceof BinaryData);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testNativeBinaryNotNegotiated(String wsType) throws Exception {
+        AtomicReference<Object> received = startServer(wsType);
+
+        ClientTransport transport = newWebSocketTransport(wsType, null);
+        BayeuxClient client = new BayeuxClient(cometdURL, transport);
+        client.addExtension(new org.cometd.client.ext.BinaryExtension());
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Assertions.assertFalse(transport.isNativeBinary());
+        ServerSession session = bayeux.getSession(client.getId());
+        Assertions.assertNull(session.getAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE));
+
+        publishAndReceive(client);
+
+        // The binary data fell back to be encoded in text.
+        Assertions.assertFalse(received.get() instanceof BinaryData);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @ParameterizedTest
+    @MethodSource("wsTypes")
+    public void testNativeBinaryDecodedToBytes(String wsType) throws Exception {
+        AtomicReference<Object> received = startServer(wsType, false);
+
+        Map<String, Object> options = new HashMap<>();
+        options.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.NATIVE_BINARY_OPTION, true);
+        ClientTransport transport = newWebSocketTransport(wsType, options);
+        BayeuxClient client = new BayeuxClient(cometdURL, transport);
+        client.addExtension(new org.cometd.client.ext.BinaryExtension());
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assertions.assertTrue(transport.isNativeBinary());
+
+        publishAndReceive(client);
+
+        // The binary data is decoded to the type configured in the BinaryExtension.
+        BinaryData binaryData = (BinaryData)received.get();
+        Assertions.assertTrue(binaryData.get(BinaryData.DATA) instanceof byte[]);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testNativeBinaryNotSupportedByDelegate() throws Exception {
+        AtomicReference<Object> received = startServer(WEBSOCKET_JETTY);
+
+        Map<String, Object> options = new HashMap<>();
+        options.put(org.cometd.client.websocket.common.AbstractWebSocketTransport.NATIVE_BINARY_OPTION, true);
+        ClientTransport transport = new JettyWebSocketTransport(cometdURL, options, null, wsClient) {
+            @Override
+            protected Delegate newDelegate() {
+                return new JettyWebSocketDelegate() {
+                    @Override
+                    protected boolean isNativeBinarySupported() {
+                        return false;
+                    }
+                };
+            }
+        };
+        BayeuxClient client = new BayeuxClient(cometdURL, transport);
+        client.addExtension(new org.cometd.client.ext.BinaryExtension());
+        client.handshake();
+        Assertions.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // The delegate does not negotiate native binary frames.
+        Assertions.assertFalse(transport.isNativeBinary());
+        ServerSession session = bayeux.getSession(client.getId());
+        Assertions.assertNull(session.getAttribute(BinaryExtension.NATIVE_BINARY_ATTRIBUTE));
+
+        publishAndReceive(client);
+
+        // The binary data fell back to be encoded in text.
+        Assertions.assertFalse(received.get() instanceof BinaryData);
+
+        disconnectBayeuxClient(client);
+    }
+
+    private AtomicReference<Object> startServer(String wsType) throws Exception {
+        return startServer(wsType, true);
+    }
+
+    private AtomicReference<Object> startServer(String wsType, boolean decodeToByteBuffer) throws Exception {
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put(AbstractWebSocketTransport.PREFIX + "." + AbstractWebSocketTransport.NATIVE_BINARY_OPTION, "true");
+        initParams.put(AbstractWebSocketTransport.PREFIX + "." + AbstractWebSocketTransport.MESSAGES_PER_FRAME_OPTION, "2");
+        prepareAndStart(wsType, initParams);
+
+        AtomicReference<Object> received = new AtomicReference<>();
+        bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (CHANNEL.equals(message.getChannel())) {
+                    received.set(message.getData());
+                }
+                return true;
+            }
+        });
+        bayeux.addExtension(new BinaryExtension(decodeToByteBuffer));
+        return received;
+    }
+
+    private void publishAndReceive(BayeuxClient client) throws Exception {
+        CountDownLatch subscribeLatch = new CountDownLatch(1);
+        BlockingQueue<Object> data = new LinkedBlockingQueue<>();
+        ClientSessionChannel channel = client.getChannel(CHANNEL);
+        channel.subscribe((c, m) -> data.offer(m.getData()), m -> subscribeLatch.countDown());
+        Assertions.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Bytes that are not valid UTF-8.
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte)i;
+        }
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("name", "\u20AC");
+        channel.publish(new BinaryData(bytes, true, meta));
+
+        BinaryData clientData = (BinaryData)data.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(clientData);
+        Assertions.assertArrayEquals(bytes, clientData.asBytes());
+        Assertions.assertTrue(clientData.isLast());
+        Assertions.assertEquals(meta, clientData.getMetaData());
+
+        // A text message and a binary message, possibly in the same frame.
+        ServerChannel serverChannel = bayeux.getChannel(CHANNEL);
+        serverChannel.publish(null, "text", Promise.noop());
+        byte[] serverBytes = "server".getBytes(StandardCharsets.UTF_8);
+        serverChannel.publish(null, new BinaryData(ByteBuffer.wrap(serverBytes), false, null), Promise.noop());
+
+        Assertions.assertEquals("text", data.poll(5, TimeUnit.SECONDS));
+        BinaryData serverData = (BinaryData)data.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(serverData);
+        Assertions.assertArrayEquals(serverBytes, serverData.asBytes());
+        Assertions.assertFalse(serverData.isLast());
+    }
+}
@@ -16,6 +16,7 @@
 package org.cometd.server.websocket;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,6 +36,9 @@ import org.cometd.common.JettyJSONContextClient;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.CometDServlet;
+import org.cometd.server.JacksonJSONContextServer;
+import org.cometd.server.JettyJSONContextServer;
+import org.cometd.server.websocket.common.AbstractWebSocketTransport;
 import org.cometd.server.websocket.javax.WebSocketTransport;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.server.Server;
@@ -49,6 +53,8 @@ import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainer
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 public class WebSocketTransportTest {
     private Server server;
@@ -292,6 +298,90 @@ public class WebSocketTransportTest {
         disconnect(session2);
     }
 
+    @Test
+    public void testRequireHandshakePerConnection() throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put("ws." + AbstractWebSocketTransport.REQUIRE_HANDSHAKE_PER_CONNECTION_OPTION, "true");
+        startServer(params);
+        startClient();
+
+        URI uri = URI.create("ws://localhost:" + connector.getLocalPort() + "/cometd");
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        Session session1 = client.connect(new WebSocketEndPoint(messages), uri).get(5, TimeUnit.SECONDS);
+
+        String handshake = "[{" +
+                "\"id\":\"1\"," +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"websocket\"]" +
+                "}]";
+        session1.getRemote().sendString(handshake);
+
+        Message handshakeReply = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(handshakeReply);
+        Assertions.assertEquals(Channel.META_HANDSHAKE, handshakeReply.getChannel());
+        Assertions.assertTrue(handshakeReply.isSuccessful());
+
+        String clientId = handshakeReply.getClientId();
+        String connect = "[{" +
+                "\"id\":\"2\"," +
+                "\"channel\":\"/meta/connect\"," +
+                "\"connectionType\":\"websocket\"," +
+                "\"clientId\":\"" + clientId + "\"," +
+                "\"advice\": {\"timeout\":0}" +
+                "}]";
+        session1.getRemote().sendString(connect);
+
+        Message connect1Reply = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(connect1Reply);
+        Assertions.assertEquals(Channel.META_CONNECT, connect1Reply.getChannel());
+        Assertions.assertTrue(connect1Reply.isSuccessful());
+
+        // A different connection must handshake again.
+        disconnect(session1);
+        Session session2 = client.connect(new WebSocketEndPoint(messages), uri).get(5, TimeUnit.SECONDS);
+        session2.getRemote().sendString(connect);
+
+        Message connect2Reply = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(connect2Reply);
+        Assertions.assertEquals(Channel.META_CONNECT, connect2Reply.getChannel());
+        Assertions.assertFalse(connect2Reply.isSuccessful());
+
+        disconnect(session2);
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {JettyJSONContextServer.class, JacksonJSONContextServer.class})
+    public void testMessagesInBinaryFrame(Class<?> jsonContextClass) throws Exception {
+        Map<String, String> params = new HashMap<>();
+        params.put(AbstractServerTransport.JSON_CONTEXT_OPTION, jsonContextClass.getName());
+        startServer(params);
+        startClient();
+
+        BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        URI uri = URI.create("ws://localhost:" + connector.getLocalPort() + "/cometd");
+        Session wsSession = client.connect(new WebSocketEndPoint(messages), uri).get(5, TimeUnit.SECONDS);
+
+        // The UTF-8 bytes of a binary frame are parsed directly.
+        String handshake = "[{" +
+                "\"id\":\"1\"," +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"minimumVersion\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"websocket\"]," +
+                "\"ext\": {\"text\": \"\u20AC\"}" +
+                "}]";
+        wsSession.getRemote().sendBytes(StandardCharsets.UTF_8.encode(handshake));
+
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(message);
+        Assertions.assertEquals(Channel.META_HANDSHAKE, message.getChannel());
+        Assertions.assertTrue(message.isSuccessful());
+
+        disconnect(wsSession);
+    }
+
     private void disconnect(Session session) {
         try {
             session.disconnect();